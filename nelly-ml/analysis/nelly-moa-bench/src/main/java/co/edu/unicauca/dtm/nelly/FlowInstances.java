@@ -0,0 +1,165 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+/**
+ * Fixed, pre-decoded flow-feature instances for benchmarking learners without
+ * parsing nor I/O. Features mimic the headers of the first packets of a flow
+ * (protocol, ports, sizes and inter-arrival times), and the class depends on
+ * them (plus noise) so that learners build non-trivial models. Instances are
+ * generated with a fixed seed, so every run uses the same data
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class FlowInstances {
+
+	/**
+	 * Default number of instances
+	 */
+	public static final int DEFAULT_NUM_INSTANCES = 4096;
+
+	/**
+	 * Number of packets described by the features
+	 */
+	private static final int NUM_PACKETS = 5;
+
+	/**
+	 * Seed of the generator
+	 */
+	private static final long SEED = 1L;
+
+	/**
+	 * 
+	 */
+	private final InstancesHeader header;
+
+	/**
+	 * 
+	 */
+	private final Instance[] instances;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param numInstances
+	 *            number of instances
+	 * @param nominalClass
+	 *            whether the class is binary nominal (elephant flow or not) or
+	 *            numeric (flow size)
+	 */
+	public FlowInstances(int numInstances, boolean nominalClass) {
+		super();
+		// Build header
+		List<Attribute> attributes = new ArrayList<Attribute>();
+		attributes.add(new Attribute("protocol"));
+		attributes.add(new Attribute("src_port"));
+		attributes.add(new Attribute("dst_port"));
+		for (int i = 1; i <= NUM_PACKETS; i++) {
+			attributes.add(new Attribute("pkt_size_" + i));
+		}
+		for (int i = 1; i < NUM_PACKETS; i++) {
+			attributes.add(new Attribute("pkt_iat_" + i));
+		}
+		if (nominalClass) {
+			List<String> values = new ArrayList<String>();
+			values.add("mouse");
+			values.add("elephant");
+			attributes.add(new Attribute("class", values));
+		} else {
+			attributes.add(new Attribute("flow_size"));
+		}
+		Instances dataset = new Instances("flows", attributes, 0);
+		dataset.setClassIndex(attributes.size() - 1);
+		this.header = new InstancesHeader(dataset);
+		// Generate instances
+		Random random = new Random(SEED);
+		this.instances = new Instance[numInstances];
+		for (int i = 0; i < numInstances; i++) {
+			double[] values = new double[attributes.size()];
+			int v = 0;
+			boolean tcp = random.nextDouble() < 0.8;
+			values[v++] = tcp ? 6 : 17;
+			values[v++] = 1024 + random.nextInt(64512);
+			values[v++] = FlowInstances.pickPort(random);
+			// Elephant flows send mostly full-sized packets
+			boolean elephant = random.nextDouble() < 0.2;
+			double sizes = 0;
+			for (int p = 0; p < NUM_PACKETS; p++) {
+				double size = elephant && random.nextDouble() < 0.8 ? 1500 : 40 + random.nextInt(600);
+				values[v++] = size;
+				sizes += size;
+			}
+			for (int p = 1; p < NUM_PACKETS; p++) {
+				values[v++] = (elephant ? 10 : 1000) * random.nextDouble();
+			}
+			// Flip some classes as noise
+			if (random.nextDouble() < 0.05) {
+				elephant = !elephant;
+			}
+			if (nominalClass) {
+				values[v] = elephant ? 1 : 0;
+			} else {
+				values[v] = elephant ? sizes * (1000 + random.nextInt(100000)) : sizes * (1 + random.nextInt(10));
+			}
+			Instance instance = new DenseInstance(1.0, values);
+			instance.setDataset(this.header);
+			this.instances[i] = instance;
+		}
+	}
+
+	/**
+	 * @param random
+	 * @return a well-known destination port most of the times, otherwise an
+	 *         ephemeral port
+	 */
+	private static int pickPort(Random random) {
+		int[] ports = { 80, 443, 22, 3306, 8080 };
+		if (random.nextDouble() < 0.7) {
+			return ports[random.nextInt(ports.length)];
+		}
+		return 1024 + random.nextInt(64512);
+	}
+
+	/**
+	 * @return header of the instances
+	 */
+	public InstancesHeader getHeader() {
+		return this.header;
+	}
+
+	/**
+	 * @return the instances
+	 */
+	public Instance[] getInstances() {
+		return this.instances;
+	}
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import moa.classifiers.Classifier;
+
+/**
+ * Benchmarks the training and prediction of a learner over fixed flow-feature
+ * instances. Warm benchmarks (throughput) run on a learner already trained on
+ * all the instances, whereas the cold benchmark (single shot) measures a new
+ * learner trained from scratch
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public abstract class LearnerBenchmark {
+
+	/**
+	 * 
+	 */
+	private InstancesHeader header;
+
+	/**
+	 * 
+	 */
+	private Instance[] instances;
+
+	/**
+	 * Position of the next instance to use
+	 */
+	private int next;
+
+	/**
+	 * Learner already trained on all the instances
+	 */
+	private Classifier learner;
+
+	/**
+	 * @return name of the benchmarked learner
+	 */
+	protected abstract String getLearnerName();
+
+	/**
+	 * @param learnerName
+	 * @return a new learner
+	 */
+	protected abstract Classifier getLearner(String learnerName);
+
+	/**
+	 * @return whether the learner predicts a nominal class
+	 */
+	protected abstract boolean isNominalClass();
+
+	/**
+	 * Generates the instances and warms up the model of the learner
+	 */
+	@Setup(Level.Trial)
+	public void setup() {
+		FlowInstances flows = new FlowInstances(FlowInstances.DEFAULT_NUM_INSTANCES, this.isNominalClass());
+		this.header = flows.getHeader();
+		this.instances = flows.getInstances();
+		this.learner = this.trainFromScratch();
+		this.next = 0;
+	}
+
+	/**
+	 * @return a new learner prepared for the header of the instances
+	 */
+	private Classifier prepareLearner() {
+		Classifier learner = this.getLearner(this.getLearnerName());
+		learner.setModelContext(this.header);
+		learner.prepareForUse();
+		// Set header again to avoid null pointer exception of some algorithms (e.g.,
+		// SAM-kNN)
+		learner.setModelContext(this.header);
+		return learner;
+	}
+
+	/**
+	 * @return next instance, cycling through the instances
+	 */
+	private Instance nextInstance() {
+		Instance instance = this.instances[this.next];
+		this.next = this.next + 1 == this.instances.length ? 0 : this.next + 1;
+		return instance;
+	}
+
+	/**
+	 * Trains the warm learner on an instance
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public void trainOnInstance() {
+		this.learner.trainOnInstance(this.nextInstance());
+	}
+
+	/**
+	 * @return votes of the warm learner for an instance
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public double[] getVotesForInstance() {
+		return this.learner.getVotesForInstance(this.nextInstance());
+	}
+
+	/**
+	 * @return a new learner trained on all the instances
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Fork(5)
+	@Warmup(iterations = 0)
+	@Measurement(iterations = 1)
+	public Classifier trainFromScratch() {
+		Classifier learner = this.prepareLearner();
+		for (Instance instance : this.instances) {
+			learner.trainOnInstance(instance);
+		}
+		return learner;
+	}
+
+}
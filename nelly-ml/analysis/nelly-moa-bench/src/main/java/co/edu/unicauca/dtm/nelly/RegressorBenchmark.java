@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import org.openjdk.jmh.annotations.Param;
+
+import moa.classifiers.Classifier;
+
+/**
+ * Benchmarks the learners of {@link MOARegressor}
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class RegressorBenchmark extends LearnerBenchmark {
+
+	/**
+	 * Learner names, as given to {@link MOARegressor}
+	 */
+	@Param({ "adagrad", "sgd", "randomrules", "amrules", "adaptivenode", "fadingtarget", "lowpassfiler",
+			"perceptron", "targetmean", "randomamrules", "fimtdd", "orto" })
+	public String learner;
+
+	@Override
+	protected String getLearnerName() {
+		return this.learner;
+	}
+
+	@Override
+	protected Classifier getLearner(String learnerName) {
+		return MOARegressor.getLearner(learnerName);
+	}
+
+	@Override
+	protected boolean isNominalClass() {
+		return false;
+	}
+
+}
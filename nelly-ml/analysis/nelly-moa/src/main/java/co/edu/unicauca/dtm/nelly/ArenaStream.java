@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+/**
+ * Replay of the rows of a {@link DatasetArena}. Each replay has its own
+ * position, so replays of the same arena can be read in parallel. Besides
+ * copying rows, consumers can read them in place (see {@link RowBuffer})
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class ArenaStream extends RowStream implements RowBuffer {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * 
+	 */
+	private final transient DatasetArena arena;
+
+	/**
+	 * Next row to read
+	 */
+	private int currentRow;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param arena
+	 */
+	public ArenaStream(DatasetArena arena) {
+		super(-1);
+		this.arena = arena;
+		this.restart();
+	}
+
+	/**
+	 * @return arena of the replay
+	 */
+	public DatasetArena getArena() {
+		return this.arena;
+	}
+
+	@Override
+	public InstancesHeader getHeader() {
+		return this.arena.getHeader();
+	}
+
+	@Override
+	public int numAttributes() {
+		return this.arena.numAttributes();
+	}
+
+	@Override
+	public long estimatedRemainingInstances() {
+		return this.arena.numRows() - this.currentRow;
+	}
+
+	@Override
+	protected void restartImpl() {
+		this.currentRow = 0;
+	}
+
+	@Override
+	public boolean hasMoreInstances() {
+		return this.currentRow < this.arena.numRows();
+	}
+
+	@Override
+	public long skip(long rows) {
+		long skipped = Math.max(0, Math.min(rows, this.arena.numRows() - this.currentRow));
+		this.currentRow += (int) skipped;
+		return skipped;
+	}
+
+	@Override
+	public void nextRow(double[] values) {
+		System.arraycopy(this.arena.getValues(), this.nextOffset(), values, 0, this.arena.numAttributes());
+	}
+
+	@Override
+	public double[] getValues() {
+		return this.arena.getValues();
+	}
+
+	@Override
+	public int nextOffset() {
+		if (!this.hasMoreInstances()) {
+			throw new IllegalStateException("No more rows in arena");
+		}
+		int offset = this.currentRow * this.arena.numAttributes();
+		this.currentRow++;
+		return offset;
+	}
+
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+/**
+ * Parses the data section of dense ARFF files from bytes into primitive rows,
+ * without creating intermediate strings. Nominal values are resolved to their
+ * index in the header and missing values ('?') to NaN
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class ArffRowParser {
+
+	/**
+	 * ARFF files are read byte by byte, so header text maps one to one to bytes
+	 */
+	public static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+	/**
+	 * Powers of ten that are exactly representable as double
+	 */
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	/**
+	 * Block of consecutive rows stored in a single array
+	 */
+	public static class Chunk {
+
+		/**
+		 * Row values, one row after another
+		 */
+		public double[] values;
+
+		/**
+		 * Number of rows in the chunk
+		 */
+		public int rows;
+
+		/**
+		 * Number of values of each row
+		 */
+		public final int width;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param width
+		 *            number of values of each row
+		 * @param capacity
+		 *            initial number of rows
+		 */
+		public Chunk(int width, int capacity) {
+			this.width = width;
+			this.values = new double[width * Math.max(1, capacity)];
+			this.rows = 0;
+		}
+
+		/**
+		 * @return offset of a new row at the end of the chunk, growing the chunk if
+		 *         needed
+		 */
+		private int addRow() {
+			int offset = this.rows * this.width;
+			if (offset + this.width > this.values.length) {
+				double[] grown = new double[2 * this.values.length];
+				System.arraycopy(this.values, 0, grown, 0, offset);
+				this.values = grown;
+			}
+			this.rows++;
+			return offset;
+		}
+	}
+
+	/**
+	 * Number of attributes of each row
+	 */
+	private final int numAttributes;
+
+	/**
+	 * Bytes of the nominal values of each attribute (null for numeric attributes)
+	 */
+	private final byte[][][] nominalValues;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param header
+	 *            header of the instances
+	 */
+	public ArffRowParser(InstancesHeader header) {
+		super();
+		this.numAttributes = header.numAttributes();
+		this.nominalValues = new byte[this.numAttributes][][];
+		for (int i = 0; i < this.numAttributes; i++) {
+			Attribute attribute = header.attribute(i);
+			if (attribute.isNominal()) {
+				byte[][] values = new byte[attribute.numValues()][];
+				for (int j = 0; j < values.length; j++) {
+					values[j] = attribute.value(j).getBytes(CHARSET);
+				}
+				this.nominalValues[i] = values;
+			}
+		}
+	}
+
+	/**
+	 * Reads the header of an ARFF file, consuming the input up to the end of the
+	 * data declaration line
+	 * 
+	 * @param input
+	 *            ARFF input, positioned at the beginning of the file
+	 * @return header text (one char per byte read)
+	 * @throws IOException
+	 *             if the input ends before the data declaration
+	 */
+	public static String readHeader(InputStream input) throws IOException {
+		StringBuilder header = new StringBuilder();
+		int lineStart = 0;
+		int b;
+		while ((b = input.read()) != -1) {
+			header.append((char) b);
+			if (b == '\n') {
+				// Check if line declares the data section
+				String line = header.substring(lineStart).trim();
+				if (line.regionMatches(true, 0, "@data", 0, 5)) {
+					return header.toString();
+				}
+				lineStart = header.length();
+			}
+		}
+		throw new IOException("ARFF data declaration (@data) not found");
+	}
+
+	/**
+	 * @return number of attributes of each row
+	 */
+	public int numAttributes() {
+		return this.numAttributes;
+	}
+
+	/**
+	 * Parses the rows in the given range of bytes. The range must start at the
+	 * beginning of a line and end after a line terminator or at the end of the
+	 * data
+	 * 
+	 * @param buffer
+	 *            bytes of the data section
+	 * @param start
+	 *            first byte of the range (inclusive)
+	 * @param end
+	 *            last byte of the range (exclusive)
+	 * @param chunk
+	 *            chunk where rows are appended
+	 * @return the chunk
+	 * @throws IllegalArgumentException
+	 *             if a row is malformed
+	 */
+	public Chunk parse(ByteBuffer buffer, int start, int end, Chunk chunk) {
+		int pos = start;
+		while (pos < end) {
+			// Skip leading blanks
+			pos = skipBlanks(buffer, pos, end);
+			if (pos >= end) {
+				break;
+			}
+			byte b = buffer.get(pos);
+			// Skip empty and comment lines
+			if (b == '\n' || b == '\r' || b == '%') {
+				pos = skipLine(buffer, pos, end);
+				continue;
+			}
+			if (b == '{') {
+				throw new IllegalArgumentException("Sparse ARFF rows are not supported (byte " + pos + ")");
+			}
+			// Parse row
+			int offset = chunk.addRow();
+			for (int i = 0; i < this.numAttributes; i++) {
+				pos = skipBlanks(buffer, pos, end);
+				int tokenStart = pos;
+				int tokenEnd;
+				b = pos < end ? buffer.get(pos) : (byte) '\n';
+				if (b == '\'' || b == '"') {
+					// Quoted token
+					tokenStart++;
+					tokenEnd = tokenStart;
+					while (tokenEnd < end && buffer.get(tokenEnd) != b) {
+						tokenEnd++;
+					}
+					pos = tokenEnd + 1;
+				} else {
+					// Plain token
+					while (pos < end && (b = buffer.get(pos)) != ',' && b != '\n' && b != '\r') {
+						pos++;
+					}
+					tokenEnd = pos;
+					while (tokenEnd > tokenStart && isBlank(buffer.get(tokenEnd - 1))) {
+						tokenEnd--;
+					}
+				}
+				chunk.values[offset + i] = this.parseValue(buffer, tokenStart, tokenEnd, i);
+				// Check separator
+				pos = skipBlanks(buffer, pos, end);
+				if (i < this.numAttributes - 1) {
+					if (pos >= end || buffer.get(pos) != ',') {
+						throw new IllegalArgumentException(
+								"Row has fewer than " + this.numAttributes + " values (byte " + pos + ")");
+					}
+					pos++;
+				}
+			}
+			// Ignore the rest of the line (e.g., instance weight)
+			pos = skipLine(buffer, pos, end);
+		}
+		return chunk;
+	}
+
+	/**
+	 * @param buffer
+	 * @param start
+	 * @param end
+	 * @param attribute
+	 *            index of the attribute
+	 * @return value of the token
+	 */
+	private double parseValue(ByteBuffer buffer, int start, int end, int attribute) {
+		// Check missing value
+		if (end - start == 1 && buffer.get(start) == '?') {
+			return Double.NaN;
+		}
+		byte[][] values = this.nominalValues[attribute];
+		if (values == null) {
+			return parseNumber(buffer, start, end);
+		}
+		// Look up nominal value
+		for (int j = 0; j < values.length; j++) {
+			byte[] value = values[j];
+			if (value.length == end - start) {
+				int k = 0;
+				while (k < value.length && value[k] == buffer.get(start + k)) {
+					k++;
+				}
+				if (k == value.length) {
+					return j;
+				}
+			}
+		}
+		throw new IllegalArgumentException("Nominal value '" + text(buffer, start, end)
+				+ "' is not declared for attribute " + attribute + " (byte " + start + ")");
+	}
+
+	/**
+	 * Parses a decimal number. Numbers with up to 15 significant digits and
+	 * exponents up to 22 are computed exactly; others fall back to
+	 * {@link Double#parseDouble(String)}
+	 * 
+	 * @param buffer
+	 * @param start
+	 * @param end
+	 * @return parsed number
+	 */
+	public static double parseNumber(ByteBuffer buffer, int start, int end) {
+		int pos = start;
+		boolean negative = false;
+		if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+			negative = buffer.get(pos) == '-';
+			pos++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean any = false;
+		byte b;
+		// Integer part
+		while (pos < end && (b = buffer.get(pos)) >= '0' && b <= '9') {
+			if (digits < 18) {
+				mantissa = 10 * mantissa + (b - '0');
+				if (mantissa != 0) {
+					digits++;
+				}
+			} else {
+				exponent++;
+			}
+			any = true;
+			pos++;
+		}
+		// Fractional part
+		if (pos < end && buffer.get(pos) == '.') {
+			pos++;
+			while (pos < end && (b = buffer.get(pos)) >= '0' && b <= '9') {
+				if (digits < 18) {
+					mantissa = 10 * mantissa + (b - '0');
+					if (mantissa != 0) {
+						digits++;
+					}
+					exponent--;
+				}
+				any = true;
+				pos++;
+			}
+		}
+		// Exponent
+		if (any && pos < end && (buffer.get(pos) == 'e' || buffer.get(pos) == 'E')) {
+			pos++;
+			boolean negativeExponent = false;
+			if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+				negativeExponent = buffer.get(pos) == '-';
+				pos++;
+			}
+			int value = 0;
+			boolean anyExponent = false;
+			while (pos < end && (b = buffer.get(pos)) >= '0' && b <= '9') {
+				if (value < 100000) {
+					value = 10 * value + (b - '0');
+				}
+				anyExponent = true;
+				pos++;
+			}
+			if (!anyExponent) {
+				any = false;
+			}
+			exponent += negativeExponent ? -value : value;
+		}
+		// Fall back for unusual formats (e.g., NaN or Infinity) and imprecise cases
+		if (!any || pos != end || digits > 15 || exponent < -22 || exponent > 22) {
+			String token = text(buffer, start, end);
+			try {
+				return Double.parseDouble(token);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Value '" + token + "' is not numeric (byte " + start + ")");
+			}
+		}
+		double value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+		return negative ? -value : value;
+	}
+
+	/**
+	 * @param buffer
+	 * @param start
+	 * @param end
+	 * @return text of the given range of bytes
+	 */
+	private static String text(ByteBuffer buffer, int start, int end) {
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(start + i);
+		}
+		return new String(bytes, CHARSET);
+	}
+
+	/**
+	 * @param b
+	 * @return whether the byte is a space or a tab
+	 */
+	private static boolean isBlank(byte b) {
+		return b == ' ' || b == '\t';
+	}
+
+	/**
+	 * @param buffer
+	 * @param pos
+	 * @param end
+	 * @return position of the first non-blank byte
+	 */
+	private static int skipBlanks(ByteBuffer buffer, int pos, int end) {
+		while (pos < end && isBlank(buffer.get(pos))) {
+			pos++;
+		}
+		return pos;
+	}
+
+	/**
+	 * @param buffer
+	 * @param pos
+	 * @param end
+	 * @return position after the next line terminator
+	 */
+	private static int skipLine(ByteBuffer buffer, int pos, int end) {
+		while (pos < end && buffer.get(pos) != '\n') {
+			pos++;
+		}
+		return pos + 1;
+	}
+
+}
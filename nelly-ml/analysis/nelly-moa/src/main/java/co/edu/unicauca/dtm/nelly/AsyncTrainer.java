@@ -0,0 +1,390 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.util.StringTokenizer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+
+import moa.classifiers.Classifier;
+import moa.core.TimingUtils;
+
+/**
+ * Trains a learner on its own thread, decoupled from predictions: training
+ * instances go into a bounded queue consumed by the trainer thread, which owns
+ * the learner and periodically publishes a copy of it (copy-on-write).
+ * Predictions are served from the last published copy, so their latency does
+ * not depend on the cost of training (e.g., splits or ensemble updates)
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class AsyncTrainer implements Runnable {
+
+	/**
+	 * Default capacity of the queue of training instances
+	 */
+	public static final int DEFAULT_CAPACITY = 10000;
+
+	/**
+	 * Default number of trainings between publications
+	 */
+	public static final int DEFAULT_PUBLISH_INTERVAL = 1000;
+
+	/**
+	 * Minimum time between the last publication and a publication of pending
+	 * trainings on an idle queue (in nanoseconds)
+	 */
+	private static final long IDLE_PUBLISH_NANOS = 100000000L;
+
+	/**
+	 * Marks the end of the training instances
+	 */
+	private static final Instance END = new DenseInstance(0);
+
+	/**
+	 * Asks the trainer thread to publish the pending trainings
+	 */
+	private static final Instance FLUSH = new DenseInstance(0);
+
+	/**
+	 * Copy of the learner published for predictions, with the number of
+	 * trainings it includes
+	 */
+	private static final class Model {
+
+		/**
+		 * 
+		 */
+		private final Classifier learner;
+
+		/**
+		 * 
+		 */
+		private final long trainings;
+
+		/**
+		 * Wall time of the publication (in nanoseconds)
+		 */
+		private final long publishTime;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param learner
+		 * @param trainings
+		 */
+		private Model(Classifier learner, long trainings) {
+			this.learner = learner;
+			this.trainings = trainings;
+			this.publishTime = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Learner owned by the trainer thread
+	 */
+	private final Classifier learner;
+
+	/**
+	 * 
+	 */
+	private final BlockingQueue<Instance> queue;
+
+	/**
+	 * 
+	 */
+	private final int publishInterval;
+
+	/**
+	 * 
+	 */
+	private final Thread trainer;
+
+	/**
+	 * Last published model
+	 */
+	private volatile Model published;
+
+	/**
+	 * Models published on request of {@link #flush()}
+	 */
+	private final BlockingQueue<Model> flushed = new ArrayBlockingQueue<Model>(1);
+
+	/**
+	 * Number of trainings done by the trainer thread
+	 */
+	private long trainings;
+
+	/**
+	 * Number of publications
+	 */
+	private volatile long publications;
+
+	/**
+	 * CPU time of the trainer thread (in nanoseconds, set when it ends)
+	 */
+	private volatile long trainerTime;
+
+	/**
+	 * Number of enqueued training instances (producer thread only)
+	 */
+	private long enqueued;
+
+	/**
+	 * Number of times the producer blocked on a full queue
+	 */
+	private long fullWaits;
+
+	/**
+	 * Freshness and queue depth observed at predictions (producer thread only)
+	 */
+	private long observations, sumStaleness, maxStaleness, sumDepth, maxDepth, maxAge;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param learner
+	 *            prepared learner (owned by the trainer from now on)
+	 * @param capacity
+	 *            capacity of the queue of training instances
+	 * @param publishInterval
+	 *            number of trainings between publications (pending trainings
+	 *            are also published once the queue stays empty for a while)
+	 */
+	public AsyncTrainer(Classifier learner, int capacity, int publishInterval) {
+		super();
+		this.learner = learner;
+		this.queue = new ArrayBlockingQueue<Instance>(Math.max(1, capacity));
+		this.publishInterval = Math.max(1, publishInterval);
+		this.published = new Model(learner.copy(), 0);
+		this.trainer = new Thread(this, "nelly-trainer");
+		this.trainer.setDaemon(true);
+		this.trainer.start();
+	}
+
+	/**
+	 * Parses the async option
+	 * 
+	 * @param arg
+	 *            queue capacity and optionally publish interval, e.g.,
+	 *            '10000,1000'
+	 * @return capacity and publish interval, or null if the option is not valid
+	 */
+	public static int[] parseOption(String arg) {
+		StringTokenizer st = new StringTokenizer(arg, ",");
+		int[] async = { 0, DEFAULT_PUBLISH_INTERVAL };
+		try {
+			async[0] = Integer.parseInt(st.nextToken());
+			if (st.hasMoreTokens()) {
+				async[1] = Integer.parseInt(st.nextToken());
+			}
+		} catch (Exception e) {
+			System.out.println("Error parsing async '" + arg + "' to integer capacity and publish interval");
+			return null;
+		}
+		if (async[0] < 1 || async[1] < 1) {
+			System.out.println("Queue capacity and publish interval must be at least 1");
+			return null;
+		}
+		return async;
+	}
+
+	/**
+	 * Consumes training instances until the end mark
+	 */
+	@Override
+	public void run() {
+		long unpublished = 0;
+		try {
+			while (true) {
+				// Publish pending trainings on an idle queue, at most once per idle period
+				Instance instance = this.queue.poll();
+				if (instance == null && unpublished > 0) {
+					long wait = this.published.publishTime + IDLE_PUBLISH_NANOS - System.nanoTime();
+					if (wait > 0) {
+						instance = this.queue.poll(wait, TimeUnit.NANOSECONDS);
+					}
+					if (instance == null) {
+						this.publish();
+						unpublished = 0;
+					}
+				}
+				if (instance == null) {
+					instance = this.queue.take();
+				}
+				if (instance == END) {
+					break;
+				} else if (instance == FLUSH) {
+					if (unpublished > 0) {
+						this.publish();
+						unpublished = 0;
+					}
+					this.flushed.put(this.published);
+					continue;
+				}
+				this.learner.trainOnInstance(instance);
+				this.trainings++;
+				unpublished++;
+				// Check if publishing a copy
+				if (unpublished >= this.publishInterval) {
+					this.publish();
+					unpublished = 0;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Throwable e) {
+			// The producer would otherwise block forever on a full queue
+			e.printStackTrace();
+			System.err.println("Learner failed on the trainer thread");
+			System.exit(2);
+		}
+		if (unpublished > 0) {
+			this.publish();
+		}
+		this.trainerTime = TimingUtils.getNanoCPUTimeOfCurrentThread();
+	}
+
+	/**
+	 * Publishes a copy of the learner (on the trainer thread)
+	 */
+	private void publish() {
+		this.published = new Model(this.learner.copy(), this.trainings);
+		this.publications++;
+	}
+
+	/**
+	 * @return last published learner, to predict with (not to train)
+	 */
+	public Classifier getModel() {
+		return this.published.learner;
+	}
+
+	/**
+	 * Waits for the trainer thread to train the enqueued instances and to
+	 * publish them (producer thread)
+	 * 
+	 * @return published learner including all the enqueued trainings, to
+	 *         predict with or to capture (not to train)
+	 */
+	public Classifier flush() {
+		if (!this.trainer.isAlive()) {
+			return this.published.learner;
+		}
+		try {
+			this.queue.put(FLUSH);
+			return this.flushed.take().learner;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return this.published.learner;
+		}
+	}
+
+	/**
+	 * @return number of training instances waiting in the queue
+	 */
+	public int getQueueDepth() {
+		return this.queue.size();
+	}
+
+	/**
+	 * Enqueues a training instance, blocking while the queue is full
+	 * 
+	 * @param instance
+	 *            training instance (not modified afterwards by the caller)
+	 */
+	public void train(Instance instance) {
+		try {
+			if (!this.queue.offer(instance)) {
+				this.fullWaits++;
+				this.queue.put(instance);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		this.enqueued++;
+	}
+
+	/**
+	 * Records the freshness of the published model and the queue depth at a
+	 * prediction (on the producer thread)
+	 */
+	public void observe() {
+		Model model = this.published;
+		long staleness = this.enqueued - model.trainings;
+		long depth = this.queue.size();
+		long age = System.nanoTime() - model.publishTime;
+		this.observations++;
+		this.sumStaleness += staleness;
+		this.sumDepth += depth;
+		if (staleness > this.maxStaleness) {
+			this.maxStaleness = staleness;
+		}
+		if (depth > this.maxDepth) {
+			this.maxDepth = depth;
+		}
+		if (age > this.maxAge) {
+			this.maxAge = age;
+		}
+	}
+
+	/**
+	 * Waits for the pending trainings and stops the trainer thread. The final
+	 * model is then published
+	 */
+	public void close() {
+		try {
+			this.queue.put(END);
+			this.trainer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Appends the statistics of asynchronous training to a report
+	 * 
+	 * @param report
+	 */
+	public void report(StringBuilder report) {
+		long observations = Math.max(1, this.observations);
+		report.append("Asynchronous training\n");
+		report.append(" - Publications = ").append(this.publications).append(" (every ").append(this.publishInterval)
+				.append(" trainings or on idle queue)\n");
+		report.append(" - Trainer CPU time = ").append(TimingUtils.nanoTimeToSeconds(this.trainerTime))
+				.append(" seconds\n");
+		report.append(" - Staleness at prediction (trainings) = mean ")
+				.append(1.0 * this.sumStaleness / observations).append(", max ").append(this.maxStaleness)
+				.append("\n");
+		report.append(" - Model age at prediction = max ").append(this.maxAge / 1000000.0).append(" ms\n");
+		report.append(" - Queue depth at prediction = mean ").append(1.0 * this.sumDepth / observations)
+				.append(", max ").append(this.maxDepth).append(" (capacity ")
+				.append(this.queue.size() + this.queue.remainingCapacity()).append(")\n");
+		report.append(" - Waits on full queue = ").append(this.fullWaits).append("\n");
+		report.append("\n");
+	}
+
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.lang.reflect.Field;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import moa.classifiers.Classifier;
+import moa.classifiers.functions.Perceptron;
+import moa.classifiers.trees.HoeffdingTree;
+import moa.core.DoubleVector;
+import moa.core.Utils;
+
+/**
+ * Predicts blocks of instances into caller-provided primitive arrays. The
+ * linear perceptron and the Hoeffding tree have fast paths that read the model
+ * directly (same results as the learner, without allocating a vote array per
+ * instance); any other learner goes through getVotesForInstance. If the model
+ * fields cannot be accessed (e.g., another MOA version), the generic path is
+ * used
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class BatchPredictor {
+
+	/**
+	 * Weights of the perceptron per class
+	 */
+	private static final Field PERCEPTRON_WEIGHTS = BatchPredictor.field(Perceptron.class, "weightAttribute");
+
+	/**
+	 * Whether the perceptron is not trained yet
+	 */
+	private static final Field PERCEPTRON_RESET = BatchPredictor.field(Perceptron.class, "reset");
+
+	/**
+	 * Root of the Hoeffding tree
+	 */
+	private static final Field TREE_ROOT = BatchPredictor.field(HoeffdingTree.class, "treeRoot");
+
+	/**
+	 * Class distribution observed at a node of the Hoeffding tree
+	 */
+	private static final Field NODE_DISTRIBUTION = BatchPredictor.field(HoeffdingTree.Node.class,
+			"observedClassDistribution");
+
+	/**
+	 * Correct weights of majority class and naive Bayes at adaptive leaves
+	 */
+	private static final Field MC_CORRECT_WEIGHT = BatchPredictor
+			.field(HoeffdingTree.LearningNodeNBAdaptive.class, "mcCorrectWeight");
+	private static final Field NB_CORRECT_WEIGHT = BatchPredictor
+			.field(HoeffdingTree.LearningNodeNBAdaptive.class, "nbCorrectWeight");
+
+	/**
+	 * Constructor
+	 */
+	private BatchPredictor() {
+		super();
+	}
+
+	/**
+	 * @param type
+	 * @param name
+	 * @return accessible field, or null if it does not exist
+	 */
+	private static Field field(Class<?> type, String name) {
+		try {
+			Field field = type.getDeclaredField(name);
+			field.setAccessible(true);
+			return field;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Predicts the class of a block of instances
+	 * 
+	 * @param learner
+	 * @param instances
+	 *            block of instances with the header of the learner
+	 * @param count
+	 *            number of instances of the block to predict
+	 * @param classes
+	 *            array to fill with the index of the predicted class of each
+	 *            instance
+	 */
+	public static void predictClasses(Classifier learner, Instance[] instances, int count, int[] classes) {
+		// Check if sharded (each shard predicts its part of the block)
+		if (learner instanceof ShardedClassifier) {
+			((ShardedClassifier) learner).predictClasses(instances, count, classes);
+			return;
+		}
+		try {
+			// Check for fast paths (exact classes, subclasses predict differently)
+			if (learner.getClass() == Perceptron.class && PERCEPTRON_WEIGHTS != null && PERCEPTRON_RESET != null) {
+				BatchPredictor.predictPerceptron(learner, instances, count, classes);
+				return;
+			} else if (learner.getClass() == HoeffdingTree.class && TREE_ROOT != null && NODE_DISTRIBUTION != null
+					&& MC_CORRECT_WEIGHT != null && NB_CORRECT_WEIGHT != null) {
+				BatchPredictor.predictTree((HoeffdingTree) learner, instances, count, classes);
+				return;
+			}
+		} catch (IllegalAccessException e) {
+			// Fall back to the generic path
+		}
+		for (int i = 0; i < count; i++) {
+			classes[i] = Utils.maxIndex(learner.getVotesForInstance(instances[i]));
+		}
+	}
+
+	/**
+	 * Computes the sigmoid of each class as the perceptron does and keeps the
+	 * maximum (normalizing the votes does not change it)
+	 * 
+	 * @param learner
+	 * @param instances
+	 * @param count
+	 * @param classes
+	 * @throws IllegalAccessException
+	 */
+	private static void predictPerceptron(Classifier learner, Instance[] instances, int count, int[] classes)
+			throws IllegalAccessException {
+		// Untrained perceptron gives all-zero votes
+		if (PERCEPTRON_RESET.getBoolean(learner)) {
+			for (int i = 0; i < count; i++) {
+				classes[i] = 0;
+			}
+			return;
+		}
+		double[][] weights = (double[][]) PERCEPTRON_WEIGHTS.get(learner);
+		for (int i = 0; i < count; i++) {
+			Instance instance = instances[i];
+			int numInputs = instance.numAttributes() - 1;
+			int numClasses = instance.numClasses();
+			int best = 0;
+			double bestVote = 0.0;
+			for (int c = 0; c < numClasses; c++) {
+				double[] classWeights = weights[c];
+				double sum = 0.0;
+				for (int j = 0; j < numInputs; j++) {
+					sum += classWeights[j] * instance.value(j);
+				}
+				sum += classWeights[numInputs];
+				double vote = 1.0 / (1.0 + Math.exp(-sum));
+				if (vote > bestVote) {
+					best = c;
+					bestVote = vote;
+				}
+			}
+			classes[i] = best;
+		}
+	}
+
+	/**
+	 * Filters each instance to its leaf and, if the leaf predicts the majority
+	 * class, reads the observed class distribution in place. Naive Bayes leaves
+	 * compute their votes as usual
+	 * 
+	 * @param tree
+	 * @param instances
+	 * @param count
+	 * @param classes
+	 * @throws IllegalAccessException
+	 */
+	private static void predictTree(HoeffdingTree tree, Instance[] instances, int count, int[] classes)
+			throws IllegalAccessException {
+		HoeffdingTree.Node root = (HoeffdingTree.Node) TREE_ROOT.get(tree);
+		for (int i = 0; i < count; i++) {
+			// Tree not grown yet gives all-zero votes
+			if (root == null) {
+				classes[i] = 0;
+				continue;
+			}
+			HoeffdingTree.FoundNode found = root.filterInstanceToLeaf(instances[i], null, -1);
+			HoeffdingTree.Node leaf = found.node != null ? found.node : found.parent;
+			// Check if the leaf predicts the majority class
+			boolean majority = !(leaf instanceof HoeffdingTree.LearningNodeNB);
+			if (leaf instanceof HoeffdingTree.LearningNodeNBAdaptive) {
+				majority = MC_CORRECT_WEIGHT.getDouble(leaf) > NB_CORRECT_WEIGHT.getDouble(leaf);
+			}
+			if (majority) {
+				classes[i] = BatchPredictor.maxIndex((DoubleVector) NODE_DISTRIBUTION.get(leaf));
+			} else {
+				classes[i] = Utils.maxIndex(leaf.getClassVotes(instances[i], tree));
+			}
+		}
+	}
+
+	/**
+	 * @param vector
+	 * @return index of the first maximum value of the vector (0 if empty)
+	 */
+	private static int maxIndex(DoubleVector vector) {
+		int best = 0;
+		for (int i = 1; i < vector.numValues(); i++) {
+			if (vector.getValue(i) > vector.getValue(best)) {
+				best = i;
+			}
+		}
+		return best;
+	}
+
+}
@@ -0,0 +1,438 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buffered and asynchronous sink for CSV results. Rows are encoded into a
+ * reusable direct buffer that is handed to a background writer thread once it
+ * reaches the flush size. If no buffer arrives within the flush interval (e.g.,
+ * the runner is idle), the writer writes the complete rows of the current
+ * buffer itself, so the last rows do not wait for the next one
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class CSVResultSink {
+
+	/**
+	 * Default capacity of each buffer (in bytes)
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Default number of buffers shared by the encoder and the writer
+	 */
+	public static final int DEFAULT_NUM_BUFFERS = 4;
+
+	/**
+	 * Default interval for flushing a partially filled buffer (in milliseconds)
+	 */
+	public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+	/**
+	 * Maximum number of bytes of a single numeric field
+	 */
+	private static final int MAX_NUMBER_SIZE = 32;
+
+	/**
+	 * Marks the end of the stream of filled buffers
+	 */
+	private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+
+	/**
+	 * 
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * Buffers ready to be filled by the encoder
+	 */
+	private final BlockingQueue<ByteBuffer> freeBuffers;
+
+	/**
+	 * Buffers ready to be written by the writer thread
+	 */
+	private final BlockingQueue<ByteBuffer> filledBuffers;
+
+	/**
+	 * Number of bytes that triggers handing the current buffer to the writer
+	 */
+	private final int flushSize;
+
+	/**
+	 * Buffer currently being filled (replaced under {@link #lock}; null while
+	 * handing it over)
+	 */
+	private ByteBuffer current;
+
+	/**
+	 * Position after the last complete row of the current buffer
+	 */
+	private volatile int committed;
+
+	/**
+	 * Position up to which the writer already wrote the current buffer (under
+	 * {@link #lock})
+	 */
+	private int written;
+
+	/**
+	 * Lock between handing buffers over and writing the current one when idle
+	 */
+	private final Object lock = new Object();
+
+	/**
+	 * Reusable builder for formatting numbers without allocating strings
+	 */
+	private final StringBuilder number;
+
+	/**
+	 * Whether the current row has no fields yet
+	 */
+	private boolean rowStart;
+
+	/**
+	 * 
+	 */
+	private final Thread writer;
+
+	/**
+	 * 
+	 */
+	private boolean closed;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param file
+	 *            file for writing the results
+	 * @throws FileNotFoundException
+	 */
+	public CSVResultSink(File file) throws FileNotFoundException {
+		this(file, DEFAULT_BUFFER_SIZE, DEFAULT_NUM_BUFFERS, DEFAULT_FLUSH_INTERVAL);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param file
+	 *            file for writing the results
+	 * @param bufferSize
+	 *            capacity of each buffer and flush size (in bytes)
+	 * @param numBuffers
+	 *            number of buffers shared by the encoder and the writer
+	 * @param flushInterval
+	 *            interval for flushing a partially filled buffer (in
+	 *            milliseconds)
+	 * @throws FileNotFoundException
+	 */
+	public CSVResultSink(File file, int bufferSize, int numBuffers, final long flushInterval)
+			throws FileNotFoundException {
+		super();
+		this.channel = new FileOutputStream(file).getChannel();
+		this.flushSize = bufferSize - MAX_NUMBER_SIZE;
+		this.number = new StringBuilder(MAX_NUMBER_SIZE);
+		this.rowStart = true;
+		this.closed = false;
+		// Allocate buffers (one is kept by the encoder)
+		this.freeBuffers = new ArrayBlockingQueue<ByteBuffer>(numBuffers);
+		this.filledBuffers = new ArrayBlockingQueue<ByteBuffer>(numBuffers + 1);
+		this.current = ByteBuffer.allocateDirect(bufferSize);
+		for (int i = 1; i < numBuffers; i++) {
+			this.freeBuffers.add(ByteBuffer.allocateDirect(bufferSize));
+		}
+		// Start writer thread
+		this.writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				CSVResultSink.this.write(flushInterval);
+			}
+		}, "nelly-csv-writer");
+		this.writer.start();
+	}
+
+	/**
+	 * Writes the filled buffers on the file until the end of the stream
+	 * 
+	 * @param flushInterval
+	 *            interval for writing the complete rows of the current buffer
+	 *            (in milliseconds)
+	 */
+	private void write(long flushInterval) {
+		try {
+			while (true) {
+				ByteBuffer buffer = this.filledBuffers.poll(flushInterval, TimeUnit.MILLISECONDS);
+				// Write complete rows of the current buffer if the encoder is idle
+				if (buffer == null) {
+					this.writeCommitted();
+					continue;
+				}
+				// Check end of stream
+				if (buffer == END_OF_STREAM) {
+					break;
+				}
+				while (buffer.hasRemaining()) {
+					this.channel.write(buffer);
+				}
+				buffer.clear();
+				this.freeBuffers.put(buffer);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println(
+					"Internal error. Exception thrown when writing on the file. Please, contact the developer");
+			System.exit(2);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			System.err.println("Internal error. CSV writer was interrupted. Please, contact the developer");
+			System.exit(2);
+		}
+	}
+
+	/**
+	 * Writes the complete rows of the current buffer that were not written yet
+	 * (writer thread, when no buffer is pending)
+	 * 
+	 * @throws IOException
+	 */
+	private void writeCommitted() throws IOException {
+		synchronized (this.lock) {
+			// Skip if a buffer is being handed over, since its rows go first
+			int end = this.committed;
+			if (this.current == null || !this.filledBuffers.isEmpty() || end <= this.written) {
+				return;
+			}
+			ByteBuffer rows = this.current.duplicate();
+			rows.limit(end);
+			rows.position(this.written);
+			while (rows.hasRemaining()) {
+				this.channel.write(rows);
+			}
+			this.written = end;
+		}
+	}
+
+	/**
+	 * Hands the current buffer over to the writer and takes a free one
+	 */
+	private void handOver() {
+		ByteBuffer full = this.current;
+		if (full.position() == 0) {
+			return;
+		}
+		// Leave out the bytes already written by the writer
+		synchronized (this.lock) {
+			full.limit(full.position());
+			full.position(this.written);
+			this.written = 0;
+			this.committed = 0;
+			this.current = null;
+		}
+		try {
+			this.filledBuffers.put(full);
+			ByteBuffer next = this.freeBuffers.take();
+			synchronized (this.lock) {
+				this.current = next;
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			System.err.println("Internal error. CSV encoder was interrupted. Please, contact the developer");
+			System.exit(2);
+		}
+	}
+
+	/**
+	 * Ensures room for the given number of bytes in the current buffer
+	 * 
+	 * @param size
+	 *            number of bytes
+	 */
+	private void reserve(int size) {
+		if (this.current.remaining() < size) {
+			this.handOver();
+		}
+	}
+
+	/**
+	 * Writes a field separator unless it is the first field of the row
+	 */
+	private void separate() {
+		if (this.rowStart) {
+			this.rowStart = false;
+		} else {
+			this.current.put((byte) ',');
+		}
+	}
+
+	/**
+	 * Encodes the formatted number as ASCII bytes
+	 */
+	private void putNumber() {
+		int length = this.number.length();
+		for (int i = 0; i < length; i++) {
+			this.current.put((byte) this.number.charAt(i));
+		}
+	}
+
+	/**
+	 * @param value
+	 *            integer field
+	 * @return this sink
+	 */
+	public CSVResultSink field(long value) {
+		this.reserve(MAX_NUMBER_SIZE);
+		this.separate();
+		this.number.setLength(0);
+		this.number.append(value);
+		this.putNumber();
+		return this;
+	}
+
+	/**
+	 * @param value
+	 *            decimal field, formatted as {@link String#valueOf(double)}
+	 * @return this sink
+	 */
+	public CSVResultSink field(double value) {
+		this.reserve(MAX_NUMBER_SIZE);
+		this.separate();
+		this.number.setLength(0);
+		this.number.append(value);
+		this.putNumber();
+		return this;
+	}
+
+	/**
+	 * @param value
+	 *            text field (ASCII)
+	 * @return this sink
+	 */
+	public CSVResultSink field(CharSequence value) {
+		this.reserve(1);
+		this.separate();
+		this.text(value);
+		return this;
+	}
+
+	/**
+	 * @param value
+	 *            text field (ASCII), quoted with its quotes doubled so that it
+	 *            may contain commas, quotes and line breaks
+	 * @return this sink
+	 */
+	public CSVResultSink quotedField(CharSequence value) {
+		this.reserve(2);
+		this.separate();
+		this.current.put((byte) '"');
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			int size = c == '"' ? 2 : 1;
+			if (this.current.remaining() < size) {
+				this.handOver();
+			}
+			this.current.put((byte) c);
+			if (size == 2) {
+				this.current.put((byte) '"');
+			}
+		}
+		this.reserve(1);
+		this.current.put((byte) '"');
+		return this;
+	}
+
+	/**
+	 * Encodes text as ASCII bytes, handing buffers over as they fill up
+	 * 
+	 * @param value
+	 *            text
+	 */
+	private void text(CharSequence value) {
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			if (!this.current.hasRemaining()) {
+				this.handOver();
+			}
+			this.current.put((byte) value.charAt(i));
+		}
+	}
+
+	/**
+	 * Ends the current row. Hands the buffer over if it reached the flush size
+	 */
+	public void endRow() {
+		this.reserve(1);
+		this.current.put((byte) '\n');
+		this.rowStart = true;
+		if (this.current.position() >= this.flushSize) {
+			this.handOver();
+		} else {
+			this.committed = this.current.position();
+		}
+	}
+
+	/**
+	 * Writes a full line of text (e.g., the CSV header)
+	 * 
+	 * @param line
+	 *            text without line terminator
+	 */
+	public void writeLine(CharSequence line) {
+		this.text(line);
+		this.endRow();
+	}
+
+	/**
+	 * Hands over the pending rows, waits for the writer to finish and closes the
+	 * file
+	 */
+	public void close() {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+		this.handOver();
+		try {
+			this.filledBuffers.put(END_OF_STREAM);
+			this.writer.join();
+			this.channel.close();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			System.err.println("Internal error. CSV writer was interrupted. Please, contact the developer");
+			System.exit(2);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println(
+					"Internal error. Exception thrown when closing the file writer. Please, contact the developer");
+			System.exit(2);
+		}
+	}
+
+}
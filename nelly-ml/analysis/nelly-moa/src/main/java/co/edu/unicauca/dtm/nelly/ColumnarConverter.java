@@ -0,0 +1,303 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+/**
+ * Converts a dense ARFF dataset into a binary columnar file (see
+ * {@link ColumnarStream}). Numeric columns are stored as integers when all
+ * their values allow it and as doubles otherwise; nominal columns are stored
+ * as dictionary indexes (the dictionary being the ARFF header), and nominal
+ * columns of two values without missing values (e.g., the train mark) as
+ * bitsets
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class ColumnarConverter {
+
+	/**
+	 * 
+	 */
+	private static final Map<String, Integer> options;
+	static {
+		options = new HashMap<String, Integer>();
+		options.put("--help", 0);
+		options.put("--arff", 1);
+		options.put("--out", 2);
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// Define default arguments
+		String arffPath = System.getProperty("user.home") + File.separator + "data.arff";
+		String outPath = System.getProperty("user.home") + File.separator + "data.ncol";
+		// Get parameters from arguments
+		for (int i = 0; i < args.length; i++) {
+			// Check that given option exists
+			int option = 0;
+			if (ColumnarConverter.options.containsKey(args[i])) {
+				option = ColumnarConverter.options.get(args[i]);
+			} else {
+				System.out.println("Option '" + args[i] + "' does not exist");
+				ColumnarConverter.printHelp();
+				System.exit(1);
+			}
+			// Set parameter corresponding to option
+			switch (option) {
+			// Help
+			case 0:
+				ColumnarConverter.printHelp();
+				System.exit(0);
+				break;
+			// ARFF
+			case 1:
+				i++;
+				arffPath = args[i];
+				break;
+			// OUTPUT
+			case 2:
+				i++;
+				outPath = args[i];
+				break;
+			// ERROR
+			default:
+				System.err.println(
+						"Internal error. Option '" + option + "' is not implemented. Please, contact the developer");
+				System.exit(2);
+				break;
+			}
+		}
+		// Check if ARFF path exists
+		if (!new File(arffPath).exists()) {
+			System.out.println("File path '" + arffPath + "' does not exist");
+			ColumnarConverter.printHelp();
+			System.exit(1);
+		}
+		// Convert
+		File outFile = MOAUtilities.getFile(outPath, "data.ncol");
+		RowStream stream;
+		String headerText;
+		if (CompressedArffStream.isCompressed(arffPath)) {
+			CompressedArffStream compressed = new CompressedArffStream(arffPath, 0);
+			headerText = compressed.getHeaderText();
+			stream = compressed;
+		} else {
+			MappedArffStream mapped = new MappedArffStream(arffPath, 0, MOAUtilities.PARSER_THREADS);
+			headerText = mapped.getHeaderText();
+			stream = mapped;
+		}
+		try {
+			long rows = ColumnarConverter.convert(stream, headerText, outFile);
+			System.out.println("Converted " + rows + " rows into '" + outFile.getAbsolutePath() + "'");
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Error writing columnar file '" + outFile.getAbsolutePath() + "'");
+			System.exit(1);
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * 
+	 */
+	private static void printHelp() {
+		System.out.println("");
+		System.out.println("===============================");
+		System.out.println("NELLY - ARFF to Columnar Format");
+		System.out.println("===============================");
+		System.out.println("Options:");
+		System.out.println("  --help\tDisplay this help");
+		System.out.println("  --arff\tDense ARFF file to convert (optionally gzip or zstd compressed)");
+		System.out.println("  --out\t\tColumnar file to write (read by the runners as any ARFF file)");
+	}
+
+	/**
+	 * Converts an ARFF stream in two passes: the first one chooses the type of
+	 * each column and the second one writes the columns
+	 * 
+	 * @param stream
+	 *            ARFF stream
+	 * @param outFile
+	 *            columnar file
+	 * @return number of converted rows
+	 * @throws IOException
+	 */
+	public static long convert(MappedArffStream stream, File outFile) throws IOException {
+		return ColumnarConverter.convert(stream, stream.getHeaderText(), outFile);
+	}
+
+	/**
+	 * Converts a stream in two passes: the first one chooses the type of each
+	 * column and the second one writes the columns
+	 * 
+	 * @param stream
+	 *            stream of rows (restarted for each pass)
+	 * @param headerText
+	 *            ARFF header of the rows
+	 * @param outFile
+	 *            columnar file
+	 * @return number of converted rows
+	 * @throws IOException
+	 */
+	public static long convert(RowStream stream, String headerText, File outFile) throws IOException {
+		InstancesHeader header = stream.getHeader();
+		int numColumns = stream.numAttributes();
+		double[] row = new double[numColumns];
+		// Check values of each column
+		boolean[] integers = new boolean[numColumns];
+		boolean[] missing = new boolean[numColumns];
+		for (int i = 0; i < numColumns; i++) {
+			integers[i] = true;
+		}
+		long numRows = 0;
+		stream.restart();
+		while (stream.hasMoreInstances()) {
+			stream.nextRow(row);
+			for (int i = 0; i < numColumns; i++) {
+				double value = row[i];
+				if (Double.isNaN(value)) {
+					missing[i] = true;
+				} else if (value != Math.rint(value) || value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+					integers[i] = false;
+				}
+			}
+			numRows++;
+		}
+		// Choose type of each column
+		byte[] types = new byte[numColumns];
+		for (int i = 0; i < numColumns; i++) {
+			Attribute attribute = header.attribute(i);
+			if (attribute.isNominal() && attribute.numValues() <= 2 && !missing[i]) {
+				types[i] = ColumnarStream.TYPE_BITS;
+			} else if (attribute.isNominal() && attribute.numValues() < ColumnarStream.MISSING_BYTE) {
+				types[i] = ColumnarStream.TYPE_BYTE;
+			} else if (attribute.isNominal() && attribute.numValues() < ColumnarStream.MISSING_SHORT) {
+				types[i] = ColumnarStream.TYPE_SHORT;
+			} else if (integers[i] && !missing[i]) {
+				types[i] = ColumnarStream.TYPE_INT;
+			} else {
+				types[i] = ColumnarStream.TYPE_DOUBLE;
+			}
+			if (ColumnarStream.columnSize(types[i], numRows) > Integer.MAX_VALUE) {
+				throw new IOException("Column " + i + " does not fit in a single mapping (" + numRows + " rows)");
+			}
+		}
+		// Compute layout
+		byte[] headerBytes = headerText.getBytes(ArffRowParser.CHARSET);
+		long sizesOffset = ColumnarStream.align(ColumnarStream.MAGIC.length + 8 + headerBytes.length);
+		long descriptorsOffset = sizesOffset + 16;
+		long[] offsets = new long[numColumns];
+		long position = descriptorsOffset + 16 * (long) numColumns;
+		for (int i = 0; i < numColumns; i++) {
+			offsets[i] = position;
+			position = ColumnarStream.align(position + ColumnarStream.columnSize(types[i], numRows));
+		}
+		RandomAccessFile file = new RandomAccessFile(outFile, "rw");
+		try {
+			file.setLength(0);
+			file.setLength(position);
+			FileChannel channel = file.getChannel();
+			// Write magic, version, header, sizes and column descriptors
+			MappedByteBuffer meta = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+					descriptorsOffset + 16 * (long) numColumns);
+			meta.order(ByteOrder.LITTLE_ENDIAN);
+			meta.put(ColumnarStream.MAGIC);
+			meta.putInt(ColumnarStream.VERSION);
+			meta.putInt(headerBytes.length);
+			meta.put(headerBytes);
+			meta.putLong((int) sizesOffset, numRows);
+			meta.putInt((int) sizesOffset + 8, numColumns);
+			for (int i = 0; i < numColumns; i++) {
+				meta.put((int) descriptorsOffset + 16 * i, types[i]);
+				meta.putLong((int) descriptorsOffset + 16 * i + 8, offsets[i]);
+			}
+			meta.force();
+			// Map columns
+			MappedByteBuffer[] buffers = new MappedByteBuffer[numColumns];
+			Object[] columns = new Object[numColumns];
+			for (int i = 0; i < numColumns; i++) {
+				buffers[i] = channel.map(FileChannel.MapMode.READ_WRITE, offsets[i],
+						ColumnarStream.columnSize(types[i], numRows));
+				columns[i] = ColumnarStream.view(buffers[i], types[i]);
+			}
+			// Write rows (the file starts zeroed, so only set bits are written)
+			int r = 0;
+			stream.restart();
+			while (stream.hasMoreInstances()) {
+				stream.nextRow(row);
+				for (int i = 0; i < numColumns; i++) {
+					double value = row[i];
+					switch (types[i]) {
+					case ColumnarStream.TYPE_DOUBLE:
+						((DoubleBuffer) columns[i]).put(r, value);
+						break;
+					case ColumnarStream.TYPE_INT:
+						((IntBuffer) columns[i]).put(r, (int) value);
+						break;
+					case ColumnarStream.TYPE_BYTE:
+						((ByteBuffer) columns[i]).put(r,
+								(byte) (Double.isNaN(value) ? ColumnarStream.MISSING_BYTE : (int) value));
+						break;
+					case ColumnarStream.TYPE_SHORT:
+						((ShortBuffer) columns[i]).put(r,
+								(short) (Double.isNaN(value) ? ColumnarStream.MISSING_SHORT : (int) value));
+						break;
+					case ColumnarStream.TYPE_BITS:
+						if (value != 0) {
+							LongBuffer bits = (LongBuffer) columns[i];
+							bits.put(r >>> 6, bits.get(r >>> 6) | (1L << (r & 63)));
+						}
+						break;
+					default:
+						break;
+					}
+				}
+				r++;
+			}
+			for (MappedByteBuffer buffer : buffers) {
+				buffer.force();
+			}
+		} finally {
+			file.close();
+		}
+		return numRows;
+	}
+
+}
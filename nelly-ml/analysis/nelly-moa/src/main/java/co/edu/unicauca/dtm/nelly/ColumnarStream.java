@@ -0,0 +1,354 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+/**
+ * Stream of a binary columnar dataset (see {@link ColumnarConverter}). Each
+ * column is memory-mapped and read through a typed view, so rows are loaded
+ * without any parsing. The file layout (little-endian) is:
+ * <ul>
+ * <li>magic ({@link #MAGIC}) and format version (int)</li>
+ * <li>ARFF header text: length (int) and bytes, padded to 8 bytes</li>
+ * <li>number of rows (long), number of columns (int) and padding (int)</li>
+ * <li>a descriptor per column: type (byte), padding (7 bytes) and offset of the
+ * column data in the file (long)</li>
+ * <li>data of each column, aligned to 8 bytes</li>
+ * </ul>
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class ColumnarStream extends RowStream {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * First bytes of columnar files
+	 */
+	public static final byte[] MAGIC = { 'N', 'E', 'L', 'L', 'Y', 'C', 'O', 'L' };
+
+	/**
+	 * Version of the format
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Numeric column of doubles (NaN for missing values)
+	 */
+	public static final byte TYPE_DOUBLE = 0;
+
+	/**
+	 * Numeric column of integer values (without missing values)
+	 */
+	public static final byte TYPE_INT = 1;
+
+	/**
+	 * Nominal column with an index per byte ({@link #MISSING_BYTE} for missing
+	 * values)
+	 */
+	public static final byte TYPE_BYTE = 2;
+
+	/**
+	 * Nominal column with an index per short ({@link #MISSING_SHORT} for missing
+	 * values)
+	 */
+	public static final byte TYPE_SHORT = 3;
+
+	/**
+	 * Nominal column of two values (without missing values) with an index per bit
+	 * (e.g., the train mark)
+	 */
+	public static final byte TYPE_BITS = 4;
+
+	/**
+	 * Byte code of missing nominal values
+	 */
+	public static final int MISSING_BYTE = 0xFF;
+
+	/**
+	 * Short code of missing nominal values
+	 */
+	public static final int MISSING_SHORT = 0xFFFF;
+
+	/**
+	 * 
+	 */
+	private final String columnarPath;
+
+	/**
+	 * ARFF header text, up to the data declaration
+	 */
+	private String headerText;
+
+	/**
+	 * 
+	 */
+	private int numRows;
+
+	/**
+	 * Type of each column
+	 */
+	private byte[] types;
+
+	/**
+	 * View of each column (typed according to its type)
+	 */
+	private transient Object[] columns;
+
+	/**
+	 * Next row to read
+	 */
+	private int currentRow;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param columnarPath
+	 *            path of the columnar file
+	 * @param classIndex
+	 *            class index (0 for none, -1 for the last attribute, otherwise
+	 *            starting from 1)
+	 */
+	public ColumnarStream(String columnarPath, int classIndex) {
+		super(classIndex);
+		this.columnarPath = columnarPath;
+		this.restart();
+	}
+
+	/**
+	 * @param path
+	 * @return whether the file starts with the magic of columnar files
+	 */
+	public static boolean isColumnar(String path) {
+		byte[] magic = new byte[MAGIC.length];
+		try {
+			InputStream input = new FileInputStream(path);
+			try {
+				if (input.read(magic) != magic.length) {
+					return false;
+				}
+			} finally {
+				input.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+		return Arrays.equals(magic, MAGIC);
+	}
+
+	/**
+	 * @param length
+	 * @return length padded to a multiple of 8 bytes
+	 */
+	static long align(long length) {
+		return (length + 7) & ~7L;
+	}
+
+	/**
+	 * @param type
+	 * @param numRows
+	 * @return number of bytes of a column
+	 */
+	static long columnSize(byte type, long numRows) {
+		switch (type) {
+		case TYPE_DOUBLE:
+			return 8 * numRows;
+		case TYPE_INT:
+			return 4 * numRows;
+		case TYPE_BYTE:
+			return numRows;
+		case TYPE_SHORT:
+			return 2 * numRows;
+		case TYPE_BITS:
+			return 8 * ((numRows + 63) / 64);
+		default:
+			throw new IllegalArgumentException("Column type " + type + " does not exist");
+		}
+	}
+
+	/**
+	 * @param buffer
+	 *            mapped bytes of a column
+	 * @param type
+	 * @return typed view of the column
+	 */
+	static Object view(ByteBuffer buffer, byte type) {
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		switch (type) {
+		case TYPE_DOUBLE:
+			return buffer.asDoubleBuffer();
+		case TYPE_INT:
+			return buffer.asIntBuffer();
+		case TYPE_BYTE:
+			return buffer;
+		case TYPE_SHORT:
+			return buffer.asShortBuffer();
+		case TYPE_BITS:
+			return buffer.asLongBuffer();
+		default:
+			throw new IllegalArgumentException("Column type " + type + " does not exist");
+		}
+	}
+
+	@Override
+	public InstancesHeader getHeader() {
+		return RowStream.parseHeader(this.headerText, this.classIndex);
+	}
+
+	@Override
+	public int numAttributes() {
+		return this.types.length;
+	}
+
+	@Override
+	public long estimatedRemainingInstances() {
+		return this.numRows - this.currentRow;
+	}
+
+	@Override
+	protected void restartImpl() {
+		try {
+			RandomAccessFile file = new RandomAccessFile(this.columnarPath, "r");
+			try {
+				FileChannel channel = file.getChannel();
+				// Read magic, version and header
+				ByteBuffer prefix = ByteBuffer.allocate(MAGIC.length + 8).order(ByteOrder.LITTLE_ENDIAN);
+				channel.read(prefix, 0);
+				prefix.flip();
+				byte[] magic = new byte[MAGIC.length];
+				prefix.get(magic);
+				if (!Arrays.equals(magic, MAGIC)) {
+					throw new IOException("File is not a columnar dataset");
+				}
+				int version = prefix.getInt();
+				if (version != VERSION) {
+					throw new IOException("Version " + version + " of columnar dataset is not supported");
+				}
+				int headerLength = prefix.getInt();
+				long position = MAGIC.length + 8;
+				MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, position, headerLength);
+				byte[] headerBytes = new byte[headerLength];
+				header.get(headerBytes);
+				this.headerText = new String(headerBytes, ArffRowParser.CHARSET);
+				position = ColumnarStream.align(position + headerLength);
+				// Read columns
+				ByteBuffer sizes = channel.map(FileChannel.MapMode.READ_ONLY, position, 16)
+						.order(ByteOrder.LITTLE_ENDIAN);
+				long numRows = sizes.getLong();
+				int numColumns = sizes.getInt();
+				if (numRows > Integer.MAX_VALUE) {
+					throw new IOException("Columnar dataset has more than " + Integer.MAX_VALUE + " rows");
+				}
+				this.numRows = (int) numRows;
+				position += 16;
+				ByteBuffer descriptors = channel
+						.map(FileChannel.MapMode.READ_ONLY, position, 16 * (long) numColumns)
+						.order(ByteOrder.LITTLE_ENDIAN);
+				this.types = new byte[numColumns];
+				this.columns = new Object[numColumns];
+				for (int i = 0; i < numColumns; i++) {
+					this.types[i] = descriptors.get(16 * i);
+					long offset = descriptors.getLong(16 * i + 8);
+					long size = ColumnarStream.columnSize(this.types[i], numRows);
+					this.columns[i] = ColumnarStream
+							.view(channel.map(FileChannel.MapMode.READ_ONLY, offset, size), this.types[i]);
+				}
+			} finally {
+				// Mapped columns remain valid after closing the file
+				file.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Error reading columnar file '" + this.columnarPath + "'");
+			System.exit(1);
+		}
+		this.currentRow = 0;
+	}
+
+	@Override
+	public boolean hasMoreInstances() {
+		return this.currentRow < this.numRows;
+	}
+
+	@Override
+	public long skip(long rows) {
+		long skipped = Math.max(0, Math.min(rows, this.numRows - this.currentRow));
+		this.currentRow += (int) skipped;
+		return skipped;
+	}
+
+	@Override
+	public void nextRow(double[] values) {
+		if (!this.hasMoreInstances()) {
+			throw new IllegalStateException("No more rows in columnar file '" + this.columnarPath + "'");
+		}
+		int row = this.currentRow;
+		for (int i = 0; i < this.types.length; i++) {
+			switch (this.types[i]) {
+			case TYPE_DOUBLE:
+				values[i] = ((DoubleBuffer) this.columns[i]).get(row);
+				break;
+			case TYPE_INT:
+				values[i] = ((IntBuffer) this.columns[i]).get(row);
+				break;
+			case TYPE_BYTE:
+				int code = ((ByteBuffer) this.columns[i]).get(row) & 0xFF;
+				values[i] = code == MISSING_BYTE ? Double.NaN : code;
+				break;
+			case TYPE_SHORT:
+				int index = ((ShortBuffer) this.columns[i]).get(row) & 0xFFFF;
+				values[i] = index == MISSING_SHORT ? Double.NaN : index;
+				break;
+			case TYPE_BITS:
+				long word = ((LongBuffer) this.columns[i]).get(row >>> 6);
+				values[i] = (word >>> (row & 63)) & 1L;
+				break;
+			default:
+				break;
+			}
+		}
+		this.currentRow++;
+	}
+
+	@Override
+	public void close() {
+		this.columns = null;
+	}
+
+}
@@ -0,0 +1,471 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+/**
+ * Stream of a dense ARFF file compressed with gzip or zstd. A decompressor
+ * thread fills a fixed set of large blocks, cut on line boundaries, which are
+ * parsed into primitive rows as they arrive and then handed back for reuse.
+ * Decompression and parsing overlap, and nothing is written to disk. The
+ * decompressor thread starts on the first read after constructing or
+ * restarting the stream, so restarts before reading cost no decompression
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class CompressedArffStream extends RowStream {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Default number of bytes of each block
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 8 << 20;
+
+	/**
+	 * Number of blocks shared by the decompressor and the parser
+	 */
+	private static final int NUM_BLOCKS = 3;
+
+	/**
+	 * Number of bytes of the buffers of the compressed input
+	 */
+	private static final int INPUT_BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * First two bytes of gzip files
+	 */
+	private static final int GZIP_MAGIC = 0x1f8b;
+
+	/**
+	 * First four bytes of zstd frames
+	 */
+	private static final int ZSTD_MAGIC = 0x28b52ffd;
+
+	/**
+	 * Range of decompressed bytes, cut at a line terminator
+	 */
+	private static class Block {
+
+		/**
+		 * 
+		 */
+		private final ByteBuffer buffer;
+
+		/**
+		 * Number of bytes up to the last line terminator
+		 */
+		private int length;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param size
+		 *            number of bytes of the block
+		 */
+		private Block(int size) {
+			this.buffer = ByteBuffer.wrap(new byte[size]);
+		}
+	}
+
+	/**
+	 * Block that marks the end of the decompressed data
+	 */
+	private static final Block END = new Block(0);
+
+	/**
+	 * 
+	 */
+	private final String arffPath;
+
+	/**
+	 * 
+	 */
+	private final int blockSize;
+
+	/**
+	 * ARFF header text, up to the data declaration
+	 */
+	private String headerText;
+
+	/**
+	 * Number of attributes of each row
+	 */
+	private int numAttributes;
+
+	/**
+	 * 
+	 */
+	private transient ArffRowParser parser;
+
+	/**
+	 * 
+	 */
+	private transient Thread decompressor;
+
+	/**
+	 * Blocks ready to be filled by the decompressor
+	 */
+	private transient ArrayBlockingQueue<Block> free;
+
+	/**
+	 * Blocks ready to be parsed, in file order (null until the decompressor
+	 * starts)
+	 */
+	private transient ArrayBlockingQueue<Block> filled;
+
+	/**
+	 * Error of the decompressor thread (null if none)
+	 */
+	private transient volatile IOException failure;
+
+	/**
+	 * Rows parsed from the last block
+	 */
+	private transient ArffRowParser.Chunk current;
+
+	/**
+	 * Next row to read from the current chunk
+	 */
+	private int currentRow;
+
+	/**
+	 * Whether the end of the decompressed data was reached
+	 */
+	private boolean ended;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param arffPath
+	 *            path of the compressed ARFF file
+	 * @param classIndex
+	 *            class index (0 for none, -1 for the last attribute, otherwise
+	 *            starting from 1)
+	 */
+	public CompressedArffStream(String arffPath, int classIndex) {
+		this(arffPath, classIndex, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param arffPath
+	 *            path of the compressed ARFF file
+	 * @param classIndex
+	 *            class index (0 for none, -1 for the last attribute, otherwise
+	 *            starting from 1)
+	 * @param blockSize
+	 *            number of bytes of each block (the longest line must fit)
+	 */
+	public CompressedArffStream(String arffPath, int classIndex, int blockSize) {
+		super(classIndex);
+		this.arffPath = arffPath;
+		this.blockSize = blockSize;
+		// Read header only (the decompressor starts on the first read)
+		try {
+			this.openData().close();
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Error reading compressed ARFF file '" + this.arffPath + "'");
+			System.exit(1);
+		}
+		this.numAttributes = this.getHeader().numAttributes();
+	}
+
+	/**
+	 * @param path
+	 * @return whether the file starts with the magic of gzip or zstd files
+	 */
+	public static boolean isCompressed(String path) {
+		byte[] magic = new byte[4];
+		try {
+			InputStream input = new FileInputStream(path);
+			try {
+				if (input.read(magic) != magic.length) {
+					return false;
+				}
+			} finally {
+				input.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+		int value = ByteBuffer.wrap(magic).getInt();
+		return value >>> 16 == GZIP_MAGIC || value == ZSTD_MAGIC;
+	}
+
+	/**
+	 * Opens a compressed file for reading its decompressed bytes
+	 * 
+	 * @param path
+	 * @return decompressed input
+	 * @throws IOException
+	 */
+	private static InputStream open(String path) throws IOException {
+		InputStream input = new BufferedInputStream(new FileInputStream(path), INPUT_BUFFER_SIZE);
+		try {
+			// Check magic of the file
+			input.mark(4);
+			byte[] magic = new byte[4];
+			int read = 0;
+			int n;
+			while (read < magic.length && (n = input.read(magic, read, magic.length - read)) != -1) {
+				read += n;
+			}
+			input.reset();
+			int value = ByteBuffer.wrap(magic).getInt();
+			if (read >= 2 && value >>> 16 == GZIP_MAGIC) {
+				return new BufferedInputStream(new GZIPInputStream(input, INPUT_BUFFER_SIZE), INPUT_BUFFER_SIZE);
+			}
+			if (read == 4 && value == ZSTD_MAGIC) {
+				return new BufferedInputStream(new ZstdInputStream(input), INPUT_BUFFER_SIZE);
+			}
+			throw new IOException("File is not compressed with gzip or zstd");
+		} catch (IOException e) {
+			input.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens the file and reads its header
+	 * 
+	 * @return decompressed input, positioned at the data section
+	 * @throws IOException
+	 */
+	private InputStream openData() throws IOException {
+		InputStream input = CompressedArffStream.open(this.arffPath);
+		try {
+			this.headerText = ArffRowParser.readHeader(input);
+		} catch (IOException e) {
+			input.close();
+			throw e;
+		}
+		return input;
+	}
+
+	@Override
+	public InstancesHeader getHeader() {
+		return RowStream.parseHeader(this.headerText, this.classIndex);
+	}
+
+	/**
+	 * @return ARFF header text, up to the data declaration
+	 */
+	public String getHeaderText() {
+		return this.headerText;
+	}
+
+	@Override
+	public int numAttributes() {
+		return this.numAttributes;
+	}
+
+	@Override
+	protected void restartImpl() {
+		this.close();
+		// Start again on the next read
+		this.filled = null;
+	}
+
+	/**
+	 * Starts the decompressor thread, if not started since constructing or
+	 * restarting the stream
+	 */
+	private void start() {
+		if (this.filled != null) {
+			return;
+		}
+		// Read header, leaving the input at the data section
+		InputStream input = null;
+		try {
+			input = this.openData();
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Error reading compressed ARFF file '" + this.arffPath + "'");
+			System.exit(1);
+		}
+		this.parser = new ArffRowParser(this.getHeader());
+		this.numAttributes = this.parser.numAttributes();
+		// Create blocks (the queue of filled blocks also fits the end mark)
+		final ArrayBlockingQueue<Block> free = new ArrayBlockingQueue<Block>(NUM_BLOCKS);
+		final ArrayBlockingQueue<Block> filled = new ArrayBlockingQueue<Block>(NUM_BLOCKS + 1);
+		for (int i = 0; i < NUM_BLOCKS; i++) {
+			free.add(new Block(this.blockSize));
+		}
+		this.free = free;
+		this.filled = filled;
+		this.failure = null;
+		if (this.current == null) {
+			this.current = new ArffRowParser.Chunk(this.numAttributes, 1024);
+		}
+		this.current.rows = 0;
+		this.currentRow = 0;
+		this.ended = false;
+		// Start decompressor thread
+		final InputStream data = input;
+		this.decompressor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				CompressedArffStream.this.decompress(data, free, filled);
+			}
+		}, "nelly-decompressor");
+		this.decompressor.setDaemon(true);
+		this.decompressor.start();
+	}
+
+	/**
+	 * Decompresses the data section into blocks until the input ends or the
+	 * stream is closed (decompressor thread)
+	 * 
+	 * @param input
+	 *            decompressed input, positioned at the data section
+	 * @param free
+	 * @param filled
+	 */
+	private void decompress(InputStream input, ArrayBlockingQueue<Block> free, ArrayBlockingQueue<Block> filled) {
+		// Bytes after the last line terminator of a block, moved to the next one
+		byte[] carry = new byte[this.blockSize];
+		int carried = 0;
+		boolean eof = false;
+		try {
+			while (!eof) {
+				Block block = free.take();
+				byte[] bytes = block.buffer.array();
+				System.arraycopy(carry, 0, bytes, 0, carried);
+				// Fill block
+				int size = carried;
+				while (size < bytes.length) {
+					int n = input.read(bytes, size, bytes.length - size);
+					if (n == -1) {
+						eof = true;
+						break;
+					}
+					size += n;
+				}
+				// Cut block at its last line terminator
+				int end = size;
+				if (!eof) {
+					while (end > 0 && bytes[end - 1] != '\n') {
+						end--;
+					}
+					if (end == 0) {
+						throw new IOException("Line longer than " + this.blockSize + " bytes");
+					}
+				}
+				carried = size - end;
+				System.arraycopy(bytes, end, carry, 0, carried);
+				block.length = end;
+				filled.add(block);
+			}
+		} catch (IOException e) {
+			this.failure = e;
+		} catch (InterruptedException e) {
+			// Stream was closed
+		} finally {
+			try {
+				input.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			filled.add(END);
+		}
+	}
+
+	@Override
+	public boolean hasMoreInstances() {
+		this.start();
+		while (this.currentRow >= this.current.rows) {
+			if (this.ended) {
+				return false;
+			}
+			// Wait for the next block and parse it, so it can be refilled
+			Block block = null;
+			try {
+				block = this.filled.take();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+				System.err.println("Internal error. ARFF parser was interrupted. Please, contact the developer");
+				System.exit(2);
+			}
+			if (block == END) {
+				this.ended = true;
+				if (this.failure != null) {
+					this.failure.printStackTrace();
+					System.err.println("Error reading compressed ARFF file '" + this.arffPath + "'");
+					System.exit(1);
+				}
+				return false;
+			}
+			this.current.rows = 0;
+			try {
+				this.parser.parse(block.buffer, 0, block.length, this.current);
+			} catch (IllegalArgumentException e) {
+				e.printStackTrace();
+				System.err.println("Error parsing ARFF file '" + this.arffPath + "': " + e.getMessage());
+				System.exit(1);
+			}
+			this.free.add(block);
+			this.currentRow = 0;
+		}
+		return true;
+	}
+
+	@Override
+	public void nextRow(double[] values) {
+		if (!this.hasMoreInstances()) {
+			throw new IllegalStateException("No more rows in ARFF file '" + this.arffPath + "'");
+		}
+		System.arraycopy(this.current.values, this.currentRow * this.numAttributes, values, 0, this.numAttributes);
+		this.currentRow++;
+	}
+
+	@Override
+	public void close() {
+		if (this.decompressor == null) {
+			return;
+		}
+		this.decompressor.interrupt();
+		try {
+			this.decompressor.join();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			System.err.println("Internal error. Decompressor was interrupted. Please, contact the developer");
+			System.exit(2);
+		}
+		this.decompressor = null;
+	}
+
+}
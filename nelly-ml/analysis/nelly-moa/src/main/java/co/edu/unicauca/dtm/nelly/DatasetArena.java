@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+/**
+ * Dataset decoded once into a contiguous array of primitive rows (one row
+ * after another, nominal values as indexes of the dictionary given by the
+ * header). The arena is read-only after loading, so any number of replays (see
+ * {@link ArenaStream}) can read it many times and in parallel, without parsing
+ * and without copying rows
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class DatasetArena {
+
+	/**
+	 * Initial number of rows of the arena if the stream does not estimate them
+	 */
+	private static final int INITIAL_ROWS = 1 << 16;
+
+	/**
+	 * Maximum number of values of a Java array
+	 */
+	private static final long MAX_VALUES = Integer.MAX_VALUE - 8;
+
+	/**
+	 * Stream the arena was decoded from (only used for headers)
+	 */
+	private final RowStream source;
+
+	/**
+	 * Number of values of each row
+	 */
+	private final int numAttributes;
+
+	/**
+	 * Row values, one row after another
+	 */
+	private double[] values;
+
+	/**
+	 * 
+	 */
+	private int numRows;
+
+	/**
+	 * Constructor. Decodes all the rows of the stream
+	 * 
+	 * @param stream
+	 *            stream to decode (its header keeps being used by the replays)
+	 */
+	public DatasetArena(RowStream stream) {
+		super();
+		this.source = stream;
+		this.numAttributes = stream.numAttributes();
+		stream.prepareForUse();
+		// Size arena from the estimate of the stream, if any
+		long estimated = stream.estimatedRemainingInstances();
+		long capacity = estimated > 0 ? estimated : INITIAL_ROWS;
+		this.values = new double[(int) Math.min(capacity * this.numAttributes, MAX_VALUES)];
+		double[] row = new double[this.numAttributes];
+		int offset = 0;
+		while (stream.hasMoreInstances()) {
+			// Grow arena if full
+			if (offset + this.numAttributes > this.values.length) {
+				long length = Math.min(2L * this.values.length, MAX_VALUES);
+				if (length < offset + this.numAttributes) {
+					throw new IllegalStateException("Dataset has more than " + (MAX_VALUES / this.numAttributes)
+							+ " rows, which do not fit in an arena. Use a columnar file instead");
+				}
+				double[] values = new double[(int) length];
+				System.arraycopy(this.values, 0, values, 0, offset);
+				this.values = values;
+			}
+			stream.nextRow(row);
+			System.arraycopy(row, 0, this.values, offset, this.numAttributes);
+			offset += this.numAttributes;
+			this.numRows++;
+		}
+	}
+
+	/**
+	 * Decodes a dataset file (see {@link MOAUtilities#readStream(String, int)})
+	 * 
+	 * @param path
+	 * @param indexClass
+	 * @return arena of the dataset
+	 */
+	public static DatasetArena load(String path, int indexClass) {
+		RowStream stream = MOAUtilities.readStream(path, indexClass);
+		DatasetArena arena = new DatasetArena(stream);
+		stream.close();
+		return arena;
+	}
+
+	/**
+	 * @return a new header of the rows, which callers are free to modify
+	 */
+	public synchronized InstancesHeader getHeader() {
+		return this.source.getHeader();
+	}
+
+	/**
+	 * @return number of values of each row
+	 */
+	public int numAttributes() {
+		return this.numAttributes;
+	}
+
+	/**
+	 * @return number of rows
+	 */
+	public int numRows() {
+		return this.numRows;
+	}
+
+	/**
+	 * @return row values, one row after another (must not be modified)
+	 */
+	public double[] getValues() {
+		return this.values;
+	}
+
+	/**
+	 * @return memory of the arena (in bytes)
+	 */
+	public long getMemory() {
+		return 8L * this.values.length;
+	}
+
+	/**
+	 * @return a new replay of the rows from the first one
+	 */
+	public ArenaStream replay() {
+		return new ArenaStream(this);
+	}
+
+}
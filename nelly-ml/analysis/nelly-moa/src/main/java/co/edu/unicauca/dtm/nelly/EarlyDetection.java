@@ -0,0 +1,403 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+/**
+ * Evaluates how early elephant flows are detected when each flow is tested at
+ * its successive packet counts k = 1..N (see {@link FlowAggregator} in early
+ * mode). For each flow, the earliest test correctly flagged as elephant gives
+ * its detection packet count and its time-to-detect (from the first packet of
+ * the flow), and the earliest test wrongly flagged as elephant gives the packet
+ * count of a false alarm. Flows are accounted when they end. The state of the
+ * active flows is kept in a primitive open-addressing table (no objects per
+ * flow nor per test). Flows with rows before the resume point of a resumed
+ * evaluation are excluded, since their earliest tests were not seen
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class EarlyDetection {
+
+	/**
+	 * Highest trackable time-to-detect (one hour, in nanoseconds)
+	 */
+	private static final long HIGHEST_TIME = 3600000000000L;
+
+	/**
+	 * Initial number of slots of the table of flows
+	 */
+	private static final int INITIAL_CAPACITY = 1 << 12;
+
+	/**
+	 * Maximum ratio of used slots of the table of flows
+	 */
+	private static final double LOAD_FACTOR = 0.7;
+
+	/**
+	 * Number of state values of each flow: packet count of the detection (0 for
+	 * none), time-to-detect, packet count of the first false alarm (0 for none),
+	 * and kind of flow
+	 */
+	private static final int STATE = 4;
+
+	/**
+	 * Kinds of flows
+	 */
+	private static final long MOUSE = 0, ELEPHANT = 1, EXCLUDED = 2;
+
+	/**
+	 * Maximum packet count of the tests of a flow
+	 */
+	private final int numPackets;
+
+	/**
+	 * Flow of each slot of the table (0 for a free slot, flows are numbered from
+	 * 1)
+	 */
+	private long[] keys;
+
+	/**
+	 * State of the flow of each slot (in sequence)
+	 */
+	private long[] states;
+
+	/**
+	 * Number of active flows
+	 */
+	private int size;
+
+	/**
+	 * Number of elephants detected at each packet count
+	 */
+	private final long[] detectedAtPacket;
+
+	/**
+	 * Number of mice with a first false alarm at each packet count
+	 */
+	private final long[] falseAlarmAtPacket;
+
+	/**
+	 * Time-to-detect of the detected elephants (in nanoseconds)
+	 */
+	private final LatencyHistogram timeToDetect;
+
+	/**
+	 * 
+	 */
+	private long countElephants, countMice, countMissed, countExcluded;
+
+	/**
+	 * Metadata of the current row
+	 */
+	private long rowFlow, rowTime, rowStart;
+
+	/**
+	 * Packet count of the current row
+	 */
+	private int rowPackets;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param numPackets
+	 *            maximum packet count of the tests of a flow
+	 */
+	public EarlyDetection(int numPackets) {
+		super();
+		this.numPackets = numPackets;
+		this.keys = new long[INITIAL_CAPACITY];
+		this.states = new long[INITIAL_CAPACITY * STATE];
+		this.detectedAtPacket = new long[numPackets + 1];
+		this.falseAlarmAtPacket = new long[numPackets + 1];
+		this.timeToDetect = new LatencyHistogram(LatencyHistogram.DEFAULT_SUB_BUCKET_BITS, HIGHEST_TIME);
+	}
+
+	/**
+	 * @param flow
+	 * @return home slot of a flow
+	 */
+	private int home(long flow) {
+		// MurmurHash3 finalizer
+		long hash = flow;
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return (int) hash & (this.keys.length - 1);
+	}
+
+	/**
+	 * @param flow
+	 * @return slot of a flow, or -1 if not active
+	 */
+	private int lookup(long flow) {
+		int mask = this.keys.length - 1;
+		for (int slot = this.home(flow);; slot = (slot + 1) & mask) {
+			if (this.keys[slot] == flow) {
+				return slot;
+			} else if (this.keys[slot] == 0) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * Inserts a flow (not active) with an empty state
+	 * 
+	 * @param flow
+	 * @param kind
+	 *            kind of the flow
+	 * @return slot of the flow
+	 */
+	private int insert(long flow, long kind) {
+		if (this.size + 1 > this.keys.length * LOAD_FACTOR) {
+			this.resize(2 * this.keys.length);
+		}
+		int mask = this.keys.length - 1;
+		int slot = this.home(flow);
+		while (this.keys[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		this.keys[slot] = flow;
+		int base = slot * STATE;
+		this.states[base] = 0;
+		this.states[base + 1] = 0;
+		this.states[base + 2] = 0;
+		this.states[base + 3] = kind;
+		this.size++;
+		return slot;
+	}
+
+	/**
+	 * Deletes the flow of a slot, shifting back the following flows of its probe
+	 * sequence
+	 * 
+	 * @param slot
+	 */
+	private void delete(int slot) {
+		int mask = this.keys.length - 1;
+		int hole = slot;
+		int next = slot;
+		while (true) {
+			next = (next + 1) & mask;
+			if (this.keys[next] == 0) {
+				break;
+			}
+			// Move the flow if the hole is between its home and its slot
+			int home = this.home(this.keys[next]);
+			boolean between = hole <= next ? (home <= hole || home > next) : (home <= hole && home > next);
+			if (between) {
+				this.keys[hole] = this.keys[next];
+				System.arraycopy(this.states, next * STATE, this.states, hole * STATE, STATE);
+				hole = next;
+			}
+		}
+		this.keys[hole] = 0;
+		this.size--;
+	}
+
+	/**
+	 * Grows the table, reinserting all the flows
+	 * 
+	 * @param capacity
+	 */
+	private void resize(int capacity) {
+		long[] oldKeys = this.keys;
+		long[] oldStates = this.states;
+		this.keys = new long[capacity];
+		this.states = new long[capacity * STATE];
+		int mask = capacity - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] == 0) {
+				continue;
+			}
+			int slot = this.home(oldKeys[i]);
+			while (this.keys[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			this.keys[slot] = oldKeys[i];
+			System.arraycopy(oldStates, i * STATE, this.states, slot * STATE, STATE);
+		}
+	}
+
+	/**
+	 * Passes over a row before the resume point of a resumed evaluation. Its
+	 * flow is excluded until it ends, since its earlier tests were not seen
+	 * 
+	 * @param flow
+	 *            flow of the row
+	 * @param packets
+	 *            packet count of a test row (0 for a training row)
+	 */
+	public void skip(long flow, int packets) {
+		int slot = this.lookup(flow);
+		if (packets == 0) {
+			// Flow ended before the resume point
+			if (slot >= 0) {
+				this.delete(slot);
+			}
+		} else if (slot < 0) {
+			this.insert(flow, EXCLUDED);
+		}
+	}
+
+	/**
+	 * Sets the metadata of the next row. A training row ends its flow
+	 * 
+	 * @param flow
+	 *            flow of the row
+	 * @param packets
+	 *            packet count of a test row (0 for a training row)
+	 * @param time
+	 *            timestamp of the row (in nanoseconds)
+	 * @param start
+	 *            timestamp of the first packet of the flow (in nanoseconds)
+	 */
+	public void row(long flow, int packets, long time, long start) {
+		if (packets == 0) {
+			this.end(flow);
+			return;
+		}
+		this.rowFlow = flow;
+		this.rowTime = time;
+		this.rowStart = start;
+		this.rowPackets = packets;
+	}
+
+	/**
+	 * Evaluates the prediction of the current test row
+	 * 
+	 * @param actualElephant
+	 *            whether the flow is an elephant
+	 * @param predictedElephant
+	 *            whether the flow was predicted as elephant
+	 */
+	public void test(boolean actualElephant, boolean predictedElephant) {
+		int slot = this.lookup(this.rowFlow);
+		if (slot < 0) {
+			slot = this.insert(this.rowFlow, actualElephant ? ELEPHANT : MOUSE);
+		}
+		int base = slot * STATE;
+		if (!predictedElephant || this.states[base + 3] == EXCLUDED) {
+			return;
+		}
+		// Keep the earliest detection or false alarm
+		if (actualElephant && this.states[base] == 0) {
+			this.states[base] = this.rowPackets;
+			this.states[base + 1] = Math.max(0, this.rowTime - this.rowStart);
+		} else if (!actualElephant && this.states[base + 2] == 0) {
+			this.states[base + 2] = this.rowPackets;
+		}
+	}
+
+	/**
+	 * Accounts a flow that ended
+	 * 
+	 * @param flow
+	 */
+	public void end(long flow) {
+		int slot = this.lookup(flow);
+		if (slot >= 0) {
+			this.account(slot);
+			this.delete(slot);
+		}
+	}
+
+	/**
+	 * @param slot
+	 *            slot of an ended flow
+	 */
+	private void account(int slot) {
+		int base = slot * STATE;
+		long kind = this.states[base + 3];
+		if (kind == EXCLUDED) {
+			this.countExcluded++;
+		} else if (kind == ELEPHANT) {
+			this.countElephants++;
+			if (this.states[base] > 0) {
+				this.detectedAtPacket[(int) this.states[base]]++;
+				this.timeToDetect.record(this.states[base + 1]);
+			} else {
+				this.countMissed++;
+			}
+		} else {
+			this.countMice++;
+			if (this.states[base + 2] > 0) {
+				this.falseAlarmAtPacket[(int) this.states[base + 2]]++;
+			}
+		}
+	}
+
+	/**
+	 * Appends the detection statistics to a report, accounting the flows that
+	 * did not end
+	 * 
+	 * @param report
+	 */
+	public void finish(StringBuilder report) {
+		for (int slot = 0; slot < this.keys.length; slot++) {
+			if (this.keys[slot] != 0) {
+				this.account(slot);
+				this.keys[slot] = 0;
+			}
+		}
+		this.size = 0;
+		long detected = this.countElephants - this.countMissed;
+		long falseAlarms = 0;
+		for (long count : this.falseAlarmAtPacket) {
+			falseAlarms += count;
+		}
+		report.append("Early detection (first ").append(this.numPackets).append(" packets)\n");
+		report.append(" - Elephants = ").append(this.countElephants).append(", detected = ").append(detected)
+				.append(", missed = ").append(this.countMissed).append("\n");
+		report.append(" - Mice = ").append(this.countMice).append(", false alarms = ").append(falseAlarms)
+				.append("\n");
+		if (this.countExcluded > 0) {
+			report.append(" - Flows excluded for starting before the resume point = ").append(this.countExcluded)
+					.append("\n");
+		}
+		// Cumulative share of elephants detected and mice falsely flagged by packet
+		long cumulativeDetected = 0;
+		long cumulativeAlarms = 0;
+		report.append(" - Packet\tDetected\tCumulative TPR\tFalse alarms\tCumulative FPR\n");
+		for (int k = 1; k <= this.numPackets; k++) {
+			cumulativeDetected += this.detectedAtPacket[k];
+			cumulativeAlarms += this.falseAlarmAtPacket[k];
+			report.append("   ").append(k).append("\t\t").append(this.detectedAtPacket[k]).append("\t\t")
+					.append(EarlyDetection.percent(cumulativeDetected, this.countElephants)).append("\t")
+					.append(this.falseAlarmAtPacket[k]).append("\t\t")
+					.append(EarlyDetection.percent(cumulativeAlarms, this.countMice)).append("\n");
+		}
+		report.append("Time-to-detect (nanoseconds)\n");
+		LatencyTracker.appendPercentiles(report, " - Detected", this.timeToDetect);
+		report.append("\n");
+	}
+
+	/**
+	 * @param count
+	 * @param total
+	 * @return percentage of the count over the total, or 'n/a' if the total is 0
+	 */
+	private static String percent(long count, long total) {
+		return total > 0 ? (100.0 * count / total) + " %" : "n/a";
+	}
+
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.ObjectName;
+
+/**
+ * JMX bean of the live metrics of an evaluation. The evaluating thread
+ * publishes its counters with ordered stores (no locks nor fences on the hot
+ * path) every {@link #PUBLISH_ROWS} rows, and the more expensive values
+ * (percentiles, queue depth, model size) once per second. The counters are
+ * published under a version that is odd while they are being written, so the
+ * accuracy is computed from the confusion matrix of a single publication;
+ * attributes read separately may still come from different publications
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class EvaluationMetrics implements EvaluationMetricsMBean {
+
+	/**
+	 * Number of rows between publications of the counters (power of 2)
+	 */
+	public static final int PUBLISH_ROWS = 1024;
+
+	/**
+	 * Time of the windows of the rate of rows (in nanoseconds)
+	 */
+	private static final long WINDOW_NANOS = 1000000000L;
+
+	/**
+	 * Indexes of the published values
+	 */
+	private static final int ROWS = 0, TESTS = 1, TRAINS = 2, ERRORS = 3, TRUE_POSITIVES = 4, FALSE_POSITIVES = 5,
+			TRUE_NEGATIVES = 6, FALSE_NEGATIVES = 7, PREDICTION_P50 = 8, PREDICTION_P99 = 9, TRAINING_P99 = 10,
+			QUEUE_DEPTH = 11, MODEL_BYTES = 12, WINDOW_ROWS = 13, WINDOW_NANOS_INDEX = 14, VERSION = 15;
+
+	/**
+	 * Name of the evaluated learner
+	 */
+	private final String learnerName;
+
+	/**
+	 * Published values
+	 */
+	private final AtomicLongArray values = new AtomicLongArray(16);
+
+	/**
+	 * Version of the published counters, odd while being written (evaluating
+	 * thread only)
+	 */
+	private long version;
+
+	/**
+	 * Start time and rows of the current window (evaluating thread only)
+	 */
+	private long windowStart, windowStartRows;
+
+	/**
+	 * Name of the registered bean (null if not registered)
+	 */
+	private ObjectName name;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param learnerName
+	 *            name of the evaluated learner
+	 */
+	public EvaluationMetrics(String learnerName) {
+		super();
+		this.learnerName = learnerName;
+		this.values.set(QUEUE_DEPTH, -1);
+		this.values.set(MODEL_BYTES, -1);
+		this.windowStart = System.nanoTime();
+	}
+
+	/**
+	 * Registers the bean of an evaluation in the platform MBean server
+	 * 
+	 * @param learnerName
+	 *            name of the evaluated learner
+	 * @return bean of the evaluation (published even if it could not be
+	 *         registered)
+	 */
+	public static EvaluationMetrics register(String learnerName) {
+		EvaluationMetrics metrics = new EvaluationMetrics(learnerName);
+		metrics.name = MOAUtilities.registerMBean(metrics, "Evaluation", learnerName);
+		return metrics;
+	}
+
+	/**
+	 * Unregisters the bean from the platform MBean server
+	 */
+	public void unregister() {
+		MOAUtilities.unregisterMBean(this.name);
+		this.name = null;
+	}
+
+	/**
+	 * @param position
+	 *            number of processed rows
+	 * @return whether the counters are published at the position
+	 */
+	public static boolean isPublish(long position) {
+		return (position & (PUBLISH_ROWS - 1)) == 0;
+	}
+
+	/**
+	 * Publishes the counters of the evaluation (evaluating thread)
+	 * 
+	 * @param rows
+	 * @param tests
+	 * @param trains
+	 * @param errors
+	 * @param truePositives
+	 * @param falsePositives
+	 * @param trueNegatives
+	 * @param falseNegatives
+	 */
+	public void publish(long rows, long tests, long trains, long errors, long truePositives, long falsePositives,
+			long trueNegatives, long falseNegatives) {
+		// Ordered stores keep the odd version before the counters and the even one after
+		this.values.lazySet(VERSION, ++this.version);
+		this.values.lazySet(ROWS, rows);
+		this.values.lazySet(TESTS, tests);
+		this.values.lazySet(TRAINS, trains);
+		this.values.lazySet(ERRORS, errors);
+		this.values.lazySet(TRUE_POSITIVES, truePositives);
+		this.values.lazySet(FALSE_POSITIVES, falsePositives);
+		this.values.lazySet(TRUE_NEGATIVES, trueNegatives);
+		this.values.lazySet(FALSE_NEGATIVES, falseNegatives);
+		this.values.lazySet(VERSION, ++this.version);
+	}
+
+	/**
+	 * Closes the window of the rate of rows if it lasted at least a second
+	 * (evaluating thread)
+	 * 
+	 * @param rows
+	 *            number of processed rows
+	 * @param force
+	 *            whether to close the window anyway (e.g., at the end)
+	 * @return whether the window was closed, i.e., whether the expensive values
+	 *         should be published
+	 */
+	public boolean closeWindow(long rows, boolean force) {
+		long now = System.nanoTime();
+		if (!force && now - this.windowStart < WINDOW_NANOS) {
+			return false;
+		}
+		this.values.lazySet(WINDOW_ROWS, rows - this.windowStartRows);
+		this.values.lazySet(WINDOW_NANOS_INDEX, now - this.windowStart);
+		this.windowStart = now;
+		this.windowStartRows = rows;
+		return true;
+	}
+
+	/**
+	 * Publishes latency percentiles (evaluating thread)
+	 * 
+	 * @param predictionP50
+	 * @param predictionP99
+	 * @param trainingP99
+	 */
+	public void publishLatency(long predictionP50, long predictionP99, long trainingP99) {
+		this.values.lazySet(PREDICTION_P50, predictionP50);
+		this.values.lazySet(PREDICTION_P99, predictionP99);
+		this.values.lazySet(TRAINING_P99, trainingP99);
+	}
+
+	/**
+	 * @param depth
+	 *            number of queued rows or training instances (-1 if not queued)
+	 */
+	public void publishQueueDepth(long depth) {
+		this.values.lazySet(QUEUE_DEPTH, depth);
+	}
+
+	/**
+	 * @param bytes
+	 *            byte size of the learner (-1 if not sampled)
+	 */
+	public void publishModelBytes(long bytes) {
+		this.values.lazySet(MODEL_BYTES, bytes);
+	}
+
+	@Override
+	public String getLearner() {
+		return this.learnerName;
+	}
+
+	@Override
+	public long getRows() {
+		return this.values.get(ROWS);
+	}
+
+	@Override
+	public double getInstancesPerSecond() {
+		long nanos = this.values.get(WINDOW_NANOS_INDEX);
+		return nanos > 0 ? 1e9 * this.values.get(WINDOW_ROWS) / nanos : 0;
+	}
+
+	@Override
+	public long getTests() {
+		return this.values.get(TESTS);
+	}
+
+	@Override
+	public long getTrains() {
+		return this.values.get(TRAINS);
+	}
+
+	@Override
+	public long getErrors() {
+		return this.values.get(ERRORS);
+	}
+
+	@Override
+	public long getTruePositives() {
+		return this.values.get(TRUE_POSITIVES);
+	}
+
+	@Override
+	public long getFalsePositives() {
+		return this.values.get(FALSE_POSITIVES);
+	}
+
+	@Override
+	public long getTrueNegatives() {
+		return this.values.get(TRUE_NEGATIVES);
+	}
+
+	@Override
+	public long getFalseNegatives() {
+		return this.values.get(FALSE_NEGATIVES);
+	}
+
+	@Override
+	public double getAccuracy() {
+		// Read the confusion matrix again until not torn by a publication
+		long correct, total, version;
+		do {
+			version = this.values.get(VERSION);
+			correct = this.values.get(TRUE_POSITIVES) + this.values.get(TRUE_NEGATIVES);
+			total = correct + this.values.get(FALSE_POSITIVES) + this.values.get(FALSE_NEGATIVES);
+		} while ((version & 1) != 0 || version != this.values.get(VERSION));
+		return total > 0 ? 1.0 * correct / total : Double.NaN;
+	}
+
+	@Override
+	public long getPredictionP50Nanos() {
+		return this.values.get(PREDICTION_P50);
+	}
+
+	@Override
+	public long getPredictionP99Nanos() {
+		return this.values.get(PREDICTION_P99);
+	}
+
+	@Override
+	public long getTrainingP99Nanos() {
+		return this.values.get(TRAINING_P99);
+	}
+
+	@Override
+	public long getQueueDepth() {
+		return this.values.get(QUEUE_DEPTH);
+	}
+
+	@Override
+	public long getModelBytes() {
+		return this.values.get(MODEL_BYTES);
+	}
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+/**
+ * Live metrics of a running evaluation, readable through JMX (e.g., from
+ * JConsole). Values are published periodically by the evaluating thread, so
+ * they may lag the evaluation by a few rows. Each attribute is read on its
+ * own, so attributes read together (e.g., the cells of the confusion matrix)
+ * may come from consecutive publications; the accuracy is consistent
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public interface EvaluationMetricsMBean {
+
+	/**
+	 * @return name of the evaluated learner
+	 */
+	public String getLearner();
+
+	/**
+	 * @return number of processed rows
+	 */
+	public long getRows();
+
+	/**
+	 * @return number of processed rows per second over the last second
+	 */
+	public double getInstancesPerSecond();
+
+	/**
+	 * @return number of test instances
+	 */
+	public long getTests();
+
+	/**
+	 * @return number of training instances
+	 */
+	public long getTrains();
+
+	/**
+	 * @return number of rows with an unrecognized train mark
+	 */
+	public long getErrors();
+
+	/**
+	 * @return number of positives predicted as positives
+	 */
+	public long getTruePositives();
+
+	/**
+	 * @return number of negatives predicted as positives
+	 */
+	public long getFalsePositives();
+
+	/**
+	 * @return number of negatives predicted as negatives
+	 */
+	public long getTrueNegatives();
+
+	/**
+	 * @return number of positives predicted as negatives
+	 */
+	public long getFalseNegatives();
+
+	/**
+	 * @return accuracy of the tests so far
+	 */
+	public double getAccuracy();
+
+	/**
+	 * @return median prediction latency (in nanoseconds)
+	 */
+	public long getPredictionP50Nanos();
+
+	/**
+	 * @return 99th percentile of the prediction latency (in nanoseconds)
+	 */
+	public long getPredictionP99Nanos();
+
+	/**
+	 * @return 99th percentile of the training latency (in nanoseconds)
+	 */
+	public long getTrainingP99Nanos();
+
+	/**
+	 * @return number of queued rows or training instances (-1 if not queued)
+	 */
+	public long getQueueDepth();
+
+	/**
+	 * @return byte size of the learner at its last sample (-1 if not sampled)
+	 */
+	public long getModelBytes();
+
+}
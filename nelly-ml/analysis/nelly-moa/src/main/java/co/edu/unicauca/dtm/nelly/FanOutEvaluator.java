@@ -0,0 +1,311 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Evaluates several evaluations over a single parsed stream. The calling
+ * thread reads the stream into a bounded pool of row batches, which are shared
+ * by all the evaluations (one thread per evaluation). A batch returns to the
+ * pool once every evaluation has processed it, so the slowest evaluation
+ * throttles the reading of the stream. Replays of a {@link DatasetArena} are
+ * not read into batches: each evaluation replays the arena on its own, reading
+ * the rows in place
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class FanOutEvaluator {
+
+	/**
+	 * Default number of rows of each batch
+	 */
+	public static final int DEFAULT_BATCH_ROWS = 1024;
+
+	/**
+	 * Default number of batches in the pool
+	 */
+	public static final int DEFAULT_NUM_BATCHES = 16;
+
+	/**
+	 * Block of consecutive rows shared by all the evaluations
+	 */
+	private static class Batch {
+
+		/**
+		 * Row values, one row after another
+		 */
+		private final double[] values;
+
+		/**
+		 * Number of rows in the batch
+		 */
+		private int rows;
+
+		/**
+		 * Number of evaluations that have not processed the batch yet
+		 */
+		private final AtomicInteger pending;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param width
+		 * @param capacity
+		 */
+		private Batch(int width, int capacity) {
+			this.values = new double[width * capacity];
+			this.rows = 0;
+			this.pending = new AtomicInteger();
+		}
+	}
+
+	/**
+	 * Marks the end of the stream
+	 */
+	private static final Batch END = new Batch(0, 0);
+
+	/**
+	 * 
+	 */
+	private final RowEvaluation[] evaluations;
+
+	/**
+	 * 
+	 */
+	private final int batchRows;
+
+	/**
+	 * 
+	 */
+	private final int numBatches;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param evaluations
+	 *            evaluations fed with the rows of the stream
+	 */
+	public FanOutEvaluator(RowEvaluation[] evaluations) {
+		this(evaluations, DEFAULT_BATCH_ROWS, DEFAULT_NUM_BATCHES);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param evaluations
+	 *            evaluations fed with the rows of the stream
+	 * @param batchRows
+	 *            number of rows of each batch
+	 * @param numBatches
+	 *            number of batches in the pool
+	 */
+	public FanOutEvaluator(RowEvaluation[] evaluations, int batchRows, int numBatches) {
+		super();
+		this.evaluations = evaluations;
+		this.batchRows = Math.max(1, batchRows);
+		this.numBatches = Math.max(1, numBatches);
+	}
+
+	/**
+	 * Reads the stream on the calling thread and feeds its rows to every
+	 * evaluation, returning when all the evaluations finish
+	 * 
+	 * @param stream
+	 */
+	public void run(RowStream stream) {
+		this.run(stream, 0);
+	}
+
+	/**
+	 * Reads the stream on the calling thread, from the given row, and feeds its
+	 * rows to every evaluation, returning when all the evaluations finish
+	 * 
+	 * @param stream
+	 * @param skipRows
+	 *            number of rows to skip (e.g., already evaluated before a
+	 *            snapshot)
+	 */
+	public void run(RowStream stream, long skipRows) {
+		// Check if replaying an arena
+		if (stream instanceof ArenaStream) {
+			this.replay(((ArenaStream) stream).getArena(), skipRows);
+			return;
+		}
+		// Prepare for running
+		stream.prepareForUse();
+		stream.skip(skipRows);
+		final int width = stream.numAttributes();
+		final BlockingQueue<Batch> free = new ArrayBlockingQueue<Batch>(this.numBatches);
+		for (int i = 0; i < this.numBatches; i++) {
+			free.add(new Batch(width, this.batchRows));
+		}
+		// Start a thread per evaluation
+		@SuppressWarnings("unchecked")
+		BlockingQueue<Batch>[] queues = new BlockingQueue[this.evaluations.length];
+		Thread[] workers = new Thread[this.evaluations.length];
+		for (int i = 0; i < this.evaluations.length; i++) {
+			final RowEvaluation evaluation = this.evaluations[i];
+			final BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(this.numBatches + 1);
+			queues[i] = queue;
+			workers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					FanOutEvaluator.evaluate(evaluation, queue, free, width);
+				}
+			}, "nelly-evaluation-" + i);
+			workers[i].start();
+		}
+		double[] row = new double[width];
+		try {
+			// Go through each batch of rows
+			while (stream.hasMoreInstances()) {
+				Batch batch = free.take();
+				batch.rows = 0;
+				while (batch.rows < this.batchRows && stream.hasMoreInstances()) {
+					stream.nextRow(row);
+					System.arraycopy(row, 0, batch.values, batch.rows * width, width);
+					batch.rows++;
+				}
+				batch.pending.set(queues.length);
+				for (BlockingQueue<Batch> queue : queues) {
+					queue.put(batch);
+				}
+			}
+			// Signal end of stream and wait for evaluations
+			for (BlockingQueue<Batch> queue : queues) {
+				queue.put(END);
+			}
+			for (Thread worker : workers) {
+				worker.join();
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			System.err.println("Internal error. Evaluation was interrupted. Please, contact the developer");
+			System.exit(2);
+		}
+	}
+
+	/**
+	 * Replays an arena on a thread per evaluation, returning when all the
+	 * evaluations finish
+	 * 
+	 * @param arena
+	 * @param skipRows
+	 *            number of rows to skip
+	 */
+	private void replay(final DatasetArena arena, final long skipRows) {
+		Thread[] workers = new Thread[this.evaluations.length];
+		for (int i = 0; i < this.evaluations.length; i++) {
+			final RowEvaluation evaluation = this.evaluations[i];
+			workers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					FanOutEvaluator.evaluate(evaluation, arena, skipRows);
+				}
+			}, "nelly-evaluation-" + i);
+			workers[i].start();
+		}
+		try {
+			for (Thread worker : workers) {
+				worker.join();
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			System.err.println("Internal error. Evaluation was interrupted. Please, contact the developer");
+			System.exit(2);
+		}
+	}
+
+	/**
+	 * Feeds the rows of an arena to an evaluation
+	 * 
+	 * @param evaluation
+	 * @param arena
+	 * @param skipRows
+	 */
+	private static void evaluate(RowEvaluation evaluation, DatasetArena arena, long skipRows) {
+		try {
+			evaluation.begin();
+			ArenaStream replay = arena.replay();
+			replay.skip(skipRows);
+			double[] values = replay.getValues();
+			while (replay.hasMoreInstances()) {
+				evaluation.process(values, replay.nextOffset());
+			}
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			System.err.println("Evaluation failed on thread " + Thread.currentThread().getName());
+			return;
+		}
+		evaluation.finish();
+	}
+
+	/**
+	 * Feeds the batches of a queue to an evaluation
+	 * 
+	 * @param evaluation
+	 * @param queue
+	 * @param free
+	 * @param width
+	 */
+	private static void evaluate(RowEvaluation evaluation, BlockingQueue<Batch> queue, BlockingQueue<Batch> free,
+			int width) {
+		boolean failed = false;
+		try {
+			evaluation.begin();
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			failed = true;
+		}
+		try {
+			Batch batch;
+			while ((batch = queue.take()) != END) {
+				// Keep releasing batches after a failure so other evaluations are not blocked
+				if (!failed) {
+					try {
+						for (int r = 0; r < batch.rows; r++) {
+							evaluation.process(batch.values, r * width);
+						}
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+						failed = true;
+					}
+				}
+				if (batch.pending.decrementAndGet() == 0) {
+					free.put(batch);
+				}
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			System.err.println("Internal error. Evaluation was interrupted. Please, contact the developer");
+			System.exit(2);
+		}
+		if (!failed) {
+			evaluation.finish();
+		} else {
+			System.err.println("Evaluation failed on thread " + Thread.currentThread().getName());
+		}
+	}
+
+}
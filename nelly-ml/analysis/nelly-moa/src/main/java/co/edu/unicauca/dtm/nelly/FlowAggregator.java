@@ -0,0 +1,461 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+/**
+ * Aggregates packets into unidirectional flows (5-tuple) and emits the rows of
+ * the NELLY datasets: a test row when a flow reaches its first N packets, and
+ * a training row when the flow ends (TCP FIN or RST, idle or active timeout,
+ * or end of the trace). Features are the protocol, the ports, and the sizes and
+ * inter-arrival times (in microseconds) of the first N packets; the class is
+ * elephant if the flow sends at least a threshold of bytes. Rows are emitted in
+ * packet order as soon as their class is known, i.e., a test row waits until
+ * its flow reaches the threshold or ends. Flows of fewer than N packets emit
+ * no rows. In early mode, a flow emits a test row at each of its first N
+ * packets (features of packets not seen yet are zero) and every flow trains
+ * when it ends. Each row carries metadata (flow, packet count and timestamps)
+ * for early-detection evaluation. Flow state is kept off-heap (see
+ * {@link OffHeapFlowTable}) and pending rows in a bounded ring of primitive
+ * values, so no objects are created per packet nor per flow. If the ring fills
+ * up behind an unresolved test row (e.g., of a long flow), the oldest pending
+ * rows are dropped and counted
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class FlowAggregator implements OffHeapFlowTable.ExpiryListener {
+
+	/**
+	 * Default number of packets described by the features
+	 */
+	public static final int DEFAULT_PACKETS = 5;
+
+	/**
+	 * Default number of bytes of elephant flows
+	 */
+	public static final long DEFAULT_THRESHOLD = 10000;
+
+	/**
+	 * Default idle timeout of flows (in seconds)
+	 */
+	public static final int DEFAULT_TIMEOUT = 60;
+
+	/**
+	 * Default active timeout of flows (in seconds, 0 for none)
+	 */
+	public static final int DEFAULT_ACTIVE_TIMEOUT = 0;
+
+	/**
+	 * Default number of concurrent flows the table is sized for
+	 */
+	private static final int DEFAULT_FLOWS = 1 << 16;
+
+	/**
+	 * Initial number of rows of the ring
+	 */
+	private static final int INITIAL_ROWS = 1024;
+
+	/**
+	 * Default maximum number of rows of the ring
+	 */
+	public static final int DEFAULT_MAX_ROWS = 1 << 16;
+
+	/**
+	 * Number of metadata values of each row
+	 */
+	private static final int META = 5;
+
+	/**
+	 * Class values
+	 */
+	public static final String MOUSE = "M";
+	public static final String ELEPHANT = "E";
+
+	/**
+	 * 
+	 */
+	private final int numPackets;
+
+	/**
+	 * 
+	 */
+	private final long threshold;
+
+	/**
+	 * Number of values of each row
+	 */
+	private final int numValues;
+
+	/**
+	 * Whether flows test at each of their first packets
+	 */
+	private final boolean early;
+
+	/**
+	 * Active flows
+	 */
+	private final OffHeapFlowTable flows;
+
+	/**
+	 * Ring of rows in packet order (values of each row in sequence)
+	 */
+	private double[] rows;
+
+	/**
+	 * Whether each row of the ring has its class
+	 */
+	private boolean[] resolved;
+
+	/**
+	 * Metadata of each row of the ring (in sequence): flow, packet count (0 for
+	 * training rows), timestamp, timestamp of the first packet of the flow, and
+	 * sequence number of the previous pending row of the flow
+	 */
+	private long[] meta;
+
+	/**
+	 * Metadata of the last row
+	 */
+	private long rowFlow, rowPackets, rowTime, rowStart;
+
+	/**
+	 * Sequence numbers of the first and next rows of the ring
+	 */
+	private long head, tail;
+
+	/**
+	 * Maximum number of rows of the ring
+	 */
+	private final int maxRows;
+
+	/**
+	 * Counters
+	 */
+	private long countFlows, countElephants, countDropped;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param numPackets
+	 *            number of packets described by the features
+	 * @param threshold
+	 *            number of bytes of elephant flows
+	 * @param timeout
+	 *            idle timeout of flows (in seconds)
+	 * @param activeTimeout
+	 *            active timeout of flows (in seconds, 0 for none)
+	 * @param early
+	 *            whether flows test at each of their first packets
+	 */
+	public FlowAggregator(int numPackets, long threshold, int timeout, int activeTimeout, boolean early) {
+		this(numPackets, threshold, timeout, activeTimeout, early, DEFAULT_MAX_ROWS);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param numPackets
+	 *            number of packets described by the features
+	 * @param threshold
+	 *            number of bytes of elephant flows
+	 * @param timeout
+	 *            idle timeout of flows (in seconds)
+	 * @param activeTimeout
+	 *            active timeout of flows (in seconds, 0 for none)
+	 * @param early
+	 *            whether flows test at each of their first packets
+	 * @param maxRows
+	 *            maximum number of rows of the ring (rounded up to a power of
+	 *            two), beyond which the oldest unresolved rows are dropped
+	 */
+	public FlowAggregator(int numPackets, long threshold, int timeout, int activeTimeout, boolean early,
+			int maxRows) {
+		super();
+		this.numPackets = Math.max(1, numPackets);
+		this.threshold = threshold;
+		this.early = early;
+		this.numValues = 3 + this.numPackets + (this.numPackets - 1) + 2;
+		this.flows = new OffHeapFlowTable(this.numPackets, DEFAULT_FLOWS, timeout * 1000000000L,
+				activeTimeout * 1000000000L, OffHeapFlowTable.DEFAULT_TICK);
+		int max = 1;
+		while (max < maxRows) {
+			max <<= 1;
+		}
+		this.maxRows = max;
+		int initial = Math.min(INITIAL_ROWS, max);
+		this.rows = new double[initial * this.numValues];
+		this.resolved = new boolean[initial];
+		this.meta = new long[initial * META];
+	}
+
+	/**
+	 * @param numPackets
+	 *            number of packets described by the features
+	 * @return ARFF header of the rows
+	 */
+	public static String getHeaderText(int numPackets) {
+		StringBuilder header = new StringBuilder();
+		header.append("@relation nelly-flows\n\n");
+		header.append("@attribute protocol numeric\n");
+		header.append("@attribute src_port numeric\n");
+		header.append("@attribute dst_port numeric\n");
+		for (int i = 1; i <= numPackets; i++) {
+			header.append("@attribute pkt_size_").append(i).append(" numeric\n");
+		}
+		for (int i = 1; i < numPackets; i++) {
+			header.append("@attribute pkt_iat_").append(i).append(" numeric\n");
+		}
+		header.append("@attribute class {").append(MOUSE).append(",").append(ELEPHANT).append("}\n");
+		header.append("@attribute train {").append(MOAUtilities.TESTING_INSTANCE).append(",")
+				.append(MOAUtilities.TRAINING_INSTANCE).append("}\n\n");
+		header.append("@data\n");
+		return header.toString();
+	}
+
+	/**
+	 * @return number of values of each row
+	 */
+	public int numAttributes() {
+		return this.numValues;
+	}
+
+	/**
+	 * Adds a packet to its flow
+	 * 
+	 * @param packet
+	 *            current packet of a reader
+	 */
+	public void add(PcapReader packet) {
+		// Expire idle and old flows
+		this.flows.advance(packet.getTimestamp(), this);
+		// Get flow of the packet
+		int slot = this.flows.lookup(packet);
+		if (slot < 0) {
+			slot = this.flows.insert(packet);
+			this.countFlows++;
+			this.flows.setId(slot, this.countFlows);
+		}
+		int packets = this.flows.addPacket(slot, packet.getLength(), packet.getTimestamp());
+		// Test once the first packets are known (or at each of them in early mode)
+		if (packets == this.numPackets || (this.early && packets < this.numPackets)) {
+			this.push(slot, packets, packet.getTimestamp());
+		}
+		// Check if flow becomes an elephant
+		if (!this.flows.isElephant(slot) && this.flows.getBytes(slot) >= this.threshold) {
+			this.flows.setElephant(slot);
+			this.countElephants++;
+			this.resolve(slot, true);
+		}
+		// Check if TCP connection ends
+		if (packet.getProtocol() == PcapReader.PROTOCOL_TCP
+				&& (packet.getTcpFlags() & (PcapReader.TCP_FIN | PcapReader.TCP_RST)) != 0) {
+			this.expired(slot);
+			this.flows.remove(slot);
+		}
+	}
+
+	/**
+	 * Ends a flow, which trains if it was tested
+	 * 
+	 * @param slot
+	 *            record of the flow
+	 */
+	@Override
+	public void expired(int slot) {
+		if (this.early || this.flows.getPackets(slot) >= this.numPackets) {
+			this.resolve(slot, this.flows.isElephant(slot));
+			this.push(slot, 0, this.flows.getLastTime(slot));
+		}
+	}
+
+	/**
+	 * Appends a row of a flow to the ring. Test rows wait for the class of the
+	 * flow unless it is an elephant already, training rows have it
+	 * 
+	 * @param slot
+	 *            record of the flow
+	 * @param packets
+	 *            packet count of a test row (0 for a training row)
+	 * @param time
+	 *            timestamp of the row (in nanoseconds)
+	 */
+	private void push(int slot, int packets, long time) {
+		int capacity = this.resolved.length;
+		// Drop oldest unresolved rows if the ring is full at its maximum (they are
+		// left out of the chains of their flows, which stop at the head)
+		while (capacity == this.maxRows && this.tail - this.head == capacity
+				&& !this.resolved[(int) (this.head % capacity)]) {
+			this.head++;
+			this.countDropped++;
+		}
+		// Grow ring if full (only beyond its maximum if its next rows are ready)
+		if (this.tail - this.head == capacity) {
+			double[] rows = new double[2 * capacity * this.numValues];
+			boolean[] resolved = new boolean[2 * capacity];
+			long[] meta = new long[2 * capacity * META];
+			for (long seq = this.head; seq < this.tail; seq++) {
+				int from = (int) (seq % capacity);
+				int to = (int) (seq % (2 * capacity));
+				System.arraycopy(this.rows, from * this.numValues, rows, to * this.numValues, this.numValues);
+				System.arraycopy(this.meta, from * META, meta, to * META, META);
+				resolved[to] = this.resolved[from];
+			}
+			this.rows = rows;
+			this.resolved = resolved;
+			this.meta = meta;
+			capacity *= 2;
+		}
+		long seq = this.tail;
+		this.tail++;
+		int index = (int) (seq % capacity);
+		int offset = index * this.numValues;
+		this.flows.copyFeatures(slot, this.rows, offset);
+		this.rows[offset + this.numValues - 1] = packets == 0 ? 1 : 0;
+		this.meta[index * META] = this.flows.getId(slot);
+		this.meta[index * META + 1] = packets;
+		this.meta[index * META + 2] = time;
+		this.meta[index * META + 3] = this.flows.getFirstTime(slot);
+		this.meta[index * META + 4] = -1;
+		this.resolved[index] = false;
+		if (packets == 0 || this.flows.isElephant(slot)) {
+			this.resolveRow(index, this.flows.isElephant(slot));
+		} else {
+			// Chain pending test rows of the flow
+			this.meta[index * META + 4] = this.flows.getPending(slot);
+			this.flows.setPending(slot, seq);
+		}
+	}
+
+	/**
+	 * Sets the class of the pending test rows of a flow
+	 * 
+	 * @param slot
+	 *            record of the flow
+	 * @param elephant
+	 */
+	private void resolve(int slot, boolean elephant) {
+		long seq = this.flows.getPending(slot);
+		while (seq >= this.head && seq < this.tail) {
+			int index = (int) (seq % this.resolved.length);
+			this.resolveRow(index, elephant);
+			seq = this.meta[index * META + 4];
+		}
+		this.flows.setPending(slot, -1);
+	}
+
+	/**
+	 * @param index
+	 *            position of a row in the ring
+	 * @param elephant
+	 */
+	private void resolveRow(int index, boolean elephant) {
+		this.rows[index * this.numValues + this.numValues - 2] = elephant ? 1 : 0;
+		this.resolved[index] = true;
+	}
+
+	/**
+	 * Ends all the flows (at the end of the trace)
+	 */
+	public void finish() {
+		this.flows.expireAll(this);
+	}
+
+	/**
+	 * @return whether the next row has its class
+	 */
+	public boolean hasRow() {
+		return this.head < this.tail && this.resolved[(int) (this.head % this.resolved.length)];
+	}
+
+	/**
+	 * Copies the values of the next row (only if {@link #hasRow()})
+	 * 
+	 * @param values
+	 *            array of at least {@link #numAttributes()} values
+	 */
+	public void nextRow(double[] values) {
+		int index = (int) (this.head % this.resolved.length);
+		System.arraycopy(this.rows, index * this.numValues, values, 0, this.numValues);
+		this.rowFlow = this.meta[index * META];
+		this.rowPackets = this.meta[index * META + 1];
+		this.rowTime = this.meta[index * META + 2];
+		this.rowStart = this.meta[index * META + 3];
+		this.head++;
+	}
+
+	/**
+	 * @return flow of the last row (numbered from 1 in order of appearance)
+	 */
+	public long getRowFlow() {
+		return this.rowFlow;
+	}
+
+	/**
+	 * @return packet count of the last row if for testing (0 if for training)
+	 */
+	public int getRowPackets() {
+		return (int) this.rowPackets;
+	}
+
+	/**
+	 * @return timestamp of the last row, i.e., of its last packet (in
+	 *         nanoseconds)
+	 */
+	public long getRowTime() {
+		return this.rowTime;
+	}
+
+	/**
+	 * @return timestamp of the first packet of the flow of the last row (in
+	 *         nanoseconds)
+	 */
+	public long getRowStart() {
+		return this.rowStart;
+	}
+
+	/**
+	 * @return number of flows seen
+	 */
+	public long getCountFlows() {
+		return this.countFlows;
+	}
+
+	/**
+	 * @return number of elephant flows seen
+	 */
+	public long getCountElephants() {
+		return this.countElephants;
+	}
+
+	/**
+	 * @return number of unresolved test rows dropped because the ring was full
+	 */
+	public long getCountDropped() {
+		return this.countDropped;
+	}
+
+	/**
+	 * @return memory of the flow table (in bytes)
+	 */
+	public long getTableMemory() {
+		return this.flows.getMemory();
+	}
+
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+/**
+ * Decodes primitive rows into a pool of reusable instances whose values are
+ * already projected to the header of the learner (i.e., without the column
+ * that marks training instances). The train mark is resolved by comparing
+ * nominal indexes
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class InstanceDecoder {
+
+	/**
+	 * Mark of instances for testing
+	 */
+	public static final int TEST = 0;
+
+	/**
+	 * Mark of instances for training
+	 */
+	public static final int TRAIN = 1;
+
+	/**
+	 * Mark not recognized
+	 */
+	public static final int UNKNOWN = -1;
+
+	/**
+	 * Index of the column that marks training instances
+	 */
+	private final int indexTrain;
+
+	/**
+	 * 
+	 */
+	private final Attribute trainAtt;
+
+	/**
+	 * Nominal index of the testing mark
+	 */
+	private final int testValue;
+
+	/**
+	 * Nominal index of the training mark
+	 */
+	private final int trainValue;
+
+	/**
+	 * Number of values of the projected instances
+	 */
+	private final int numValues;
+
+	/**
+	 * Whether training instances must be copied because the learner keeps them
+	 */
+	private final boolean copyOnTrain;
+
+	/**
+	 * Full row read from the stream
+	 */
+	private final double[] row;
+
+	/**
+	 * Reusable instances, handed out in round robin
+	 */
+	private final Instance[] pool;
+
+	/**
+	 * Position of the last decoded instance in the pool
+	 */
+	private int current;
+
+	/**
+	 * Train mark value of the last decoded row
+	 */
+	private double mark;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param numAttributes
+	 *            number of values of the rows (including the train mark)
+	 * @param indexTrain
+	 *            index of the column that marks training instances
+	 * @param trainAtt
+	 *            attribute that marks training instances
+	 * @param actualHeader
+	 *            header of the learner (without the train mark)
+	 * @param copyOnTrain
+	 *            whether training instances must be copied because the learner
+	 *            keeps them
+	 */
+	public InstanceDecoder(int numAttributes, int indexTrain, Attribute trainAtt, InstancesHeader actualHeader,
+			boolean copyOnTrain) {
+		this(numAttributes, indexTrain, trainAtt, actualHeader, copyOnTrain, 1);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param numAttributes
+	 *            number of values of the rows (including the train mark)
+	 * @param indexTrain
+	 *            index of the column that marks training instances
+	 * @param trainAtt
+	 *            attribute that marks training instances
+	 * @param actualHeader
+	 *            header of the learner (without the train mark)
+	 * @param copyOnTrain
+	 *            whether training instances must be copied because the learner
+	 *            keeps them
+	 * @param poolSize
+	 *            number of instances that can be in use at the same time
+	 */
+	public InstanceDecoder(int numAttributes, int indexTrain, Attribute trainAtt, InstancesHeader actualHeader,
+			boolean copyOnTrain, int poolSize) {
+		super();
+		this.indexTrain = indexTrain;
+		this.trainAtt = trainAtt;
+		this.testValue = InstanceDecoder.indexOfMark(trainAtt, MOAUtilities.TESTING_INSTANCE);
+		this.trainValue = InstanceDecoder.indexOfMark(trainAtt, MOAUtilities.TRAINING_INSTANCE);
+		this.numValues = numAttributes - 1;
+		this.copyOnTrain = copyOnTrain;
+		this.row = new double[numAttributes];
+		// Allocate pool of instances with the actual header
+		this.pool = new Instance[Math.max(1, poolSize)];
+		for (int i = 0; i < this.pool.length; i++) {
+			Instance instance = new DenseInstance(1.0, new double[this.numValues]);
+			instance.setDataset(actualHeader);
+			this.pool[i] = instance;
+		}
+		this.current = 0;
+	}
+
+	/**
+	 * @param trainAtt
+	 * @param mark
+	 * @return nominal index of the mark (ignoring case), or -2 if the attribute
+	 *         does not declare it
+	 */
+	private static int indexOfMark(Attribute trainAtt, String mark) {
+		if (trainAtt.isNominal()) {
+			for (int i = 0; i < trainAtt.numValues(); i++) {
+				if (trainAtt.value(i).equalsIgnoreCase(mark)) {
+					return i;
+				}
+			}
+		}
+		return -2;
+	}
+
+	/**
+	 * Reads the next row of the stream and decodes it
+	 * 
+	 * @param stream
+	 * @return mark of the instance ({@link #TEST}, {@link #TRAIN} or
+	 *         {@link #UNKNOWN})
+	 */
+	public int next(RowStream stream) {
+		stream.nextRow(this.row);
+		return this.decode(this.row, 0);
+	}
+
+	/**
+	 * Decodes a row into the next instance of the pool
+	 * 
+	 * @param values
+	 *            array that contains the row
+	 * @param offset
+	 *            position of the row in the array
+	 * @return mark of the instance ({@link #TEST}, {@link #TRAIN} or
+	 *         {@link #UNKNOWN})
+	 */
+	public int decode(double[] values, int offset) {
+		this.current = (this.current + 1) % this.pool.length;
+		Instance instance = this.pool[this.current];
+		instance.setWeight(1.0);
+		// Copy values, skipping the train mark
+		for (int i = 0; i < this.indexTrain; i++) {
+			instance.setValue(i, values[offset + i]);
+		}
+		for (int i = this.indexTrain; i < this.numValues; i++) {
+			instance.setValue(i, values[offset + i + 1]);
+		}
+		// Resolve mark
+		this.mark = values[offset + this.indexTrain];
+		int mark = (int) this.mark;
+		if (Double.isNaN(this.mark)) {
+			return UNKNOWN;
+		} else if (mark == this.testValue) {
+			return TEST;
+		} else if (mark == this.trainValue) {
+			return TRAIN;
+		}
+		return UNKNOWN;
+	}
+
+	/**
+	 * @return last decoded instance (valid until the pool wraps around)
+	 */
+	public Instance instance() {
+		return this.pool[this.current];
+	}
+
+	/**
+	 * @return last decoded instance, copied if the learner keeps training
+	 *         instances
+	 */
+	public Instance trainingInstance() {
+		Instance instance = this.pool[this.current];
+		return this.copyOnTrain ? instance.copy() : instance;
+	}
+
+	/**
+	 * @return train mark of the last decoded row, as text
+	 */
+	public String markValue() {
+		if (Double.isNaN(this.mark) || !this.trainAtt.isNominal()) {
+			return String.valueOf(this.mark);
+		}
+		return this.trainAtt.value((int) this.mark);
+	}
+
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+/**
+ * Fixed-memory histogram of latencies (in nanoseconds) with log-linear buckets,
+ * in the style of HdrHistogram: values are grouped by their power of two and,
+ * within it, into linear sub-buckets, so every recorded value is kept with a
+ * bounded relative error. Recording is a few arithmetic operations and an
+ * array increment, without allocation. Not thread-safe
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Default number of bits of the sub-buckets (relative error below 1%)
+	 */
+	public static final int DEFAULT_SUB_BUCKET_BITS = 8;
+
+	/**
+	 * Default highest trackable value (one minute, in nanoseconds)
+	 */
+	public static final long DEFAULT_HIGHEST_VALUE = 60000000000L;
+
+	/**
+	 * Number of bits of the sub-buckets
+	 */
+	private final int subBucketBits;
+
+	/**
+	 * Half the number of sub-buckets of each power of two
+	 */
+	private final int subBucketHalf;
+
+	/**
+	 * Highest trackable value (greater values are recorded as this one)
+	 */
+	private final long highestValue;
+
+	/**
+	 * Count of each bucket
+	 */
+	private final long[] counts;
+
+	/**
+	 * 
+	 */
+	private long totalCount;
+
+	/**
+	 * 
+	 */
+	private long min;
+
+	/**
+	 * 
+	 */
+	private long max;
+
+	/**
+	 * Sum of the recorded values (for the mean)
+	 */
+	private double sum;
+
+	/**
+	 * Constructor with default precision and range
+	 */
+	public LatencyHistogram() {
+		this(DEFAULT_SUB_BUCKET_BITS, DEFAULT_HIGHEST_VALUE);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param subBucketBits
+	 *            number of bits of the sub-buckets (the relative error is below
+	 *            2^(1 - subBucketBits))
+	 * @param highestValue
+	 *            highest trackable value
+	 */
+	public LatencyHistogram(int subBucketBits, long highestValue) {
+		super();
+		this.subBucketBits = Math.max(2, Math.min(subBucketBits, 20));
+		this.subBucketHalf = 1 << (this.subBucketBits - 1);
+		this.highestValue = Math.max(1, highestValue);
+		this.counts = new long[this.indexOf(this.highestValue) + 1];
+		this.reset();
+	}
+
+	/**
+	 * @param value
+	 * @return index of the bucket of the value
+	 */
+	private int indexOf(long value) {
+		if (value < (1L << this.subBucketBits)) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value) - (this.subBucketBits - 1);
+		return exponent * this.subBucketHalf + (int) (value >>> exponent);
+	}
+
+	/**
+	 * @param index
+	 * @return highest value that falls in the bucket
+	 */
+	private long highestValueOf(int index) {
+		if (index < 2 * this.subBucketHalf) {
+			return index;
+		}
+		int exponent = index / this.subBucketHalf - 1;
+		long mantissa = index - exponent * this.subBucketHalf;
+		return ((mantissa + 1) << exponent) - 1;
+	}
+
+	/**
+	 * Records a value
+	 * 
+	 * @param value
+	 *            latency (negative values are recorded as 0)
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		this.counts[this.indexOf(Math.min(value, this.highestValue))]++;
+		this.totalCount++;
+		this.sum += value;
+		if (value < this.min) {
+			this.min = value;
+		}
+		if (value > this.max) {
+			this.max = value;
+		}
+	}
+
+	/**
+	 * Adds the values recorded by another histogram of the same precision and
+	 * range
+	 * 
+	 * @param other
+	 */
+	public void add(LatencyHistogram other) {
+		if (other.counts.length != this.counts.length || other.subBucketBits != this.subBucketBits) {
+			throw new IllegalArgumentException("Histograms have different precision or range");
+		}
+		for (int i = 0; i < this.counts.length; i++) {
+			this.counts[i] += other.counts[i];
+		}
+		this.totalCount += other.totalCount;
+		this.sum += other.sum;
+		this.min = Math.min(this.min, other.min);
+		this.max = Math.max(this.max, other.max);
+	}
+
+	/**
+	 * Removes all the recorded values
+	 */
+	public void reset() {
+		for (int i = 0; i < this.counts.length; i++) {
+			this.counts[i] = 0;
+		}
+		this.totalCount = 0;
+		this.sum = 0;
+		this.min = Long.MAX_VALUE;
+		this.max = 0;
+	}
+
+	/**
+	 * @return number of recorded values
+	 */
+	public long getTotalCount() {
+		return this.totalCount;
+	}
+
+	/**
+	 * @return lowest recorded value (0 if empty)
+	 */
+	public long getMin() {
+		return this.totalCount == 0 ? 0 : this.min;
+	}
+
+	/**
+	 * @return highest recorded value (0 if empty)
+	 */
+	public long getMax() {
+		return this.max;
+	}
+
+	/**
+	 * @return mean of the recorded values (NaN if empty)
+	 */
+	public double getMean() {
+		return this.sum / this.totalCount;
+	}
+
+	/**
+	 * @param percentile
+	 *            percentile in [0, 100]
+	 * @return highest value (within the precision of the histogram) below which
+	 *         the given percentage of the recorded values fall (0 if empty)
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (this.totalCount == 0) {
+			return 0;
+		}
+		double fraction = Math.max(0, Math.min(percentile, 100)) / 100;
+		long target = Math.max(1, (long) Math.ceil(fraction * this.totalCount));
+		long count = 0;
+		for (int i = 0; i < this.counts.length; i++) {
+			count += this.counts[i];
+			if (count >= target) {
+				return Math.min(this.highestValueOf(i), this.max);
+			}
+		}
+		return this.max;
+	}
+
+}
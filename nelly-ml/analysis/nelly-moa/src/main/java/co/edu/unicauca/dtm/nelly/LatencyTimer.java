@@ -0,0 +1,213 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import moa.core.TimingUtils;
+
+/**
+ * Times an operation (e.g., predictions) on one in N calls, with the thread
+ * CPU clock or the wall clock. Reading the thread CPU clock costs about a
+ * microsecond, which is comparable to the operation of cheap learners, so the
+ * overhead of reading the clock is calibrated and subtracted from each
+ * measurement, and sampling avoids paying it on every call
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class LatencyTimer {
+
+	/**
+	 * Thread CPU clock
+	 */
+	public static final int CPU = 0;
+
+	/**
+	 * Wall clock ({@link System#nanoTime()})
+	 */
+	public static final int WALL = 1;
+
+	/**
+	 * Value of calls that are not timed
+	 */
+	public static final long NOT_SAMPLED = -1;
+
+	/**
+	 * Number of clock reads for calibrating the overhead
+	 */
+	private static final int CALIBRATION_READS = 2001;
+
+	/**
+	 * 
+	 */
+	public static final Map<String, Integer> clockOptions;
+	static {
+		clockOptions = new HashMap<String, Integer>();
+		clockOptions.put("cpu", CPU);
+		clockOptions.put("wall", WALL);
+	}
+
+	/**
+	 * 
+	 */
+	private final int clock;
+
+	/**
+	 * Number of calls per timed call
+	 */
+	private final int sampleRate;
+
+	/**
+	 * Calls until the next timed call
+	 */
+	private int countdown;
+
+	/**
+	 * Overhead of reading the clock twice (in nanoseconds)
+	 */
+	private final long overhead;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param clock
+	 *            {@link #CPU} or {@link #WALL}
+	 * @param sampleRate
+	 *            number of calls per timed call (1 for timing every call)
+	 */
+	public LatencyTimer(int clock, int sampleRate) {
+		super();
+		this.clock = clock;
+		this.sampleRate = Math.max(1, sampleRate);
+		this.countdown = 0;
+		if (clock == CPU) {
+			TimingUtils.enablePreciseTiming();
+		}
+		this.overhead = this.calibrate();
+	}
+
+	/**
+	 * Parses a timing option, i.e., the clock optionally followed by the sample
+	 * rate (e.g., 'cpu' or 'wall,100')
+	 * 
+	 * @param arg
+	 * @return clock and sample rate, or null if the option is malformed
+	 */
+	public static int[] parseOption(String arg) {
+		StringTokenizer st = new StringTokenizer(arg, ",");
+		// Check that given clock exists
+		String clockArg = st.hasMoreTokens() ? st.nextToken() : "";
+		if (!LatencyTimer.clockOptions.containsKey(clockArg)) {
+			System.out.println("Timing clock '" + clockArg + "' does not exist");
+			return null;
+		}
+		int sampleRate = 1;
+		if (st.hasMoreTokens()) {
+			String sampleArg = st.nextToken();
+			try {
+				sampleRate = Integer.parseInt(sampleArg);
+			} catch (Exception e) {
+				System.out.println("Error parsing timing sample rate '" + sampleArg + "' to integer");
+				return null;
+			}
+			if (sampleRate < 1) {
+				System.out.println("Timing sample rate must be at least 1");
+				return null;
+			}
+		}
+		return new int[] { LatencyTimer.clockOptions.get(clockArg), sampleRate };
+	}
+
+	/**
+	 * @return current time of the clock (in nanoseconds)
+	 */
+	private long read() {
+		return this.clock == WALL ? System.nanoTime() : TimingUtils.getNanoCPUTimeOfCurrentThread();
+	}
+
+	/**
+	 * Measures the median time between two consecutive clock reads
+	 * 
+	 * @return overhead of timing an empty operation (in nanoseconds)
+	 */
+	private long calibrate() {
+		long[] deltas = new long[CALIBRATION_READS];
+		// Warm up clock
+		for (int i = 0; i < CALIBRATION_READS; i++) {
+			this.read();
+		}
+		for (int i = 0; i < CALIBRATION_READS; i++) {
+			long start = this.read();
+			deltas[i] = this.read() - start;
+		}
+		Arrays.sort(deltas);
+		return deltas[CALIBRATION_READS / 2];
+	}
+
+	/**
+	 * Starts timing a call
+	 * 
+	 * @return start time, or {@link #NOT_SAMPLED} if the call is not timed
+	 */
+	public long start() {
+		if (this.countdown > 0) {
+			this.countdown--;
+			return NOT_SAMPLED;
+		}
+		this.countdown = this.sampleRate - 1;
+		return this.read();
+	}
+
+	/**
+	 * Stops timing a call
+	 * 
+	 * @param start
+	 *            value returned by {@link #start()}
+	 * @return time of the call without the overhead of the clock (in
+	 *         nanoseconds), or {@link #NOT_SAMPLED} if the call is not timed
+	 */
+	public long stop(long start) {
+		if (start == NOT_SAMPLED) {
+			return NOT_SAMPLED;
+		}
+		return Math.max(0, this.read() - start - this.overhead);
+	}
+
+	/**
+	 * @return overhead of the clock subtracted from each measurement (in
+	 *         nanoseconds)
+	 */
+	public long getOverhead() {
+		return this.overhead;
+	}
+
+	/**
+	 * @return description of the timing (for reports)
+	 */
+	public String describe() {
+		return (this.clock == WALL ? "wall" : "cpu") + " clock, 1 in " + this.sampleRate + " calls, overhead "
+				+ this.overhead + " ns";
+	}
+
+}
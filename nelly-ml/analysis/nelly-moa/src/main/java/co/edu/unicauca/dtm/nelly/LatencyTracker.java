@@ -0,0 +1,253 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+
+/**
+ * Tracks prediction and training latencies of an evaluation into histograms.
+ * Besides the totals for the final report, snapshots of the percentiles of
+ * each interval (a fixed number of tests) can be written to a CSV file
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class LatencyTracker {
+
+	/**
+	 * Reported percentiles
+	 */
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	/**
+	 * Labels of the reported percentiles
+	 */
+	private static final String[] PERCENTILE_LABELS = { "p50", "p90", "p99", "p999" };
+
+	/**
+	 * Prediction latencies of the whole evaluation
+	 */
+	private final LatencyHistogram predictionTotal;
+
+	/**
+	 * Training latencies of the whole evaluation
+	 */
+	private final LatencyHistogram trainingTotal;
+
+	/**
+	 * Prediction latencies of the current interval
+	 */
+	private final LatencyHistogram predictionInterval;
+
+	/**
+	 * Training latencies of the current interval
+	 */
+	private final LatencyHistogram trainingInterval;
+
+	/**
+	 * Number of tests of each interval (0 for no interval snapshots)
+	 */
+	private final int interval;
+
+	/**
+	 * 
+	 */
+	private CSVResultSink output;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param outFile
+	 *            CSV file for the interval snapshots (ignored if interval is 0)
+	 * @param interval
+	 *            number of tests of each interval (0 for no interval snapshots)
+	 */
+	public LatencyTracker(File outFile, int interval) {
+		super();
+		this.predictionTotal = new LatencyHistogram();
+		this.trainingTotal = new LatencyHistogram();
+		this.predictionInterval = new LatencyHistogram();
+		this.trainingInterval = new LatencyHistogram();
+		this.interval = Math.max(0, interval);
+		if (this.interval > 0) {
+			try {
+				this.output = new CSVResultSink(outFile);
+			} catch (FileNotFoundException e) {
+				e.printStackTrace();
+				System.err.println("Internal error. File '" + outFile.getAbsolutePath()
+						+ "' does not exist. Please, contact the developer");
+				System.exit(2);
+			}
+			this.writeCSVHeader();
+		}
+	}
+
+	/**
+	 * @param outFile
+	 *            CSV file of the results
+	 * @return CSV file of the interval snapshots, next to the results
+	 */
+	public static File getIntervalFile(File outFile) {
+		return new File(outFile.getPath().replaceFirst("(\\.csv)?$", "-latency.csv"));
+	}
+
+	/**
+	 * 
+	 */
+	private void writeCSVHeader() {
+		StringBuilder csvHeader = new StringBuilder();
+		csvHeader.append("num_tests,");
+		csvHeader.append("num_trains,");
+		for (String phase : new String[] { "predict", "train" }) {
+			csvHeader.append(phase).append("_count,");
+			for (String label : PERCENTILE_LABELS) {
+				csvHeader.append(phase).append("_").append(label).append(",");
+			}
+			csvHeader.append(phase).append("_max,");
+		}
+		csvHeader.setLength(csvHeader.length() - 1);
+		this.output.writeLine(csvHeader);
+	}
+
+	/**
+	 * @param nanos
+	 *            prediction latency (in nanoseconds)
+	 */
+	public void recordPrediction(long nanos) {
+		this.predictionInterval.record(nanos);
+	}
+
+	/**
+	 * @param nanos
+	 *            training latency (in nanoseconds)
+	 */
+	public void recordTraining(long nanos) {
+		this.trainingInterval.record(nanos);
+	}
+
+	/**
+	 * @param percentile
+	 *            percentile (between 0 and 100)
+	 * @return prediction latency at the percentile of the current interval, or
+	 *         of the totals if the interval is empty (in nanoseconds)
+	 */
+	public long getPredictionPercentile(double percentile) {
+		return LatencyTracker.percentile(this.predictionInterval, this.predictionTotal, percentile);
+	}
+
+	/**
+	 * @param percentile
+	 *            percentile (between 0 and 100)
+	 * @return training latency at the percentile of the current interval, or of
+	 *         the totals if the interval is empty (in nanoseconds)
+	 */
+	public long getTrainingPercentile(double percentile) {
+		return LatencyTracker.percentile(this.trainingInterval, this.trainingTotal, percentile);
+	}
+
+	/**
+	 * @param interval
+	 * @param total
+	 * @param percentile
+	 * @return value at the percentile of the interval, or of the totals if the
+	 *         interval is empty
+	 */
+	private static long percentile(LatencyHistogram interval, LatencyHistogram total, double percentile) {
+		return (interval.getTotalCount() > 0 ? interval : total).getValueAtPercentile(percentile);
+	}
+
+	/**
+	 * Closes the interval once it reaches its number of tests
+	 * 
+	 * @param numTests
+	 * @param numTrains
+	 */
+	public void endTest(int numTests, int numTrains) {
+		if (this.interval > 0 && numTests % this.interval == 0) {
+			this.snapshot(numTests, numTrains);
+		}
+	}
+
+	/**
+	 * Adds the current interval to the totals, writing its snapshot if enabled
+	 * 
+	 * @param numTests
+	 * @param numTrains
+	 */
+	private void snapshot(int numTests, int numTrains) {
+		if (this.output != null) {
+			this.output.field(numTests).field(numTrains);
+			for (LatencyHistogram histogram : new LatencyHistogram[] { this.predictionInterval,
+					this.trainingInterval }) {
+				this.output.field(histogram.getTotalCount());
+				for (double percentile : PERCENTILES) {
+					this.output.field(histogram.getValueAtPercentile(percentile));
+				}
+				this.output.field(histogram.getMax());
+			}
+			this.output.endRow();
+		}
+		this.predictionTotal.add(this.predictionInterval);
+		this.trainingTotal.add(this.trainingInterval);
+		this.predictionInterval.reset();
+		this.trainingInterval.reset();
+	}
+
+	/**
+	 * Closes the last interval and appends the latency percentiles to a report
+	 * 
+	 * @param report
+	 * @param numTests
+	 * @param numTrains
+	 */
+	public void finish(StringBuilder report, int numTests, int numTrains) {
+		if (this.predictionInterval.getTotalCount() > 0 || this.trainingInterval.getTotalCount() > 0) {
+			this.snapshot(numTests, numTrains);
+		}
+		report.append("Latency (nanoseconds)\n");
+		LatencyTracker.appendPercentiles(report, " - Predict", this.predictionTotal);
+		LatencyTracker.appendPercentiles(report, " - Train", this.trainingTotal);
+	}
+
+	/**
+	 * @param report
+	 * @param label
+	 * @param histogram
+	 */
+	static void appendPercentiles(StringBuilder report, String label, LatencyHistogram histogram) {
+		report.append(label).append(": count = ").append(histogram.getTotalCount());
+		for (int i = 0; i < PERCENTILES.length; i++) {
+			report.append(", ").append(PERCENTILE_LABELS[i]).append(" = ")
+					.append(histogram.getValueAtPercentile(PERCENTILES[i]));
+		}
+		report.append(", max = ").append(histogram.getMax()).append("\n");
+	}
+
+	/**
+	 * 
+	 */
+	public void close() {
+		if (this.output != null) {
+			this.output.close();
+		}
+	}
+
+}
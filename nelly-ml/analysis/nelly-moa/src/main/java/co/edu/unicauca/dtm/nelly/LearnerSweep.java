@@ -0,0 +1,773 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import moa.classifiers.Classifier;
+import moa.core.TimingUtils;
+import moa.core.Utils;
+
+/**
+ * Hyper-parameter sweep of binary classifiers. Configurations are learners
+ * with MOA option strings, where '{a,b,c}' chooses one of several values and
+ * '[lo:hi]' draws a value uniformly (random search only). The whole grid of
+ * choices is evaluated, or a random sample of configurations if a number of
+ * samples is given. The dataset is decoded once into an arena shared by all
+ * the configurations, which run in parallel on a work-stealing pool. The
+ * result is a table of accuracy against prediction cost and memory (measured
+ * only with the sizeofag agent)
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class LearnerSweep {
+
+	/**
+	 * Maximum number of configurations of a grid
+	 */
+	private static final int MAX_CONFIGURATIONS = 100000;
+
+	/**
+	 * 
+	 */
+	private static final Map<String, Integer> options;
+	static {
+		options = new HashMap<String, Integer>();
+		options.put("--help", 0);
+		options.put("--arff", 1);
+		options.put("--out", 2);
+		options.put("--configs", 3);
+		options.put("--random", 4);
+		options.put("--seed", 5);
+		options.put("--threads", 6);
+		options.put("--idxClass", 7);
+		options.put("--idxTrain", 8);
+		options.put("--pClass", 9);
+		options.put("--target", 10);
+	}
+
+	/**
+	 * Configuration of a learner and its results
+	 */
+	static class Configuration {
+
+		/**
+		 * 
+		 */
+		final String learnerName;
+
+		/**
+		 * MOA option string of the learner (empty for default options)
+		 */
+		final String learnerOptions;
+
+		/**
+		 * Confusion matrix
+		 */
+		long truePositives, trueNegatives, falsePositives, falseNegatives;
+
+		/**
+		 * 
+		 */
+		long countTrainSamples;
+
+		/**
+		 * Prediction and training latencies (in nanoseconds)
+		 */
+		LatencyHistogram predictions, trainings;
+
+		/**
+		 * Memory of the learner at the end (in bytes, -1 if not measured without
+		 * the sizeofag agent)
+		 */
+		long memory;
+
+		/**
+		 * CPU time of the evaluation (in seconds)
+		 */
+		double totalTime;
+
+		/**
+		 * Error message if the evaluation failed (null otherwise)
+		 */
+		String error;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param learnerName
+		 * @param learnerOptions
+		 */
+		Configuration(String learnerName, String learnerOptions) {
+			this.learnerName = learnerName;
+			this.learnerOptions = learnerOptions;
+		}
+
+		/**
+		 * @return accuracy of the predictions
+		 */
+		double accuracy() {
+			return 1.0 * (this.truePositives + this.trueNegatives)
+					/ (this.truePositives + this.trueNegatives + this.falsePositives + this.falseNegatives);
+		}
+
+		/**
+		 * @return harmonic mean of precision and recall
+		 */
+		double f1Score() {
+			return 2.0 * this.truePositives / (2 * this.truePositives + this.falsePositives + this.falseNegatives);
+		}
+
+		/**
+		 * @return learner with its options, as written in the configurations
+		 */
+		String describe() {
+			return this.learnerOptions.isEmpty() ? this.learnerName : this.learnerName + " " + this.learnerOptions;
+		}
+	}
+
+	/**
+	 * Decoded dataset, shared by the evaluations of all the configurations
+	 */
+	private final DatasetArena arena;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param arena
+	 *            decoded dataset
+	 */
+	public LearnerSweep(DatasetArena arena) {
+		super();
+		this.arena = arena;
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// Define default arguments
+		String arffPath = System.getProperty("user.home") + File.separator + "data.arff";
+		String outPath = System.getProperty("user.home") + File.separator + "sweep.csv";
+		String configs = "hoeffding";
+		int numSamples = 0;
+		long seed = 1;
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		int indexClass = -1;
+		int indexTrain = -1;
+		String positiveClass = "E";
+		double targetF1 = Double.NaN;
+		// Get parameters from arguments
+		for (int i = 0; i < args.length; i++) {
+			// Check that given option exists
+			int option = 0;
+			if (LearnerSweep.options.containsKey(args[i])) {
+				option = LearnerSweep.options.get(args[i]);
+			} else {
+				System.out.println("Option '" + args[i] + "' does not exist");
+				LearnerSweep.printHelp();
+				System.exit(1);
+			}
+			// Set parameter corresponding to option
+			switch (option) {
+			// Help
+			case 0:
+				LearnerSweep.printHelp();
+				System.exit(0);
+				break;
+			// ARFF
+			case 1:
+				i++;
+				arffPath = args[i];
+				break;
+			// OUTPUT
+			case 2:
+				i++;
+				outPath = args[i];
+				break;
+			// CONFIGURATIONS
+			case 3:
+				i++;
+				configs = args[i];
+				break;
+			// RANDOM
+			case 4:
+				i++;
+				// Parse number of random configurations
+				try {
+					numSamples = Integer.parseInt(args[i]);
+				} catch (Exception e) {
+					System.out.println("Error parsing random '" + args[i] + "' to integer");
+					LearnerSweep.printHelp();
+					System.exit(1);
+				}
+				break;
+			// SEED
+			case 5:
+				i++;
+				// Parse seed of the random search
+				try {
+					seed = Long.parseLong(args[i]);
+				} catch (Exception e) {
+					System.out.println("Error parsing seed '" + args[i] + "' to integer");
+					LearnerSweep.printHelp();
+					System.exit(1);
+				}
+				break;
+			// THREADS
+			case 6:
+				i++;
+				// Parse number of threads of the pool
+				try {
+					numThreads = Math.max(1, Integer.parseInt(args[i]));
+				} catch (Exception e) {
+					System.out.println("Error parsing threads '" + args[i] + "' to integer");
+					LearnerSweep.printHelp();
+					System.exit(1);
+				}
+				break;
+			// INDEX CLASS
+			case 7:
+				i++;
+				// Parse index of the class column
+				try {
+					indexClass = Integer.parseInt(args[i]);
+				} catch (Exception e) {
+					indexClass = -1;
+					System.out.println("Error parsing idxClass '" + args[i]
+							+ "' to integer. Using by default the SECOND-LAST column for classes.");
+				}
+				break;
+			// INDEX TRAIN
+			case 8:
+				i++;
+				// Parse index of the column that identifies training instances
+				try {
+					indexTrain = Integer.parseInt(args[i]);
+				} catch (Exception e) {
+					indexTrain = -1;
+					System.out.println("Error parsing idxTrain '" + args[i]
+							+ "' to integer. Using by default the LAST column as identifier of training instances.");
+				}
+				break;
+			// POSITIVE CLASS
+			case 9:
+				i++;
+				positiveClass = args[i];
+				break;
+			// TARGET
+			case 10:
+				i++;
+				// Parse target F1 score
+				try {
+					targetF1 = Double.parseDouble(args[i]);
+				} catch (Exception e) {
+					System.out.println("Error parsing target '" + args[i] + "' to double");
+					LearnerSweep.printHelp();
+					System.exit(1);
+				}
+				break;
+			// ERROR
+			default:
+				System.err.println(
+						"Internal error. Option '" + option + "' is not implemented. Please, contact the developer");
+				System.exit(2);
+				break;
+			}
+		}
+		// Check if ARFF path exists
+		if (!new File(arffPath).exists()) {
+			System.out.println("File path '" + arffPath + "' does not exist");
+			LearnerSweep.printHelp();
+			System.exit(1);
+		}
+		// Expand configurations (grid or random search)
+		List<Configuration> configurations = null;
+		try {
+			configurations = LearnerSweep.expand(configs, numSamples, new Random(seed));
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			LearnerSweep.printHelp();
+			System.exit(1);
+		}
+		// Check that learners accept their options
+		for (Configuration configuration : configurations) {
+			try {
+				LearnerSweep.createLearner(configuration);
+			} catch (Exception e) {
+				System.out.println("Error setting options '" + configuration.learnerOptions + "' to learner "
+						+ configuration.learnerName + ": " + e.getMessage());
+				LearnerSweep.printHelp();
+				System.exit(1);
+			}
+		}
+		// Get ARFF file stream
+		RowStream stream = MOAUtilities.readStream(arffPath, indexClass);
+		// Check that positive class exists
+		Attribute classAtt = stream.getHeader().classAttribute();
+		if (classAtt.getAttributeValues() == null || !classAtt.getAttributeValues().contains(positiveClass)) {
+			System.out.println("Class value '" + positiveClass + "' does not exist. The set of class values is "
+					+ classAtt.getAttributeValues());
+			LearnerSweep.printHelp();
+			System.exit(1);
+		}
+		int idxPositive = classAtt.indexOfValue(positiveClass);
+		// Decode dataset once
+		DatasetArena arena = new DatasetArena(stream);
+		stream.close();
+		System.out.println("Sweeping " + configurations.size() + " configurations over " + arena.numRows()
+				+ " rows on " + numThreads + " threads");
+		// Run configurations
+		new LearnerSweep(arena).run(configurations, indexTrain, idxPositive, numThreads);
+		// Write table and report
+		File outFile = MOAUtilities.getFile(outPath, "sweep.csv");
+		try {
+			LearnerSweep.writeTable(configurations, outFile);
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+			System.err.println("Internal error. File '" + outFile.getAbsolutePath()
+					+ "' does not exist. Please, contact the developer");
+			System.exit(2);
+		}
+		System.out.println(LearnerSweep.report(configurations, targetF1));
+	}
+
+	/**
+	 * Prints help
+	 */
+	private static void printHelp() {
+		System.out.println("");
+		System.out.println("=========================");
+		System.out.println("NELLY - MOA Learner Sweep");
+		System.out.println("=========================");
+		System.out.println("Options:");
+		System.out.println("  --help\tDisplay this help");
+		System.out.println("  --arff\tFile that contains the dataset (ARFF, gzip or zstd ARFF, columnar or pcap)");
+		System.out.println("  --out\t\tFile to output the table of results in CSV format");
+		System.out.println("  --configs\tLearners with MOA options separated by ';', where '{a,b}' chooses a value");
+		System.out.println("\t\tand '[lo:hi]' draws a value (random search only), e.g.,");
+		System.out.println("\t\t'hoeffding -g {100,200} -c {0.01,0.001};ozaBag -s {5,10}'");
+		System.out.println("  --random\tNumber of random configurations (default 0, i.e., the whole grid)");
+		System.out.println("  --seed\tSeed of the random search (default 1)");
+		System.out.println("  --threads\tNumber of threads of the pool (default number of processors)");
+		System.out.println("  --idxClass\tIndex of the class column (default -1, i.e., second-last column)");
+		System.out.println("  --idxTrain\tIndex of the column that marks training instances (default -1, i.e., last");
+		System.out.println("\t\tcolumn)");
+		System.out.println("  --pClass\tClass value of the positive class (default E)");
+		System.out.println("  --target\tF1 score to meet. Reports the configuration that meets it at the lowest");
+		System.out.println("\t\tprediction cost");
+	}
+
+	/**
+	 * Expands configurations into the whole grid of choices, or into a random
+	 * sample of configurations
+	 * 
+	 * @param configs
+	 *            learners with option strings separated by ';'
+	 * @param numSamples
+	 *            number of random configurations (0 for the whole grid)
+	 * @param random
+	 * @return configurations
+	 * @throws IllegalArgumentException
+	 *             if a configuration is malformed
+	 */
+	static List<Configuration> expand(String configs, int numSamples, Random random) {
+		// Split each configuration into its literal parts and its choices
+		List<String[]> learners = new ArrayList<String[]>();
+		List<List<Object>> templates = new ArrayList<List<Object>>();
+		long gridSize = 0;
+		boolean ranges = false;
+		for (String config : configs.split(";")) {
+			config = config.trim();
+			if (config.isEmpty()) {
+				continue;
+			}
+			String[] parts = config.split("\\s+", 2);
+			learners.add(parts);
+			List<Object> template = LearnerSweep.parseTemplate(parts.length > 1 ? parts[1] : "");
+			templates.add(template);
+			long size = 1;
+			for (Object part : template) {
+				if (part instanceof String[]) {
+					size *= ((String[]) part).length;
+				} else if (part instanceof double[]) {
+					ranges = true;
+				}
+				size = Math.min(size, MAX_CONFIGURATIONS + 1);
+			}
+			gridSize += size;
+		}
+		if (templates.isEmpty()) {
+			throw new IllegalArgumentException("No configurations to sweep");
+		}
+		List<Configuration> configurations = new ArrayList<Configuration>();
+		if (numSamples <= 0) {
+			// Expand whole grid
+			if (ranges) {
+				throw new IllegalArgumentException("Ranges '[lo:hi]' require a random search (--random)");
+			} else if (gridSize > MAX_CONFIGURATIONS) {
+				throw new IllegalArgumentException(
+						"Grid has more than " + MAX_CONFIGURATIONS + " configurations. Use a random search (--random)");
+			}
+			for (int i = 0; i < templates.size(); i++) {
+				LearnerSweep.expandGrid(learners.get(i)[0], templates.get(i), 0, "", configurations);
+			}
+		} else {
+			// Draw distinct configurations (fewer if the grid is smaller)
+			LinkedHashSet<String> drawn = new LinkedHashSet<String>();
+			for (int attempt = 0; drawn.size() < numSamples && attempt < 100 * numSamples; attempt++) {
+				int i = random.nextInt(templates.size());
+				StringBuilder options = new StringBuilder();
+				for (Object part : templates.get(i)) {
+					if (part instanceof String) {
+						options.append((String) part);
+					} else if (part instanceof String[]) {
+						String[] values = (String[]) part;
+						options.append(values[random.nextInt(values.length)]);
+					} else {
+						options.append(LearnerSweep.draw((double[]) part, random));
+					}
+				}
+				if (drawn.add(learners.get(i)[0] + " " + options.toString().trim())) {
+					configurations.add(new Configuration(learners.get(i)[0], options.toString().trim()));
+				}
+			}
+		}
+		return configurations;
+	}
+
+	/**
+	 * Splits an option string into literal strings, choices (arrays of strings)
+	 * and ranges (arrays of lower bound, upper bound and whether integer)
+	 * 
+	 * @param options
+	 * @return parts of the option string
+	 */
+	private static List<Object> parseTemplate(String options) {
+		List<Object> template = new ArrayList<Object>();
+		int start = 0;
+		for (int i = 0; i < options.length(); i++) {
+			char c = options.charAt(i);
+			if (c != '{' && c != '[') {
+				continue;
+			}
+			int end = options.indexOf(c == '{' ? '}' : ']', i);
+			if (end < 0) {
+				throw new IllegalArgumentException("Choice not closed in options '" + options + "'");
+			}
+			template.add(options.substring(start, i));
+			String body = options.substring(i + 1, end);
+			if (c == '{') {
+				String[] values = body.split(",");
+				for (int j = 0; j < values.length; j++) {
+					values[j] = values[j].trim();
+				}
+				template.add(values);
+			} else {
+				String[] bounds = body.split(":");
+				if (bounds.length != 2) {
+					throw new IllegalArgumentException("Range '[" + body + "]' is not of the form '[lo:hi]'");
+				}
+				try {
+					boolean integer = bounds[0].trim().matches("-?\\d+") && bounds[1].trim().matches("-?\\d+");
+					template.add(new double[] { Double.parseDouble(bounds[0]), Double.parseDouble(bounds[1]),
+							integer ? 1 : 0 });
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Range '[" + body + "]' is not numeric");
+				}
+			}
+			start = end + 1;
+			i = end;
+		}
+		template.add(options.substring(start));
+		return template;
+	}
+
+	/**
+	 * Expands the choices of a template recursively
+	 * 
+	 * @param learnerName
+	 * @param template
+	 * @param index
+	 *            next part of the template
+	 * @param prefix
+	 *            option string of the previous parts
+	 * @param configurations
+	 *            list to add the configurations to
+	 */
+	private static void expandGrid(String learnerName, List<Object> template, int index, String prefix,
+			List<Configuration> configurations) {
+		if (index == template.size()) {
+			configurations.add(new Configuration(learnerName, prefix.trim()));
+			return;
+		}
+		Object part = template.get(index);
+		if (part instanceof String) {
+			LearnerSweep.expandGrid(learnerName, template, index + 1, prefix + part, configurations);
+		} else {
+			for (String value : (String[]) part) {
+				LearnerSweep.expandGrid(learnerName, template, index + 1, prefix + value, configurations);
+			}
+		}
+	}
+
+	/**
+	 * @param range
+	 *            lower bound, upper bound and whether integer
+	 * @param random
+	 * @return value drawn uniformly from the range
+	 */
+	private static String draw(double[] range, Random random) {
+		if (range[2] == 1) {
+			long lo = (long) range[0];
+			long hi = (long) range[1];
+			return String.valueOf(lo + (long) Math.floor(random.nextDouble() * (hi - lo + 1)));
+		}
+		return String.valueOf(range[0] + random.nextDouble() * (range[1] - range[0]));
+	}
+
+	/**
+	 * @param configuration
+	 * @return learner with the options of the configuration
+	 */
+	private static Classifier createLearner(Configuration configuration) {
+		Classifier learner = MOABinClassifier.getLearner(configuration.learnerName);
+		if (!configuration.learnerOptions.isEmpty()) {
+			learner.getOptions().setViaCLIString(configuration.learnerOptions);
+		}
+		return learner;
+	}
+
+	/**
+	 * Evaluates all the configurations on a work-stealing pool
+	 * 
+	 * @param configurations
+	 * @param indexTrain
+	 * @param positiveClass
+	 * @param numThreads
+	 */
+	private void run(List<Configuration> configurations, int indexTrain,
+			final int positiveClass, int numThreads) {
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		List<Future<Configuration>> futures = new ArrayList<Future<Configuration>>();
+		for (final Configuration configuration : configurations) {
+			// Each evaluation modifies its own header
+			final InstancesHeader ih = this.arena.getHeader();
+			final int trainIndex = indexTrain == -1 ? ih.numAttributes() - 1 : indexTrain;
+			futures.add(pool.submit(new Callable<Configuration>() {
+				@Override
+				public Configuration call() {
+					LearnerSweep.this.evaluate(configuration, ih, trainIndex, positiveClass);
+					return configuration;
+				}
+			}));
+		}
+		// Wait for evaluations (in order, to print progress)
+		for (int i = 0; i < futures.size(); i++) {
+			Configuration configuration = configurations.get(i);
+			try {
+				futures.get(i).get();
+				System.out.println("[" + (i + 1) + "/" + futures.size() + "] " + configuration.describe()
+						+ ": F1 = " + configuration.f1Score());
+			} catch (ExecutionException e) {
+				e.getCause().printStackTrace();
+				configuration.error = String.valueOf(e.getCause());
+				System.out.println("[" + (i + 1) + "/" + futures.size() + "] " + configuration.describe()
+						+ ": failed (" + configuration.error + ")");
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+				System.err.println("Internal error. Sweep was interrupted. Please, contact the developer");
+				System.exit(2);
+			}
+		}
+		pool.shutdown();
+	}
+
+	/**
+	 * Evaluates a configuration (test-then-train) over the shared rows
+	 * 
+	 * @param configuration
+	 * @param ih
+	 *            header of the stream (modified by this method)
+	 * @param indexTrain
+	 * @param positiveClass
+	 */
+	private void evaluate(Configuration configuration, InstancesHeader ih, int indexTrain, int positiveClass) {
+		long startTotalTime = TimingUtils.getNanoCPUTimeOfCurrentThread();
+		// Set actual header to learner
+		Attribute trainAtt = ih.attribute(indexTrain);
+		ih.deleteAttributeAt(indexTrain);
+		InstancesHeader actualHeader = new InstancesHeader(ih);
+		Classifier learner = LearnerSweep.createLearner(configuration);
+		learner.setModelContext(actualHeader);
+		learner.prepareForUse();
+		learner.setModelContext(actualHeader);
+		InstanceDecoder decoder = new InstanceDecoder(this.arena.numAttributes(), indexTrain, trainAtt, actualHeader,
+				MOAUtilities.retainsInstances(learner));
+		// Time each call on the CPU clock of the worker thread
+		LatencyTimer timer = new LatencyTimer(LatencyTimer.CPU, 1);
+		configuration.predictions = new LatencyHistogram();
+		configuration.trainings = new LatencyHistogram();
+		// Go through each row of the arena (read in place)
+		ArenaStream replay = this.arena.replay();
+		double[] values = replay.getValues();
+		while (replay.hasMoreInstances()) {
+			int train = decoder.decode(values, replay.nextOffset());
+			Instance instance = decoder.instance();
+			int actualClass = (int) instance.classValue();
+			if (train == InstanceDecoder.TEST) {
+				long start = timer.start();
+				int predictClass = Utils.maxIndex(learner.getVotesForInstance(instance));
+				configuration.predictions.record(timer.stop(start));
+				if (actualClass == positiveClass) {
+					if (predictClass == actualClass) {
+						configuration.truePositives++;
+					} else {
+						configuration.falseNegatives++;
+					}
+				} else {
+					if (predictClass == actualClass) {
+						configuration.trueNegatives++;
+					} else {
+						configuration.falsePositives++;
+					}
+				}
+			} else if (train == InstanceDecoder.TRAIN) {
+				long start = timer.start();
+				learner.trainOnInstance(decoder.trainingInstance());
+				configuration.trainings.record(timer.stop(start));
+				configuration.countTrainSamples++;
+			}
+		}
+		configuration.totalTime = TimingUtils
+				.nanoTimeToSeconds(TimingUtils.getNanoCPUTimeOfCurrentThread() - startTotalTime);
+		configuration.memory = MOAUtilities.isSizeOfAgentLoaded() ? learner.measureByteSize() : -1;
+	}
+
+	/**
+	 * Writes a row per configuration
+	 * 
+	 * @param configurations
+	 * @param outFile
+	 * @throws FileNotFoundException
+	 */
+	private static void writeTable(List<Configuration> configurations, File outFile) throws FileNotFoundException {
+		CSVResultSink output = new CSVResultSink(outFile);
+		output.writeLine("learner,options,accuracy,f1_score,true_pos,true_neg,false_pos,false_neg,num_trains,"
+				+ "predict_mean_ns,predict_p99_ns,train_mean_ns,memory_bytes,cpu_seconds,error");
+		for (Configuration configuration : configurations) {
+			output.field(configuration.learnerName).quotedField(configuration.learnerOptions);
+			if (configuration.error != null) {
+				output.field(Double.NaN).field(Double.NaN).field(0).field(0).field(0).field(0).field(0);
+				output.field(Double.NaN).field(Double.NaN).field(Double.NaN).field(0).field(Double.NaN);
+				output.quotedField(configuration.error);
+			} else {
+				output.field(configuration.accuracy()).field(configuration.f1Score());
+				output.field(configuration.truePositives).field(configuration.trueNegatives);
+				output.field(configuration.falsePositives).field(configuration.falseNegatives);
+				output.field(configuration.countTrainSamples);
+				output.field(configuration.predictions.getMean())
+						.field(configuration.predictions.getValueAtPercentile(99));
+				output.field(configuration.trainings.getMean());
+				if (configuration.memory >= 0) {
+					output.field(configuration.memory);
+				} else {
+					output.field(Double.NaN);
+				}
+				output.field(configuration.totalTime).field("");
+			}
+			output.endRow();
+		}
+		output.close();
+	}
+
+	/**
+	 * @param configurations
+	 * @param targetF1
+	 *            F1 score to meet (NaN for none)
+	 * @return report of the configurations sorted by prediction cost
+	 */
+	private static String report(List<Configuration> configurations, double targetF1) {
+		List<Configuration> sorted = new ArrayList<Configuration>();
+		for (Configuration configuration : configurations) {
+			if (configuration.error == null) {
+				sorted.add(configuration);
+			}
+		}
+		Collections.sort(sorted, new Comparator<Configuration>() {
+			@Override
+			public int compare(Configuration a, Configuration b) {
+				return Double.compare(a.predictions.getMean(), b.predictions.getMean());
+			}
+		});
+		StringBuilder report = new StringBuilder();
+		report.append("\n");
+		report.append("======================\n");
+		report.append("     SWEEP REPORT     \n");
+		report.append("======================\n");
+		report.append("Configurations (sorted by mean prediction time)\n");
+		report.append(" F1\t\tAccuracy\tPredict (ns)\tTrain (ns)\tMemory (bytes)\tConfiguration\n");
+		Configuration cheapest = null;
+		for (Configuration configuration : sorted) {
+			boolean meets = configuration.f1Score() >= targetF1;
+			if (meets && cheapest == null) {
+				cheapest = configuration;
+			}
+			report.append(meets ? "*" : " ");
+			report.append(String.format("%.4f\t\t%.4f\t\t%.1f\t\t%.1f\t\t%s\t\t%s\n", configuration.f1Score(),
+					configuration.accuracy(), configuration.predictions.getMean(), configuration.trainings.getMean(),
+					configuration.memory >= 0 ? String.valueOf(configuration.memory) : "n/a",
+					configuration.describe()));
+		}
+		if (!Double.isNaN(targetF1)) {
+			report.append("\n");
+			if (cheapest != null) {
+				report.append("Cheapest configuration with F1 >= ").append(targetF1).append(" (marked *): ")
+						.append(cheapest.describe()).append("\n");
+			} else {
+				report.append("No configuration meets F1 >= ").append(targetF1).append("\n");
+			}
+		}
+		if (!MOAUtilities.isSizeOfAgentLoaded()) {
+			report.append("Memory is n/a, since the JVM runs without the option -javaagent:sizeofag.jar\n");
+		}
+		report.append("Failed configurations: ").append(configurations.size() - sorted.size()).append("\n");
+		return report.toString();
+	}
+
+}
@@ -18,9 +18,10 @@ package co.edu.unicauca.dtm.nelly;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
 
@@ -83,7 +84,6 @@ import moa.classifiers.trees.iadem.Iadem2;
 import moa.classifiers.trees.iadem.Iadem3;
 import moa.core.TimingUtils;
 import moa.core.Utils;
-import moa.streams.ArffFileStream;
 
 /**
  * 
@@ -94,12 +94,172 @@ import moa.streams.ArffFileStream;
  * 
  * @author festradasolano
  */
-public class MOABinClassifier {
+public class MOABinClassifier implements RowEvaluation {
 
 	/**
 	 * 
 	 */
-	private FileOutputStream output;
+	private CSVResultSink output;
+
+	/**
+	 * Prediction and training latencies
+	 */
+	private LatencyTracker latency;
+
+	/**
+	 * Timers of predictions and trainings (sampled)
+	 */
+	private LatencyTimer predictionTimer, trainingTimer;
+
+	/**
+	 * Windowed metrics, emitted every window of tests instead of a row per test
+	 * (null for a row per test)
+	 */
+	private WindowedBinaryMetrics windowed;
+
+	/**
+	 * Name of the evaluated learner
+	 */
+	private String learnerName;
+
+	/**
+	 * 
+	 */
+	private Classifier learner;
+
+	/**
+	 * 
+	 */
+	private Attribute classAtt;
+
+	/**
+	 * 
+	 */
+	private InstanceDecoder decoder;
+
+	/**
+	 * Index of the positive class
+	 */
+	private int positiveClass;
+
+	/**
+	 * 
+	 */
+	private int weightOption;
+
+	/**
+	 * 
+	 */
+	private double positiveWeight;
+
+	/**
+	 * 
+	 */
+	private double negativeWeight;
+
+	/**
+	 * Counters for accuracy metrics
+	 */
+	private int actualPositives, actualNegatives, truePositives, trueNegatives, falsePositives, falseNegatives;
+
+	/**
+	 * Counters of instances
+	 */
+	private int countTrainSamples, countTestSamples, countErrorSamples;
+
+	/**
+	 * Counters for inversely proportional weights
+	 */
+	private int trainPositives, trainNegatives;
+
+	/**
+	 * Whether CPU time is precise
+	 */
+	private boolean precise;
+
+	/**
+	 * Starting CPU time (in nanoseconds)
+	 */
+	private long startTotalTime;
+
+	/**
+	 * Number of processed rows (i.e., position in the stream)
+	 */
+	private long position;
+
+	/**
+	 * Writer of snapshots (null for no snapshots)
+	 */
+	private SnapshotWriter snapshots;
+
+	/**
+	 * Number of rows between snapshots
+	 */
+	private int snapshotInterval;
+
+	/**
+	 * Snapshot to resume the evaluation from (null for starting from scratch)
+	 */
+	private File resumeFile;
+
+	/**
+	 * Queue capacity and publish interval of asynchronous training (null for
+	 * training inline)
+	 */
+	private int[] asyncOption;
+
+	/**
+	 * Asynchronous trainer (null for training inline)
+	 */
+	private AsyncTrainer async;
+
+	/**
+	 * Number of test instances predicted together (1 for one by one)
+	 */
+	private int blockSize = 1;
+
+	/**
+	 * Block of pending test instances (null for predicting one by one)
+	 */
+	private Instance[] block;
+
+	/**
+	 * Predicted classes of the block
+	 */
+	private int[] blockClasses;
+
+	/**
+	 * Number of pending test instances in the block
+	 */
+	private int blockCount;
+
+	/**
+	 * Evaluation of how early elephant flows are detected (null if not
+	 * evaluated)
+	 */
+	private EarlyDetection early;
+
+	/**
+	 * Sampling of the byte size of the learner and its budget (null if not
+	 * sampled)
+	 */
+	private MemoryBudget memory;
+
+	/**
+	 * Time and allocated bytes of each phase of the evaluation
+	 */
+	private PhaseProfiler profiler = new PhaseProfiler();
+
+	/**
+	 * Live metrics of the evaluation, readable through JMX (null until the
+	 * evaluation begins)
+	 */
+	private EvaluationMetrics metrics;
+
+	/**
+	 * Pipeline that feeds the evaluation (null if not pipelined)
+	 */
+	private PipelinedRowStream pipeline;
 
 	/**
 	 * 
@@ -115,6 +275,18 @@ public class MOABinClassifier {
 		options.put("--idxTrain", 5);
 		options.put("--pClass", 6);
 		options.put("--weights", 7);
+		options.put("--latInterval", 8);
+		options.put("--timing", 9);
+		options.put("--window", 10);
+		options.put("--snapshot", 11);
+		options.put("--snapInterval", 12);
+		options.put("--resume", 13);
+		options.put("--async", 14);
+		options.put("--block", 15);
+		options.put("--early", 16);
+		options.put("--arena", 17);
+		options.put("--pipeline", 18);
+		options.put("--memory", 19);
 	}
 
 	/**
@@ -200,10 +372,26 @@ public class MOABinClassifier {
 	 * 
 	 * @param outPath
 	 *            file path for writing the results
+	 * @param learnerName
+	 *            name of the evaluated learner
+	 * @param latencyInterval
+	 *            number of tests between latency snapshots (0 for none)
+	 * @param timing
+	 *            clock and sample rate of the timers
+	 * @param window
+	 *            window size and fading factor of the windowed metrics (null for
+	 *            a row per test)
 	 */
-	public MOABinClassifier(String outPath) {
+	public MOABinClassifier(String outPath, String learnerName, int latencyInterval, int[] timing,
+			double[] window) {
 		super();
-		this.createOutputWriter(outPath);
+		if (window != null) {
+			this.windowed = new WindowedBinaryMetrics((int) window[0], window[1]);
+		}
+		this.predictionTimer = new LatencyTimer(timing[0], timing[1]);
+		this.trainingTimer = new LatencyTimer(timing[0], timing[1]);
+		this.learnerName = learnerName;
+		this.createOutputWriter(outPath, latencyInterval);
 		this.writeCSVHeader();
 	}
 
@@ -218,9 +406,19 @@ public class MOABinClassifier {
 		int indexClass = -1;
 		int indexTrain = -1;
 		String positiveClass = "E";
-		int weightOption = 0;
-		double positiveWeight = 1.0;
-		double negativeWeight = 1.0;
+		List<String> weightArgs = new ArrayList<String>();
+		int latencyInterval = 0;
+		int[] timing = { LatencyTimer.CPU, 1 };
+		double[] window = null;
+		int[] async = null;
+		int blockSize = 1;
+		boolean early = false;
+		boolean arena = false;
+		int[] pipeline = null;
+		long[] memory = null;
+		String snapshotPath = null;
+		int snapshotInterval = 100000;
+		String resumePath = null;
 		// Get parameters from arguments
 		for (int i = 0; i < args.length; i++) {
 			// Check that given option exists
@@ -286,36 +484,110 @@ public class MOABinClassifier {
 			// WEIGHTS
 			case 7:
 				i++;
-				// Tokenize weight option argument
-				StringTokenizer st = new StringTokenizer(args[i], ",");
-				// Check that given weight option exists
-				String weightArg = st.nextToken();
-				if (MOABinClassifier.weightOptions.containsKey(weightArg)) {
-					weightOption = MOABinClassifier.weightOptions.get(weightArg);
-					// Check if weight option is not the default
-					if (weightOption != 0) {
-						// Check that 2 parameters were given with the weight option
-						if (st.countTokens() != 2) {
-							System.out.println("Weight option '" + weightArg
-									+ "' requires two (2) numeric parameters separated by comma (e.g., " + weightArg
-									+ ",1,1)");
-							MOABinClassifier.printHelp();
-							System.exit(1);
-						}
-						String pWeight = st.nextToken();
-						String nWeight = st.nextToken();
-						try {
-							positiveWeight = Double.parseDouble(pWeight);
-							negativeWeight = Double.parseDouble(nWeight);
-						} catch (Exception e) {
-							System.out.println("Error parsing weight parameters '" + pWeight + "' and '" + nWeight
-									+ "' to double");
-							MOABinClassifier.printHelp();
-							System.exit(1);
-						}
-					}
-				} else {
-					System.out.println("Weight option '" + weightArg + "' does not exist");
+				// Check weight option (repeated options are evaluated over a single parsed stream)
+				MOABinClassifier.parseWeights(args[i]);
+				weightArgs.add(args[i]);
+				break;
+			// LATENCY INTERVAL
+			case 8:
+				i++;
+				// Parse number of tests between latency snapshots
+				try {
+					latencyInterval = Integer.parseInt(args[i]);
+				} catch (Exception e) {
+					System.out.println("Error parsing latInterval '" + args[i] + "' to integer");
+					MOABinClassifier.printHelp();
+					System.exit(1);
+				}
+				break;
+			// TIMING
+			case 9:
+				i++;
+				// Parse clock and sample rate of the timers
+				timing = LatencyTimer.parseOption(args[i]);
+				if (timing == null) {
+					MOABinClassifier.printHelp();
+					System.exit(1);
+				}
+				break;
+			// WINDOW
+			case 10:
+				i++;
+				// Parse window size and fading factor
+				window = WindowedMetrics.parseOption(args[i]);
+				if (window == null) {
+					MOABinClassifier.printHelp();
+					System.exit(1);
+				}
+				break;
+			// SNAPSHOT
+			case 11:
+				i++;
+				snapshotPath = args[i];
+				break;
+			// SNAPSHOT INTERVAL
+			case 12:
+				i++;
+				// Parse number of rows between snapshots
+				try {
+					snapshotInterval = Integer.parseInt(args[i]);
+				} catch (Exception e) {
+					System.out.println("Error parsing snapInterval '" + args[i] + "' to integer");
+					MOABinClassifier.printHelp();
+					System.exit(1);
+				}
+				break;
+			// RESUME
+			case 13:
+				i++;
+				resumePath = args[i];
+				break;
+			// ASYNC
+			case 14:
+				i++;
+				// Parse queue capacity and publish interval
+				async = AsyncTrainer.parseOption(args[i]);
+				if (async == null) {
+					MOABinClassifier.printHelp();
+					System.exit(1);
+				}
+				break;
+			// BLOCK
+			case 15:
+				i++;
+				// Parse number of test instances predicted together
+				try {
+					blockSize = Integer.parseInt(args[i]);
+				} catch (Exception e) {
+					System.out.println("Error parsing block '" + args[i] + "' to integer");
+					MOABinClassifier.printHelp();
+					System.exit(1);
+				}
+				break;
+			// EARLY
+			case 16:
+				early = true;
+				break;
+			// ARENA
+			case 17:
+				arena = true;
+				break;
+			// PIPELINE
+			case 18:
+				i++;
+				// Parse ring capacity and wait strategy
+				pipeline = PipelinedRowStream.parseOption(args[i]);
+				if (pipeline == null) {
+					MOABinClassifier.printHelp();
+					System.exit(1);
+				}
+				break;
+			// MEMORY
+			case 19:
+				i++;
+				// Parse number of rows between memory samples and memory budget
+				memory = MemoryBudget.parseOption(args[i]);
+				if (memory == null) {
 					MOABinClassifier.printHelp();
 					System.exit(1);
 				}
@@ -334,10 +606,14 @@ public class MOABinClassifier {
 			MOABinClassifier.printHelp();
 			System.exit(1);
 		}
-		// Get learning algorithm
-		Classifier learner = MOABinClassifier.getLearner(learnerName);
+		// Get learning algorithms (several learners are evaluated over a single parsed stream)
+		String[] learnerNames = MOABinClassifier.getLearnerNames(learnerName);
+		// Get weight options (the default if none is given)
+		if (weightArgs.isEmpty()) {
+			weightArgs.add("default");
+		}
 		// Get ARFF file stream
-		ArffFileStream stream = MOAUtilities.readStream(arffPath, indexClass);
+		RowStream stream = MOAUtilities.readStream(arffPath, indexClass);
 		// Check that positive class exists
 		Attribute classAtt = stream.getHeader().classAttribute();
 		if (classAtt.getAttributeValues() == null) {
@@ -352,11 +628,115 @@ public class MOABinClassifier {
 		}
 		// Get index of positive class
 		int idxPositive = classAtt.indexOfValue(positiveClass);
+		// Check that learners are measured on the thread that trains them
+		if (memory != null) {
+			boolean sharded = false;
+			for (String name : learnerNames) {
+				sharded |= name.startsWith(ShardedClassifier.PREFIX);
+			}
+			if (async != null || sharded) {
+				System.out.println("Memory sampling requires learners trained inline (no --async or sharded learners)");
+				MOABinClassifier.printHelp();
+				System.exit(1);
+			}
+			// Check that memory can be measured
+			if (!MemoryBudget.checkAgent(memory)) {
+				MOABinClassifier.printHelp();
+				System.exit(1);
+			}
+		}
+		// Check that the stream is read in a single way
+		if (pipeline != null && (arena || early)) {
+			System.out.println("Pipeline cannot be combined with --arena or --early");
+			MOABinClassifier.printHelp();
+			System.exit(1);
+		}
+		// Check early detection (flows tested at each of their first packets)
+		boolean several = learnerNames.length * weightArgs.size() > 1;
+		if (early) {
+			if (!(stream instanceof PcapStream)) {
+				System.out.println("Early detection requires a pcap file");
+				MOABinClassifier.printHelp();
+				System.exit(1);
+			} else if (several || blockSize > 1) {
+				System.out.println("Early detection requires a single learner and a block of 1");
+				MOABinClassifier.printHelp();
+				System.exit(1);
+			}
+			((PcapStream) stream).setEarly(true);
+		} else if (arena) {
+			// Decode dataset once into memory, replayed by each learner
+			DatasetArena decoded = new DatasetArena(stream);
+			stream.close();
+			System.out.println("Decoded " + decoded.numRows() + " rows into an arena of " + decoded.getMemory()
+					+ " bytes");
+			stream = decoded.replay();
+		} else if (pipeline != null && !several) {
+			// Read stream on a separate thread (several learners are already fed by a reader)
+			stream = new PipelinedRowStream(stream, pipeline[0], pipeline[1]);
+		}
 		// Run
-		MOABinClassifier classifier = new MOABinClassifier(outPath);
-		classifier.run(stream, learner, indexTrain, idxPositive, weightOption, positiveWeight, negativeWeight);
-		// Close output writer
-		classifier.closeOutputWriter();
+		if (!several) {
+			double[] weights = MOABinClassifier.parseWeights(weightArgs.get(0));
+			Classifier learner = MOABinClassifier.getLearner(learnerName);
+			MOABinClassifier classifier = new MOABinClassifier(outPath, learnerName, latencyInterval, timing,
+					window);
+			classifier.setSnapshots(snapshotPath, snapshotInterval, resumePath, several);
+			classifier.setAsync(async);
+			classifier.setBlockSize(blockSize);
+			classifier.setMemory(outPath, memory);
+			if (early) {
+				classifier.setEarly(((PcapStream) stream).getNumPackets());
+			}
+			classifier.run(stream, learner, indexTrain, idxPositive, (int) weights[0], weights[1], weights[2]);
+			if (stream instanceof PipelinedRowStream) {
+				StringBuilder report = new StringBuilder();
+				((PipelinedRowStream) stream).report(report);
+				System.out.println(report.toString());
+			}
+			// Close output writer
+			classifier.closeOutputWriter();
+		} else {
+			// Handle output path as a folder with a CSV file per learner (and per weight
+			// option if several are given)
+			String outFolder = outPath.replaceFirst("\\.csv$", "");
+			MOABinClassifier[] classifiers = new MOABinClassifier[learnerNames.length * weightArgs.size()];
+			for (int i = 0; i < classifiers.length; i++) {
+				String name = learnerNames[i / weightArgs.size()];
+				String weightArg = weightArgs.get(i % weightArgs.size());
+				double[] weights = MOABinClassifier.parseWeights(weightArg);
+				String evaluationName = name;
+				if (weightArgs.size() > 1) {
+					evaluationName = name + "-" + weightArg.replace(',', '-');
+				}
+				classifiers[i] = new MOABinClassifier(outFolder + File.separator + evaluationName + ".csv",
+						evaluationName, latencyInterval, timing, window);
+				classifiers[i].setSnapshots(snapshotPath, snapshotInterval, resumePath, several);
+				classifiers[i].setAsync(async);
+				classifiers[i].setBlockSize(blockSize);
+				classifiers[i].setMemory(outFolder + File.separator + evaluationName + ".csv", memory);
+				classifiers[i].prepare(stream.getHeader(), stream.numAttributes(), MOABinClassifier.getLearner(name),
+						indexTrain, idxPositive, (int) weights[0], weights[1], weights[2]);
+			}
+			// Resume learners from their snapshots (all of them at the same position)
+			long position = 0;
+			if (resumePath != null) {
+				position = classifiers[0].restore();
+				for (int i = 1; i < classifiers.length; i++) {
+					if (classifiers[i].restore() != position) {
+						System.out.println("Snapshots in '" + resumePath + "' are not at the same stream position");
+						System.exit(1);
+					}
+				}
+			}
+			// Run each learner on its own thread
+			new FanOutEvaluator(classifiers).run(stream, position);
+			// Close output writers
+			for (MOABinClassifier classifier : classifiers) {
+				classifier.closeOutputWriter();
+			}
+		}
+		stream.close();
 	}
 
 	/**
@@ -372,13 +752,144 @@ public class MOABinClassifier {
 		System.out.println("  --arff\tFile that contains ...");
 		System.out.println("  --out\t\tFile to output the results in CSV format");
 		System.out.println("  --learner\tRegressor model ...");
+		System.out.println("\t\tSeveral learners separated by comma (or 'all') are evaluated over a single parsed");
+		System.out.println("\t\tstream, writing a CSV file per learner in the --out folder");
+		System.out.println("\t\t'sharded:K:learner[:key][:merge]' hashes the attribute of index key (default 0)");
+		System.out.println("\t\tto one of K copies of the learner, each trained on its own thread ('merge' averages");
+		System.out.println("\t\tthe votes of all the copies)");
+		System.out.println("  --weights\tWeights of training instances: 'default', or 'constant' or 'inverse' and the");
+		System.out.println("\t\tpositive and negative weights, e.g., 'constant,2,1'. Repeated options are evaluated");
+		System.out.println("\t\tover a single parsed stream, writing a CSV file per learner and weights option");
+		System.out.println("  --latInterval\tNumber of tests between latency percentile snapshots, written to a");
+		System.out.println("\t\t'-latency.csv' file next to the results (default 0, i.e., final report only)");
+		System.out.println("  --timing\tClock of the timers ('cpu' or 'wall') and optionally the number of calls");
+		System.out.println("\t\tper timed call, e.g., 'wall,100' (default 'cpu,1'). Untimed tests get NaN time");
+		System.out.println("  --window\tWindow size and optionally fading factor, e.g., '1000,0.999'. Writes a row of");
+		System.out.println("\t\tsliding-window, faded and cumulative metrics every window of tests instead of a row");
+		System.out.println("\t\tper test");
+		System.out.println("  --snapshot\tFile to periodically write a snapshot of the learner and the evaluation");
+		System.out.println("\t\t(a folder with a file per learner if several learners are evaluated)");
+		System.out.println("  --snapInterval\tNumber of rows between snapshots (default 100000). Each snapshot");
+		System.out.println("\t\tcopies the learner on the evaluating thread, pausing the evaluation meanwhile, and");
+		System.out.println("\t\tserializes the copy in background");
+		System.out.println("  --resume\tSnapshot (or folder of snapshots) to resume the evaluation from");
+		System.out.println("  --async\tQueue capacity and optionally publish interval, e.g., '10000,1000'. Trains on");
+		System.out.println("\t\ta separate thread and predicts with the last published copy of the learner");
+		System.out.println("  --block\tNumber of consecutive test instances predicted together (default 1). The");
+		System.out.println("\t\tprediction time of a block is amortized over its instances");
+		System.out.println("  --early\tWith a pcap file, tests each flow at each of its first packets and reports");
+		System.out.println("\t\tthe packet count and the time at which elephants are first detected");
+		System.out.println("  --arena\tDecodes the dataset into memory once, then each learner replays it on its");
+		System.out.println("\t\town thread without parsing");
+		System.out.println("  --pipeline\tRing capacity and optionally wait strategy ('spin', 'yield' or 'park'),");
+		System.out.println("\t\te.g., '4096,yield' (default 'park'). Reads the stream on a separate thread that");
+		System.out.println("\t\tfills a ring of rows for the learner (not with --arena or --early)");
+		System.out.println("  --memory\tNumber of rows between samples of the byte size of the learner and optionally");
+		System.out.println("\t\ta budget in bytes, e.g., '100000,512m', written to a '-memory.csv' file next to the");
+		System.out.println("\t\tresults. Over the budget, trees deactivate leaves, kNN windows shrink and");
+		System.out.println("\t\tensembles drop members. Requires the JVM option -javaagent:sizeofag.jar,");
+		System.out.println("\t\totherwise sizes are not measured and budgets are refused");
+	}
+
+	/**
+	 * Parses a weight option, i.e., 'default', or 'constant' or 'inverse'
+	 * followed by the positive and negative weights (e.g., 'constant,1,1').
+	 * Exits if the option is malformed
+	 * 
+	 * @param weightArg
+	 * @return weight option, positive weight and negative weight
+	 */
+	private static double[] parseWeights(String weightArg) {
+		double[] weights = { 0, 1.0, 1.0 };
+		// Tokenize weight option argument
+		StringTokenizer st = new StringTokenizer(weightArg, ",");
+		// Check that given weight option exists
+		String weightName = st.hasMoreTokens() ? st.nextToken() : weightArg;
+		if (MOABinClassifier.weightOptions.containsKey(weightName)) {
+			weights[0] = MOABinClassifier.weightOptions.get(weightName);
+			// Check if weight option is not the default
+			if (weights[0] != 0) {
+				// Check that 2 parameters were given with the weight option
+				if (st.countTokens() != 2) {
+					System.out.println("Weight option '" + weightName
+							+ "' requires two (2) numeric parameters separated by comma (e.g., " + weightName
+							+ ",1,1)");
+					MOABinClassifier.printHelp();
+					System.exit(1);
+				}
+				String pWeight = st.nextToken();
+				String nWeight = st.nextToken();
+				try {
+					weights[1] = Double.parseDouble(pWeight);
+					weights[2] = Double.parseDouble(nWeight);
+				} catch (Exception e) {
+					System.out.println(
+							"Error parsing weight parameters '" + pWeight + "' and '" + nWeight + "' to double");
+					MOABinClassifier.printHelp();
+					System.exit(1);
+				}
+			}
+		} else {
+			System.out.println("Weight option '" + weightName + "' does not exist");
+			MOABinClassifier.printHelp();
+			System.exit(1);
+		}
+		return weights;
+	}
+
+	/**
+	 * @param learnerArg
+	 *            learner name, names separated by comma, or 'all'
+	 * @return names of the learners to evaluate
+	 */
+	private static String[] getLearnerNames(String learnerArg) {
+		String[] learnerNames;
+		if (learnerArg.equals("all")) {
+			// Sort all learners by option
+			learnerNames = new String[MOABinClassifier.learnerOptions.size()];
+			for (Map.Entry<String, Integer> entry : MOABinClassifier.learnerOptions.entrySet()) {
+				learnerNames[entry.getValue()] = entry.getKey();
+			}
+		} else {
+			learnerNames = learnerArg.split(",");
+		}
+		// Check that given learner names exist
+		for (String learnerName : learnerNames) {
+			// Check sharded learner (e.g., sharded:4:hoeffdingtree)
+			if (learnerName.startsWith(ShardedClassifier.PREFIX)) {
+				try {
+					learnerName = ShardedClassifier.getLearnerName(learnerName);
+				} catch (IllegalArgumentException e) {
+					System.out.println(e.getMessage());
+					MOABinClassifier.printHelp();
+					System.exit(1);
+				}
+			}
+			if (!MOABinClassifier.learnerOptions.containsKey(learnerName)) {
+				System.out.println("Learner " + learnerName + " does not exist");
+				MOABinClassifier.printHelp();
+				System.exit(1);
+			}
+		}
+		return learnerNames;
 	}
 
 	/**
 	 * @param learnerName
 	 * @return
 	 */
-	private static Classifier getLearner(String learnerName) {
+	public static Classifier getLearner(String learnerName) {
+		// Check if sharding a learner (e.g., sharded:4:hoeffdingtree)
+		if (learnerName.startsWith(ShardedClassifier.PREFIX)) {
+			try {
+				return ShardedClassifier.fromName(learnerName,
+						MOABinClassifier.getLearner(ShardedClassifier.getLearnerName(learnerName)));
+			} catch (IllegalArgumentException e) {
+				System.out.println(e.getMessage());
+				MOABinClassifier.printHelp();
+				System.exit(1);
+			}
+		}
 		// Check that given learner name exists
 		int learnerOption = -1;
 		if (MOABinClassifier.learnerOptions.containsKey(learnerName)) {
@@ -504,23 +1015,30 @@ public class MOABinClassifier {
 
 	/**
 	 * @param outPath
+	 * @param latencyInterval
 	 */
-	private void createOutputWriter(String outPath) {
+	private void createOutputWriter(String outPath, int latencyInterval) {
 		File outFile = MOAUtilities.getFile(outPath, "out.csv");
 		try {
-			this.output = new FileOutputStream(outFile);
+			this.output = new CSVResultSink(outFile);
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 			System.err.println("Internal error. File '" + outFile.getAbsolutePath()
 					+ "' does not exist. Please, contact the developer");
 			System.exit(2);
 		}
+		this.latency = new LatencyTracker(LatencyTracker.getIntervalFile(outFile), latencyInterval);
 	}
 
 	/**
 	 * 
 	 */
 	private void writeCSVHeader() {
+		// Check if writing windowed metrics
+		if (this.windowed != null) {
+			this.windowed.writeCSVHeader(this.output);
+			return;
+		}
 		StringBuilder csvHeader = new StringBuilder();
 		csvHeader.append("num_tests,");
 		csvHeader.append("num_trains,");
@@ -532,15 +1050,8 @@ public class MOABinClassifier {
 		csvHeader.append("true_neg,");
 		csvHeader.append("false_pos,");
 		csvHeader.append("false_neg,");
-		csvHeader.append("time\n");
-		try {
-			this.output.write(csvHeader.toString().getBytes());
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.err.println(
-					"Internal error. Exception thrown when writing on the file. Please, contact the developer");
-			System.exit(2);
-		}
+		csvHeader.append("time");
+		this.output.writeLine(csvHeader);
 	}
 
 	/**
@@ -549,118 +1060,506 @@ public class MOABinClassifier {
 	 * @param indexTrain
 	 * @param positiveClass
 	 */
-	private void run(ArffFileStream stream, Classifier learner, int indexTrain, int positiveClass, int weightOption,
+	private void run(RowStream stream, Classifier learner, int indexTrain, int positiveClass, int weightOption,
 			double positiveWeight, double negativeWeight) {
+		// Set actual header to learner
+		this.prepare(stream.getHeader(), stream.numAttributes(), learner, indexTrain, positiveClass, weightOption,
+				positiveWeight, negativeWeight);
+		// Restore learner and counters from snapshot
+		long position = this.resumeFile != null ? this.restore() : 0;
+		// Prepare for running
+		stream.prepareForUse();
+		if (this.early != null) {
+			this.skipEarly((PcapStream) stream, position);
+		} else {
+			stream.skip(position);
+		}
+		if (stream instanceof PipelinedRowStream) {
+			this.pipeline = (PipelinedRowStream) stream;
+		}
+		this.begin();
+		// Go through each instance (read in place if possible)
+		if (stream instanceof RowBuffer) {
+			RowBuffer buffer = (RowBuffer) stream;
+			double[] values = buffer.getValues();
+			while (stream.hasMoreInstances()) {
+				this.process(values, buffer.nextOffset());
+			}
+			this.finish();
+			return;
+		}
+		double[] row = new double[stream.numAttributes()];
+		while (stream.hasMoreInstances()) {
+			stream.nextRow(row);
+			// Pass flow of the row to the early detection
+			if (this.early != null) {
+				PcapStream pcap = (PcapStream) stream;
+				this.early.row(pcap.getRowFlow(), pcap.getRowPackets(), pcap.getRowTime(), pcap.getRowStart());
+			}
+			this.process(row, 0);
+		}
+		this.finish();
+	}
+
+	/**
+	 * Skips the rows before the resume point, passing their flows to the early
+	 * detection so that flows already started are excluded
+	 * 
+	 * @param stream
+	 * @param rows
+	 *            number of rows to skip
+	 */
+	private void skipEarly(PcapStream stream, long rows) {
+		double[] row = new double[stream.numAttributes()];
+		for (long skipped = 0; skipped < rows && stream.hasMoreInstances(); skipped++) {
+			stream.nextRow(row);
+			this.early.skip(stream.getRowFlow(), stream.getRowPackets());
+		}
+	}
+
+	/**
+	 * Prepares the learner and the counters of the evaluation
+	 * 
+	 * @param ih
+	 *            header of the stream (modified by this method)
+	 * @param numAttributes
+	 *            number of values of the rows of the stream
+	 * @param learner
+	 * @param indexTrain
+	 * @param positiveClass
+	 * @param weightOption
+	 * @param positiveWeight
+	 * @param negativeWeight
+	 */
+	private void prepare(InstancesHeader ih, int numAttributes, Classifier learner, int indexTrain,
+			int positiveClass, int weightOption, double positiveWeight, double negativeWeight) {
 		// Check if default index train (last column)
-		InstancesHeader ih = stream.getHeader();
 		if (indexTrain == -1) {
 			indexTrain = ih.numAttributes() - 1;
 		}
 		// Get class and train attributes
-		Attribute classAtt = ih.classAttribute();
+		this.classAtt = ih.classAttribute();
 		Attribute trainAtt = ih.attribute(indexTrain);
 		// Set actual header to learner
 		ih.deleteAttributeAt(indexTrain);
 		InstancesHeader actualHeader = new InstancesHeader(ih);
 		learner.setModelContext(actualHeader);
-		// Prepare for running
-		stream.prepareForUse();
+		if (this.memory != null) {
+			this.memory.configure(learner);
+		}
 		learner.prepareForUse();
 		// Set header again to avoid null pointer exception of some algorithms (e.g.,
 		// SAM-kNN)
 		learner.setModelContext(actualHeader);
-		// Counters for accuracy metrics
-		int actualPositives = 0;
-		int actualNegatives = 0;
-		int truePositives = 0;
-		int trueNegatives = 0;
-		int falsePositives = 0;
-		int falseNegatives = 0;
-		int countTrainSamples = 0;
-		int countTestSamples = 0;
-		int countErrorSamples = 0;
-		// Counters for inversely proportional weights
-		int trainPositives = 0;
-		int trainNegatives = 0;
+		this.learner = learner;
+		// Decode rows into reusable instances projected to the actual header
+		this.decoder = new InstanceDecoder(numAttributes, indexTrain, trainAtt, actualHeader,
+				MOAUtilities.retainsInstances(learner), this.blockSize + 1);
+		// Set weights
+		this.positiveClass = positiveClass;
+		this.weightOption = weightOption;
+		this.positiveWeight = positiveWeight;
+		this.negativeWeight = negativeWeight;
+	}
+
+	/**
+	 * Configures snapshots
+	 * 
+	 * @param snapshotPath
+	 *            path of the snapshots to write (null for no snapshots)
+	 * @param snapshotInterval
+	 *            number of rows between snapshots
+	 * @param resumePath
+	 *            path of the snapshots to resume from (null for starting from
+	 *            scratch)
+	 * @param several
+	 *            whether several learners are evaluated (i.e., paths are
+	 *            folders)
+	 */
+	private void setSnapshots(String snapshotPath, int snapshotInterval, String resumePath, boolean several) {
+		if (snapshotPath != null) {
+			this.snapshots = new SnapshotWriter(Snapshot.getFile(snapshotPath, this.learnerName, several));
+			this.snapshotInterval = Math.max(1, snapshotInterval);
+		}
+		if (resumePath != null) {
+			this.resumeFile = Snapshot.getFile(resumePath, this.learnerName, several);
+		}
+	}
+
+	/**
+	 * Configures asynchronous training. Training latency then measures the
+	 * enqueuing of training instances
+	 * 
+	 * @param async
+	 *            queue capacity and publish interval (null for training inline)
+	 */
+	private void setAsync(int[] async) {
+		this.asyncOption = async;
+	}
+
+	/**
+	 * Configures the prediction of blocks of test instances (before preparing
+	 * the evaluation)
+	 * 
+	 * @param blockSize
+	 *            number of test instances predicted together (1 for one by one)
+	 */
+	private void setBlockSize(int blockSize) {
+		this.blockSize = Math.max(1, blockSize);
+		if (this.blockSize > 1) {
+			this.block = new Instance[this.blockSize];
+			this.blockClasses = new int[this.blockSize];
+		}
+	}
+
+	/**
+	 * Configures the sampling of the byte size of the learner (before preparing
+	 * the evaluation)
+	 * 
+	 * @param outPath
+	 *            file path of the results
+	 * @param memory
+	 *            number of rows between samples and budget in bytes (null for no
+	 *            sampling)
+	 */
+	private void setMemory(String outPath, long[] memory) {
+		if (memory != null) {
+			this.memory = new MemoryBudget(MemoryBudget.getSampleFile(MOAUtilities.getFile(outPath, "out.csv")),
+					(int) memory[0], memory[1]);
+		}
+	}
+
+	/**
+	 * Configures the evaluation of how early elephant flows are detected (the
+	 * stream must be a pcap stream in early mode)
+	 * 
+	 * @param numPackets
+	 *            maximum packet count of the tests of a flow
+	 */
+	private void setEarly(int numPackets) {
+		this.early = new EarlyDetection(numPackets);
+	}
+
+	/**
+	 * Restores the learner and the counters from the snapshot to resume from
+	 * (after preparing the evaluation)
+	 * 
+	 * @return number of rows of the stream already processed
+	 */
+	private long restore() {
+		Snapshot snapshot = null;
+		try {
+			snapshot = Snapshot.read(this.resumeFile);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Error reading snapshot '" + this.resumeFile.getAbsolutePath() + "'");
+			System.exit(1);
+		}
+		if (!this.learnerName.equals(snapshot.getLearnerName())) {
+			System.out.println("Snapshot '" + this.resumeFile.getAbsolutePath() + "' is of learner "
+					+ snapshot.getLearnerName() + ", not " + this.learnerName);
+			System.exit(1);
+		}
+		this.learner = (Classifier) snapshot.getLearner();
+		// Apply the current budget instead of the limits of the snapshot
+		if (this.memory != null) {
+			this.memory.configure(this.learner);
+		}
+		long[] counters = snapshot.getCounters();
+		this.actualPositives = (int) counters[0];
+		this.actualNegatives = (int) counters[1];
+		this.truePositives = (int) counters[2];
+		this.trueNegatives = (int) counters[3];
+		this.falsePositives = (int) counters[4];
+		this.falseNegatives = (int) counters[5];
+		this.countTrainSamples = (int) counters[6];
+		this.countTestSamples = (int) counters[7];
+		this.countErrorSamples = (int) counters[8];
+		this.trainPositives = (int) counters[9];
+		this.trainNegatives = (int) counters[10];
+		this.position = snapshot.getPosition();
+		System.out.println("Resuming learner " + this.learnerName + " from row " + this.position + " (snapshot '"
+				+ this.resumeFile.getAbsolutePath() + "')");
+		return this.position;
+	}
+
+	/**
+	 * Captures a snapshot of a copy of the learner and the counters, serialized
+	 * in background. If training asynchronously, the enqueued trainings are
+	 * published first, so the captured learner has trained up to the captured
+	 * position (published learners are not changed, so they are not copied)
+	 */
+	private void snapshot() {
+		long[] counters = { this.actualPositives, this.actualNegatives, this.truePositives, this.trueNegatives,
+				this.falsePositives, this.falseNegatives, this.countTrainSamples, this.countTestSamples,
+				this.countErrorSamples, this.trainPositives, this.trainNegatives };
+		Classifier learner = this.async != null ? this.async.flush() : this.learner.copy();
+		this.snapshots.capture(new Snapshot(this.learnerName, learner, this.position, counters, null));
+	}
+
+	/**
+	 * Starts the evaluation on the current thread
+	 */
+	@Override
+	public void begin() {
 		// Get starting CPU time
-		boolean precise = TimingUtils.enablePreciseTiming();
-		long startTotalTime = TimingUtils.getNanoCPUTimeOfCurrentThread();
-		// Go through each instance
-		while (stream.hasMoreInstances()) {
-			// Get instance data
-			Instance instance = stream.nextInstance().getData();
-			String train = trainAtt.value((int) instance.value(indexTrain));
-			// Remove value that indicates training
-			instance.deleteAttributeAt(indexTrain);
-			instance.setDataset(actualHeader);
-			// Get actual class
-			int actualClass = (int) instance.classValue();
-			// Check if instance is for testing or training
-			if (train.equalsIgnoreCase(MOAUtilities.TESTING_INSTANCE)) {
-				long startPredictionTime = TimingUtils.getNanoCPUTimeOfCurrentThread();
+		this.precise = TimingUtils.enablePreciseTiming();
+		this.startTotalTime = TimingUtils.getNanoCPUTimeOfCurrentThread();
+		// Start trainer thread (after restoring the learner)
+		if (this.asyncOption != null) {
+			this.async = new AsyncTrainer(this.learner, this.asyncOption[0], this.asyncOption[1]);
+		}
+		// Register live metrics
+		this.metrics = EvaluationMetrics.register(this.learnerName);
+		this.profiler.begin();
+	}
+
+	/**
+	 * Tests or trains the learner on a row
+	 * 
+	 * @param values
+	 *            array that contains the row
+	 * @param offset
+	 *            position of the row in the array
+	 */
+	@Override
+	public void process(double[] values, int offset) {
+		// Time since the last row was spent reading this one
+		this.profiler.mark(PhaseProfiler.READ);
+		this.position++;
+		// Get instance data (without the value that indicates training)
+		int train = this.decoder.decode(values, offset);
+		Instance instance = this.decoder.instance();
+		this.profiler.mark(PhaseProfiler.PROJECT);
+		// Get actual class
+		int actualClass = (int) instance.classValue();
+		// Check if instance is for testing or training
+		if (train == InstanceDecoder.TEST) {
+			// Check if predicting blocks of instances
+			if (this.block != null) {
+				this.block[this.blockCount] = instance;
+				this.blockCount++;
+				if (this.blockCount == this.block.length) {
+					this.predictBlock();
+				}
+			} else {
+				long startPredictionTime = this.predictionTimer.start();
 				// Classify instance
-				int predictClass = Utils.maxIndex(learner.getVotesForInstance(instance));
-				// Check if instance is positive or negative
-				if (actualClass == positiveClass) {
-					actualPositives++;
-					// Check is prediction was correct for positive instance
-					if (predictClass == actualClass) {
-						truePositives++;
-					} else {
-						falseNegatives++;
-					}
+				int predictClass = Utils.maxIndex(this.predictingLearner().getVotesForInstance(instance));
+				long predictionNanos = this.predictionTimer.stop(startPredictionTime);
+				this.profiler.mark(PhaseProfiler.PREDICT);
+				this.test(instance, predictClass, predictionNanos);
+			}
+		} else if (train == InstanceDecoder.TRAIN) {
+			// Predict pending test instances before the learner changes
+			this.predictBlock();
+			// Default weight
+			double weight = 1.0;
+			// Check if setting constant weights
+			if (this.weightOption == 1) {
+				if (actualClass == this.positiveClass)
+					weight = this.positiveWeight;
+				else
+					weight = this.negativeWeight;
+			}
+			// Check if setting weights inversely proportional to the number of instances
+			else if (this.weightOption == 2) {
+				if (actualClass == this.positiveClass) {
+					this.trainPositives++;
+					weight = this.positiveWeight - (this.positiveWeight * this.trainPositives
+							/ (this.trainPositives + this.trainNegatives));
 				} else {
-					actualNegatives++;
-					// Check is prediction was correct for negative instance
-					if (predictClass == actualClass) {
-						trueNegatives++;
-					} else {
-						falsePositives++;
-					}
-				}
-				// Check prediction time (in nanoseconds)
-				double predictionTime = TimingUtils.getNanoCPUTimeOfCurrentThread() - startPredictionTime;
-				// Count test samples
-				countTestSamples++;
-				// Write CSV result
-				this.writeCSVResult(countTestSamples, countTrainSamples, classAtt.value(predictClass),
-						classAtt.value(actualClass), actualPositives, actualNegatives, truePositives, trueNegatives,
-						falsePositives, falseNegatives, predictionTime);
-			} else if (train.equalsIgnoreCase(MOAUtilities.TRAINING_INSTANCE)) {
-				// Default weight
-				double weight = 1.0;
-				// Check if setting constant weights
-				if (weightOption == 1) {
-					if (actualClass == positiveClass)
-						weight = positiveWeight;
-					else
-						weight = negativeWeight;
+					this.trainNegatives++;
+					weight = this.negativeWeight - (this.negativeWeight * this.trainNegatives
+							/ (this.trainPositives + this.trainNegatives));
 				}
-				// Check if setting weights inversely proportional to the number of instances
-				else if (weightOption == 2) {
-					if (actualClass == positiveClass) {
-						trainPositives++;
-						weight = positiveWeight - (positiveWeight * trainPositives / (trainPositives + trainNegatives));
-					} else {
-						trainNegatives++;
-						weight = negativeWeight - (negativeWeight * trainNegatives / (trainPositives + trainNegatives));
-					}
-				}
-				// Set weight
-				instance.setWeight(weight);
-				// Train on instance
-				learner.trainOnInstance(instance);
-				countTrainSamples++;
+			}
+			// Set weight (on a copy if the learner keeps training instances or trains
+			// asynchronously)
+			instance = this.async != null ? instance.copy() : this.decoder.trainingInstance();
+			instance.setWeight(weight);
+			// Train on instance (only enqueued if training asynchronously)
+			this.profiler.mark(PhaseProfiler.OTHER);
+			long startTrainingTime = this.trainingTimer.start();
+			if (this.async != null) {
+				this.async.train(instance);
 			} else {
-				// Train mark not recognized
-				System.out.println(
-						"Train value '" + train + "' is not recognized. Check instance " + instance.toString() + train);
-				// Count error samples
-				countErrorSamples++;
+				this.learner.trainOnInstance(instance);
 			}
+			long trainingNanos = this.trainingTimer.stop(startTrainingTime);
+			this.profiler.mark(PhaseProfiler.TRAIN);
+			if (trainingNanos != LatencyTimer.NOT_SAMPLED) {
+				this.latency.recordTraining(trainingNanos);
+			}
+			this.countTrainSamples++;
+		} else {
+			// Predict pending test instances before the pool of instances wraps around
+			this.predictBlock();
+			// Train mark not recognized
+			System.out.println("Train value '" + this.decoder.markValue() + "' is not recognized. Check instance "
+					+ instance.toString());
+			// Count error samples
+			this.countErrorSamples++;
+		}
+		// Check if capturing a snapshot (after predicting pending test instances)
+		if (this.snapshots != null && this.position % this.snapshotInterval == 0) {
+			this.predictBlock();
+			this.snapshot();
+		}
+		// Check if sampling memory (after predicting pending test instances)
+		if (this.memory != null && this.memory.isSample(this.position)) {
+			this.predictBlock();
+			this.memory.sample(this.learner, this.position, this.countTestSamples, this.countTrainSamples);
+		}
+		// Check if publishing live metrics
+		if (EvaluationMetrics.isPublish(this.position)) {
+			this.publishMetrics(false);
+		}
+		this.profiler.endRow();
+	}
+
+	/**
+	 * Publishes the counters to the live metrics and, once per second (or if
+	 * forced), the rate, latency percentiles, queue depth and model size
+	 * 
+	 * @param force
+	 *            whether to publish all metrics anyway (e.g., at the end)
+	 */
+	private void publishMetrics(boolean force) {
+		if (this.metrics == null) {
+			return;
+		}
+		this.metrics.publish(this.position, this.countTestSamples, this.countTrainSamples, this.countErrorSamples,
+				this.truePositives, this.falsePositives, this.trueNegatives, this.falseNegatives);
+		if (!this.metrics.closeWindow(this.position, force)) {
+			return;
+		}
+		this.metrics.publishLatency(this.latency.getPredictionPercentile(50),
+				this.latency.getPredictionPercentile(99), this.latency.getTrainingPercentile(99));
+		if (this.async != null) {
+			this.metrics.publishQueueDepth(this.async.getQueueDepth());
+		} else if (this.pipeline != null) {
+			this.metrics.publishQueueDepth(this.pipeline.getOccupancy());
+		}
+		if (this.memory != null) {
+			this.metrics.publishModelBytes(this.memory.getLastBytes());
+		}
+	}
+
+	/**
+	 * @return learner to predict with (the last published one if training
+	 *         asynchronously)
+	 */
+	private Classifier predictingLearner() {
+		if (this.async != null) {
+			this.async.observe();
+			return this.async.getModel();
 		}
+		return this.learner;
+	}
+
+	/**
+	 * Predicts the pending block of test instances at once and evaluates them
+	 * in order. The prediction time is amortized over the instances
+	 */
+	private void predictBlock() {
+		if (this.blockCount == 0) {
+			return;
+		}
+		this.profiler.mark(PhaseProfiler.OTHER);
+		long startPredictionTime = this.predictionTimer.start();
+		BatchPredictor.predictClasses(this.predictingLearner(), this.block, this.blockCount, this.blockClasses);
+		long predictionNanos = this.predictionTimer.stop(startPredictionTime);
+		this.profiler.mark(PhaseProfiler.PREDICT);
+		if (predictionNanos != LatencyTimer.NOT_SAMPLED) {
+			predictionNanos /= this.blockCount;
+		}
+		for (int i = 0; i < this.blockCount; i++) {
+			this.test(this.block[i], this.blockClasses[i], predictionNanos);
+		}
+		this.blockCount = 0;
+	}
+
+	/**
+	 * Evaluates the prediction of a test instance
+	 * 
+	 * @param instance
+	 * @param predictClass
+	 *            index of the predicted class
+	 * @param predictionNanos
+	 *            prediction time (or {@link LatencyTimer#NOT_SAMPLED})
+	 */
+	private void test(Instance instance, int predictClass, long predictionNanos) {
+		// Get actual class
+		int actualClass = (int) instance.classValue();
+		// Check if instance is positive or negative
+		if (actualClass == this.positiveClass) {
+			this.actualPositives++;
+			// Check is prediction was correct for positive instance
+			if (predictClass == actualClass) {
+				this.truePositives++;
+			} else {
+				this.falseNegatives++;
+			}
+		} else {
+			this.actualNegatives++;
+			// Check is prediction was correct for negative instance
+			if (predictClass == actualClass) {
+				this.trueNegatives++;
+			} else {
+				this.falsePositives++;
+			}
+		}
+		// Check prediction time (in nanoseconds)
+		double predictionTime = Double.NaN;
+		if (predictionNanos != LatencyTimer.NOT_SAMPLED) {
+			predictionTime = predictionNanos;
+			this.latency.recordPrediction(predictionNanos);
+		}
+		// Check if evaluating early detection
+		if (this.early != null) {
+			this.early.test(actualClass == this.positiveClass, predictClass == this.positiveClass);
+		}
+		// Count test samples
+		this.countTestSamples++;
+		this.latency.endTest(this.countTestSamples, this.countTrainSamples);
+		// Write CSV result (every window of tests if windowed)
+		this.profiler.mark(PhaseProfiler.OTHER);
+		if (this.windowed != null) {
+			this.windowed.add(actualClass == this.positiveClass, predictClass == actualClass);
+			if (this.windowed.isWindowEnd()) {
+				this.windowed.writeCSVResult(this.output, this.countTestSamples, this.countTrainSamples);
+			}
+		} else {
+			this.writeCSVResult(this.countTestSamples, this.countTrainSamples, this.classAtt.value(predictClass),
+					this.classAtt.value(actualClass), this.actualPositives, this.actualNegatives,
+					this.truePositives, this.trueNegatives, this.falsePositives, this.falseNegatives,
+					predictionTime);
+		}
+		this.profiler.mark(PhaseProfiler.WRITE);
+	}
+
+	/**
+	 * Writes the final results and the report of the evaluation
+	 */
+	@Override
+	public void finish() {
+		// Predict pending test instances
+		this.predictBlock();
+		// Wait for pending trainings
+		if (this.async != null) {
+			this.async.close();
+		}
+		// Get counters
+		int truePositives = this.truePositives;
+		int trueNegatives = this.trueNegatives;
+		int falsePositives = this.falsePositives;
+		int falseNegatives = this.falseNegatives;
+		int actualPositives = this.actualPositives;
+		int actualNegatives = this.actualNegatives;
 		// Check elapsed time
-		double totalTime = TimingUtils.nanoTimeToSeconds(TimingUtils.getNanoCPUTimeOfCurrentThread() - startTotalTime);
+		double totalTime = TimingUtils
+				.nanoTimeToSeconds(TimingUtils.getNanoCPUTimeOfCurrentThread() - this.startTotalTime);
 		// Compute accuracy metrics
 		double accuracy = 1.0 * (truePositives + trueNegatives) / (actualPositives + actualNegatives);
 		double precision = 1.0 * truePositives / (truePositives + falsePositives); // Positive Predictive Value (PPV)
@@ -670,21 +1569,43 @@ public class MOABinClassifier {
 		double fallOut = 1.0 * falsePositives / actualNegatives; // False Positive Rate (FPR)
 		double missRate = 1.0 * falseNegatives / actualPositives; // False Negative Rate (FNR)
 		double f1Score = 2 * ((precision * recall) / (precision + recall)); // Harmonic mean of precision and recall
-		// Write last CSV result
-		this.writeCSVResult(countTestSamples, countTrainSamples, String.valueOf(accuracy), String.valueOf(f1Score),
-				precision, npv, recall, specificity, fallOut, missRate, totalTime);
+		// Write last CSV result (the partial window if windowed)
+		if (this.windowed != null) {
+			if (this.windowed.hasPartialWindow()) {
+				this.windowed.writeCSVResult(this.output, this.countTestSamples, this.countTrainSamples);
+			}
+		} else {
+			this.writeCSVResult(this.countTestSamples, this.countTrainSamples, String.valueOf(accuracy),
+					String.valueOf(f1Score), precision, npv, recall, specificity, fallOut, missRate, totalTime);
+		}
 		// Generate report statistics
 		StringBuilder report = new StringBuilder();
 		report.append("\n");
 		report.append("======================\n");
 		report.append("     FINAL REPORT     \n");
 		report.append("======================\n");
-		report.append("Done! in ").append(totalTime).append(" seconds (precise? ").append(precise).append(")\n");
+		report.append("Learner: ").append(this.learnerName).append("\n");
+		report.append("Done! in ").append(totalTime).append(" seconds (precise? ").append(this.precise).append(")\n");
 		report.append("Instances\n");
-		report.append(" - Test = ").append(countTestSamples).append("\n");
-		report.append(" - Train = ").append(countTrainSamples).append("\n");
-		report.append(" - Error = ").append(countErrorSamples).append("\n");
+		report.append(" - Test = ").append(this.countTestSamples).append("\n");
+		report.append(" - Train = ").append(this.countTrainSamples).append("\n");
+		report.append(" - Error = ").append(this.countErrorSamples).append("\n");
 		report.append("\n");
+		this.latency.finish(report, this.countTestSamples, this.countTrainSamples);
+		report.append(" - Timing: ").append(this.predictionTimer.describe()).append("\n");
+		report.append("\n");
+		this.profiler.finish(report);
+		if (this.async != null) {
+			this.async.report(report);
+		}
+		if (this.learner instanceof ShardedClassifier) {
+			((ShardedClassifier) this.learner).report(report);
+		}
+		if (this.memory != null) {
+			this.memory.sample(this.learner, this.position, this.countTestSamples, this.countTrainSamples);
+			this.memory.finish(report);
+		}
+		this.publishMetrics(true);
 		report.append("Confusion matrix\n");
 		report.append("\t\t\t\t\t\t ACTUAL\n");
 		report.append("\t\t\t\t\tPositive\tNegative\tTOTAL\n");
@@ -695,6 +1616,9 @@ public class MOABinClassifier {
 		report.append("\t\tTOTAL\t\t\t" + actualPositives + "\t\t" + actualNegatives + "\t\t"
 				+ (actualPositives + actualNegatives) + "\n");
 		report.append("\n");
+		if (this.early != null) {
+			this.early.finish(report);
+		}
 		report.append("Accuracy metrics\n");
 		report.append(" - Accuracy = ").append(100 * accuracy).append(" %\n");
 		report.append(" - F1 score = ").append(f1Score).append("\n");
@@ -705,6 +1629,11 @@ public class MOABinClassifier {
 		report.append(" - Fall-out (FPR) = ").append(100 * fallOut).append(" %\n");
 		report.append(" - Miss rate (FNR) = ").append(100 * missRate).append(" %\n");
 		System.out.println(report.toString());
+		// Capture last snapshot
+		if (this.snapshots != null) {
+			this.snapshot();
+			this.snapshots.close();
+		}
 	}
 
 	/**
@@ -723,42 +1652,24 @@ public class MOABinClassifier {
 	private void writeCSVResult(int numTests, int numTrains, String predictClass, String actualClass,
 			double actualPositives, double actualNegatives, double truePositives, double trueNegatives,
 			double falsePositives, double falseNegatives, double time) {
-		// Generate CSV result
-		StringBuilder csvLine = new StringBuilder();
-		csvLine.append(numTests).append(",");
-		csvLine.append(numTrains).append(",");
-		csvLine.append(predictClass).append(",");
-		csvLine.append(actualClass).append(",");
-		csvLine.append(actualPositives).append(",");
-		csvLine.append(actualNegatives).append(",");
-		csvLine.append(truePositives).append(",");
-		csvLine.append(trueNegatives).append(",");
-		csvLine.append(falsePositives).append(",");
-		csvLine.append(falseNegatives).append(",");
-		csvLine.append(time).append("\n");
-		// Write result to file
-		try {
-			this.output.write(csvLine.toString().getBytes());
-			this.output.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.err.println(
-					"Internal error. Exception thrown when writing on the file. Please, contact the developer");
-			System.exit(2);
-		}
+		// Encode CSV result (written asynchronously)
+		this.output.field(numTests).field(numTrains).field(predictClass).field(actualClass);
+		this.output.field(actualPositives).field(actualNegatives).field(truePositives).field(trueNegatives);
+		this.output.field(falsePositives).field(falseNegatives).field(time);
+		this.output.endRow();
 	}
 
 	/**
 	 * 
 	 */
 	private void closeOutputWriter() {
-		try {
-			this.output.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.err.println(
-					"Internal error. Exception thrown when closing the file writer. Please, contact the developer");
-			System.exit(2);
+		this.output.close();
+		this.latency.close();
+		if (this.memory != null) {
+			this.memory.close();
+		}
+		if (this.metrics != null) {
+			this.metrics.unregister();
 		}
 	}
 
@@ -18,8 +18,6 @@ package co.edu.unicauca.dtm.nelly;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -27,9 +25,9 @@ import com.yahoo.labs.samoa.instances.Attribute;
 import com.yahoo.labs.samoa.instances.Instance;
 import com.yahoo.labs.samoa.instances.InstancesHeader;
 
-import moa.clusterers.Clusterer;
-import moa.clusterers.outliers.MyBaseOutlierDetector.Outlier;
 import moa.clusterers.outliers.MyBaseOutlierDetector;
+import moa.clusterers.outliers.MyBaseOutlierDetector.Outlier;
+import moa.clusterers.outliers.MyBaseOutlierDetector.OutlierNotifier;
 import moa.clusterers.outliers.AbstractC.AbstractC;
 import moa.clusterers.outliers.Angiulli.ApproxSTORM;
 import moa.clusterers.outliers.Angiulli.ExactSTORM;
@@ -37,10 +35,15 @@ import moa.clusterers.outliers.AnyOut.AnyOut;
 import moa.clusterers.outliers.MCOD.MCOD;
 import moa.clusterers.outliers.SimpleCOD.SimpleCOD;
 import moa.core.TimingUtils;
-import moa.streams.ArffFileStream;
 
 /**
- * 
+ * Streaming evaluation of unsupervised outlier detectors. Every test instance
+ * is fed to the detector, which decides on its arrival whether it is an
+ * outlier, and training instances of the normal class only update the window
+ * of the detector. Outliers (i.e., instances not of the normal class) are the
+ * positive class of the confusion matrix. The memory of the detector, bounded
+ * by its window, is optionally sampled along the stream (requires the sizeofag
+ * agent); samples are not timed
  * 
  * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
  * 
@@ -49,11 +52,46 @@ import moa.streams.ArffFileStream;
  * @author festradasolano
  */
 public class MOAOutlier {
-	
+
+	/**
+	 * Predicted value of instances detected as outliers
+	 */
+	private static final String OUTLIER = "outlier";
+
 	/**
 	 * 
 	 */
-	private FileOutputStream output;
+	private CSVResultSink output;
+
+	/**
+	 * Prediction and training latencies
+	 */
+	private LatencyTracker latency;
+
+	/**
+	 * Timers of predictions and trainings (sampled)
+	 */
+	private LatencyTimer predictionTimer, trainingTimer;
+
+	/**
+	 * Instance being processed by the detector
+	 */
+	private Instance current;
+
+	/**
+	 * Whether the detector flagged the instance being processed as outlier
+	 */
+	private boolean flagged;
+
+	/**
+	 * Number of outlier and inlier notifications of the detector
+	 */
+	private long countOutlierEvents, countInlierEvents;
+
+	/**
+	 * Time and allocated bytes of each phase of the evaluation
+	 */
+	private PhaseProfiler profiler = new PhaseProfiler();
 
 	/**
 	 * 
@@ -68,6 +106,11 @@ public class MOAOutlier {
 		options.put("--idxClass", 4);
 		options.put("--idxTrain", 5);
 		options.put("--normClass", 6);
+		options.put("--latInterval", 7);
+		options.put("--timing", 8);
+		options.put("--window", 9);
+		options.put("--memInterval", 10);
+		options.put("--arena", 11);
 	}
 
 	/**
@@ -95,10 +138,14 @@ public class MOAOutlier {
 	 * Constructor
 	 * 
 	 * @param outPath file path for writing the results 
+	 * @param latencyInterval number of tests between latency snapshots (0 for none)
+	 * @param timing clock and sample rate of the timers
 	 */
-	public MOAOutlier(String outPath) {
+	public MOAOutlier(String outPath, int latencyInterval, int[] timing) {
 		super();
-		this.createOutputWriter(outPath);
+		this.predictionTimer = new LatencyTimer(timing[0], timing[1]);
+		this.trainingTimer = new LatencyTimer(timing[0], timing[1]);
+		this.createOutputWriter(outPath, latencyInterval);
 		this.writeCSVHeader();
 	}
 
@@ -113,6 +160,11 @@ public class MOAOutlier {
 		int indexClass = -1;
 		int indexTrain = -1;
 		String normalClass = "M";
+		int latencyInterval = 0;
+		int[] timing = { LatencyTimer.CPU, 1 };
+		int windowSize = 0;
+		int memoryInterval = 0;
+		boolean arena = false;
 		// Get parameters from arguments
 		for (int i = 0; i < args.length; i++) {
 			// Check that given option exists
@@ -175,6 +227,56 @@ public class MOAOutlier {
 				i++;
 				normalClass = args[i];
 				break;
+			// LATENCY INTERVAL
+			case 7:
+				i++;
+				// Parse number of tests between latency snapshots
+				try {
+					latencyInterval = Integer.parseInt(args[i]);
+				} catch (Exception e) {
+					latencyInterval = 0;
+					System.out.println("Error parsing latInterval '" + args[i]
+							+ "' to integer. By default, latency percentiles are only reported at the end.");
+				}
+				break;
+			// TIMING
+			case 8:
+				i++;
+				// Parse clock and sample rate of the timers
+				timing = LatencyTimer.parseOption(args[i]);
+				if (timing == null) {
+					MOAOutlier.printHelp();
+					System.exit(1);
+				}
+				break;
+			// WINDOW
+			case 9:
+				i++;
+				// Parse window size of the detector
+				try {
+					windowSize = Integer.parseInt(args[i]);
+				} catch (Exception e) {
+					windowSize = 0;
+					System.out.println("Error parsing window '" + args[i]
+							+ "' to integer. Using by default the window size of the detector.");
+				}
+				break;
+			// MEMORY INTERVAL
+			case 10:
+				i++;
+				// Parse number of tests between memory samples
+				try {
+					memoryInterval = Integer.parseInt(args[i]);
+				} catch (Exception e) {
+					memoryInterval = 0;
+					System.out.println("Error parsing memInterval '" + args[i]
+							+ "' to integer. Using by default no memory samples.");
+				}
+				break;
+			// ARENA
+			case 11:
+				arena = true;
+				break;
 			// ERROR
 			default:
 				System.err.println("Internal error. Option " + option + " is not implemented");
@@ -188,11 +290,39 @@ public class MOAOutlier {
 			System.out.println("File path '" + arffPath + "' does not exist");
 			System.exit(1);
 		}
+		// Get ARFF file stream
+		RowStream stream = MOAUtilities.readStream(arffPath, indexClass);
+		if (arena) {
+			// Decode dataset into memory before evaluating
+			DatasetArena decoded = new DatasetArena(stream);
+			stream.close();
+			System.out.println("Decoded " + decoded.numRows() + " rows into an arena of " + decoded.getMemory()
+					+ " bytes");
+			stream = decoded.replay();
+		}
+		// Check that normal class exists
+		Attribute classAtt = stream.getHeader().classAttribute();
+		if (classAtt.getAttributeValues() == null || !classAtt.getAttributeValues().contains(normalClass)) {
+			System.out.println("Class value '" + normalClass + "' does not exist. The set of class values is "
+					+ classAtt.getAttributeValues());
+			MOAOutlier.printHelp();
+			System.exit(1);
+		}
 		// Get learning algorithm
 		MyBaseOutlierDetector learner = MOAOutlier.getLearner(learnerName);
+		if (windowSize > 0) {
+			learner.windowSizeOption.setValue(windowSize);
+		}
+		// Check that memory can be measured
+		if (memoryInterval > 0 && !MOAUtilities.isSizeOfAgentLoaded()) {
+			System.out.println("WARNING: memory of the detector is not sampled, since the JVM runs without the"
+					+ " option -javaagent:sizeofag.jar");
+			memoryInterval = 0;
+		}
 		// Run
-		MOAOutlier outlier = new MOAOutlier(outPath);
-		outlier.run(MOAUtilities.readStream(arffPath, indexClass), learner, indexTrain, normalClass);
+		MOAOutlier outlier = new MOAOutlier(outPath, latencyInterval, timing);
+		outlier.run(stream, learner, indexTrain, normalClass, memoryInterval);
+		stream.close();
 		// Close output writer
 		outlier.closeOutputWriter();
 	}
@@ -202,14 +332,25 @@ public class MOAOutlier {
 	 */
 	private static void printHelp() {
 		System.out.println("");
-		System.out.println("=========");
-		System.out.println("NELLY-MOA");
-		System.out.println("=========");
+		System.out.println("============================");
+		System.out.println("NELLY - MOA Outlier Detector");
+		System.out.println("============================");
 		System.out.println("Options:");
 		System.out.println("  --help\tDisplay this help");
 		System.out.println("  --arff\tFile that contains ...");
 		System.out.println("  --out\t\tFile to output the results in CSV format");
-		System.out.println("  --learner\tRegressor model ...");
+		System.out.println("  --learner\tOutlier detector: " + MOAOutlier.learnerOptions.keySet() + " (default mcod)");
+		System.out.println("  --normClass\tClass value of normal instances (default M). Other classes are outliers");
+		System.out.println("  --latInterval\tNumber of tests between latency percentile snapshots, written to a");
+		System.out.println("\t\t'-latency.csv' file next to the results (default 0, i.e., final report only)");
+		System.out.println("  --timing\tClock of the timers ('cpu' or 'wall') and optionally the number of calls");
+		System.out.println("\t\tper timed call, e.g., 'wall,100' (default 'cpu,1'). Untimed tests get NaN time");
+		System.out.println("  --window\tNumber of instances in the window of the detector (default of the detector)");
+		System.out.println("  --memInterval\tNumber of tests between samples of the memory of the detector, plus one");
+		System.out.println("\t\tat the end (default 0, i.e., not sampled). Requires the JVM option");
+		System.out.println("\t\t-javaagent:sizeofag.jar, otherwise not sampled");
+		System.out.println("  --arena\tDecodes the dataset into memory before the evaluation, so parsing is left");
+		System.out.println("\t\tout of its time");
 	}
 
 	/**
@@ -249,58 +390,76 @@ public class MOAOutlier {
 
 	/**
 	 * @param outPath
+	 * @param latencyInterval
 	 */
-	private void createOutputWriter(String outPath) {
+	private void createOutputWriter(String outPath, int latencyInterval) {
 		File outFile = MOAUtilities.getFile(outPath, "out.csv");
 		try {
-			this.output = new FileOutputStream(outFile);
+			this.output = new CSVResultSink(outFile);
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 			System.err.println("Internal error. File '" + outFile.getAbsolutePath() + "' does not exist");
 			System.exit(1);
 		}
+		this.latency = new LatencyTracker(LatencyTracker.getIntervalFile(outFile), latencyInterval);
 	}
 
 	/**
-	 * FIXME
+	 * 
 	 */
 	private void writeCSVHeader() {
 		StringBuilder csvHeader = new StringBuilder();
 		csvHeader.append("num_tests,");
 		csvHeader.append("num_trains,");
-		csvHeader.append("prediction,");
-		csvHeader.append("actual_value,");
-		csvHeader.append("error,");
-		csvHeader.append("square_error,");
-		csvHeader.append("time\n");
-		try {
-			this.output.write(csvHeader.toString().getBytes());
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.err.println("Internal error. Exception thrown when writing on the file");
-			System.exit(1);
-		}
+		csvHeader.append("predicted_class,");
+		csvHeader.append("actual_class,");
+		csvHeader.append("actual_pos,");
+		csvHeader.append("actual_neg,");
+		csvHeader.append("true_pos,");
+		csvHeader.append("true_neg,");
+		csvHeader.append("false_pos,");
+		csvHeader.append("false_neg,");
+		csvHeader.append("time");
+		this.output.writeLine(csvHeader);
+	}
+
+	/**
+	 * Feeds an instance to the detector
+	 * 
+	 * @param learner
+	 * @param instance
+	 *            instance owned by the detector (i.e., not reused afterwards)
+	 * @return whether the detector flagged the instance as outlier on its
+	 *         arrival
+	 */
+	private boolean process(MyBaseOutlierDetector learner, Instance instance) {
+		this.current = instance;
+		this.flagged = false;
+		learner.trainOnInstance(instance);
+		this.current = null;
+		return this.flagged;
 	}
 
 	/**
 	 * @param stream
 	 * @param learner
 	 * @param indexTrain
-	 * @return
+	 * @param normalClass
+	 * @param memoryInterval
+	 *            number of tests between samples of the memory of the detector
+	 *            (0 for none)
 	 */
-	private void run(ArffFileStream stream, MyBaseOutlierDetector learner, int indexTrain, String normalClass) {
+	private void run(RowStream stream, MyBaseOutlierDetector learner, int indexTrain, String normalClass,
+			int memoryInterval) {
 		// Check if default index train (last column)
 		InstancesHeader ih = stream.getHeader();
 		if (indexTrain == -1) {
 			indexTrain = ih.numAttributes() - 1;
 		}
-		// Get index of normal class
-		int idxNormalClass = ih.classAttribute().indexOfValue(normalClass);
-		
-		// FIXME delete
-		System.out.println("Index normal class = " + idxNormalClass);
-		
-		// Get class and train attributes
+		// Get class attribute and index of normal class
+		Attribute classAtt = ih.classAttribute();
+		int idxNormalClass = classAtt.indexOfValue(normalClass);
+		// Get train attribute
 		Attribute trainAtt = ih.attribute(indexTrain);
 		// Set actual header to learner
 		ih.deleteAttributeAt(indexTrain);
@@ -309,6 +468,27 @@ public class MOAOutlier {
 		// Prepare for running
 		stream.prepareForUse();
 		learner.prepareForUse();
+		// Listen to the decisions of the detector on the instance being processed
+		learner.outlierNotifier = new OutlierNotifier() {
+			@Override
+			public void OnOutlier(Outlier outlier) {
+				MOAOutlier.this.countOutlierEvents++;
+				if (outlier.inst == MOAOutlier.this.current) {
+					MOAOutlier.this.flagged = true;
+				}
+			}
+
+			@Override
+			public void OnInlier(Outlier outlier) {
+				MOAOutlier.this.countInlierEvents++;
+				if (outlier.inst == MOAOutlier.this.current) {
+					MOAOutlier.this.flagged = false;
+				}
+			}
+		};
+		// Decode rows into reusable instances projected to the actual header
+		InstanceDecoder decoder = new InstanceDecoder(stream.numAttributes(), indexTrain, trainAtt, actualHeader,
+				MOAUtilities.retainsInstances(learner));
 		// Initialize counters
 		int actualPositives = 0;
 		int actualNegatives = 0;
@@ -319,76 +499,112 @@ public class MOAOutlier {
 		int countTrainSamples = 0;
 		int countTestSamples = 0;
 		int countErrorSamples = 0;
+		long maxMemory = 0;
+		int countMemorySamples = 0;
+		long memoryTime = 0;
 		// Get starting CPU time
 		boolean precise = TimingUtils.enablePreciseTiming();
 		long startTotalTime = TimingUtils.getNanoCPUTimeOfCurrentThread();
+		double[] row = new double[stream.numAttributes()];
+		this.profiler.begin();
 		// Go through each instance
-		for (int i = 0; i < 1000; i++) {
-//		while (stream.hasMoreInstances()) {
-			// Get instance data
-			Instance instance = stream.nextInstance().getData();
-			String train = trainAtt.value((int) instance.value(indexTrain));
-			// Remove value that indicates training
-			instance.deleteAttributeAt(indexTrain);
-			instance.setDataset(actualHeader);
+		while (stream.hasMoreInstances()) {
+			stream.nextRow(row);
+			this.profiler.mark(PhaseProfiler.READ);
+			// Get instance data (without the value that indicates training)
+			int train = decoder.decode(row, 0);
+			Instance instance = decoder.instance();
+			this.profiler.mark(PhaseProfiler.PROJECT);
 			// Get actual class
 			int idxActualClass = (int) instance.classValue();
-			String actualClass = instance.classAttribute().value(idxActualClass);
 			// Check if instance is for testing or training
-			if (train.equalsIgnoreCase(MOAUtilities.TESTING_INSTANCE)) {
-				long startPredictionTime = TimingUtils.getNanoCPUTimeOfCurrentThread();
-				// Predict outlier
-				int idxPredictClass = idxNormalClass;
-//				System.out.println("Prediction = " + learner.getVotesForInstance(instance));
-//				if (learner.getVotesForInstance(instance).length > 0) {
-//					idxPredictClass = (int) learner.getVotesForInstance(instance)[0];
-//				}
-				
-				
-				
+			if (train == InstanceDecoder.TEST) {
+				// Detect outlier on the arrival of the instance
+				instance = decoder.trainingInstance();
+				long startPredictionTime = this.predictionTimer.start();
+				boolean outlier = this.process(learner, instance);
 				// Check prediction time (in nanoseconds)
-				double predictionTime = TimingUtils.getNanoCPUTimeOfCurrentThread() - startPredictionTime;
-				
-//				System.out.println("Prediction = " + idxPredictClass);
-				
-//				// Compute error between predicted and actual values
-//				double error = Math.abs(idxPredictClass - actualClass);
-//				double squareError = Math.pow(error, 2);
-//				// Add error to the sums
-//				sumErrors += error;
-//				sumSquareErrors += squareError;
+				long predictionNanos = this.predictionTimer.stop(startPredictionTime);
+				this.profiler.mark(PhaseProfiler.PREDICT);
+				double predictionTime = Double.NaN;
+				if (predictionNanos != LatencyTimer.NOT_SAMPLED) {
+					predictionTime = predictionNanos;
+					this.latency.recordPrediction(predictionNanos);
+				}
+				// Check if instance is an outlier (positive) or normal (negative)
+				if (idxActualClass != idxNormalClass) {
+					actualPositives++;
+					if (outlier) {
+						truePositives++;
+					} else {
+						falseNegatives++;
+					}
+				} else {
+					actualNegatives++;
+					if (outlier) {
+						falsePositives++;
+					} else {
+						trueNegatives++;
+					}
+				}
 				// Count test samples
 				countTestSamples++;
-//				// Write CSV result
-//				this.writeCSVResult(countTestSamples, countTrainSamples, idxPredictClass, actualClass, error, squareError,
-//						predictionTime);
-			} else if (train.equalsIgnoreCase(MOAUtilities.TRAINING_INSTANCE)) {
+				this.latency.endTest(countTestSamples, countTrainSamples);
+				// Write CSV result
+				this.profiler.mark(PhaseProfiler.OTHER);
+				this.writeCSVResult(countTestSamples, countTrainSamples, outlier ? OUTLIER : normalClass,
+						classAtt.value(idxActualClass), actualPositives, actualNegatives, truePositives,
+						trueNegatives, falsePositives, falseNegatives, predictionTime);
+				this.profiler.mark(PhaseProfiler.WRITE);
+				// Check if sampling memory (excluded from total time)
+				if (memoryInterval > 0 && countTestSamples % memoryInterval == 0) {
+					long startMemoryTime = TimingUtils.getNanoCPUTimeOfCurrentThread();
+					maxMemory = Math.max(maxMemory, learner.measureByteSize());
+					countMemorySamples++;
+					memoryTime += TimingUtils.getNanoCPUTimeOfCurrentThread() - startMemoryTime;
+				}
+			} else if (train == InstanceDecoder.TRAIN) {
 				// Check if instance belongs to normal class
-				if (actualClass.equalsIgnoreCase(normalClass)) {
+				if (idxActualClass == idxNormalClass) {
 					// Train on instance
-					learner.trainOnInstance(instance);
+					long startTrainingTime = this.trainingTimer.start();
+					this.process(learner, decoder.trainingInstance());
+					long trainingNanos = this.trainingTimer.stop(startTrainingTime);
+					this.profiler.mark(PhaseProfiler.TRAIN);
+					if (trainingNanos != LatencyTimer.NOT_SAMPLED) {
+						this.latency.recordTraining(trainingNanos);
+					}
 					countTrainSamples++;
 				}
 			} else {
 				// Train mark not recognized
-				System.out.println("Train value '" + train + "' is not recognized. Check instance " + instance.toString() + train);
+				System.out.println("Train value '" + decoder.markValue() + "' is not recognized. Check instance "
+						+ instance.toString());
 				// Count error samples
 				countErrorSamples++;
 			}
+			this.profiler.endRow();
 		}
-		
-//		System.out.println(learner.PrintOutliers());
-		learner.PrintOutliers();
-		
-//		System.out.println("Result = " + learner.getClusteringResult());
-		
 		// Check elapsed time
-		double totalTime = TimingUtils.nanoTimeToSeconds(TimingUtils.getNanoCPUTimeOfCurrentThread() - startTotalTime);
-		// Compute MAE and RMSE
-//		double mae = sumErrors / countTestSamples;
-//		double rmse = Math.sqrt(sumSquareErrors / countTestSamples);
-		// Write last CSV result ()
-//		this.writeCSVResult(countTestSamples, countTrainSamples, 0, 0, mae, rmse, totalTime);
+		double totalTime = TimingUtils
+				.nanoTimeToSeconds(TimingUtils.getNanoCPUTimeOfCurrentThread() - startTotalTime - memoryTime);
+		// Sample final memory (NaN if not sampled)
+		double lastMemory = Double.NaN;
+		if (memoryInterval > 0) {
+			lastMemory = learner.measureByteSize();
+			maxMemory = Math.max(maxMemory, (long) lastMemory);
+			countMemorySamples++;
+		}
+		// Compute accuracy metrics
+		double accuracy = 1.0 * (truePositives + trueNegatives) / (actualPositives + actualNegatives);
+		double precision = 1.0 * truePositives / (truePositives + falsePositives);
+		double recall = 1.0 * truePositives / actualPositives;
+		double fallOut = 1.0 * falsePositives / actualNegatives;
+		double f1Score = 2 * ((precision * recall) / (precision + recall));
+		// Write last CSV result
+		this.writeCSVResult(countTestSamples, countTrainSamples, String.valueOf(accuracy), String.valueOf(f1Score),
+				precision, recall, fallOut, lastMemory, memoryInterval > 0 ? maxMemory : Double.NaN,
+				countMemorySamples, totalTime);
 		// Generate report statistics
 		StringBuilder report = new StringBuilder();
 		report.append("======================\n");
@@ -399,54 +615,72 @@ public class MOAOutlier {
 		report.append(" - Test = ").append(countTestSamples).append("\n");
 		report.append(" - Train = ").append(countTrainSamples).append("\n");
 		report.append(" - Error = ").append(countErrorSamples).append("\n");
-//		report.append("Errors\n");
-//		report.append(" - MAE = ").append(mae).append("\n");
-//		report.append(" - RMSE = ").append(rmse).append("\n");
+		report.append("\n");
+		this.latency.finish(report, countTestSamples, countTrainSamples);
+		report.append(" - Timing: ").append(this.predictionTimer.describe()).append("\n");
+		report.append("\n");
+		this.profiler.finish(report);
+		report.append("Memory of the detector (bytes)\n");
+		report.append(" - Window = ").append(learner.windowSizeOption.getValue()).append(" instances\n");
+		if (memoryInterval > 0) {
+			report.append(" - Last = ").append((long) lastMemory).append(", max = ").append(maxMemory).append(" (")
+					.append(countMemorySamples).append(" samples, excluded from total time)\n");
+		} else if (MOAUtilities.isSizeOfAgentLoaded()) {
+			report.append(" - Not sampled (see --memInterval)\n");
+		} else {
+			report.append(" - Not sampled (the JVM runs without the option -javaagent:sizeofag.jar)\n");
+		}
+		report.append(" - Notifications: outlier = ").append(this.countOutlierEvents).append(", inlier = ")
+				.append(this.countInlierEvents).append("\n");
+		report.append("\n");
+		report.append("Confusion matrix (positive = outlier)\n");
+		report.append("\t\t\t\t\t\t ACTUAL\n");
+		report.append("\t\t\t\t\tPositive\tNegative\tTOTAL\n");
+		report.append("\tPREDICTED\tPositive\t" + truePositives + "\t\t" + falsePositives + "\t\t"
+				+ (truePositives + falsePositives) + "\n");
+		report.append("\t\t\tNegative\t" + falseNegatives + "\t\t" + trueNegatives + "\t\t"
+				+ (falseNegatives + trueNegatives) + "\n");
+		report.append("\t\tTOTAL\t\t\t" + actualPositives + "\t\t" + actualNegatives + "\t\t"
+				+ (actualPositives + actualNegatives) + "\n");
+		report.append("\n");
+		report.append("Accuracy metrics\n");
+		report.append(" - Accuracy = ").append(100 * accuracy).append(" %\n");
+		report.append(" - F1 score = ").append(f1Score).append("\n");
+		report.append(" - Precision (PPV) = ").append(100 * precision).append(" %\n");
+		report.append(" - Recall (TPR) = ").append(100 * recall).append(" %\n");
+		report.append(" - Fall-out (FPR) = ").append(100 * fallOut).append(" %\n");
 		System.out.println(report.toString());
 	}
 
 	/**
 	 * @param numTests
 	 * @param numTrains
-	 * @param prediction
-	 * @param actual
-	 * @param error
-	 * @param squareError
+	 * @param predictClass
+	 * @param actualClass
+	 * @param actualPositives
+	 * @param actualNegatives
+	 * @param truePositives
+	 * @param trueNegatives
+	 * @param falsePositives
+	 * @param falseNegatives
 	 * @param time
 	 */
-	private void writeCSVResult(int numTests, int numTrains, double prediction, double actual, double error,
-			double squareError, double time) {
-		// Generate CSV result
-		StringBuilder csvLine = new StringBuilder();
-		csvLine.append(numTests).append(",");
-		csvLine.append(numTrains).append(",");
-		csvLine.append(prediction).append(",");
-		csvLine.append(actual).append(",");
-		csvLine.append(error).append(",");
-		csvLine.append(squareError).append(",");
-		csvLine.append(time).append("\n");
-		// Write result to file
-		try {
-			this.output.write(csvLine.toString().getBytes());
-			this.output.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.err.println("Internal error. Exception thrown when writing on the file");
-			System.exit(1);
-		}
+	private void writeCSVResult(int numTests, int numTrains, String predictClass, String actualClass,
+			double actualPositives, double actualNegatives, double truePositives, double trueNegatives,
+			double falsePositives, double falseNegatives, double time) {
+		// Encode CSV result (written asynchronously)
+		this.output.field(numTests).field(numTrains).field(predictClass).field(actualClass);
+		this.output.field(actualPositives).field(actualNegatives).field(truePositives).field(trueNegatives);
+		this.output.field(falsePositives).field(falseNegatives).field(time);
+		this.output.endRow();
 	}
 
 	/**
 	 * 
 	 */
 	private void closeOutputWriter() {
-		try {
-			this.output.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.err.println("Internal error. Exception thrown when closing the file writer");
-			System.exit(1);
-		}
+		this.output.close();
+		this.latency.close();
 	}
 
 }
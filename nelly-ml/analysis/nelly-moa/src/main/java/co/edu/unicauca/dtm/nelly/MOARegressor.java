@@ -18,7 +18,6 @@ package co.edu.unicauca.dtm.nelly;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
@@ -41,7 +40,6 @@ import moa.classifiers.rules.meta.RandomAMRules;
 import moa.classifiers.trees.FIMTDD;
 import moa.classifiers.trees.ORTO;
 import moa.core.TimingUtils;
-import moa.streams.ArffFileStream;
 
 /**
  * 
@@ -57,7 +55,53 @@ public class MOARegressor {
 	/**
 	 * 
 	 */
-	private FileOutputStream output;
+	private CSVResultSink output;
+
+	/**
+	 * Prediction and training latencies
+	 */
+	private LatencyTracker latency;
+
+	/**
+	 * Timers of predictions and trainings (sampled)
+	 */
+	private LatencyTimer predictionTimer, trainingTimer;
+
+	/**
+	 * Windowed metrics, emitted every window of tests instead of a row per test
+	 * (null for a row per test)
+	 */
+	private WindowedErrorMetrics windowed;
+
+	/**
+	 * Name of the evaluated learner (stored in snapshots)
+	 */
+	private String learnerName;
+
+	/**
+	 * Writer of snapshots (null for no snapshots)
+	 */
+	private SnapshotWriter snapshots;
+
+	/**
+	 * Number of rows between snapshots
+	 */
+	private int snapshotInterval;
+
+	/**
+	 * Snapshot to resume the evaluation from (null for starting from scratch)
+	 */
+	private File resumeFile;
+
+	/**
+	 * Sampler of the byte size of the learner (null for no sampling)
+	 */
+	private MemoryBudget memory;
+
+	/**
+	 * Time and allocated bytes of each phase of the evaluation
+	 */
+	private PhaseProfiler profiler = new PhaseProfiler();
 
 	/**
 	 * 
@@ -73,6 +117,14 @@ public class MOARegressor {
 		options.put("--idxTrain", 5);
 		options.put("--thrTrain", 6);
 		options.put("--logMinDV", 7);
+		options.put("--latInterval", 8);
+		options.put("--timing", 9);
+		options.put("--window", 10);
+		options.put("--snapshot", 11);
+		options.put("--snapInterval", 12);
+		options.put("--resume", 13);
+		options.put("--memory", 14);
+		options.put("--arena", 15);
 	}
 
 	/**
@@ -106,10 +158,18 @@ public class MOARegressor {
 	 * Constructor
 	 * 
 	 * @param outPath file path for writing the results 
+	 * @param latencyInterval number of tests between latency snapshots (0 for none)
+	 * @param timing clock and sample rate of the timers
+	 * @param window window size and fading factor of the windowed metrics (null for a row per test)
 	 */
-	public MOARegressor(String outPath) {
+	public MOARegressor(String outPath, int latencyInterval, int[] timing, double[] window) {
 		super();
-		this.createOutputWriter(outPath);
+		if (window != null) {
+			this.windowed = new WindowedErrorMetrics((int) window[0], window[1]);
+		}
+		this.predictionTimer = new LatencyTimer(timing[0], timing[1]);
+		this.trainingTimer = new LatencyTimer(timing[0], timing[1]);
+		this.createOutputWriter(outPath, latencyInterval);
 		this.writeCSVHeader();
 	}
 
@@ -125,6 +185,14 @@ public class MOARegressor {
 		int indexTrain = -1;
 		double thresholdTrain = 0;
 		double logMinDV = -1;
+		int latencyInterval = 0;
+		int[] timing = { LatencyTimer.CPU, 1 };
+		double[] window = null;
+		String snapshotPath = null;
+		int snapshotInterval = 100000;
+		String resumePath = null;
+		long[] memory = null;
+		boolean arena = false;
 		// Get parameters from arguments
 		for (int i = 0; i < args.length; i++) {
 			// Check that given option exists
@@ -206,6 +274,74 @@ public class MOARegressor {
 							+ "' to integer. By default, log transformation is not carried out.");
 				}
 				break;
+			// LATENCY INTERVAL
+			case 8:
+				i++;
+				// Parse number of tests between latency snapshots
+				try {
+					latencyInterval = Integer.parseInt(args[i]);
+				} catch (Exception e) {
+					latencyInterval = 0;
+					System.out.println("Error parsing latInterval '" + args[i]
+							+ "' to integer. By default, latency percentiles are only reported at the end.");
+				}
+				break;
+			// TIMING
+			case 9:
+				i++;
+				// Parse clock and sample rate of the timers
+				timing = LatencyTimer.parseOption(args[i]);
+				if (timing == null) {
+					MOARegressor.printHelp();
+					System.exit(1);
+				}
+				break;
+			// WINDOW
+			case 10:
+				i++;
+				// Parse window size and fading factor
+				window = WindowedMetrics.parseOption(args[i]);
+				if (window == null) {
+					MOARegressor.printHelp();
+					System.exit(1);
+				}
+				break;
+			// SNAPSHOT
+			case 11:
+				i++;
+				snapshotPath = args[i];
+				break;
+			// SNAPSHOT INTERVAL
+			case 12:
+				i++;
+				// Parse number of rows between snapshots
+				try {
+					snapshotInterval = Integer.parseInt(args[i]);
+				} catch (Exception e) {
+					snapshotInterval = 100000;
+					System.out.println("Error parsing snapInterval '" + args[i]
+							+ "' to integer. Using by default a snapshot every 100000 rows.");
+				}
+				break;
+			// RESUME
+			case 13:
+				i++;
+				resumePath = args[i];
+				break;
+			// MEMORY
+			case 14:
+				i++;
+				// Parse number of rows between memory samples and memory budget
+				memory = MemoryBudget.parseOption(args[i]);
+				if (memory == null || !MemoryBudget.checkAgent(memory)) {
+					MOARegressor.printHelp();
+					System.exit(1);
+				}
+				break;
+			// ARENA
+			case 15:
+				arena = true;
+				break;
 			// ERROR
 			default:
 				System.err.println("Internal error. Option " + option + " is not implemented");
@@ -222,8 +358,21 @@ public class MOARegressor {
 		// Get learning algorithm
 		Classifier learner = MOARegressor.getLearner(learnerName);
 		// Run
-		MOARegressor regressor = new MOARegressor(outPath);
-		regressor.run(MOAUtilities.readStream(arffPath, indexDV), learner, indexTrain, thresholdTrain, logMinDV);
+		MOARegressor regressor = new MOARegressor(outPath, latencyInterval, timing, window);
+		regressor.setSnapshots(learnerName, snapshotPath, snapshotInterval, resumePath);
+		regressor.setMemory(outPath, memory);
+		RowStream stream;
+		if (arena) {
+			// Decode dataset into memory before evaluating
+			DatasetArena decoded = DatasetArena.load(arffPath, indexDV);
+			System.out.println("Decoded " + decoded.numRows() + " rows into an arena of " + decoded.getMemory()
+					+ " bytes");
+			stream = decoded.replay();
+		} else {
+			stream = MOAUtilities.readStream(arffPath, indexDV);
+		}
+		regressor.run(stream, learner, indexTrain, thresholdTrain, logMinDV);
+		stream.close();
 		// Close output writer
 		regressor.closeOutputWriter();
 	}
@@ -241,13 +390,30 @@ public class MOARegressor {
 		System.out.println("  --arff\tFile that contains ...");
 		System.out.println("  --out\t\tFile to output the results in CSV format");
 		System.out.println("  --learner\tRegressor model ...");
+		System.out.println("  --latInterval\tNumber of tests between latency percentile snapshots, written to a");
+		System.out.println("\t\t'-latency.csv' file next to the results (default 0, i.e., final report only)");
+		System.out.println("  --timing\tClock of the timers ('cpu' or 'wall') and optionally the number of calls");
+		System.out.println("\t\tper timed call, e.g., 'wall,100' (default 'cpu,1'). Untimed tests get NaN time");
+		System.out.println("  --window\tWindow size and optionally fading factor, e.g., '1000,0.999'. Writes a row of");
+		System.out.println("\t\tsliding-window, faded and cumulative metrics every window of tests instead of a row");
+		System.out.println("\t\tper test");
+		System.out.println("  --snapshot\tFile to periodically write a snapshot of the learner and the evaluation");
+		System.out.println("  --snapInterval\tNumber of rows between snapshots (default 100000)");
+		System.out.println("  --resume\tSnapshot to resume the evaluation from");
+		System.out.println("  --memory\tNumber of rows between samples of the byte size of the learner and optionally");
+		System.out.println("\t\ta budget in bytes, e.g., '100000,512m', written to a '-memory.csv' file next to the");
+		System.out.println("\t\tresults. Regressors cannot be reduced, so samples over the budget are only");
+		System.out.println("\t\tcounted. Requires the JVM option -javaagent:sizeofag.jar, otherwise sizes are not");
+		System.out.println("\t\tmeasured and budgets are refused");
+		System.out.println("  --arena\tDecodes the dataset into memory before the evaluation, so parsing is left");
+		System.out.println("\t\tout of its time");
 	}
 
 	/**
 	 * @param regressorName
 	 * @return
 	 */
-	private static Classifier getLearner(String regressorName) {
+	public static Classifier getLearner(String regressorName) {
 		// Check that given learner name exists
 		int learnerOption = -1;
 		if (MOARegressor.learnerOptions.containsKey(regressorName)) {
@@ -296,21 +462,27 @@ public class MOARegressor {
 	/**
 	 * @param outPath
 	 */
-	private void createOutputWriter(String outPath) {
+	private void createOutputWriter(String outPath, int latencyInterval) {
 		File outFile = MOAUtilities.getFile(outPath, "out.csv");
 		try {
-			this.output = new FileOutputStream(outFile);
+			this.output = new CSVResultSink(outFile);
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 			System.err.println("Internal error. File '" + outFile.getAbsolutePath() + "' does not exist");
 			System.exit(1);
 		}
+		this.latency = new LatencyTracker(LatencyTracker.getIntervalFile(outFile), latencyInterval);
 	}
 
 	/**
 	 * 
 	 */
 	private void writeCSVHeader() {
+		// Check if writing windowed metrics
+		if (this.windowed != null) {
+			this.windowed.writeCSVHeader(this.output);
+			return;
+		}
 		StringBuilder csvHeader = new StringBuilder();
 		csvHeader.append("num_tests,");
 		csvHeader.append("num_trains,");
@@ -318,14 +490,89 @@ public class MOARegressor {
 		csvHeader.append("actual_value,");
 		csvHeader.append("error,");
 		csvHeader.append("square_error,");
-		csvHeader.append("time\n");
+		csvHeader.append("time");
+		this.output.writeLine(csvHeader);
+	}
+
+	/**
+	 * Configures snapshots
+	 * 
+	 * @param learnerName
+	 * @param snapshotPath
+	 *            path of the snapshot to write (null for no snapshots)
+	 * @param snapshotInterval
+	 *            number of rows between snapshots
+	 * @param resumePath
+	 *            path of the snapshot to resume from (null for starting from
+	 *            scratch)
+	 */
+	private void setSnapshots(String learnerName, String snapshotPath, int snapshotInterval, String resumePath) {
+		this.learnerName = learnerName;
+		if (snapshotPath != null) {
+			this.snapshots = new SnapshotWriter(new File(snapshotPath));
+			this.snapshotInterval = Math.max(1, snapshotInterval);
+		}
+		if (resumePath != null) {
+			this.resumeFile = new File(resumePath);
+		}
+	}
+
+	/**
+	 * Configures sampling of the byte size of the learner
+	 * 
+	 * @param outPath
+	 *            file path of the results
+	 * @param memory
+	 *            number of rows between samples and budget in bytes (null for no
+	 *            sampling)
+	 */
+	private void setMemory(String outPath, long[] memory) {
+		if (memory != null) {
+			this.memory = new MemoryBudget(MemoryBudget.getSampleFile(MOAUtilities.getFile(outPath, "out.csv")),
+					(int) memory[0], memory[1]);
+		}
+	}
+
+	/**
+	 * @return snapshot to resume from (exits if it cannot be read or is of
+	 *         another learner)
+	 */
+	private Snapshot readSnapshot() {
+		Snapshot snapshot = null;
 		try {
-			this.output.write(csvHeader.toString().getBytes());
+			snapshot = Snapshot.read(this.resumeFile);
 		} catch (IOException e) {
 			e.printStackTrace();
-			System.err.println("Internal error. Exception thrown when writing on the file");
+			System.err.println("Error reading snapshot '" + this.resumeFile.getAbsolutePath() + "'");
+			System.exit(1);
+		}
+		if (!this.learnerName.equals(snapshot.getLearnerName())) {
+			System.out.println("Snapshot '" + this.resumeFile.getAbsolutePath() + "' is of learner "
+					+ snapshot.getLearnerName() + ", not " + this.learnerName);
 			System.exit(1);
 		}
+		System.out.println("Resuming learner " + this.learnerName + " from row " + snapshot.getPosition()
+				+ " (snapshot '" + this.resumeFile.getAbsolutePath() + "')");
+		return snapshot;
+	}
+
+	/**
+	 * Captures a snapshot of a copy of the learner, the counters and the error
+	 * sums, serialized in background
+	 * 
+	 * @param learner
+	 * @param position
+	 * @param countTrainSamples
+	 * @param countTestSamples
+	 * @param countErrorSamples
+	 * @param sumErrors
+	 * @param sumSquareErrors
+	 */
+	private void snapshot(Classifier learner, long position, int countTrainSamples, int countTestSamples,
+			int countErrorSamples, double sumErrors, double sumSquareErrors) {
+		this.snapshots.capture(new Snapshot(this.learnerName, learner.copy(), position,
+				new long[] { countTrainSamples, countTestSamples, countErrorSamples },
+				new double[] { sumErrors, sumSquareErrors }));
 	}
 
 	/**
@@ -335,7 +582,7 @@ public class MOARegressor {
 	 * @param thresholdTrain
 	 * @param logMinDV
 	 */
-	private void run(ArffFileStream stream, Classifier learner, int indexTrain, double thresholdTrain,
+	private void run(RowStream stream, Classifier learner, int indexTrain, double thresholdTrain,
 			double logMinDV) {
 		// Check if default index train (last column)
 		InstancesHeader ih = stream.getHeader();
@@ -348,26 +595,50 @@ public class MOARegressor {
 		ih.deleteAttributeAt(indexTrain);
 		InstancesHeader actualHeader = new InstancesHeader(ih);
 		learner.setModelContext(actualHeader);
+		if (this.memory != null) {
+			this.memory.configure(learner);
+		}
 		// Prepare for running
 		stream.prepareForUse();
 		learner.prepareForUse();
+		// Decode rows into reusable instances projected to the actual header
+		InstanceDecoder decoder = new InstanceDecoder(stream.numAttributes(), indexTrain, trainAtt, actualHeader,
+				MOAUtilities.retainsInstances(learner));
 		// Initialize error sums and counters
 		double sumErrors = 0;
 		double sumSquareErrors = 0;
 		int countTrainSamples = 0;
 		int countTestSamples = 0;
 		int countErrorSamples = 0;
+		// Restore learner, error sums and counters from snapshot
+		long position = 0;
+		if (this.resumeFile != null) {
+			Snapshot snapshot = this.readSnapshot();
+			learner = (Classifier) snapshot.getLearner();
+			if (this.memory != null) {
+				this.memory.configure(learner);
+			}
+			sumErrors = snapshot.getSums()[0];
+			sumSquareErrors = snapshot.getSums()[1];
+			countTrainSamples = (int) snapshot.getCounters()[0];
+			countTestSamples = (int) snapshot.getCounters()[1];
+			countErrorSamples = (int) snapshot.getCounters()[2];
+			position = snapshot.getPosition();
+			stream.skip(position);
+		}
 		// Get starting CPU time
 		boolean precise = TimingUtils.enablePreciseTiming();
 		long startTotalTime = TimingUtils.getNanoCPUTimeOfCurrentThread();
+		double[] row = new double[stream.numAttributes()];
+		this.profiler.begin();
 		// Go through each instance
 		while (stream.hasMoreInstances()) {
-			// Get instance data
-			Instance instance = stream.nextInstance().getData();
-			String train = trainAtt.value((int) instance.value(indexTrain));
-			// Remove value that indicates training
-			instance.deleteAttributeAt(indexTrain);
-			instance.setDataset(actualHeader);
+			stream.nextRow(row);
+			this.profiler.mark(PhaseProfiler.READ);
+			// Get instance data (without the value that indicates training)
+			int train = decoder.decode(row, 0);
+			position++;
+			Instance instance = decoder.instance();
 			// Get actual value of dependent variable
 			double actualDV = instance.classValue();
 			// Check if Log transformation is enabled
@@ -375,13 +646,15 @@ public class MOARegressor {
 				// Adjusted Log transformation on dependent variable
 				instance.setClassValue(Math.log(actualDV + 1 - logMinDV));
 			}
+			this.profiler.mark(PhaseProfiler.PROJECT);
 			// Check if instance is for testing or training
-			if (train.equalsIgnoreCase(MOAUtilities.TESTING_INSTANCE)) {
-				long startPredictionTime = TimingUtils.getNanoCPUTimeOfCurrentThread();
+			if (train == InstanceDecoder.TEST) {
+				long startPredictionTime = this.predictionTimer.start();
 				// Predict value
 				double prediction = 0.0;
-				if (learner.getVotesForInstance(instance).length > 0) {
-					prediction = learner.getVotesForInstance(instance)[0];
+				double[] votes = learner.getVotesForInstance(instance);
+				if (votes.length > 0) {
+					prediction = votes[0];
 				}
 				// Check if Log transformation is enabled
 				if (logMinDV >= 0) {
@@ -389,7 +662,13 @@ public class MOARegressor {
 					prediction = Math.exp(prediction) - 1 + logMinDV;
 				}
 				// Check prediction time (in nanoseconds)
-				double predictionTime = TimingUtils.getNanoCPUTimeOfCurrentThread() - startPredictionTime;
+				long predictionNanos = this.predictionTimer.stop(startPredictionTime);
+				this.profiler.mark(PhaseProfiler.PREDICT);
+				double predictionTime = Double.NaN;
+				if (predictionNanos != LatencyTimer.NOT_SAMPLED) {
+					predictionTime = predictionNanos;
+					this.latency.recordPrediction(predictionNanos);
+				}
 				// Compute error between predicted and actual values
 				double error = Math.abs(prediction - actualDV);
 				double squareError = Math.pow(error, 2);
@@ -398,30 +677,69 @@ public class MOARegressor {
 				sumSquareErrors += squareError;
 				// Count test samples
 				countTestSamples++;
-				// Write CSV result
-				this.writeCSVResult(countTestSamples, countTrainSamples, prediction, actualDV, error, squareError,
-						predictionTime);
-			} else if (train.equalsIgnoreCase(MOAUtilities.TRAINING_INSTANCE)) {
+				this.latency.endTest(countTestSamples, countTrainSamples);
+				// Write CSV result (every window of tests if windowed)
+				this.profiler.mark(PhaseProfiler.OTHER);
+				if (this.windowed != null) {
+					this.windowed.add(error);
+					if (this.windowed.isWindowEnd()) {
+						this.windowed.writeCSVResult(this.output, countTestSamples, countTrainSamples);
+					}
+				} else {
+					this.writeCSVResult(countTestSamples, countTrainSamples, prediction, actualDV, error, squareError,
+							predictionTime);
+				}
+				this.profiler.mark(PhaseProfiler.WRITE);
+			} else if (train == InstanceDecoder.TRAIN) {
 				// Check threshold
 				if (instance.classValue() > thresholdTrain) {
 					// Train on instance
-					learner.trainOnInstance(instance);
+					long startTrainingTime = this.trainingTimer.start();
+					learner.trainOnInstance(decoder.trainingInstance());
+					long trainingNanos = this.trainingTimer.stop(startTrainingTime);
+					this.profiler.mark(PhaseProfiler.TRAIN);
+					if (trainingNanos != LatencyTimer.NOT_SAMPLED) {
+						this.latency.recordTraining(trainingNanos);
+					}
 					countTrainSamples++;
 				}
 			} else {
 				// Train mark not recognized
-				System.out.println("Train value '" + train + "' is not recognized. Check instance " + instance.toString() + train);
+				System.out.println("Train value '" + decoder.markValue() + "' is not recognized. Check instance "
+						+ instance.toString());
 				// Count error samples
 				countErrorSamples++;
 			}
+			// Check if capturing a snapshot
+			if (this.snapshots != null && position % this.snapshotInterval == 0) {
+				this.snapshot(learner, position, countTrainSamples, countTestSamples, countErrorSamples, sumErrors,
+						sumSquareErrors);
+			}
+			// Check if sampling memory
+			if (this.memory != null && this.memory.isSample(position)) {
+				this.memory.sample(learner, position, countTestSamples, countTrainSamples);
+			}
+			this.profiler.endRow();
+		}
+		// Capture last snapshot
+		if (this.snapshots != null) {
+			this.snapshot(learner, position, countTrainSamples, countTestSamples, countErrorSamples, sumErrors,
+					sumSquareErrors);
+			this.snapshots.close();
 		}
 		// Check elapsed time
 		double totalTime = TimingUtils.nanoTimeToSeconds(TimingUtils.getNanoCPUTimeOfCurrentThread() - startTotalTime);
 		// Compute MAE and RMSE
 		double mae = sumErrors / countTestSamples;
 		double rmse = Math.sqrt(sumSquareErrors / countTestSamples);
-		// Write last CSV result ()
-		this.writeCSVResult(countTestSamples, countTrainSamples, 0, 0, mae, rmse, totalTime);
+		// Write last CSV result (the partial window if windowed)
+		if (this.windowed != null) {
+			if (this.windowed.hasPartialWindow()) {
+				this.windowed.writeCSVResult(this.output, countTestSamples, countTrainSamples);
+			}
+		} else {
+			this.writeCSVResult(countTestSamples, countTrainSamples, 0, 0, mae, rmse, totalTime);
+		}
 		// Generate report statistics
 		StringBuilder report = new StringBuilder();
 		report.append("======================\n");
@@ -432,9 +750,18 @@ public class MOARegressor {
 		report.append(" - Test = ").append(countTestSamples).append("\n");
 		report.append(" - Train = ").append(countTrainSamples).append("\n");
 		report.append(" - Error = ").append(countErrorSamples).append("\n");
+		this.latency.finish(report, countTestSamples, countTrainSamples);
+		report.append(" - Timing: ").append(this.predictionTimer.describe()).append("\n");
 		report.append("Errors\n");
 		report.append(" - MAE = ").append(mae).append("\n");
 		report.append(" - RMSE = ").append(rmse).append("\n");
+		report.append("\n");
+		this.profiler.finish(report);
+		// Sample final memory
+		if (this.memory != null) {
+			this.memory.sample(learner, position, countTestSamples, countTrainSamples);
+			this.memory.finish(report);
+		}
 		System.out.println(report.toString());
 	}
 
@@ -449,36 +776,20 @@ public class MOARegressor {
 	 */
 	private void writeCSVResult(int numTests, int numTrains, double prediction, double actual, double error,
 			double squareError, double time) {
-		// Generate CSV result
-		StringBuilder csvLine = new StringBuilder();
-		csvLine.append(numTests).append(",");
-		csvLine.append(numTrains).append(",");
-		csvLine.append(prediction).append(",");
-		csvLine.append(actual).append(",");
-		csvLine.append(error).append(",");
-		csvLine.append(squareError).append(",");
-		csvLine.append(time).append("\n");
-		// Write result to file
-		try {
-			this.output.write(csvLine.toString().getBytes());
-			this.output.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.err.println("Internal error. Exception thrown when writing on the file");
-			System.exit(1);
-		}
+		// Encode CSV result (written asynchronously)
+		this.output.field(numTests).field(numTrains).field(prediction).field(actual);
+		this.output.field(error).field(squareError).field(time);
+		this.output.endRow();
 	}
 
 	/**
 	 * 
 	 */
 	private void closeOutputWriter() {
-		try {
-			this.output.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.err.println("Internal error. Exception thrown when closing the file writer");
-			System.exit(1);
+		this.output.close();
+		this.latency.close();
+		if (this.memory != null) {
+			this.memory.close();
 		}
 	}
 
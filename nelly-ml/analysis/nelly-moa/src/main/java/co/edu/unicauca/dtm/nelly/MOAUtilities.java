@@ -18,8 +18,20 @@ package co.edu.unicauca.dtm.nelly;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
 
-import moa.streams.ArffFileStream;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import moa.classifiers.lazy.SAMkNN;
+import moa.classifiers.lazy.kNN;
+import moa.classifiers.meta.AccuracyWeightedEnsemble;
+import moa.classifiers.meta.LearnNSE;
+import moa.classifiers.meta.RCD;
+import moa.clusterers.outliers.MyBaseOutlierDetector;
 
 /**
  * 
@@ -41,6 +53,23 @@ public class MOAUtilities {
 	 * 
 	 */
 	public static final String TRAINING_INSTANCE = "T";
+
+	/**
+	 * Number of threads for parsing ARFF files (one core is left to the learner)
+	 */
+	public static final int PARSER_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+	/**
+	 * JMX domain of the beans of Nelly
+	 */
+	public static final String JMX_DOMAIN = "co.edu.unicauca.dtm.nelly";
+
+	/**
+	 * Learners that keep references to training instances (e.g., in windows or
+	 * batches), so reusable instances must be copied before training them
+	 */
+	private static final Class<?>[] RETAINING_LEARNERS = { kNN.class, SAMkNN.class, AccuracyWeightedEnsemble.class,
+			LearnNSE.class, RCD.class, MyBaseOutlierDetector.class };
 	
 	/**
 	 * Creates a file. Exits if the program throws an error while creating the file
@@ -112,17 +141,109 @@ public class MOAUtilities {
 	 * @param indexClass
 	 * @return
 	 */
-	public static ArffFileStream readStream(String arffPath, int indexClass) {
-		// Read ARFF file
-		ArffFileStream stream = new ArffFileStream(arffPath, indexClass);
+	public static RowStream readStream(String arffPath, int indexClass) {
+		// Read columnar file (converted from ARFF), pcap file (aggregated into flows
+		// on the fly), compressed ARFF file (gzip or zstd, decompressed on the fly)
+		// or ARFF file (memory-mapped and parsed in parallel)
+		RowStream stream;
+		if (ColumnarStream.isColumnar(arffPath)) {
+			stream = new ColumnarStream(arffPath, indexClass);
+		} else if (PcapReader.isPcap(arffPath)) {
+			stream = new PcapStream(arffPath, indexClass);
+		} else if (CompressedArffStream.isCompressed(arffPath)) {
+			stream = new CompressedArffStream(arffPath, indexClass);
+		} else {
+			stream = new MappedArffStream(arffPath, indexClass, MOAUtilities.PARSER_THREADS);
+		}
 		// Check if default index class (last-second column)
 		if (indexClass == -1) {
 			indexClass = stream.getHeader().numAttributes() - 1;
-			stream.classIndexOption.setValue(indexClass);
+			stream.setClassIndex(indexClass);
 			stream.restart();
 		}
 		// Return stream
 		return stream;
 	}
 
+	/**
+	 * @param learner
+	 * @return whether the learner keeps references to training instances
+	 */
+	public static boolean retainsInstances(Object learner) {
+		for (Class<?> retaining : MOAUtilities.RETAINING_LEARNERS) {
+			if (retaining.isInstance(learner)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Without the sizeofag agent, MOA measures every object as 0 bytes (printing
+	 * a notice only once), so memory sizes must be checked against this
+	 * 
+	 * @return whether the JVM runs with the sizeofag agent (-javaagent)
+	 */
+	public static boolean isSizeOfAgentLoaded() {
+		try {
+			Field inst = sizeof.agent.SizeOfAgent.class.getDeclaredField("inst");
+			inst.setAccessible(true);
+			return inst.get(null) != null;
+		} catch (Exception e) {
+			// Otherwise, look for the agent in the options of the JVM
+			for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+				if (argument.startsWith("-javaagent") && argument.contains("sizeofag")) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Registers a bean in the platform MBean server, numbering its name if
+	 * already taken. A bean that cannot be registered is reported and ignored
+	 * 
+	 * @param bean
+	 * @param type
+	 *            type of the bean in its object name
+	 * @param name
+	 *            name of the bean in its object name
+	 * @return object name of the registered bean, or null if not registered
+	 */
+	public static ObjectName registerMBean(Object bean, String type, String name) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (int i = 1;; i++) {
+			try {
+				String numbered = i == 1 ? name : name + " (" + i + ")";
+				ObjectName objectName = new ObjectName(
+						MOAUtilities.JMX_DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(numbered));
+				server.registerMBean(bean, objectName);
+				return objectName;
+			} catch (InstanceAlreadyExistsException e) {
+				// Try next number
+			} catch (JMException e) {
+				System.err.println("WARNING: JMX bean '" + name + "' could not be registered: " + e.getMessage());
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Unregisters a bean from the platform MBean server
+	 * 
+	 * @param objectName
+	 *            object name of the bean (ignored if null)
+	 */
+	public static void unregisterMBean(ObjectName objectName) {
+		if (objectName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (JMException e) {
+			// Bean was already unregistered
+		}
+	}
+
 }
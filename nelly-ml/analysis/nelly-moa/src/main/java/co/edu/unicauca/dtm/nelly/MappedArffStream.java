@@ -0,0 +1,353 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+/**
+ * Stream of a dense ARFF file whose data section is memory-mapped and split
+ * into chunks on line boundaries. Chunks are parsed into primitive rows by a
+ * pool of threads and delivered in file order. The pool starts on the first
+ * read after constructing or restarting the stream, so restarts before reading
+ * cost no parsing
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class MappedArffStream extends RowStream {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Default number of bytes of each chunk
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 8 << 20;
+
+	/**
+	 * Number of chunks being parsed per parser thread
+	 */
+	private static final int CHUNKS_PER_THREAD = 2;
+
+	/**
+	 * 
+	 */
+	private final String arffPath;
+
+	/**
+	 * 
+	 */
+	private final int numThreads;
+
+	/**
+	 * 
+	 */
+	private final int chunkSize;
+
+	/**
+	 * ARFF header text, up to the data declaration
+	 */
+	private String headerText;
+
+	/**
+	 * Offset of the data section in the file
+	 */
+	private long dataOffset;
+
+	/**
+	 * Number of attributes of each row
+	 */
+	private int numAttributes;
+
+	/**
+	 * Parser of the rows, shared by the parser threads
+	 */
+	private transient ArffRowParser parser;
+
+	/**
+	 * 
+	 */
+	private transient RandomAccessFile file;
+
+	/**
+	 * 
+	 */
+	private transient ExecutorService parsers;
+
+	/**
+	 * Chunks being parsed, in file order (null until the pool starts)
+	 */
+	private transient ArrayDeque<Future<ArffRowParser.Chunk>> pending;
+
+	/**
+	 * Parsed chunks whose arrays can be reused
+	 */
+	private transient ConcurrentLinkedQueue<ArffRowParser.Chunk> recycled;
+
+	/**
+	 * File offset of the next chunk to submit
+	 */
+	private long nextOffset;
+
+	/**
+	 * Chunk being read
+	 */
+	private transient ArffRowParser.Chunk current;
+
+	/**
+	 * Next row to read from the current chunk
+	 */
+	private int currentRow;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param arffPath
+	 *            path of the ARFF file
+	 * @param classIndex
+	 *            class index (0 for none, -1 for the last attribute, otherwise
+	 *            starting from 1)
+	 * @param numThreads
+	 *            number of parser threads
+	 */
+	public MappedArffStream(String arffPath, int classIndex, int numThreads) {
+		this(arffPath, classIndex, numThreads, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param arffPath
+	 *            path of the ARFF file
+	 * @param classIndex
+	 *            class index (0 for none, -1 for the last attribute, otherwise
+	 *            starting from 1)
+	 * @param numThreads
+	 *            number of parser threads
+	 * @param chunkSize
+	 *            number of bytes of each chunk
+	 */
+	public MappedArffStream(String arffPath, int classIndex, int numThreads, int chunkSize) {
+		super(classIndex);
+		this.arffPath = arffPath;
+		this.numThreads = Math.max(1, numThreads);
+		this.chunkSize = chunkSize;
+		// Read header only (the pool starts on the first read)
+		try {
+			InputStream input = new BufferedInputStream(new FileInputStream(this.arffPath));
+			try {
+				this.headerText = ArffRowParser.readHeader(input);
+			} finally {
+				input.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Error reading ARFF file '" + this.arffPath + "'");
+			System.exit(1);
+		}
+		this.dataOffset = this.headerText.length();
+		this.numAttributes = this.getHeader().numAttributes();
+	}
+
+	@Override
+	public InstancesHeader getHeader() {
+		return RowStream.parseHeader(this.headerText, this.classIndex);
+	}
+
+	/**
+	 * @return ARFF header text, up to the data declaration
+	 */
+	public String getHeaderText() {
+		return this.headerText;
+	}
+
+	@Override
+	public int numAttributes() {
+		return this.numAttributes;
+	}
+
+	@Override
+	protected void restartImpl() {
+		this.close();
+		// Start again on the next read
+		this.pending = null;
+	}
+
+	/**
+	 * Starts the parser threads, if not started since constructing or
+	 * restarting the stream
+	 */
+	private void start() {
+		if (this.pending != null) {
+			return;
+		}
+		try {
+			this.file = new RandomAccessFile(this.arffPath, "r");
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Error reading ARFF file '" + this.arffPath + "'");
+			System.exit(1);
+		}
+		this.parser = new ArffRowParser(this.getHeader());
+		this.numAttributes = this.parser.numAttributes();
+		// Start parser threads
+		this.parsers = Executors.newFixedThreadPool(this.numThreads, new ThreadFactory() {
+			private int count = 0;
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "nelly-arff-parser-" + this.count++);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.pending = new ArrayDeque<Future<ArffRowParser.Chunk>>();
+		this.recycled = new ConcurrentLinkedQueue<ArffRowParser.Chunk>();
+		this.nextOffset = this.dataOffset;
+		this.current = null;
+		this.currentRow = 0;
+		// Submit first chunks
+		while (this.pending.size() < CHUNKS_PER_THREAD * this.numThreads && this.submitChunk()) {
+			// Keep submitting
+		}
+	}
+
+	/**
+	 * Maps the next chunk of the file and submits it for parsing
+	 * 
+	 * @return whether a chunk was submitted
+	 */
+	private boolean submitChunk() {
+		try {
+			long size = this.file.length();
+			if (this.nextOffset >= size) {
+				return false;
+			}
+			// Map the next range of bytes
+			long start = this.nextOffset;
+			int length = (int) Math.min(this.chunkSize, size - start);
+			final MappedByteBuffer buffer = this.file.getChannel().map(FileChannel.MapMode.READ_ONLY, start, length);
+			// Cut the chunk at its last line terminator
+			int end = length;
+			if (start + length < size) {
+				while (end > 0 && buffer.get(end - 1) != '\n') {
+					end--;
+				}
+				if (end == 0) {
+					throw new IOException("Line longer than " + this.chunkSize + " bytes at offset " + start);
+				}
+			}
+			this.nextOffset = start + end;
+			final int chunkEnd = end;
+			final ArffRowParser parser = this.parser;
+			this.pending.add(this.parsers.submit(new Callable<ArffRowParser.Chunk>() {
+				@Override
+				public ArffRowParser.Chunk call() {
+					ArffRowParser.Chunk chunk = MappedArffStream.this.recycled.poll();
+					if (chunk == null) {
+						chunk = new ArffRowParser.Chunk(parser.numAttributes(), 1024);
+					}
+					chunk.rows = 0;
+					return parser.parse(buffer, 0, chunkEnd, chunk);
+				}
+			}));
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Error reading ARFF file '" + this.arffPath + "'");
+			System.exit(1);
+			return false;
+		}
+	}
+
+	@Override
+	public boolean hasMoreInstances() {
+		this.start();
+		while (this.current == null || this.currentRow >= this.current.rows) {
+			// Recycle consumed chunk and wait for the next one (in file order)
+			if (this.current != null) {
+				this.recycled.add(this.current);
+				this.current = null;
+			}
+			Future<ArffRowParser.Chunk> next = this.pending.poll();
+			if (next == null) {
+				return false;
+			}
+			this.submitChunk();
+			try {
+				this.current = next.get();
+			} catch (ExecutionException e) {
+				e.getCause().printStackTrace();
+				System.err.println("Error parsing ARFF file '" + this.arffPath + "': " + e.getCause().getMessage());
+				System.exit(1);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+				System.err.println("Internal error. ARFF parser was interrupted. Please, contact the developer");
+				System.exit(2);
+			}
+			this.currentRow = 0;
+		}
+		return true;
+	}
+
+	@Override
+	public void nextRow(double[] values) {
+		if (!this.hasMoreInstances()) {
+			throw new IllegalStateException("No more rows in ARFF file '" + this.arffPath + "'");
+		}
+		System.arraycopy(this.current.values, this.currentRow * this.numAttributes, values, 0, this.numAttributes);
+		this.currentRow++;
+	}
+
+	@Override
+	public void close() {
+		if (this.parsers != null) {
+			this.parsers.shutdownNow();
+			this.parsers = null;
+		}
+		if (this.file != null) {
+			try {
+				this.file.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			this.file = null;
+		}
+	}
+
+}
@@ -0,0 +1,436 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.util.StringTokenizer;
+
+import com.yahoo.labs.samoa.instances.Instances;
+
+import moa.classifiers.Classifier;
+import moa.classifiers.lazy.kNN;
+import moa.classifiers.meta.AdaptiveRandomForest;
+import moa.classifiers.meta.LeveragingBag;
+import moa.classifiers.meta.OzaBag;
+import moa.classifiers.meta.OzaBagAdwin;
+import moa.classifiers.meta.OzaBoost;
+import moa.classifiers.meta.OzaBoostAdwin;
+import moa.classifiers.trees.HoeffdingTree;
+
+/**
+ * Samples the byte size of a learner every fixed number of rows and, if a
+ * budget is given, keeps the learner under it: Hoeffding trees deactivate
+ * their least promising leaves under a lowered byte limit, kNN learners shrink
+ * their window and bagging, boosting and random forest ensembles drop members
+ * (other learners, e.g., SAM-kNN, whose limits only apply when reset, are not
+ * reduced). Sizes are measured with MOA and written to a CSV file next to the
+ * results. Without the sizeofag agent, MOA measures every learner as 0 bytes,
+ * so no sizes are written and budgets are refused
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class MemoryBudget {
+
+	/**
+	 * Default number of rows between samples
+	 */
+	public static final int DEFAULT_INTERVAL = 100000;
+
+	/**
+	 * Ensembles whose members can be dropped from the end of their 'ensemble'
+	 * array (other arrays of the ensemble are indexed by member)
+	 */
+	private static final Class<?>[] PRUNABLE_ENSEMBLES = { AdaptiveRandomForest.class, LeveragingBag.class,
+			OzaBag.class, OzaBagAdwin.class, OzaBoost.class, OzaBoostAdwin.class };
+
+	/**
+	 * Window of training instances of kNN learners
+	 */
+	private static final Field KNN_WINDOW = MemoryBudget.field(kNN.class, "window");
+
+	/**
+	 * Number of rows between samples
+	 */
+	private final int interval;
+
+	/**
+	 * Maximum number of bytes of the learner (0 for no budget)
+	 */
+	private final long budget;
+
+	/**
+	 * Byte size of the last sample and maximum byte size
+	 */
+	private long lastBytes, maxBytes;
+
+	/**
+	 * Number of samples and number of samples over the budget
+	 */
+	private int countSamples, countOverBudget;
+
+	/**
+	 * Last action taken to enforce the budget (null if none)
+	 */
+	private String lastAction;
+
+	/**
+	 * Whether the learner cannot be reduced any further
+	 */
+	private boolean exhausted;
+
+	/**
+	 * Whether the JVM runs with the sizeofag agent, so sizes are measured
+	 */
+	private final boolean measured;
+
+	/**
+	 * 
+	 */
+	private CSVResultSink output;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param outFile
+	 *            CSV file for the samples
+	 * @param interval
+	 *            number of rows between samples
+	 * @param budget
+	 *            maximum number of bytes of the learner (0 for no budget). Must
+	 *            be 0 without the sizeofag agent
+	 */
+	public MemoryBudget(File outFile, int interval, long budget) {
+		super();
+		this.interval = Math.max(1, interval);
+		this.budget = Math.max(0, budget);
+		this.measured = MOAUtilities.isSizeOfAgentLoaded();
+		if (this.budget > 0 && !this.measured) {
+			throw new IllegalStateException("Memory budget requires the JVM option -javaagent:sizeofag.jar");
+		}
+		try {
+			this.output = new CSVResultSink(outFile);
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+			System.err.println("Internal error. File '" + outFile.getAbsolutePath()
+					+ "' does not exist. Please, contact the developer");
+			System.exit(2);
+		}
+		this.writeCSVHeader();
+	}
+
+	/**
+	 * @param outFile
+	 *            CSV file of the results
+	 * @return CSV file of the samples, next to the results
+	 */
+	public static File getSampleFile(File outFile) {
+		return new File(outFile.getPath().replaceFirst("(\\.csv)?$", "-memory.csv"));
+	}
+
+	/**
+	 * Parses a memory option, i.e., the number of rows between samples optionally
+	 * followed by the budget in bytes, with an optional 'k', 'm' or 'g' suffix
+	 * (e.g., '100000' or '100000,512m')
+	 * 
+	 * @param arg
+	 * @return number of rows between samples and budget (0 for none), or null if
+	 *         the option is malformed
+	 */
+	public static long[] parseOption(String arg) {
+		StringTokenizer st = new StringTokenizer(arg, ",");
+		long[] memory = { DEFAULT_INTERVAL, 0 };
+		try {
+			memory[0] = Integer.parseInt(st.nextToken());
+		} catch (Exception e) {
+			System.out.println("Error parsing memory interval '" + arg + "' to integer");
+			return null;
+		}
+		if (memory[0] < 1) {
+			System.out.println("Memory interval must be at least 1");
+			return null;
+		}
+		if (st.hasMoreTokens()) {
+			String budgetArg = st.nextToken().toLowerCase();
+			long unit = 1;
+			if (budgetArg.endsWith("k")) {
+				unit = 1L << 10;
+			} else if (budgetArg.endsWith("m")) {
+				unit = 1L << 20;
+			} else if (budgetArg.endsWith("g")) {
+				unit = 1L << 30;
+			}
+			if (unit > 1) {
+				budgetArg = budgetArg.substring(0, budgetArg.length() - 1);
+			}
+			try {
+				memory[1] = Long.parseLong(budgetArg) * unit;
+			} catch (Exception e) {
+				System.out.println("Error parsing memory budget '" + arg + "' to bytes");
+				return null;
+			}
+			if (memory[1] < 1) {
+				System.out.println("Memory budget must be positive");
+				return null;
+			}
+		}
+		return memory;
+	}
+
+	/**
+	 * Checks that a parsed memory option can be applied, warning if sizes cannot
+	 * be measured without the sizeofag agent
+	 * 
+	 * @param memory
+	 *            number of rows between samples and budget (0 for none)
+	 * @return whether the option can be applied, i.e., unless a budget is given
+	 *         without the agent
+	 */
+	public static boolean checkAgent(long[] memory) {
+		if (MOAUtilities.isSizeOfAgentLoaded()) {
+			return true;
+		} else if (memory[1] > 0) {
+			System.out.println("Memory budget requires the JVM option -javaagent:sizeofag.jar");
+			return false;
+		}
+		System.out.println("WARNING: memory of the learner is not measured, since the JVM runs without the option"
+				+ " -javaagent:sizeofag.jar");
+		return true;
+	}
+
+	/**
+	 * @param type
+	 * @param name
+	 * @return accessible field, or null if it does not exist
+	 */
+	private static Field field(Class<?> type, String name) {
+		while (type != null) {
+			try {
+				Field field = type.getDeclaredField(name);
+				field.setAccessible(true);
+				return field;
+			} catch (Exception e) {
+				type = type.getSuperclass();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 
+	 */
+	private void writeCSVHeader() {
+		StringBuilder csvHeader = new StringBuilder();
+		csvHeader.append("num_rows,");
+		csvHeader.append("num_tests,");
+		csvHeader.append("num_trains,");
+		csvHeader.append("bytes,");
+		csvHeader.append("budget,");
+		csvHeader.append("action");
+		this.output.writeLine(csvHeader);
+	}
+
+	/**
+	 * @return byte size of the learner at the last sample (0 if not sampled yet)
+	 */
+	public long getLastBytes() {
+		return this.lastBytes;
+	}
+
+	/**
+	 * Applies the budget to the limits of the learner (before preparing it, or
+	 * once restored from a snapshot)
+	 * 
+	 * @param learner
+	 */
+	public void configure(Classifier learner) {
+		if (this.budget == 0) {
+			return;
+		}
+		// Let Hoeffding trees check their own limit at each sample
+		if (learner instanceof HoeffdingTree) {
+			HoeffdingTree tree = (HoeffdingTree) learner;
+			tree.maxByteSizeOption.setValue((int) Math.min(this.budget, Integer.MAX_VALUE));
+			tree.memoryEstimatePeriodOption.setValue(this.interval);
+		}
+	}
+
+	/**
+	 * @param position
+	 *            number of processed rows
+	 * @return whether the learner is sampled at the position
+	 */
+	public boolean isSample(long position) {
+		return position % this.interval == 0;
+	}
+
+	/**
+	 * Measures the learner and, if over the budget, reduces it
+	 * 
+	 * @param learner
+	 * @param position
+	 *            number of processed rows
+	 * @param numTests
+	 * @param numTrains
+	 */
+	public void sample(Classifier learner, long position, int numTests, int numTrains) {
+		if (!this.measured) {
+			this.countSamples++;
+			this.output.field(position).field(numTests).field(numTrains).field(Double.NaN).field(this.budget)
+					.field("");
+			this.output.endRow();
+			return;
+		}
+		this.lastBytes = learner.measureByteSize();
+		this.maxBytes = Math.max(this.maxBytes, this.lastBytes);
+		this.countSamples++;
+		String action = "";
+		if (this.budget > 0 && this.lastBytes > this.budget) {
+			this.countOverBudget++;
+			action = this.enforce(learner);
+			if (action == null) {
+				action = "none";
+				this.exhausted = true;
+			} else {
+				this.lastAction = action;
+			}
+		}
+		this.output.field(position).field(numTests).field(numTrains).field(this.lastBytes).field(this.budget)
+				.field(action);
+		this.output.endRow();
+	}
+
+	/**
+	 * Reduces the learner in proportion to its excess over the budget
+	 * 
+	 * @param learner
+	 * @return description of the action, or null if the learner cannot be
+	 *         reduced
+	 */
+	private String enforce(Classifier learner) {
+		double ratio = (double) this.budget / this.lastBytes;
+		// Lower limit of Hoeffding trees (least promising leaves are deactivated)
+		if (learner instanceof HoeffdingTree) {
+			HoeffdingTree tree = (HoeffdingTree) learner;
+			int limit = (int) Math.max(1, tree.maxByteSizeOption.getValue() * ratio);
+			tree.maxByteSizeOption.setValue(limit);
+			return "tree limit " + limit;
+		}
+		// Shrink window of kNN learners (SAM-kNN only reads its limit when reset)
+		if (learner instanceof kNN) {
+			kNN knn = (kNN) learner;
+			int limit = knn.limitOption.getValue();
+			if (limit <= 1) {
+				return null;
+			}
+			limit = (int) Math.max(1, Math.min(limit - 1, limit * ratio));
+			knn.limitOption.setValue(limit);
+			// kNN only drops one instance per training, so drop the oldest now
+			if (KNN_WINDOW != null) {
+				try {
+					Instances window = (Instances) KNN_WINDOW.get(learner);
+					while (window != null && window.numInstances() > limit) {
+						window.delete(0);
+					}
+				} catch (IllegalAccessException e) {
+					// The window shrinks as the learner trains
+				}
+			}
+			return "window " + limit;
+		}
+		// Drop last members of ensembles
+		for (Class<?> prunable : MemoryBudget.PRUNABLE_ENSEMBLES) {
+			if (prunable.isInstance(learner)) {
+				return MemoryBudget.prune(learner, ratio);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Drops members from the end of an ensemble, at least one and at most all
+	 * but one
+	 * 
+	 * @param learner
+	 * @param ratio
+	 *            budget over the byte size of the learner
+	 * @return description of the action, or null if the ensemble cannot be
+	 *         pruned
+	 */
+	private static String prune(Classifier learner, double ratio) {
+		Field field = MemoryBudget.field(learner.getClass(), "ensemble");
+		if (field == null) {
+			return null;
+		}
+		try {
+			Object ensemble = field.get(learner);
+			if (ensemble == null || Array.getLength(ensemble) <= 1) {
+				return null;
+			}
+			int size = Array.getLength(ensemble);
+			int kept = (int) Math.max(1, Math.min(size - 1, Math.floor(size * ratio)));
+			Object pruned = Array.newInstance(ensemble.getClass().getComponentType(), kept);
+			System.arraycopy(ensemble, 0, pruned, 0, kept);
+			field.set(learner, pruned);
+			return "ensemble " + kept + " of " + size;
+		} catch (IllegalAccessException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Appends the memory metrics to a report
+	 * 
+	 * @param report
+	 */
+	public void finish(StringBuilder report) {
+		report.append("Memory of the learner (bytes)\n");
+		if (!this.measured) {
+			report.append(" - WARNING: not measured (").append(this.countSamples)
+					.append(" samples), since the JVM runs without the option -javaagent:sizeofag.jar\n");
+			report.append("\n");
+			return;
+		}
+		report.append(" - Last = ").append(this.lastBytes).append(", max = ").append(this.maxBytes).append(" (")
+				.append(this.countSamples).append(" samples every ").append(this.interval).append(" rows)\n");
+		if (this.budget > 0) {
+			report.append(" - Budget = ").append(this.budget).append(", exceeded in ").append(this.countOverBudget)
+					.append(" samples\n");
+			if (this.lastAction != null) {
+				report.append(" - Last reduction: ").append(this.lastAction).append("\n");
+			}
+			if (this.exhausted) {
+				report.append(" - WARNING: the learner could not be reduced under the budget\n");
+			}
+		}
+		report.append("\n");
+	}
+
+	/**
+	 * 
+	 */
+	public void close() {
+		this.output.close();
+	}
+
+}
@@ -0,0 +1,740 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Flow table keyed by 5-tuple that keeps the state of each flow in a
+ * fixed-width record of a direct buffer (open addressing with linear probing
+ * and backward-shift deletion), so tracking millions of flows creates no
+ * objects per packet nor per flow. Idle and active timeouts are handled by a
+ * hierarchical timer wheel whose buckets are intrusive lists through the
+ * records: a packet does not touch the wheel, and an expiring flow that saw
+ * packets since it was scheduled is just rescheduled to its new deadline
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class OffHeapFlowTable {
+
+	/**
+	 * Receives the flows that expire, before they are removed
+	 */
+	public interface ExpiryListener {
+
+		/**
+		 * @param slot
+		 *            record of the expired flow (valid during the call)
+		 */
+		void expired(int slot);
+	}
+
+	/**
+	 * Offsets of the fields of a record
+	 */
+	private static final int SRC_HIGH = 0;
+	private static final int SRC_LOW = 8;
+	private static final int DST_HIGH = 16;
+	private static final int DST_LOW = 24;
+	private static final int PORTS = 32;
+	private static final int PROTOCOL = 36;
+	private static final int FLAGS = 37;
+	private static final int PACKETS = 40;
+	private static final int TIMER_BUCKET = 44;
+	private static final int BYTES = 48;
+	private static final int FIRST_TIME = 56;
+	private static final int LAST_TIME = 64;
+	private static final int DEADLINE = 72;
+	private static final int TIMER_PREV = 80;
+	private static final int TIMER_NEXT = 84;
+	private static final int PENDING = 88;
+	private static final int ID = 96;
+	private static final int FEATURES = 104;
+
+	/**
+	 * Flags of a record
+	 */
+	private static final byte FLAG_USED = 1;
+	private static final byte FLAG_ELEPHANT = 2;
+
+	/**
+	 * Maximum ratio of used records before growing
+	 */
+	private static final double LOAD_FACTOR = 0.7;
+
+	/**
+	 * Levels of the timer wheel, of 64 buckets each (2^36 ticks in total)
+	 */
+	private static final int LEVELS = 6;
+
+	/**
+	 * Default duration of a tick of the timer wheel (in nanoseconds)
+	 */
+	public static final long DEFAULT_TICK = 1000000L;
+
+	/**
+	 * Number of packets described by the features
+	 */
+	private final int numPackets;
+
+	/**
+	 * Size of a record (in bytes)
+	 */
+	private final int recordSize;
+
+	/**
+	 * Timeouts (in nanoseconds, active timeout 0 for none)
+	 */
+	private final long idleTimeout, activeTimeout;
+
+	/**
+	 * Duration of a tick (in nanoseconds)
+	 */
+	private final long tick;
+
+	/**
+	 * 
+	 */
+	private ByteBuffer records;
+
+	/**
+	 * Number of records (power of two)
+	 */
+	private int capacity;
+
+	/**
+	 * Number of used records
+	 */
+	private int size;
+
+	/**
+	 * First record of each bucket of the wheel (-1 if empty)
+	 */
+	private final int[] timerHeads;
+
+	/**
+	 * Non-empty buckets of each level of the wheel
+	 */
+	private final long[] occupied;
+
+	/**
+	 * Current tick of the wheel
+	 */
+	private long currentTick;
+
+	/**
+	 * Whether the wheel has a current tick
+	 */
+	private boolean started;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param numPackets
+	 *            number of packets described by the features
+	 * @param initialCapacity
+	 *            expected number of concurrent flows
+	 * @param idleTimeout
+	 *            idle timeout (in nanoseconds)
+	 * @param activeTimeout
+	 *            active timeout (in nanoseconds, 0 for none)
+	 * @param tick
+	 *            duration of a tick of the timer wheel (in nanoseconds)
+	 */
+	public OffHeapFlowTable(int numPackets, int initialCapacity, long idleTimeout, long activeTimeout, long tick) {
+		super();
+		this.numPackets = numPackets;
+		this.recordSize = FEATURES + 8 * (2 * numPackets - 1);
+		this.idleTimeout = idleTimeout;
+		this.activeTimeout = activeTimeout;
+		this.tick = Math.max(1, tick);
+		this.timerHeads = new int[LEVELS * 64];
+		this.occupied = new long[LEVELS];
+		Arrays.fill(this.timerHeads, -1);
+		int capacity = 16;
+		while (capacity * LOAD_FACTOR < initialCapacity) {
+			capacity <<= 1;
+		}
+		this.records = this.allocate(capacity);
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @param capacity
+	 *            number of records
+	 * @return zeroed buffer of records
+	 */
+	private ByteBuffer allocate(int capacity) {
+		if ((long) capacity * this.recordSize > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Flow table of " + capacity + " records does not fit in a buffer");
+		}
+		return ByteBuffer.allocateDirect(capacity * this.recordSize).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * @param srcHigh
+	 * @param srcLow
+	 * @param dstHigh
+	 * @param dstLow
+	 * @param ports
+	 * @param protocol
+	 * @return hash of a flow key
+	 */
+	private static int hash(long srcHigh, long srcLow, long dstHigh, long dstLow, int ports, int protocol) {
+		long hash = srcHigh * 0x9e3779b97f4a7c15L + srcLow;
+		hash = hash * 0x9e3779b97f4a7c15L + dstHigh;
+		hash = hash * 0x9e3779b97f4a7c15L + dstLow;
+		hash = hash * 0x9e3779b97f4a7c15L + ((long) ports << 8 | protocol);
+		// MurmurHash3 finalizer
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return (int) hash;
+	}
+
+	/**
+	 * @param slot
+	 * @return home slot of the flow of a record
+	 */
+	private int home(int slot) {
+		int base = slot * this.recordSize;
+		ByteBuffer r = this.records;
+		return OffHeapFlowTable.hash(r.getLong(base + SRC_HIGH), r.getLong(base + SRC_LOW),
+				r.getLong(base + DST_HIGH), r.getLong(base + DST_LOW), r.getInt(base + PORTS),
+				r.get(base + PROTOCOL) & 0xff) & (this.capacity - 1);
+	}
+
+	/**
+	 * @param slot
+	 * @return whether the record is used
+	 */
+	private boolean used(int slot) {
+		return (this.records.get(slot * this.recordSize + FLAGS) & FLAG_USED) != 0;
+	}
+
+	/**
+	 * @param packet
+	 *            current packet of a reader
+	 * @return record of the flow of the packet, or -1 if not in the table
+	 */
+	public int lookup(PcapReader packet) {
+		ByteBuffer r = this.records;
+		int ports = packet.getSrcPort() << 16 | packet.getDstPort();
+		int mask = this.capacity - 1;
+		int slot = OffHeapFlowTable.hash(packet.getSrcHigh(), packet.getSrcLow(), packet.getDstHigh(),
+				packet.getDstLow(), ports, packet.getProtocol()) & mask;
+		while (true) {
+			int base = slot * this.recordSize;
+			if ((r.get(base + FLAGS) & FLAG_USED) == 0) {
+				return -1;
+			}
+			if (r.getLong(base + SRC_LOW) == packet.getSrcLow() && r.getLong(base + DST_LOW) == packet.getDstLow()
+					&& r.getInt(base + PORTS) == ports && r.getLong(base + SRC_HIGH) == packet.getSrcHigh()
+					&& r.getLong(base + DST_HIGH) == packet.getDstHigh()
+					&& (r.get(base + PROTOCOL) & 0xff) == packet.getProtocol()) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Inserts the flow of a packet (not in the table) without packets
+	 * 
+	 * @param packet
+	 *            current packet of a reader
+	 * @return record of the flow
+	 */
+	public int insert(PcapReader packet) {
+		if (this.size + 1 > this.capacity * LOAD_FACTOR) {
+			this.resize(this.capacity << 1);
+		}
+		long now = packet.getTimestamp();
+		if (!this.started) {
+			this.currentTick = now / this.tick;
+			this.started = true;
+		}
+		ByteBuffer r = this.records;
+		int ports = packet.getSrcPort() << 16 | packet.getDstPort();
+		int mask = this.capacity - 1;
+		int slot = OffHeapFlowTable.hash(packet.getSrcHigh(), packet.getSrcLow(), packet.getDstHigh(),
+				packet.getDstLow(), ports, packet.getProtocol()) & mask;
+		while (this.used(slot)) {
+			slot = (slot + 1) & mask;
+		}
+		int base = slot * this.recordSize;
+		// Clear record and write key
+		for (int i = 0; i < this.recordSize; i += 8) {
+			r.putLong(base + i, 0L);
+		}
+		r.putLong(base + SRC_HIGH, packet.getSrcHigh());
+		r.putLong(base + SRC_LOW, packet.getSrcLow());
+		r.putLong(base + DST_HIGH, packet.getDstHigh());
+		r.putLong(base + DST_LOW, packet.getDstLow());
+		r.putInt(base + PORTS, ports);
+		r.put(base + PROTOCOL, (byte) packet.getProtocol());
+		r.put(base + FLAGS, FLAG_USED);
+		r.putLong(base + FIRST_TIME, now);
+		r.putLong(base + LAST_TIME, now);
+		r.putLong(base + PENDING, -1L);
+		this.size++;
+		this.schedule(slot, this.deadline(slot));
+		return slot;
+	}
+
+	/**
+	 * Adds a packet to a flow
+	 * 
+	 * @param slot
+	 *            record of the flow
+	 * @param length
+	 *            length of the packet (in bytes)
+	 * @param now
+	 *            timestamp of the packet (in nanoseconds)
+	 * @return number of packets of the flow
+	 */
+	public int addPacket(int slot, int length, long now) {
+		ByteBuffer r = this.records;
+		int base = slot * this.recordSize;
+		int packets = r.getInt(base + PACKETS);
+		// Set features of the first packets
+		if (packets < this.numPackets) {
+			r.putDouble(base + FEATURES + 8 * packets, length);
+			if (packets > 0) {
+				r.putDouble(base + FEATURES + 8 * (this.numPackets + packets - 1),
+						(now - r.getLong(base + LAST_TIME)) / 1000.0);
+			}
+		}
+		packets++;
+		r.putInt(base + PACKETS, packets);
+		r.putLong(base + BYTES, r.getLong(base + BYTES) + length);
+		r.putLong(base + LAST_TIME, now);
+		return packets;
+	}
+
+	/**
+	 * Copies the features of a flow: protocol, source and destination ports,
+	 * sizes and inter-arrival times (in microseconds) of the first packets
+	 * 
+	 * @param slot
+	 *            record of the flow
+	 * @param values
+	 *            array of at least 3 + 2 * numPackets - 1 values
+	 * @param offset
+	 *            position of the features in the array
+	 */
+	public void copyFeatures(int slot, double[] values, int offset) {
+		ByteBuffer r = this.records;
+		int base = slot * this.recordSize;
+		int ports = r.getInt(base + PORTS);
+		values[offset] = r.get(base + PROTOCOL) & 0xff;
+		values[offset + 1] = ports >>> 16;
+		values[offset + 2] = ports & 0xffff;
+		for (int i = 0; i < 2 * this.numPackets - 1; i++) {
+			values[offset + 3 + i] = r.getDouble(base + FEATURES + 8 * i);
+		}
+	}
+
+	/**
+	 * @param slot
+	 * @return identifier attached to the flow by the caller
+	 */
+	public long getId(int slot) {
+		return this.records.getLong(slot * this.recordSize + ID);
+	}
+
+	/**
+	 * @param slot
+	 * @param id
+	 *            identifier attached to the flow by the caller
+	 */
+	public void setId(int slot, long id) {
+		this.records.putLong(slot * this.recordSize + ID, id);
+	}
+
+	/**
+	 * @param slot
+	 * @return timestamp of the first packet of the flow (in nanoseconds)
+	 */
+	public long getFirstTime(int slot) {
+		return this.records.getLong(slot * this.recordSize + FIRST_TIME);
+	}
+
+	/**
+	 * @param slot
+	 * @return timestamp of the last packet of the flow (in nanoseconds)
+	 */
+	public long getLastTime(int slot) {
+		return this.records.getLong(slot * this.recordSize + LAST_TIME);
+	}
+
+	/**
+	 * @param slot
+	 * @return number of packets of the flow
+	 */
+	public int getPackets(int slot) {
+		return this.records.getInt(slot * this.recordSize + PACKETS);
+	}
+
+	/**
+	 * @param slot
+	 * @return number of bytes of the flow
+	 */
+	public long getBytes(int slot) {
+		return this.records.getLong(slot * this.recordSize + BYTES);
+	}
+
+	/**
+	 * @param slot
+	 * @return whether the flow is marked as elephant
+	 */
+	public boolean isElephant(int slot) {
+		return (this.records.get(slot * this.recordSize + FLAGS) & FLAG_ELEPHANT) != 0;
+	}
+
+	/**
+	 * @param slot
+	 *            record of the flow to mark as elephant
+	 */
+	public void setElephant(int slot) {
+		int position = slot * this.recordSize + FLAGS;
+		this.records.put(position, (byte) (this.records.get(position) | FLAG_ELEPHANT));
+	}
+
+	/**
+	 * @param slot
+	 * @return value attached to the flow by the caller (-1 if none)
+	 */
+	public long getPending(int slot) {
+		return this.records.getLong(slot * this.recordSize + PENDING);
+	}
+
+	/**
+	 * @param slot
+	 * @param pending
+	 *            value attached to the flow by the caller (e.g., the sequence
+	 *            number of a row)
+	 */
+	public void setPending(int slot, long pending) {
+		this.records.putLong(slot * this.recordSize + PENDING, pending);
+	}
+
+	/**
+	 * @return number of flows in the table
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return memory of the records (in bytes)
+	 */
+	public long getMemory() {
+		return (long) this.capacity * this.recordSize;
+	}
+
+	/**
+	 * Removes a flow
+	 * 
+	 * @param slot
+	 *            record of the flow
+	 */
+	public void remove(int slot) {
+		this.unlink(slot);
+		this.delete(slot);
+	}
+
+	/**
+	 * Deletes a record (not in the wheel), shifting back the following records
+	 * of its probe sequence
+	 * 
+	 * @param slot
+	 */
+	private void delete(int slot) {
+		int mask = this.capacity - 1;
+		int hole = slot;
+		int next = slot;
+		while (true) {
+			next = (next + 1) & mask;
+			if (!this.used(next)) {
+				break;
+			}
+			// Move the record if the hole is between its home and its slot
+			int home = this.home(next);
+			boolean between = hole <= next ? (home <= hole || home > next) : (home <= hole && home > next);
+			if (between) {
+				this.move(next, hole);
+				hole = next;
+			}
+		}
+		this.records.put(hole * this.recordSize + FLAGS, (byte) 0);
+		this.size--;
+	}
+
+	/**
+	 * Moves a record to a free slot, keeping its links in the wheel
+	 * 
+	 * @param from
+	 * @param to
+	 */
+	private void move(int from, int to) {
+		ByteBuffer r = this.records;
+		int source = from * this.recordSize;
+		int target = to * this.recordSize;
+		for (int i = 0; i < this.recordSize; i += 8) {
+			r.putLong(target + i, r.getLong(source + i));
+		}
+		int prev = r.getInt(target + TIMER_PREV);
+		int next = r.getInt(target + TIMER_NEXT);
+		if (prev >= 0) {
+			r.putInt(prev * this.recordSize + TIMER_NEXT, to);
+		} else {
+			this.timerHeads[r.getInt(target + TIMER_BUCKET)] = to;
+		}
+		if (next >= 0) {
+			r.putInt(next * this.recordSize + TIMER_PREV, to);
+		}
+	}
+
+	/**
+	 * Grows the table, reinserting all the records and rebuilding the wheel
+	 * 
+	 * @param capacity
+	 */
+	private void resize(int capacity) {
+		ByteBuffer old = this.records;
+		int oldCapacity = this.capacity;
+		this.records = this.allocate(capacity);
+		this.capacity = capacity;
+		Arrays.fill(this.timerHeads, -1);
+		Arrays.fill(this.occupied, 0L);
+		ByteBuffer r = this.records;
+		int mask = capacity - 1;
+		for (int slot = 0; slot < oldCapacity; slot++) {
+			int source = slot * this.recordSize;
+			if ((old.get(source + FLAGS) & FLAG_USED) == 0) {
+				continue;
+			}
+			int target = OffHeapFlowTable.hash(old.getLong(source + SRC_HIGH), old.getLong(source + SRC_LOW),
+					old.getLong(source + DST_HIGH), old.getLong(source + DST_LOW), old.getInt(source + PORTS),
+					old.get(source + PROTOCOL) & 0xff) & mask;
+			while (this.used(target)) {
+				target = (target + 1) & mask;
+			}
+			for (int i = 0; i < this.recordSize; i += 8) {
+				r.putLong(target * this.recordSize + i, old.getLong(source + i));
+			}
+			this.schedule(target, r.getLong(target * this.recordSize + DEADLINE));
+		}
+	}
+
+	/**
+	 * @param slot
+	 * @return tick at which the flow expires if it sees no more packets
+	 */
+	private long deadline(int slot) {
+		int base = slot * this.recordSize;
+		long deadline = this.records.getLong(base + LAST_TIME) + this.idleTimeout;
+		if (this.activeTimeout > 0) {
+			deadline = Math.min(deadline, this.records.getLong(base + FIRST_TIME) + this.activeTimeout);
+		}
+		return deadline / this.tick + 1;
+	}
+
+	/**
+	 * Links a record in the bucket of its deadline
+	 * 
+	 * @param slot
+	 * @param deadline
+	 *            tick of the deadline (after the current tick, otherwise the
+	 *            next tick)
+	 */
+	private void schedule(int slot, long deadline) {
+		if (deadline <= this.currentTick) {
+			deadline = this.currentTick + 1;
+		}
+		// Lowest level whose buckets share the parent period of the current tick
+		int level = 0;
+		while (level < LEVELS - 1 && (deadline >>> (6 * (level + 1))) != (this.currentTick >>> (6 * (level + 1)))) {
+			level++;
+		}
+		int index = (int) ((deadline >>> (6 * level)) & 63);
+		int bucket = level * 64 + index;
+		ByteBuffer r = this.records;
+		int base = slot * this.recordSize;
+		int head = this.timerHeads[bucket];
+		r.putLong(base + DEADLINE, deadline);
+		r.putInt(base + TIMER_BUCKET, bucket);
+		r.putInt(base + TIMER_PREV, -1);
+		r.putInt(base + TIMER_NEXT, head);
+		if (head >= 0) {
+			r.putInt(head * this.recordSize + TIMER_PREV, slot);
+		}
+		this.timerHeads[bucket] = slot;
+		this.occupied[level] |= 1L << index;
+	}
+
+	/**
+	 * Unlinks a record from its bucket
+	 * 
+	 * @param slot
+	 */
+	private void unlink(int slot) {
+		ByteBuffer r = this.records;
+		int base = slot * this.recordSize;
+		int bucket = r.getInt(base + TIMER_BUCKET);
+		int prev = r.getInt(base + TIMER_PREV);
+		int next = r.getInt(base + TIMER_NEXT);
+		if (prev >= 0) {
+			r.putInt(prev * this.recordSize + TIMER_NEXT, next);
+		} else {
+			this.timerHeads[bucket] = next;
+			if (next < 0) {
+				this.occupied[bucket >>> 6] &= ~(1L << (bucket & 63));
+			}
+		}
+		if (next >= 0) {
+			r.putInt(next * this.recordSize + TIMER_PREV, prev);
+		}
+	}
+
+	/**
+	 * Advances the wheel to a time, expiring the flows idle for longer than the
+	 * idle timeout or older than the active timeout
+	 * 
+	 * @param now
+	 *            current time (in nanoseconds)
+	 * @param listener
+	 *            receives the expired flows
+	 */
+	public void advance(long now, ExpiryListener listener) {
+		long target = now / this.tick;
+		if (!this.started) {
+			this.currentTick = target;
+			this.started = true;
+			return;
+		}
+		while (this.currentTick < target) {
+			// Jump to the next non-empty bucket of the first level or to the next
+			// cascade
+			int current = (int) (this.currentTick & 63);
+			long ahead = current == 63 ? 0 : this.occupied[0] & (-1L << (current + 1));
+			long next;
+			if (ahead != 0) {
+				next = (this.currentTick & ~63L) + Long.numberOfTrailingZeros(ahead);
+			} else if (this.hasUpperTimers()) {
+				next = (this.currentTick | 63) + 1;
+			} else {
+				this.currentTick = target;
+				break;
+			}
+			if (next > target) {
+				this.currentTick = target;
+				break;
+			}
+			this.currentTick = next;
+			if ((next & 63) == 0) {
+				this.cascade(1);
+			}
+			this.fire((int) (next & 63), now, listener);
+		}
+	}
+
+	/**
+	 * @return whether the levels above the first one have records
+	 */
+	private boolean hasUpperTimers() {
+		for (int level = 1; level < LEVELS; level++) {
+			if (this.occupied[level] != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Moves the records of the current bucket of a level to lower levels
+	 * 
+	 * @param level
+	 */
+	private void cascade(int level) {
+		int index = (int) ((this.currentTick >>> (6 * level)) & 63);
+		if (index == 0 && level + 1 < LEVELS) {
+			this.cascade(level + 1);
+		}
+		int bucket = level * 64 + index;
+		while (this.timerHeads[bucket] >= 0) {
+			int slot = this.timerHeads[bucket];
+			this.unlink(slot);
+			this.schedule(slot, this.records.getLong(slot * this.recordSize + DEADLINE));
+		}
+	}
+
+	/**
+	 * Expires or reschedules the records of a bucket of the first level
+	 * 
+	 * @param index
+	 * @param now
+	 * @param listener
+	 */
+	private void fire(int index, long now, ExpiryListener listener) {
+		ByteBuffer r = this.records;
+		while (this.timerHeads[index] >= 0) {
+			int slot = this.timerHeads[index];
+			this.unlink(slot);
+			int base = slot * this.recordSize;
+			boolean idle = now - r.getLong(base + LAST_TIME) > this.idleTimeout;
+			boolean old = this.activeTimeout > 0 && now - r.getLong(base + FIRST_TIME) > this.activeTimeout;
+			if (idle || old) {
+				listener.expired(slot);
+				this.delete(slot);
+			} else {
+				// Packets arrived since scheduled
+				this.schedule(slot, this.deadline(slot));
+			}
+		}
+	}
+
+	/**
+	 * Expires all the flows and empties the table
+	 * 
+	 * @param listener
+	 *            receives the expired flows
+	 */
+	public void expireAll(ExpiryListener listener) {
+		for (int slot = 0; slot < this.capacity; slot++) {
+			if (this.used(slot)) {
+				listener.expired(slot);
+			}
+		}
+		for (int slot = 0; slot < this.capacity; slot++) {
+			this.records.put(slot * this.recordSize + FLAGS, (byte) 0);
+		}
+		Arrays.fill(this.timerHeads, -1);
+		Arrays.fill(this.occupied, 0L);
+		this.size = 0;
+	}
+
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+/**
+ * Extracts the flow dataset of a pcap file into an ARFF file or a binary
+ * columnar file (see {@link FlowAggregator} for the rows). Pcap files can also
+ * be given directly to the runners, with the default flow parameters
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class PcapConverter {
+
+	/**
+	 * 
+	 */
+	private static final Map<String, Integer> options;
+	static {
+		options = new HashMap<String, Integer>();
+		options.put("--help", 0);
+		options.put("--pcap", 1);
+		options.put("--out", 2);
+		options.put("--packets", 3);
+		options.put("--threshold", 4);
+		options.put("--timeout", 5);
+		options.put("--active", 6);
+		options.put("--early", 7);
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// Define default arguments
+		String pcapPath = System.getProperty("user.home") + File.separator + "trace.pcap";
+		String outPath = System.getProperty("user.home") + File.separator + "data.arff";
+		int numPackets = FlowAggregator.DEFAULT_PACKETS;
+		long threshold = FlowAggregator.DEFAULT_THRESHOLD;
+		int timeout = FlowAggregator.DEFAULT_TIMEOUT;
+		int activeTimeout = FlowAggregator.DEFAULT_ACTIVE_TIMEOUT;
+		boolean early = false;
+		// Get parameters from arguments
+		for (int i = 0; i < args.length; i++) {
+			// Check that given option exists
+			int option = 0;
+			if (PcapConverter.options.containsKey(args[i])) {
+				option = PcapConverter.options.get(args[i]);
+			} else {
+				System.out.println("Option '" + args[i] + "' does not exist");
+				PcapConverter.printHelp();
+				System.exit(1);
+			}
+			// Set parameter corresponding to option
+			switch (option) {
+			// Help
+			case 0:
+				PcapConverter.printHelp();
+				System.exit(0);
+				break;
+			// PCAP
+			case 1:
+				i++;
+				pcapPath = args[i];
+				break;
+			// OUTPUT
+			case 2:
+				i++;
+				outPath = args[i];
+				break;
+			// PACKETS
+			case 3:
+				i++;
+				numPackets = (int) PcapConverter.parsePositive("packets", args[i]);
+				break;
+			// THRESHOLD
+			case 4:
+				i++;
+				threshold = PcapConverter.parsePositive("threshold", args[i]);
+				break;
+			// TIMEOUT
+			case 5:
+				i++;
+				timeout = (int) PcapConverter.parsePositive("timeout", args[i]);
+				break;
+			// ACTIVE TIMEOUT
+			case 6:
+				i++;
+				activeTimeout = (int) PcapConverter.parsePositive("active", args[i]);
+				break;
+			// EARLY
+			case 7:
+				early = true;
+				break;
+			// ERROR
+			default:
+				System.err.println(
+						"Internal error. Option '" + option + "' is not implemented. Please, contact the developer");
+				System.exit(2);
+				break;
+			}
+		}
+		// Check if pcap path exists
+		if (!new File(pcapPath).exists()) {
+			System.out.println("File path '" + pcapPath + "' does not exist");
+			PcapConverter.printHelp();
+			System.exit(1);
+		}
+		// Convert
+		File outFile = MOAUtilities.getFile(outPath, "data.arff");
+		PcapStream stream = new PcapStream(pcapPath, -1, numPackets, threshold, timeout, activeTimeout);
+		stream.setEarly(early);
+		stream.restart();
+		try {
+			long rows;
+			if (outFile.getName().endsWith(".arff")) {
+				rows = PcapConverter.writeArff(stream, outFile);
+			} else {
+				rows = ColumnarConverter.convert(stream, stream.getHeaderText(), outFile);
+			}
+			System.out.println("Extracted " + rows + " rows of " + stream.getCountFlows() + " flows ("
+					+ stream.getCountElephants() + " elephants, " + stream.getSkippedPackets()
+					+ " skipped packets, " + stream.getCountDropped() + " dropped test rows, "
+					+ stream.getTableMemory() / (1024 * 1024) + " MB of flow table) into '"
+					+ outFile.getAbsolutePath() + "'");
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Error writing file '" + outFile.getAbsolutePath() + "'");
+			System.exit(1);
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * @param name
+	 * @param arg
+	 * @return positive integer value of the option (exits if not valid)
+	 */
+	private static long parsePositive(String name, String arg) {
+		long value = 0;
+		try {
+			value = Long.parseLong(arg);
+		} catch (Exception e) {
+			System.out.println("Error parsing " + name + " '" + arg + "' to integer");
+			PcapConverter.printHelp();
+			System.exit(1);
+		}
+		if (value < 1 || value > Integer.MAX_VALUE) {
+			System.out.println("Value of " + name + " must be a positive integer");
+			PcapConverter.printHelp();
+			System.exit(1);
+		}
+		return value;
+	}
+
+	/**
+	 * 
+	 */
+	private static void printHelp() {
+		System.out.println("");
+		System.out.println("=========================");
+		System.out.println("NELLY - Pcap to Flow Data");
+		System.out.println("=========================");
+		System.out.println("Options:");
+		System.out.println("  --help\tDisplay this help");
+		System.out.println("  --pcap\tPcap file of packets (classic libpcap format)");
+		System.out.println("  --out\t\tARFF file to write (.arff), otherwise columnar file");
+		System.out.println("  --packets\tNumber of first packets of a flow described by the features (default "
+				+ FlowAggregator.DEFAULT_PACKETS + ")");
+		System.out.println("  --threshold\tNumber of bytes of elephant flows (default "
+				+ FlowAggregator.DEFAULT_THRESHOLD + ")");
+		System.out.println("  --timeout\tIdle timeout of flows in seconds (default " + FlowAggregator.DEFAULT_TIMEOUT
+				+ ")");
+		System.out.println("  --active\tActive timeout of flows in seconds, i.e., maximum duration (default none)");
+		System.out.println("  --early	Test flows at each of their first packets and train all flows when they end");
+	}
+
+	/**
+	 * Writes the rows of a stream as a dense ARFF file
+	 * 
+	 * @param stream
+	 * @param outFile
+	 * @return number of written rows
+	 * @throws IOException
+	 */
+	public static long writeArff(PcapStream stream, File outFile) throws IOException {
+		InstancesHeader header = stream.getHeader();
+		int numValues = stream.numAttributes();
+		double[] row = new double[numValues];
+		long numRows = 0;
+		Writer writer = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(outFile), ArffRowParser.CHARSET), 1 << 16);
+		try {
+			writer.write(stream.getHeaderText());
+			StringBuilder line = new StringBuilder();
+			while (stream.hasMoreInstances()) {
+				stream.nextRow(row);
+				line.setLength(0);
+				for (int i = 0; i < numValues; i++) {
+					if (i > 0) {
+						line.append(',');
+					}
+					Attribute attribute = header.attribute(i);
+					double value = row[i];
+					if (attribute.isNominal()) {
+						line.append(attribute.value((int) value));
+					} else if (value == Math.rint(value)) {
+						line.append((long) value);
+					} else {
+						line.append(value);
+					}
+				}
+				line.append('\n');
+				writer.append(line);
+				numRows++;
+			}
+		} finally {
+			writer.close();
+		}
+		return numRows;
+	}
+
+}
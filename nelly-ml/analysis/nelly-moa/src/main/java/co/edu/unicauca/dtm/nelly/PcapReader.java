@@ -0,0 +1,433 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the IP packets of a pcap file (classic libpcap format, microsecond or
+ * nanosecond timestamps, any byte order) through a direct NIO buffer. Supports
+ * Ethernet (with VLAN tags), raw IP and Linux cooked captures, and decodes the
+ * fields needed to aggregate packets into flows: addresses, protocol, ports,
+ * TCP flags and IP length. Non-IP packets are skipped
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class PcapReader {
+
+	/**
+	 * Magic numbers of pcap files with microsecond and nanosecond timestamps
+	 */
+	private static final int MAGIC_MICROS = 0xa1b2c3d4;
+	private static final int MAGIC_NANOS = 0xa1b23c4d;
+
+	/**
+	 * Link types
+	 */
+	private static final int LINK_ETHERNET = 1;
+	private static final int LINK_RAW = 101;
+	private static final int LINK_LINUX_SLL = 113;
+
+	/**
+	 * IP protocols
+	 */
+	public static final int PROTOCOL_TCP = 6;
+	public static final int PROTOCOL_UDP = 17;
+
+	/**
+	 * TCP flags that end a connection
+	 */
+	public static final int TCP_FIN = 0x01;
+	public static final int TCP_RST = 0x04;
+
+	/**
+	 * Default size of the read buffer
+	 */
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * 
+	 */
+	private final FileInputStream input;
+
+	/**
+	 * 
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * Buffer of the file (in read mode)
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * Byte order of the record headers
+	 */
+	private final ByteOrder order;
+
+	/**
+	 * Whether timestamps have nanoseconds instead of microseconds
+	 */
+	private final boolean nanos;
+
+	/**
+	 * 
+	 */
+	private final int linkType;
+
+	/**
+	 * Fields of the current packet
+	 */
+	private long timestamp;
+	private int length, protocol, srcPort, dstPort, tcpFlags;
+	private long srcHigh, srcLow, dstHigh, dstLow;
+
+	/**
+	 * Number of skipped packets (non-IP or truncated)
+	 */
+	private long skipped;
+
+	/**
+	 * Constructor (reads the global header)
+	 * 
+	 * @param file
+	 *            pcap file
+	 * @throws IOException
+	 *             if the file cannot be read or is not a supported pcap file
+	 */
+	public PcapReader(File file) throws IOException {
+		super();
+		this.input = new FileInputStream(file);
+		this.channel = this.input.getChannel();
+		this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		this.buffer.limit(0);
+		try {
+			if (!this.ensure(24)) {
+				throw new IOException("File '" + file.getPath() + "' is not a pcap file");
+			}
+			// Check magic number in both byte orders
+			this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+			int magic = this.buffer.getInt(this.buffer.position());
+			if (magic != MAGIC_MICROS && magic != MAGIC_NANOS) {
+				this.buffer.order(ByteOrder.BIG_ENDIAN);
+				magic = this.buffer.getInt(this.buffer.position());
+			}
+			if (magic != MAGIC_MICROS && magic != MAGIC_NANOS) {
+				throw new IOException("File '" + file.getPath() + "' is not a pcap file (pcapng is not supported)");
+			}
+			this.order = this.buffer.order();
+			this.nanos = magic == MAGIC_NANOS;
+			this.linkType = this.buffer.getInt(this.buffer.position() + 20);
+			if (this.linkType != LINK_ETHERNET && this.linkType != LINK_RAW && this.linkType != LINK_LINUX_SLL) {
+				throw new IOException("Link type " + this.linkType + " of '" + file.getPath() + "' is not supported");
+			}
+			int snapLength = this.buffer.getInt(this.buffer.position() + 16);
+			if (snapLength + 16 > BUFFER_SIZE) {
+				this.grow(snapLength + 16);
+			}
+			this.buffer.position(this.buffer.position() + 24);
+		} catch (IOException e) {
+			this.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @param path
+	 * @return whether the file starts with a pcap magic number
+	 */
+	public static boolean isPcap(String path) {
+		byte[] magic = new byte[4];
+		try {
+			InputStream input = new FileInputStream(path);
+			try {
+				if (input.read(magic) != magic.length) {
+					return false;
+				}
+			} finally {
+				input.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+		int value = ByteBuffer.wrap(magic).getInt();
+		return value == MAGIC_MICROS || value == MAGIC_NANOS || Integer.reverseBytes(value) == MAGIC_MICROS
+				|| Integer.reverseBytes(value) == MAGIC_NANOS;
+	}
+
+	/**
+	 * Makes at least a number of bytes available in the buffer
+	 * 
+	 * @param bytes
+	 * @return whether the bytes are available (false at the end of the file)
+	 * @throws IOException
+	 */
+	private boolean ensure(int bytes) throws IOException {
+		if (this.buffer.remaining() >= bytes) {
+			return true;
+		}
+		if (bytes > this.buffer.capacity()) {
+			this.grow(bytes);
+		}
+		this.buffer.compact();
+		while (this.buffer.position() < bytes) {
+			if (this.channel.read(this.buffer) < 0) {
+				break;
+			}
+		}
+		this.buffer.flip();
+		return this.buffer.remaining() >= bytes;
+	}
+
+	/**
+	 * @param capacity
+	 *            minimum capacity of the buffer (keeping the remaining bytes)
+	 */
+	private void grow(int capacity) {
+		ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+		grown.order(this.buffer.order());
+		grown.put(this.buffer);
+		grown.flip();
+		this.buffer = grown;
+	}
+
+	/**
+	 * Reads the next IP packet
+	 * 
+	 * @return whether a packet was read (false at the end of the file)
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException {
+		while (this.ensure(16)) {
+			// Read record header
+			this.buffer.order(this.order);
+			int start = this.buffer.position();
+			long seconds = this.buffer.getInt(start) & 0xffffffffL;
+			long fraction = this.buffer.getInt(start + 4) & 0xffffffffL;
+			int captured = this.buffer.getInt(start + 8);
+			if (captured < 0 || !this.ensure(16 + captured)) {
+				// Truncated file
+				return false;
+			}
+			start = this.buffer.position();
+			this.timestamp = seconds * 1000000000L + (this.nanos ? fraction : fraction * 1000L);
+			// Decode packet (network byte order)
+			this.buffer.order(ByteOrder.BIG_ENDIAN);
+			boolean decoded = this.decode(start + 16, start + 16 + captured);
+			this.buffer.position(start + 16 + captured);
+			if (decoded) {
+				return true;
+			}
+			this.skipped++;
+		}
+		return false;
+	}
+
+	/**
+	 * Decodes the link, network and transport headers of a packet
+	 * 
+	 * @param offset
+	 *            start of the packet in the buffer
+	 * @param end
+	 *            end of the captured bytes in the buffer
+	 * @return whether the packet is IP with enough captured bytes
+	 */
+	private boolean decode(int offset, int end) {
+		ByteBuffer b = this.buffer;
+		// Get EtherType of the network header
+		int etherType;
+		if (this.linkType == LINK_ETHERNET) {
+			if (offset + 14 > end) {
+				return false;
+			}
+			etherType = b.getShort(offset + 12) & 0xffff;
+			offset += 14;
+			// Skip VLAN tags
+			while ((etherType == 0x8100 || etherType == 0x88a8) && offset + 4 <= end) {
+				etherType = b.getShort(offset + 2) & 0xffff;
+				offset += 4;
+			}
+		} else if (this.linkType == LINK_LINUX_SLL) {
+			if (offset + 16 > end) {
+				return false;
+			}
+			etherType = b.getShort(offset + 14) & 0xffff;
+			offset += 16;
+		} else {
+			if (offset + 1 > end) {
+				return false;
+			}
+			int version = (b.get(offset) & 0xff) >>> 4;
+			etherType = version == 4 ? 0x0800 : version == 6 ? 0x86dd : 0;
+		}
+		// Decode IP header
+		int transport;
+		boolean firstFragment = true;
+		if (etherType == 0x0800) {
+			if (offset + 20 > end) {
+				return false;
+			}
+			int headerLength = (b.get(offset) & 0x0f) * 4;
+			this.length = b.getShort(offset + 2) & 0xffff;
+			firstFragment = (b.getShort(offset + 6) & 0x1fff) == 0;
+			this.protocol = b.get(offset + 9) & 0xff;
+			this.srcHigh = 0;
+			this.srcLow = b.getInt(offset + 12) & 0xffffffffL;
+			this.dstHigh = 0;
+			this.dstLow = b.getInt(offset + 16) & 0xffffffffL;
+			transport = offset + headerLength;
+		} else if (etherType == 0x86dd) {
+			if (offset + 40 > end) {
+				return false;
+			}
+			this.length = 40 + (b.getShort(offset + 4) & 0xffff);
+			int next = b.get(offset + 6) & 0xff;
+			this.srcHigh = b.getLong(offset + 8);
+			this.srcLow = b.getLong(offset + 16);
+			this.dstHigh = b.getLong(offset + 24);
+			this.dstLow = b.getLong(offset + 32);
+			transport = offset + 40;
+			// Skip extension headers (hop-by-hop, routing, fragment and destination)
+			while ((next == 0 || next == 43 || next == 44 || next == 60) && transport + 8 <= end) {
+				if (next == 44) {
+					firstFragment = (b.getShort(transport + 2) & 0xfff8) == 0;
+					next = b.get(transport) & 0xff;
+					transport += 8;
+				} else {
+					int extension = ((b.get(transport + 1) & 0xff) + 1) * 8;
+					next = b.get(transport) & 0xff;
+					transport += extension;
+				}
+			}
+			this.protocol = next;
+		} else {
+			return false;
+		}
+		// Decode ports (zero for other protocols and non-first fragments)
+		this.srcPort = 0;
+		this.dstPort = 0;
+		this.tcpFlags = 0;
+		if (firstFragment && (this.protocol == PROTOCOL_TCP || this.protocol == PROTOCOL_UDP)
+				&& transport + 4 <= end) {
+			this.srcPort = b.getShort(transport) & 0xffff;
+			this.dstPort = b.getShort(transport + 2) & 0xffff;
+			if (this.protocol == PROTOCOL_TCP && transport + 14 <= end) {
+				this.tcpFlags = b.get(transport + 13) & 0xff;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return timestamp of the packet (in nanoseconds)
+	 */
+	public long getTimestamp() {
+		return this.timestamp;
+	}
+
+	/**
+	 * @return length of the IP packet (in bytes)
+	 */
+	public int getLength() {
+		return this.length;
+	}
+
+	/**
+	 * @return IP protocol
+	 */
+	public int getProtocol() {
+		return this.protocol;
+	}
+
+	/**
+	 * @return source port (0 if none)
+	 */
+	public int getSrcPort() {
+		return this.srcPort;
+	}
+
+	/**
+	 * @return destination port (0 if none)
+	 */
+	public int getDstPort() {
+		return this.dstPort;
+	}
+
+	/**
+	 * @return TCP flags (0 if not TCP)
+	 */
+	public int getTcpFlags() {
+		return this.tcpFlags;
+	}
+
+	/**
+	 * @return high 64 bits of the source address (0 for IPv4)
+	 */
+	public long getSrcHigh() {
+		return this.srcHigh;
+	}
+
+	/**
+	 * @return low 64 bits of the source address
+	 */
+	public long getSrcLow() {
+		return this.srcLow;
+	}
+
+	/**
+	 * @return high 64 bits of the destination address (0 for IPv4)
+	 */
+	public long getDstHigh() {
+		return this.dstHigh;
+	}
+
+	/**
+	 * @return low 64 bits of the destination address
+	 */
+	public long getDstLow() {
+		return this.dstLow;
+	}
+
+	/**
+	 * @return number of skipped packets (non-IP or truncated)
+	 */
+	public long getSkipped() {
+		return this.skipped;
+	}
+
+	/**
+	 * Closes the file
+	 */
+	public void close() {
+		try {
+			this.input.close();
+		} catch (IOException e) {
+			// Nothing to do
+		}
+	}
+
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+/**
+ * Instance stream of the flows of a pcap file: packets are read and aggregated
+ * into flows as rows are requested, so a trace is evaluated end to end without
+ * intermediate files (see {@link FlowAggregator} for the rows)
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class PcapStream extends RowStream {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * 
+	 */
+	private final String pcapPath;
+
+	/**
+	 * 
+	 */
+	private final int numPackets;
+
+	/**
+	 * 
+	 */
+	private final long threshold;
+
+	/**
+	 * 
+	 */
+	private final int timeout;
+
+	/**
+	 * 
+	 */
+	private final int activeTimeout;
+
+	/**
+	 * Whether flows test at each of their first packets
+	 */
+	private boolean early;
+
+	/**
+	 * 
+	 */
+	private transient PcapReader reader;
+
+	/**
+	 * 
+	 */
+	private transient FlowAggregator aggregator;
+
+	/**
+	 * Whether all the packets were read
+	 */
+	private transient boolean ended;
+
+	/**
+	 * Constructor with the default flow parameters
+	 * 
+	 * @param pcapPath
+	 * @param classIndex
+	 *            class index (0 for none, -1 for the last attribute, otherwise
+	 *            starting from 1)
+	 */
+	public PcapStream(String pcapPath, int classIndex) {
+		this(pcapPath, classIndex, FlowAggregator.DEFAULT_PACKETS, FlowAggregator.DEFAULT_THRESHOLD,
+				FlowAggregator.DEFAULT_TIMEOUT, FlowAggregator.DEFAULT_ACTIVE_TIMEOUT);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param pcapPath
+	 * @param classIndex
+	 *            class index (0 for none, -1 for the last attribute, otherwise
+	 *            starting from 1)
+	 * @param numPackets
+	 *            number of packets described by the features
+	 * @param threshold
+	 *            number of bytes of elephant flows
+	 * @param timeout
+	 *            idle timeout of flows (in seconds)
+	 * @param activeTimeout
+	 *            active timeout of flows (in seconds, 0 for none)
+	 */
+	public PcapStream(String pcapPath, int classIndex, int numPackets, long threshold, int timeout,
+			int activeTimeout) {
+		super(classIndex);
+		this.pcapPath = pcapPath;
+		this.numPackets = numPackets;
+		this.threshold = threshold;
+		this.timeout = timeout;
+		this.activeTimeout = activeTimeout;
+		this.restart();
+	}
+
+	/**
+	 * @return ARFF header of the rows
+	 */
+	public String getHeaderText() {
+		return FlowAggregator.getHeaderText(this.numPackets);
+	}
+
+	@Override
+	public InstancesHeader getHeader() {
+		return RowStream.parseHeader(this.getHeaderText(), this.classIndex);
+	}
+
+	@Override
+	public int numAttributes() {
+		return this.aggregator.numAttributes();
+	}
+
+	@Override
+	protected void restartImpl() {
+		this.close();
+		try {
+			this.reader = new PcapReader(new File(this.pcapPath));
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Error reading pcap file '" + this.pcapPath + "'");
+			System.exit(1);
+		}
+		this.aggregator = new FlowAggregator(this.numPackets, this.threshold, this.timeout, this.activeTimeout,
+				this.early);
+		this.ended = false;
+	}
+
+	/**
+	 * @return number of packets described by the features
+	 */
+	public int getNumPackets() {
+		return this.numPackets;
+	}
+
+	/**
+	 * Sets whether flows test at each of their first packets (applied when the
+	 * stream restarts)
+	 * 
+	 * @param early
+	 */
+	public void setEarly(boolean early) {
+		this.early = early;
+	}
+
+	/**
+	 * Reads packets until a row is ready or the trace ends
+	 */
+	private void fill() {
+		try {
+			while (!this.ended && !this.aggregator.hasRow()) {
+				if (this.reader.next()) {
+					this.aggregator.add(this.reader);
+				} else {
+					this.aggregator.finish();
+					this.ended = true;
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Error reading pcap file '" + this.pcapPath + "'");
+			System.exit(1);
+		}
+	}
+
+	@Override
+	public boolean hasMoreInstances() {
+		this.fill();
+		return this.aggregator.hasRow();
+	}
+
+	@Override
+	public void nextRow(double[] values) {
+		this.fill();
+		if (!this.aggregator.hasRow()) {
+			throw new IllegalStateException("No more rows in pcap file '" + this.pcapPath + "'");
+		}
+		this.aggregator.nextRow(values);
+	}
+
+	/**
+	 * @return flow of the last row (numbered from 1 in order of appearance)
+	 */
+	public long getRowFlow() {
+		return this.aggregator.getRowFlow();
+	}
+
+	/**
+	 * @return packet count of the last row if for testing (0 if for training)
+	 */
+	public int getRowPackets() {
+		return this.aggregator.getRowPackets();
+	}
+
+	/**
+	 * @return timestamp of the last row (in nanoseconds)
+	 */
+	public long getRowTime() {
+		return this.aggregator.getRowTime();
+	}
+
+	/**
+	 * @return timestamp of the first packet of the flow of the last row (in
+	 *         nanoseconds)
+	 */
+	public long getRowStart() {
+		return this.aggregator.getRowStart();
+	}
+
+	/**
+	 * @return number of flows seen so far
+	 */
+	public long getCountFlows() {
+		return this.aggregator.getCountFlows();
+	}
+
+	/**
+	 * @return number of elephant flows seen so far
+	 */
+	public long getCountElephants() {
+		return this.aggregator.getCountElephants();
+	}
+
+	/**
+	 * @return number of test rows dropped so far, since they waited too long for
+	 *         their class
+	 */
+	public long getCountDropped() {
+		return this.aggregator.getCountDropped();
+	}
+
+	/**
+	 * @return memory of the flow table (in bytes)
+	 */
+	public long getTableMemory() {
+		return this.aggregator.getTableMemory();
+	}
+
+	/**
+	 * @return number of skipped packets so far (non-IP or truncated)
+	 */
+	public long getSkippedPackets() {
+		return this.reader.getSkipped();
+	}
+
+	@Override
+	public void close() {
+		if (this.reader != null) {
+			this.reader.close();
+			this.reader = null;
+		}
+	}
+
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Always-on breakdown of the time and the allocated bytes of an evaluation per
+ * phase of its hot path. Each mark charges the time elapsed since the previous
+ * mark to the phase that just ended, so a single clock read separates two
+ * phases. Allocated bytes of the evaluating thread are read at the marks of
+ * one row every {@link #ALLOCATION_RATE} rows and extrapolated
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class PhaseProfiler {
+
+	/**
+	 * Reading of the row (parsing, or waiting for the reader thread)
+	 */
+	public static final int READ = 0;
+
+	/**
+	 * Projection of the row into an instance of the learner header
+	 */
+	public static final int PROJECT = 1;
+
+	/**
+	 * Prediction of test instances
+	 */
+	public static final int PREDICT = 2;
+
+	/**
+	 * Training on training instances
+	 */
+	public static final int TRAIN = 3;
+
+	/**
+	 * Encoding of CSV results
+	 */
+	public static final int WRITE = 4;
+
+	/**
+	 * Bookkeeping of the evaluation (metrics, latencies, snapshots)
+	 */
+	public static final int OTHER = 5;
+
+	/**
+	 * Names of the phases
+	 */
+	private static final String[] PHASE_NAMES = { "Read", "Project", "Predict", "Train", "Write", "Other" };
+
+	/**
+	 * One in every N rows has its allocated bytes measured (N is a power of 2)
+	 */
+	public static final int ALLOCATION_RATE = 64;
+
+	/**
+	 * Bean of the allocated bytes of threads (null if not supported)
+	 */
+	private static final com.sun.management.ThreadMXBean THREADS = PhaseProfiler.getThreads();
+
+	/**
+	 * Time of each phase (in nanoseconds)
+	 */
+	private final long[] nanos = new long[PHASE_NAMES.length];
+
+	/**
+	 * Number of marks of each phase
+	 */
+	private final long[] counts = new long[PHASE_NAMES.length];
+
+	/**
+	 * Allocated bytes of each phase in the measured rows
+	 */
+	private final long[] bytes = new long[PHASE_NAMES.length];
+
+	/**
+	 * Number of rows and number of rows whose allocated bytes are measured
+	 */
+	private long rows, measuredRows;
+
+	/**
+	 * Time and allocated bytes at the last mark
+	 */
+	private long lastNanos, lastBytes;
+
+	/**
+	 * Whether the allocated bytes of the current row are measured
+	 */
+	private boolean measuring;
+
+	/**
+	 * Identifier of the evaluating thread
+	 */
+	private long threadId;
+
+	/**
+	 * Constructor
+	 */
+	public PhaseProfiler() {
+		super();
+	}
+
+	/**
+	 * @return bean of the allocated bytes of threads, or null if not supported
+	 */
+	private static com.sun.management.ThreadMXBean getThreads() {
+		try {
+			java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			if (threads instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+				if (allocations.isThreadAllocatedMemorySupported()) {
+					allocations.setThreadAllocatedMemoryEnabled(true);
+					return allocations;
+				}
+			}
+		} catch (RuntimeException e) {
+			// Allocated bytes are not reported
+		}
+		return null;
+	}
+
+	/**
+	 * Starts profiling on the evaluating thread
+	 */
+	public void begin() {
+		this.threadId = Thread.currentThread().getId();
+		this.measuring = THREADS != null;
+		if (this.measuring) {
+			this.lastBytes = THREADS.getThreadAllocatedBytes(this.threadId);
+		}
+		this.lastNanos = System.nanoTime();
+	}
+
+	/**
+	 * Charges the time (and allocated bytes) since the last mark to a phase
+	 * 
+	 * @param phase
+	 *            phase that just ended
+	 */
+	public void mark(int phase) {
+		long now = System.nanoTime();
+		this.nanos[phase] += now - this.lastNanos;
+		this.counts[phase]++;
+		if (this.measuring) {
+			long allocated = THREADS.getThreadAllocatedBytes(this.threadId);
+			this.bytes[phase] += allocated - this.lastBytes;
+			// Read clock again to leave the allocation bean out of the next phase
+			this.lastBytes = allocated;
+			now = System.nanoTime();
+		}
+		this.lastNanos = now;
+	}
+
+	/**
+	 * Ends a row, charging the time since the last mark to the bookkeeping of
+	 * the evaluation
+	 */
+	public void endRow() {
+		this.mark(OTHER);
+		if (this.measuring) {
+			this.measuredRows++;
+		}
+		this.rows++;
+		// Check if measuring allocated bytes of the next row
+		this.measuring = THREADS != null && (this.rows & (ALLOCATION_RATE - 1)) == 0;
+		if (this.measuring) {
+			this.lastBytes = THREADS.getThreadAllocatedBytes(this.threadId);
+			this.lastNanos = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Appends the breakdown table of the phases to a report
+	 * 
+	 * @param report
+	 */
+	public void finish(StringBuilder report) {
+		long totalNanos = 0;
+		long totalBytes = 0;
+		for (int i = 0; i < PHASE_NAMES.length; i++) {
+			totalNanos += this.nanos[i];
+			totalBytes += this.bytes[i];
+		}
+		long rows = Math.max(1, this.rows);
+		long measuredRows = Math.max(1, this.measuredRows);
+		report.append("Phases (wall time; allocated bytes measured in 1 of ").append(ALLOCATION_RATE)
+				.append(" rows)\n");
+		report.append(String.format(" %-8s %12s %10s %10s %10s %10s\n", "Phase", "Calls", "Time (s)", "Share (%)",
+				"ns/row", "Bytes/row"));
+		for (int i = 0; i <= PHASE_NAMES.length; i++) {
+			// Append a row per phase and a row of totals
+			boolean total = i == PHASE_NAMES.length;
+			long phaseNanos = total ? totalNanos : this.nanos[i];
+			long phaseBytes = total ? totalBytes : this.bytes[i];
+			String bytesPerRow = "n/a";
+			if (THREADS != null) {
+				bytesPerRow = String.format("%.1f", 1.0 * phaseBytes / measuredRows);
+			}
+			report.append(String.format(" %-8s %12d %10.3f %10.1f %10.1f %10s\n",
+					total ? "TOTAL" : PHASE_NAMES[i], total ? this.rows : this.counts[i], phaseNanos / 1e9,
+					totalNanos > 0 ? 100.0 * phaseNanos / totalNanos : 0.0, 1.0 * phaseNanos / rows, bytesPerRow));
+		}
+		report.append("\n");
+	}
+
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.util.StringTokenizer;
+
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+/**
+ * Stream that reads another stream on a separate reader thread, which fills a
+ * {@link SpscRowRing} of rows ahead of the consumer. Parsing and learning then
+ * overlap, so the time of a run approaches the slowest of both instead of
+ * their sum. Rows read in place (see {@link RowBuffer}) stay valid until the
+ * next call to {@link #hasMoreInstances()} or {@link #nextOffset()}. The reader
+ * thread starts on {@link #restart()} (e.g., when preparing the stream for
+ * use) or on first use, and any error it throws is passed to the consumer
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class PipelinedRowStream extends RowStream implements RowBuffer {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Default number of rows of the ring
+	 */
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	/**
+	 * Stream read by the reader thread
+	 */
+	private final RowStream source;
+
+	/**
+	 * Number of rows of the ring
+	 */
+	private final int capacity;
+
+	/**
+	 * Wait strategy of the ring
+	 */
+	private final int wait;
+
+	/**
+	 * 
+	 */
+	private transient SpscRowRing ring;
+
+	/**
+	 * 
+	 */
+	private transient Thread reader;
+
+	/**
+	 * Error of the reader thread (null if none)
+	 */
+	private transient volatile Throwable failure;
+
+	/**
+	 * Slot taken but not handed out yet (-1 for none)
+	 */
+	private int peeked;
+
+	/**
+	 * Whether a slot was handed out and must be released
+	 */
+	private boolean holding;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param source
+	 *            stream to read on the reader thread
+	 * @param capacity
+	 *            number of rows of the ring
+	 * @param wait
+	 *            wait strategy of the ring (see {@link SpscRowRing})
+	 */
+	public PipelinedRowStream(RowStream source, int capacity, int wait) {
+		super(-1);
+		this.source = source;
+		this.capacity = capacity;
+		this.wait = wait;
+	}
+
+	/**
+	 * Parses a pipeline option, i.e., the capacity of the ring optionally
+	 * followed by the wait strategy (e.g., '4096' or '4096,yield')
+	 * 
+	 * @param arg
+	 * @return capacity and wait strategy, or null if the option is malformed
+	 */
+	public static int[] parseOption(String arg) {
+		StringTokenizer st = new StringTokenizer(arg, ",");
+		int[] pipeline = { DEFAULT_CAPACITY, SpscRowRing.PARK };
+		try {
+			pipeline[0] = Integer.parseInt(st.nextToken());
+		} catch (Exception e) {
+			System.out.println("Error parsing pipeline capacity '" + arg + "' to integer");
+			return null;
+		}
+		if (pipeline[0] < 1) {
+			System.out.println("Pipeline capacity must be at least 1");
+			return null;
+		}
+		if (st.hasMoreTokens()) {
+			String waitArg = st.nextToken();
+			if (!SpscRowRing.waitOptions.containsKey(waitArg)) {
+				System.out.println("Pipeline wait strategy '" + waitArg + "' does not exist");
+				return null;
+			}
+			pipeline[1] = SpscRowRing.waitOptions.get(waitArg);
+		}
+		return pipeline;
+	}
+
+	@Override
+	public InstancesHeader getHeader() {
+		return this.source.getHeader();
+	}
+
+	@Override
+	public int numAttributes() {
+		return this.source.numAttributes();
+	}
+
+	@Override
+	protected void restartImpl() {
+		this.stop();
+		this.source.restart();
+		final SpscRowRing ring = new SpscRowRing(this.source.numAttributes(), this.capacity, this.wait);
+		this.ring = ring;
+		this.failure = null;
+		this.peeked = -1;
+		this.holding = false;
+		// Start reader thread
+		this.reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				PipelinedRowStream.this.read(ring);
+			}
+		}, "nelly-reader");
+		this.reader.setDaemon(true);
+		this.reader.start();
+	}
+
+	/**
+	 * Reads the source into the ring until the source ends or the consumer
+	 * stops (reader thread)
+	 * 
+	 * @param ring
+	 */
+	private void read(SpscRowRing ring) {
+		int width = this.source.numAttributes();
+		double[] row = new double[width];
+		double[] values = ring.getValues();
+		try {
+			while (this.source.hasMoreInstances()) {
+				int offset = ring.claim();
+				if (offset < 0) {
+					return;
+				}
+				this.source.nextRow(row);
+				System.arraycopy(row, 0, values, offset, width);
+				ring.publish();
+			}
+		} catch (Throwable e) {
+			// Pass any error to the consumer, which otherwise sees a truncated stream
+			this.failure = e;
+		} finally {
+			ring.close();
+		}
+	}
+
+	/**
+	 * Starts the reader thread, if never started
+	 */
+	private void start() {
+		if (this.ring == null) {
+			this.restart();
+		}
+	}
+
+	/**
+	 * Stops the reader thread, if running
+	 */
+	private void stop() {
+		if (this.reader == null) {
+			return;
+		}
+		this.ring.cancel();
+		try {
+			this.reader.join();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			System.err.println("Internal error. Reader was interrupted. Please, contact the developer");
+			System.exit(2);
+		}
+		this.reader = null;
+	}
+
+	@Override
+	public boolean hasMoreInstances() {
+		this.start();
+		if (this.peeked >= 0) {
+			return true;
+		}
+		// Release the row handed out before taking the next one
+		if (this.holding) {
+			this.ring.release();
+			this.holding = false;
+		}
+		this.peeked = this.ring.take();
+		if (this.peeked < 0 && this.failure != null) {
+			throw new IllegalStateException("Reader of the pipeline failed", this.failure);
+		}
+		return this.peeked >= 0;
+	}
+
+	@Override
+	public void nextRow(double[] values) {
+		System.arraycopy(this.ring.getValues(), this.nextOffset(), values, 0, this.source.numAttributes());
+	}
+
+	@Override
+	public double[] getValues() {
+		this.start();
+		return this.ring.getValues();
+	}
+
+	@Override
+	public int nextOffset() {
+		if (!this.hasMoreInstances()) {
+			throw new IllegalStateException("No more rows in pipeline");
+		}
+		int offset = this.peeked;
+		this.peeked = -1;
+		this.holding = true;
+		return offset;
+	}
+
+	/**
+	 * @return number of rows read ahead of the consumer, as last seen by it
+	 *         (consumer only)
+	 */
+	public long getOccupancy() {
+		return this.ring.getOccupancy();
+	}
+
+	/**
+	 * Appends the occupancy metrics of the ring to a report
+	 * 
+	 * @param report
+	 */
+	public void report(StringBuilder report) {
+		this.ring.report(report);
+	}
+
+	@Override
+	public void close() {
+		this.stop();
+		this.source.close();
+	}
+
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+/**
+ * Stream whose rows can be read in place from a shared array instead of being
+ * copied by {@link RowStream#nextRow(double[])}
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public interface RowBuffer {
+
+	/**
+	 * @return array that contains the rows (must not be modified)
+	 */
+	public double[] getValues();
+
+	/**
+	 * Moves to the next row without copying it
+	 * 
+	 * @return position of the next row in {@link #getValues()}
+	 */
+	public int nextOffset();
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+/**
+ * Evaluation fed with the primitive rows of a {@link RowStream}. All methods
+ * are called from the same thread, which may differ from the thread that reads
+ * the stream
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public interface RowEvaluation {
+
+	/**
+	 * Starts the evaluation, before the first row
+	 */
+	public void begin();
+
+	/**
+	 * Evaluates a row
+	 * 
+	 * @param values
+	 *            array that contains the row
+	 * @param offset
+	 *            position of the row in the array
+	 */
+	public void process(double[] values, int offset);
+
+	/**
+	 * Finishes the evaluation, after the last row
+	 */
+	public void finish();
+
+}
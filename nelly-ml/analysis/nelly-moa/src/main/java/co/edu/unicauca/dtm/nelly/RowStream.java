@@ -0,0 +1,188 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.io.StringReader;
+
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstanceExample;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import moa.core.ObjectRepository;
+import moa.options.AbstractOptionHandler;
+import moa.streams.InstanceStream;
+import moa.tasks.TaskMonitor;
+
+/**
+ * Instance stream that also delivers its instances as primitive rows, i.e.,
+ * the values of all the attributes (including the class and the train mark)
+ * in header order
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public abstract class RowStream extends AbstractOptionHandler implements InstanceStream {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Class index as given to {@link moa.streams.ArffFileStream} (0 for none, -1
+	 * for the last attribute, otherwise starting from 1)
+	 */
+	protected int classIndex;
+
+	/**
+	 * Header shared by the instances created by {@link #nextInstance()}
+	 */
+	private transient InstancesHeader instanceHeader;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param classIndex
+	 *            class index (0 for none, -1 for the last attribute, otherwise
+	 *            starting from 1)
+	 */
+	public RowStream(int classIndex) {
+		super();
+		this.classIndex = classIndex;
+	}
+
+	/**
+	 * Parses the header of an ARFF file
+	 * 
+	 * @param headerText
+	 *            ARFF header, up to the data declaration
+	 * @param classIndex
+	 *            class index (0 for none, -1 for the last attribute, otherwise
+	 *            starting from 1)
+	 * @return header of the instances
+	 */
+	protected static InstancesHeader parseHeader(String headerText, int classIndex) {
+		Instances instances = new Instances(new StringReader(headerText), 1, classIndex);
+		if (classIndex < 0) {
+			instances.setClassIndex(instances.numAttributes() - 1);
+		} else if (classIndex > 0) {
+			instances.setClassIndex(classIndex - 1);
+		}
+		return new InstancesHeader(instances);
+	}
+
+	/**
+	 * @param classIndex
+	 *            class index (0 for none, -1 for the last attribute, otherwise
+	 *            starting from 1). Applies from the next restart
+	 */
+	public void setClassIndex(int classIndex) {
+		this.classIndex = classIndex;
+	}
+
+	/**
+	 * @return a new header of the rows, which callers are free to modify
+	 */
+	@Override
+	public abstract InstancesHeader getHeader();
+
+	/**
+	 * @return number of values of each row
+	 */
+	public abstract int numAttributes();
+
+	/**
+	 * Copies the values of the next row
+	 * 
+	 * @param values
+	 *            array of at least {@link #numAttributes()} values
+	 */
+	public abstract void nextRow(double[] values);
+
+	/**
+	 * Skips rows (e.g., to resume an evaluation from a snapshot)
+	 * 
+	 * @param rows
+	 *            number of rows to skip
+	 * @return number of skipped rows (fewer if the stream ends)
+	 */
+	public long skip(long rows) {
+		double[] values = new double[this.numAttributes()];
+		long skipped = 0;
+		while (skipped < rows && this.hasMoreInstances()) {
+			this.nextRow(values);
+			skipped++;
+		}
+		return skipped;
+	}
+
+	/**
+	 * Restarts the stream from its first row
+	 */
+	protected abstract void restartImpl();
+
+	/**
+	 * Releases the resources of the stream (e.g., threads and files)
+	 */
+	public void close() {
+		// Nothing to release by default
+	}
+
+	@Override
+	public InstanceExample nextInstance() {
+		if (this.instanceHeader == null) {
+			this.instanceHeader = this.getHeader();
+		}
+		double[] values = new double[this.numAttributes()];
+		this.nextRow(values);
+		Instance instance = new DenseInstance(1.0, values);
+		instance.setDataset(this.instanceHeader);
+		return new InstanceExample(instance);
+	}
+
+	@Override
+	public void restart() {
+		this.instanceHeader = null;
+		this.restartImpl();
+	}
+
+	@Override
+	public long estimatedRemainingInstances() {
+		return -1;
+	}
+
+	@Override
+	public boolean isRestartable() {
+		return true;
+	}
+
+	@Override
+	protected void prepareForUseImpl(TaskMonitor monitor, ObjectRepository repository) {
+		this.restart();
+	}
+
+	@Override
+	public void getDescription(StringBuilder sb, int indent) {
+		// No description
+	}
+
+}
@@ -0,0 +1,661 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.StringTokenizer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import moa.classifiers.AbstractClassifier;
+import moa.classifiers.Classifier;
+import moa.core.Measurement;
+import moa.core.Utils;
+
+/**
+ * Shards a learner across cores: the value of a flow key attribute is hashed
+ * to one of K independent sub-learners, each trained by its own worker thread.
+ * Trainings are copied into reusable batches that are handed to the worker of
+ * their shard (a bounded number per shard). A single prediction is served on
+ * the calling thread by the shard of its key, under the lock of that shard, so
+ * it sees the trainings the worker already applied; blocks of predictions are
+ * split among the workers in parallel. In merge mode, a prediction averages the
+ * normalized votes of all the shards (a global model)
+ * 
+ * Named as 'sharded:K:learner[:key][:merge]', e.g., 'sharded:4:hoeffdingtree'
+ * (the key is the index of an attribute of the learner header, first one by
+ * default)
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class ShardedClassifier extends AbstractClassifier {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Prefix of the names of sharded learners
+	 */
+	public static final String PREFIX = "sharded:";
+
+	/**
+	 * Capacity of the queue of each worker
+	 */
+	private static final int QUEUE_CAPACITY = 1024;
+
+	/**
+	 * Number of training instances of each batch
+	 */
+	private static final int BATCH_SIZE = 64;
+
+	/**
+	 * Number of batches of each shard (filled, queued or being trained)
+	 */
+	private static final int NUM_BATCHES = 4;
+
+	/**
+	 * Seconds after which idle workers stop (restarted on demand)
+	 */
+	private static final int IDLE_SECONDS = 1;
+
+	/**
+	 * Unprepared learner copied to each shard
+	 */
+	private final Classifier prototype;
+
+	/**
+	 * 
+	 */
+	private final int numShards;
+
+	/**
+	 * Index of the flow key attribute
+	 */
+	private final int keyIndex;
+
+	/**
+	 * Whether predictions merge the votes of all the shards
+	 */
+	private final boolean merge;
+
+	/**
+	 * 
+	 */
+	private Classifier[] shards;
+
+	/**
+	 * Load per shard (updated by its worker)
+	 */
+	private long[] trainings, predictions, busyNanos;
+
+	/**
+	 * Worker per shard (created on demand)
+	 */
+	private transient ThreadPoolExecutor[] workers;
+
+	/**
+	 * Batch being filled per shard (null if none)
+	 */
+	private transient Batch[] filling;
+
+	/**
+	 * Free batches per shard
+	 */
+	private transient ArrayBlockingQueue<Batch>[] freeBatches;
+
+	/**
+	 * First error of a worker (null if none), thrown on the next call
+	 */
+	private transient volatile Throwable failure;
+
+	/**
+	 * Whether training instances must be copied because the learner keeps them
+	 */
+	private final boolean copyOnTrain;
+
+	/**
+	 * Reusable training instances of a shard, trained in order by its worker and
+	 * then returned to the free batches of the shard
+	 */
+	private final class Batch implements Runnable {
+
+		/**
+		 * 
+		 */
+		private final int shard;
+
+		/**
+		 * 
+		 */
+		private final Instance[] instances = new Instance[BATCH_SIZE];
+
+		/**
+		 * Number of filled instances
+		 */
+		private int count;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param shard
+		 */
+		private Batch(int shard) {
+			this.shard = shard;
+		}
+
+		@Override
+		public void run() {
+			Classifier learner = ShardedClassifier.this.shards[this.shard];
+			try {
+				synchronized (learner) {
+					long start = System.nanoTime();
+					for (int i = 0; i < this.count; i++) {
+						learner.trainOnInstance(this.instances[i]);
+					}
+					ShardedClassifier.this.trainings[this.shard] += this.count;
+					ShardedClassifier.this.busyNanos[this.shard] += System.nanoTime() - start;
+				}
+			} catch (Throwable e) {
+				// Passed to the caller, since the executor would only log it
+				if (ShardedClassifier.this.failure == null) {
+					ShardedClassifier.this.failure = e;
+				}
+			} finally {
+				// Release references kept by the learner (they are copied again)
+				if (ShardedClassifier.this.copyOnTrain) {
+					for (int i = 0; i < this.count; i++) {
+						this.instances[i] = null;
+					}
+				}
+				this.count = 0;
+				ShardedClassifier.this.freeBatches[this.shard].add(this);
+			}
+		}
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param prototype
+	 *            unprepared learner copied to each shard
+	 * @param numShards
+	 *            number of shards
+	 * @param keyIndex
+	 *            index of the flow key attribute
+	 * @param merge
+	 *            whether predictions merge the votes of all the shards
+	 */
+	public ShardedClassifier(Classifier prototype, int numShards, int keyIndex, boolean merge) {
+		super();
+		this.prototype = prototype;
+		this.numShards = Math.max(1, numShards);
+		this.keyIndex = keyIndex;
+		this.merge = merge;
+		this.copyOnTrain = MOAUtilities.retainsInstances(prototype);
+	}
+
+	/**
+	 * @param name
+	 *            name of a sharded learner
+	 * @return name of the sharded learner, e.g., 'hoeffdingtree' for
+	 *         'sharded:4:hoeffdingtree'
+	 */
+	public static String getLearnerName(String name) {
+		StringTokenizer st = new StringTokenizer(name.substring(PREFIX.length()), ":");
+		if (st.countTokens() < 2) {
+			throw new IllegalArgumentException("Sharded learner must be named 'sharded:K:learner[:key][:merge]'");
+		}
+		st.nextToken();
+		return st.nextToken();
+	}
+
+	/**
+	 * Creates a sharded learner from its name
+	 * 
+	 * @param name
+	 *            'sharded:K:learner[:key][:merge]'
+	 * @param learner
+	 *            unprepared learner named in the name
+	 * @return sharded learner
+	 */
+	public static ShardedClassifier fromName(String name, Classifier learner) {
+		StringTokenizer st = new StringTokenizer(name.substring(PREFIX.length()), ":");
+		int numShards;
+		try {
+			numShards = Integer.parseInt(st.nextToken());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Number of shards of '" + name + "' is not an integer");
+		}
+		if (numShards < 1) {
+			throw new IllegalArgumentException("Number of shards of '" + name + "' must be at least 1");
+		}
+		st.nextToken();
+		int keyIndex = 0;
+		boolean merge = false;
+		while (st.hasMoreTokens()) {
+			String token = st.nextToken();
+			if (token.equals("merge")) {
+				merge = true;
+			} else {
+				try {
+					keyIndex = Integer.parseInt(token);
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Option '" + token + "' of '" + name + "' is not recognized");
+				}
+			}
+		}
+		return new ShardedClassifier(learner, numShards, keyIndex, merge);
+	}
+
+	@Override
+	public boolean isRandomizable() {
+		return false;
+	}
+
+	@Override
+	public void setModelContext(InstancesHeader context) {
+		if (context != null && (this.keyIndex < 0 || this.keyIndex >= context.numAttributes())) {
+			throw new IllegalArgumentException("Key index " + this.keyIndex + " of the sharded learner is out of the "
+					+ context.numAttributes() + " attributes of the header");
+		}
+		super.setModelContext(context);
+		if (this.shards != null) {
+			this.drain();
+			for (Classifier shard : this.shards) {
+				shard.setModelContext(context);
+			}
+		}
+		// Reusable training instances belong to the previous header
+		this.filling = null;
+		this.freeBatches = null;
+	}
+
+	@Override
+	public void resetLearningImpl() {
+		if (this.shards != null) {
+			this.waitShards();
+		}
+		this.filling = null;
+		this.freeBatches = null;
+		this.failure = null;
+		this.shards = new Classifier[this.numShards];
+		for (int i = 0; i < this.numShards; i++) {
+			this.shards[i] = this.prototype.copy();
+			if (this.modelContext != null) {
+				this.shards[i].setModelContext(this.modelContext);
+			}
+			this.shards[i].prepareForUse();
+			if (this.modelContext != null) {
+				this.shards[i].setModelContext(this.modelContext);
+			}
+		}
+		this.trainings = new long[this.numShards];
+		this.predictions = new long[this.numShards];
+		this.busyNanos = new long[this.numShards];
+	}
+
+	@Override
+	public Classifier[] getSubClassifiers() {
+		return this.shards;
+	}
+
+	/**
+	 * @param instance
+	 * @return shard of the flow key of the instance
+	 */
+	private int shardOf(Instance instance) {
+		// Mix the bits of the key (MurmurHash3 finalizer)
+		long hash = Double.doubleToLongBits(instance.value(this.keyIndex));
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return (int) ((hash & Long.MAX_VALUE) % this.numShards);
+	}
+
+	/**
+	 * @param shard
+	 * @return worker of the shard (started if needed)
+	 */
+	private ThreadPoolExecutor worker(final int shard) {
+		if (this.workers == null) {
+			this.workers = new ThreadPoolExecutor[this.numShards];
+		}
+		if (this.workers[shard] == null) {
+			// Single thread that stops when idle (e.g., on discarded copies of the learner)
+			ThreadPoolExecutor worker = new ThreadPoolExecutor(1, 1, IDLE_SECONDS, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable, "nelly-shard-" + shard);
+							thread.setDaemon(true);
+							return thread;
+						}
+					}, new RejectedExecutionHandler() {
+						@Override
+						public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+							// Block the caller while the queue is full
+							try {
+								executor.getQueue().put(runnable);
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+							}
+						}
+					});
+			worker.allowCoreThreadTimeOut(true);
+			this.workers[shard] = worker;
+		}
+		return this.workers[shard];
+	}
+
+	/**
+	 * @param future
+	 * @return result of the task, waiting for it
+	 */
+	private static <T> T await(Future<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a shard", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Shard failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Throws the error of a worker, if any
+	 */
+	private void checkFailure() {
+		if (this.failure != null) {
+			throw new IllegalStateException("Learner of a shard failed", this.failure);
+		}
+	}
+
+	/**
+	 * Hands the batch being filled of a shard over to its worker, if any
+	 * 
+	 * @param shard
+	 */
+	private void submit(int shard) {
+		if (this.filling == null || this.filling[shard] == null) {
+			return;
+		}
+		Batch batch = this.filling[shard];
+		this.filling[shard] = null;
+		this.worker(shard).execute(batch);
+	}
+
+	/**
+	 * Waits for the pending tasks of all the shards, throwing the error of a
+	 * worker, if any
+	 */
+	public void drain() {
+		this.waitShards();
+		this.checkFailure();
+	}
+
+	/**
+	 * Waits for the pending tasks of all the shards
+	 */
+	private void waitShards() {
+		for (int i = 0; i < this.numShards; i++) {
+			this.submit(i);
+		}
+		if (this.workers == null) {
+			return;
+		}
+		@SuppressWarnings("unchecked")
+		Future<Object>[] pending = new Future[this.numShards];
+		for (int i = 0; i < this.numShards; i++) {
+			if (this.workers[i] != null) {
+				pending[i] = this.workers[i].submit(new Callable<Object>() {
+					@Override
+					public Object call() {
+						return null;
+					}
+				});
+			}
+		}
+		for (Future<Object> future : pending) {
+			if (future != null) {
+				ShardedClassifier.await(future);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void trainOnInstanceImpl(Instance instance) {
+		this.checkFailure();
+		int shard = this.shardOf(instance);
+		if (this.filling == null) {
+			this.filling = new Batch[this.numShards];
+			this.freeBatches = new ArrayBlockingQueue[this.numShards];
+			for (int i = 0; i < this.numShards; i++) {
+				this.freeBatches[i] = new ArrayBlockingQueue<Batch>(NUM_BATCHES);
+				for (int j = 0; j < NUM_BATCHES; j++) {
+					this.freeBatches[i].add(new Batch(i));
+				}
+			}
+		}
+		// Take a free batch, waiting while all of them are pending
+		Batch batch = this.filling[shard];
+		if (batch == null) {
+			try {
+				batch = this.freeBatches[shard].take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for a shard", e);
+			}
+			this.filling[shard] = batch;
+		}
+		// Copy the instance since the caller may reuse it (into a reused one if possible)
+		Instance slot = batch.instances[batch.count];
+		if (slot == null || this.copyOnTrain) {
+			batch.instances[batch.count] = instance.copy();
+		} else {
+			for (int i = 0; i < instance.numAttributes(); i++) {
+				slot.setValue(i, instance.value(i));
+			}
+			slot.setWeight(instance.weight());
+		}
+		batch.count++;
+		if (batch.count == BATCH_SIZE) {
+			this.submit(shard);
+		}
+	}
+
+	/**
+	 * @param shard
+	 * @param instance
+	 * @return votes of a shard for an instance, on the calling thread
+	 */
+	private double[] votesOf(int shard, Instance instance) {
+		// Hand pending trainings of the shard over before predicting
+		this.checkFailure();
+		this.submit(shard);
+		Classifier learner = this.shards[shard];
+		synchronized (learner) {
+			long start = System.nanoTime();
+			double[] votes = learner.getVotesForInstance(instance);
+			this.predictions[shard]++;
+			this.busyNanos[shard] += System.nanoTime() - start;
+			return votes;
+		}
+	}
+
+	@Override
+	public double[] getVotesForInstance(Instance instance) {
+		if (!this.merge) {
+			return this.votesOf(this.shardOf(instance), instance);
+		}
+		// Average the normalized votes of all the shards
+		double[] merged = new double[0];
+		for (int i = 0; i < this.numShards; i++) {
+			double[] votes = this.votesOf(i, instance);
+			double sum = Utils.sum(votes);
+			if (sum <= 0) {
+				continue;
+			}
+			if (votes.length > merged.length) {
+				double[] grown = new double[votes.length];
+				System.arraycopy(merged, 0, grown, 0, merged.length);
+				merged = grown;
+			}
+			for (int j = 0; j < votes.length; j++) {
+				merged[j] += votes[j] / sum / this.numShards;
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * Predicts the class of a block of instances, each shard its part of the
+	 * block in parallel (or each instance with all the shards in merge mode)
+	 * 
+	 * @param instances
+	 * @param count
+	 * @param classes
+	 *            array to fill with the index of the predicted class of each
+	 *            instance
+	 */
+	public void predictClasses(final Instance[] instances, int count, final int[] classes) {
+		this.checkFailure();
+		if (this.merge) {
+			for (int i = 0; i < count; i++) {
+				classes[i] = Utils.maxIndex(this.getVotesForInstance(instances[i]));
+			}
+			return;
+		}
+		// Split the block by shard
+		int[] shardOf = new int[count];
+		int[] shardCount = new int[this.numShards];
+		for (int i = 0; i < count; i++) {
+			shardOf[i] = this.shardOf(instances[i]);
+			shardCount[shardOf[i]]++;
+		}
+		@SuppressWarnings("unchecked")
+		Future<Object>[] pending = new Future[this.numShards];
+		for (int s = 0; s < this.numShards; s++) {
+			if (shardCount[s] == 0) {
+				continue;
+			}
+			this.submit(s);
+			// Positions of the instances of the shard in the block
+			final int[] positions = new int[shardCount[s]];
+			for (int i = 0, j = 0; i < count; i++) {
+				if (shardOf[i] == s) {
+					positions[j] = i;
+					j++;
+				}
+			}
+			final int shard = s;
+			pending[s] = this.worker(shard).submit(new Callable<Object>() {
+				@Override
+				public Object call() {
+					Instance[] part = new Instance[positions.length];
+					int[] partClasses = new int[positions.length];
+					for (int i = 0; i < positions.length; i++) {
+						part[i] = instances[positions[i]];
+					}
+					Classifier learner = ShardedClassifier.this.shards[shard];
+					synchronized (learner) {
+						long start = System.nanoTime();
+						BatchPredictor.predictClasses(learner, part, part.length, partClasses);
+						ShardedClassifier.this.predictions[shard] += positions.length;
+						ShardedClassifier.this.busyNanos[shard] += System.nanoTime() - start;
+					}
+					for (int i = 0; i < positions.length; i++) {
+						classes[positions[i]] = partClasses[i];
+					}
+					return null;
+				}
+			});
+		}
+		for (Future<Object> future : pending) {
+			if (future != null) {
+				ShardedClassifier.await(future);
+			}
+		}
+	}
+
+	@Override
+	protected Measurement[] getModelMeasurementsImpl() {
+		this.drain();
+		Measurement[] measurements = new Measurement[3 * this.numShards];
+		for (int i = 0; i < this.numShards; i++) {
+			measurements[3 * i] = new Measurement("shard " + i + " trainings", this.trainings[i]);
+			measurements[3 * i + 1] = new Measurement("shard " + i + " predictions", this.predictions[i]);
+			measurements[3 * i + 2] = new Measurement("shard " + i + " busy seconds", this.busyNanos[i] / 1e9);
+		}
+		return measurements;
+	}
+
+	@Override
+	public void getModelDescription(StringBuilder out, int indent) {
+		out.append(this.numShards).append(" shards by attribute ").append(this.keyIndex)
+				.append(this.merge ? " (merged votes)" : "");
+	}
+
+	/**
+	 * Appends the load per shard to a report (after the pending tasks)
+	 * 
+	 * @param report
+	 */
+	public void report(StringBuilder report) {
+		this.drain();
+		report.append("Shards (").append(this.numShards).append(" by attribute ").append(this.keyIndex)
+				.append(this.merge ? ", merged votes" : "").append(")\n");
+		for (int i = 0; i < this.numShards; i++) {
+			report.append(" - Shard ").append(i).append(": trainings = ").append(this.trainings[i])
+					.append(", predictions = ").append(this.predictions[i]).append(", busy = ")
+					.append(this.busyNanos[i] / 1e9).append(" seconds\n");
+		}
+		report.append("\n");
+	}
+
+	/**
+	 * Waits for the pending tasks before serializing the shards (e.g., on copies
+	 * and snapshots)
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		this.drain();
+		out.defaultWriteObject();
+	}
+
+}
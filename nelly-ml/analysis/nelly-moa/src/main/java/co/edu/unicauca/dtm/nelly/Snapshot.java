@@ -0,0 +1,172 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * State of an evaluation that allows resuming it: the trained learner, the
+ * counters of the evaluation and the position in the stream (number of
+ * consumed rows)
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class Snapshot implements Serializable {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * 
+	 */
+	private final String learnerName;
+
+	/**
+	 * 
+	 */
+	private final Object learner;
+
+	/**
+	 * Number of consumed rows of the stream
+	 */
+	private final long position;
+
+	/**
+	 * Integer counters of the evaluation (their meaning depends on the runner)
+	 */
+	private final long[] counters;
+
+	/**
+	 * Real-valued sums of the evaluation (their meaning depends on the runner)
+	 */
+	private final double[] sums;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param learnerName
+	 * @param learner
+	 *            trained learner (must be serializable)
+	 * @param position
+	 *            number of consumed rows of the stream
+	 * @param counters
+	 *            integer counters of the evaluation
+	 * @param sums
+	 *            real-valued sums of the evaluation
+	 */
+	public Snapshot(String learnerName, Object learner, long position, long[] counters, double[] sums) {
+		super();
+		this.learnerName = learnerName;
+		this.learner = learner;
+		this.position = position;
+		this.counters = counters;
+		this.sums = sums;
+	}
+
+	/**
+	 * @return serialized snapshot (i.e., a deep copy of the state at this moment)
+	 * @throws IOException
+	 */
+	public byte[] toBytes() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 << 10);
+		ObjectOutputStream output = new ObjectOutputStream(bytes);
+		output.writeObject(this);
+		output.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @param file
+	 * @return snapshot read from the file
+	 * @throws IOException
+	 *             if the file cannot be read or is not a snapshot
+	 */
+	public static Snapshot read(File file) throws IOException {
+		ObjectInputStream input = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			return (Snapshot) input.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("File '" + file.getAbsolutePath() + "' is not a snapshot", e);
+		} catch (ClassCastException e) {
+			throw new IOException("File '" + file.getAbsolutePath() + "' is not a snapshot", e);
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * @param path
+	 *            path of the snapshot, or of a folder of snapshots if several
+	 *            learners are evaluated
+	 * @param learnerName
+	 * @param several
+	 *            whether several learners are evaluated
+	 * @return file of the snapshot of the learner
+	 */
+	public static File getFile(String path, String learnerName, boolean several) {
+		return several ? new File(path, learnerName + ".snap") : new File(path);
+	}
+
+	/**
+	 * @return the learnerName
+	 */
+	public String getLearnerName() {
+		return this.learnerName;
+	}
+
+	/**
+	 * @return the learner
+	 */
+	public Object getLearner() {
+		return this.learner;
+	}
+
+	/**
+	 * @return number of consumed rows of the stream
+	 */
+	public long getPosition() {
+		return this.position;
+	}
+
+	/**
+	 * @return the counters
+	 */
+	public long[] getCounters() {
+		return this.counters;
+	}
+
+	/**
+	 * @return the sums
+	 */
+	public double[] getSums() {
+		return this.sums;
+	}
+
+}
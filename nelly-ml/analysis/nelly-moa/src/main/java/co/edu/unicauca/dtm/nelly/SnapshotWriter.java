@@ -0,0 +1,153 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes snapshots off the hot path: the evaluating thread only hands over a
+ * snapshot of a copy of the learner, and a background thread serializes it to
+ * a temporary file that atomically replaces the previous snapshot. If
+ * snapshots are captured faster than written, the pending one is replaced by
+ * the newest. Copying still pauses the evaluating thread (the state must not
+ * change meanwhile), so its cost grows with the size of the model and the
+ * snapshot interval should be set accordingly
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class SnapshotWriter {
+
+	/**
+	 * 
+	 */
+	private final File file;
+
+	/**
+	 * Background writer
+	 */
+	private final ThreadPoolExecutor writer;
+
+	/**
+	 * Serialized size of the last written snapshot (-1 if none was written)
+	 */
+	private volatile long lastBytes = -1;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param file
+	 *            file of the snapshots (its parent folder is created if needed)
+	 */
+	public SnapshotWriter(File file) {
+		super();
+		this.file = file.getAbsoluteFile();
+		if (!this.file.getParentFile().exists()) {
+			this.file.getParentFile().mkdirs();
+		}
+		// Single thread with a single pending snapshot (the newest wins)
+		this.writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(1),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "nelly-snapshot-writer");
+						thread.setDaemon(true);
+						return thread;
+					}
+				}, new ThreadPoolExecutor.DiscardOldestPolicy());
+	}
+
+	/**
+	 * Schedules the serialization and writing of a snapshot
+	 * 
+	 * @param snapshot
+	 *            snapshot of a copy of the learner, which nothing else changes
+	 *            (e.g., {@code learner.copy()})
+	 */
+	public void capture(final Snapshot snapshot) {
+		this.writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				SnapshotWriter.this.write(snapshot);
+			}
+		});
+	}
+
+	/**
+	 * @return serialized size of the last written snapshot (in bytes), or -1 if
+	 *         none was written
+	 */
+	public long getLastBytes() {
+		return this.lastBytes;
+	}
+
+	/**
+	 * @param snapshot
+	 */
+	private void write(Snapshot snapshot) {
+		byte[] bytes;
+		try {
+			bytes = snapshot.toBytes();
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Error capturing snapshot of learner " + snapshot.getLearnerName());
+			return;
+		}
+		File temporary = new File(this.file.getPath() + ".tmp");
+		try {
+			FileOutputStream output = new FileOutputStream(temporary);
+			try {
+				output.write(bytes);
+				output.getFD().sync();
+			} finally {
+				output.close();
+			}
+			Files.move(temporary.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			this.lastBytes = bytes.length;
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Error writing snapshot '" + this.file.getAbsolutePath() + "'");
+		}
+	}
+
+	/**
+	 * Waits for the pending snapshot to be written
+	 */
+	public void close() {
+		this.writer.shutdown();
+		try {
+			this.writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			System.err.println("Internal error. Snapshot writer was interrupted. Please, contact the developer");
+			System.exit(2);
+		}
+	}
+
+}
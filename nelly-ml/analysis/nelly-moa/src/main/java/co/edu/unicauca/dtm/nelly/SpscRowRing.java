@@ -0,0 +1,372 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free ring of primitive rows between a single producer and a single
+ * consumer. The rows are preallocated in one array and handed over in place:
+ * the producer claims a free slot, writes it and publishes it, and the
+ * consumer takes the next slot, reads it and releases it. Each side caches the
+ * position of the other side and only reads it (with acquire semantics) when
+ * the cache shows the ring full or empty; positions are written with release
+ * semantics. The published positions and the fields written by each side are
+ * padded onto separate cache lines, so both sides do not false-share
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class SpscRowRing {
+
+	/**
+	 * Waits by busy spinning (lowest latency, burns a core)
+	 */
+	public static final int SPIN = 0;
+
+	/**
+	 * Waits by yielding the processor
+	 */
+	public static final int YIELD = 1;
+
+	/**
+	 * Waits by spinning briefly and then parking the thread
+	 */
+	public static final int PARK = 2;
+
+	/**
+	 * 
+	 */
+	public static final Map<String, Integer> waitOptions;
+	static {
+		waitOptions = new HashMap<String, Integer>();
+		waitOptions.put("spin", SPIN);
+		waitOptions.put("yield", YIELD);
+		waitOptions.put("park", PARK);
+	}
+
+	/**
+	 * Number of spins before parking
+	 */
+	private static final int PARK_SPINS = 100;
+
+	/**
+	 * Time of each park (in nanoseconds)
+	 */
+	private static final long PARK_NANOS = 50000;
+
+	/**
+	 * Index of the consumer position in {@link #positions} (128 bytes apart from
+	 * the producer position to avoid false sharing)
+	 */
+	private static final int HEAD = 16;
+
+	/**
+	 * Index of the producer position in {@link #positions}
+	 */
+	private static final int TAIL = 32;
+
+	/**
+	 * Row values, a slot after another
+	 */
+	private final double[] values;
+
+	/**
+	 * Number of values of each row
+	 */
+	private final int width;
+
+	/**
+	 * Number of slots (power of two)
+	 */
+	private final int capacity;
+
+	/**
+	 * 
+	 */
+	private final int mask;
+
+	/**
+	 * Wait strategy ({@link #SPIN}, {@link #YIELD} or {@link #PARK})
+	 */
+	private final int wait;
+
+	/**
+	 * Positions of the consumer and of the producer
+	 */
+	private final AtomicLongArray positions;
+
+	/**
+	 * Whether the producer published its last row
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Whether the consumer stopped consuming
+	 */
+	private volatile boolean cancelled;
+
+	/**
+	 * Fields written by the producer
+	 */
+	private final Producer producer = new Producer();
+
+	/**
+	 * Fields written by the consumer
+	 */
+	private final Consumer consumer = new Consumer();
+
+	/**
+	 * Fields written by the producer, padded on both sides to a cache line (64
+	 * bytes) of their own
+	 */
+	private static final class Producer {
+
+		/**
+		 * Padding
+		 */
+		long p1, p2, p3, p4, p5, p6, p7;
+
+		/**
+		 * Position of the producer and its cache of the consumer position
+		 */
+		long tail, cachedHead;
+
+		/**
+		 * Number of waits of the producer on a full ring
+		 */
+		long fullWaits;
+
+		/**
+		 * Padding
+		 */
+		long q1, q2, q3, q4, q5, q6, q7;
+
+	}
+
+	/**
+	 * Fields written by the consumer, padded on both sides to a cache line (64
+	 * bytes) of their own
+	 */
+	private static final class Consumer {
+
+		/**
+		 * Padding
+		 */
+		long p1, p2, p3, p4, p5, p6, p7;
+
+		/**
+		 * Position of the consumer and its cache of the producer position
+		 */
+		long head, cachedTail;
+
+		/**
+		 * Number of waits of the consumer on an empty ring
+		 */
+		long emptyWaits;
+
+		/**
+		 * Sum and maximum of the occupancy seen by the consumer at each take
+		 */
+		long occupancySum, maxOccupancy;
+
+		/**
+		 * Padding
+		 */
+		long q1, q2, q3, q4, q5, q6, q7;
+
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param width
+	 *            number of values of each row
+	 * @param capacity
+	 *            number of slots (rounded up to a power of two)
+	 * @param wait
+	 *            wait strategy ({@link #SPIN}, {@link #YIELD} or {@link #PARK})
+	 */
+	public SpscRowRing(int width, int capacity, int wait) {
+		super();
+		int slots = 1;
+		while (slots < capacity) {
+			slots <<= 1;
+		}
+		this.width = width;
+		this.capacity = slots;
+		this.mask = slots - 1;
+		this.wait = wait;
+		this.values = new double[slots * width];
+		this.positions = new AtomicLongArray(TAIL + 16);
+	}
+
+	/**
+	 * @return row values, a slot after another
+	 */
+	public double[] getValues() {
+		return this.values;
+	}
+
+	/**
+	 * @return number of slots
+	 */
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * Waits once according to the wait strategy
+	 * 
+	 * @param waits
+	 *            number of consecutive waits so far
+	 */
+	private void idle(int waits) {
+		switch (this.wait) {
+		case YIELD:
+			Thread.yield();
+			break;
+		case PARK:
+			if (waits >= PARK_SPINS) {
+				LockSupport.parkNanos(PARK_NANOS);
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Claims the next slot, waiting while the ring is full (producer only)
+	 * 
+	 * @return position of the slot in {@link #getValues()}, or -1 if the
+	 *         consumer stopped consuming
+	 */
+	public int claim() {
+		Producer producer = this.producer;
+		int waits = 0;
+		while (producer.tail - producer.cachedHead >= this.capacity) {
+			producer.cachedHead = this.positions.get(HEAD);
+			if (producer.tail - producer.cachedHead < this.capacity) {
+				break;
+			} else if (this.cancelled) {
+				return -1;
+			}
+			if (waits == 0) {
+				producer.fullWaits++;
+			}
+			this.idle(waits++);
+		}
+		return (int) (producer.tail & this.mask) * this.width;
+	}
+
+	/**
+	 * Publishes the claimed slot (producer only)
+	 */
+	public void publish() {
+		this.producer.tail++;
+		this.positions.lazySet(TAIL, this.producer.tail);
+	}
+
+	/**
+	 * Marks that no more rows will be published (producer only)
+	 */
+	public void close() {
+		this.closed = true;
+	}
+
+	/**
+	 * Takes the next published slot, waiting while the ring is empty (consumer
+	 * only)
+	 * 
+	 * @return position of the slot in {@link #getValues()}, or -1 if the
+	 *         producer closed the ring and all its rows were taken
+	 */
+	public int take() {
+		Consumer consumer = this.consumer;
+		int waits = 0;
+		while (consumer.head >= consumer.cachedTail) {
+			consumer.cachedTail = this.positions.get(TAIL);
+			if (consumer.head < consumer.cachedTail) {
+				break;
+			} else if (this.closed) {
+				// Read the position again, since the last rows may precede the close
+				consumer.cachedTail = this.positions.get(TAIL);
+				if (consumer.head >= consumer.cachedTail) {
+					return -1;
+				}
+				break;
+			}
+			if (waits == 0) {
+				consumer.emptyWaits++;
+			}
+			this.idle(waits++);
+		}
+		long occupancy = consumer.cachedTail - consumer.head;
+		consumer.occupancySum += occupancy;
+		consumer.maxOccupancy = Math.max(consumer.maxOccupancy, occupancy);
+		return (int) (consumer.head & this.mask) * this.width;
+	}
+
+	/**
+	 * @return number of published rows not yet released, as last seen by the
+	 *         consumer (consumer only)
+	 */
+	public long getOccupancy() {
+		return this.consumer.cachedTail - this.consumer.head;
+	}
+
+	/**
+	 * Releases the taken slot to the producer (consumer only)
+	 */
+	public void release() {
+		this.consumer.head++;
+		this.positions.lazySet(HEAD, this.consumer.head);
+	}
+
+	/**
+	 * Stops consuming, so a waiting producer gives up (consumer only)
+	 */
+	public void cancel() {
+		this.cancelled = true;
+	}
+
+	/**
+	 * Appends the occupancy metrics of the ring to a report (once both sides
+	 * stopped)
+	 * 
+	 * @param report
+	 */
+	public void report(StringBuilder report) {
+		long taken = this.consumer.head;
+		report.append("Pipeline (ring of ").append(this.capacity).append(" rows)\n");
+		report.append(" - Rows = ").append(taken).append("\n");
+		report.append(" - Occupancy: mean = ").append(taken > 0 ? 1.0 * this.consumer.occupancySum / taken : 0)
+				.append(", max = ").append(this.consumer.maxOccupancy).append("\n");
+		report.append(" - Waits of the learner on an empty ring (parse bound) = ").append(this.consumer.emptyWaits)
+				.append("\n");
+		report.append(" - Waits of the reader on a full ring (learn bound) = ").append(this.producer.fullWaits)
+				.append("\n");
+	}
+
+}
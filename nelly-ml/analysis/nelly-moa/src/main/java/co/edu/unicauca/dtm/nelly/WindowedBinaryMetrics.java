@@ -0,0 +1,163 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+/**
+ * Confusion matrices of a binary classifier over a sliding window of the last
+ * tests, with a fading factor and over all the tests
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class WindowedBinaryMetrics extends WindowedMetrics {
+
+	/**
+	 * Outcome of a true positive
+	 */
+	public static final int TRUE_POSITIVE = 0;
+
+	/**
+	 * Outcome of a true negative
+	 */
+	public static final int TRUE_NEGATIVE = 1;
+
+	/**
+	 * Outcome of a false positive
+	 */
+	public static final int FALSE_POSITIVE = 2;
+
+	/**
+	 * Outcome of a false negative
+	 */
+	public static final int FALSE_NEGATIVE = 3;
+
+	/**
+	 * Outcomes of the tests in the sliding window (ring)
+	 */
+	private final byte[] outcomes;
+
+	/**
+	 * Confusion matrix of the sliding window (indexed by outcome)
+	 */
+	private final int[] window;
+
+	/**
+	 * Faded confusion matrix (indexed by outcome)
+	 */
+	private final double[] faded;
+
+	/**
+	 * Confusion matrix of all the tests (indexed by outcome)
+	 */
+	private final long[] total;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param windowSize
+	 *            number of tests of the sliding window (and between emitted
+	 *            rows)
+	 * @param fadingFactor
+	 *            weight of the past tests in the faded metrics
+	 */
+	public WindowedBinaryMetrics(int windowSize, double fadingFactor) {
+		super(windowSize, fadingFactor);
+		this.outcomes = new byte[this.windowSize];
+		this.window = new int[4];
+		this.faded = new double[4];
+		this.total = new long[4];
+	}
+
+	/**
+	 * Adds the outcome of a test
+	 * 
+	 * @param positive
+	 *            whether the actual class is the positive one
+	 * @param correct
+	 *            whether the prediction is correct
+	 */
+	public void add(boolean positive, boolean correct) {
+		int outcome = positive ? (correct ? TRUE_POSITIVE : FALSE_NEGATIVE)
+				: (correct ? TRUE_NEGATIVE : FALSE_POSITIVE);
+		// Slide window
+		int slot = (int) (this.count % this.windowSize);
+		if (this.count >= this.windowSize) {
+			this.window[this.outcomes[slot]]--;
+		}
+		this.outcomes[slot] = (byte) outcome;
+		this.window[outcome]++;
+		// Fade past outcomes
+		for (int i = 0; i < 4; i++) {
+			this.faded[i] *= this.fadingFactor;
+		}
+		this.faded[outcome]++;
+		this.total[outcome]++;
+		this.count++;
+	}
+
+	@Override
+	public void writeCSVHeader(CSVResultSink output) {
+		StringBuilder csvHeader = new StringBuilder();
+		csvHeader.append("num_tests,");
+		csvHeader.append("num_trains,");
+		csvHeader.append("window_accuracy,");
+		csvHeader.append("window_precision,");
+		csvHeader.append("window_recall,");
+		csvHeader.append("window_f1,");
+		csvHeader.append("faded_accuracy,");
+		csvHeader.append("faded_f1,");
+		csvHeader.append("accuracy,");
+		csvHeader.append("f1");
+		output.writeLine(csvHeader);
+	}
+
+	@Override
+	public void writeCSVResult(CSVResultSink output, int numTests, int numTrains) {
+		output.field(numTests).field(numTrains);
+		this.writeMetrics(output, this.window[TRUE_POSITIVE], this.window[TRUE_NEGATIVE],
+				this.window[FALSE_POSITIVE], this.window[FALSE_NEGATIVE], true);
+		this.writeMetrics(output, this.faded[TRUE_POSITIVE], this.faded[TRUE_NEGATIVE],
+				this.faded[FALSE_POSITIVE], this.faded[FALSE_NEGATIVE], false);
+		this.writeMetrics(output, this.total[TRUE_POSITIVE], this.total[TRUE_NEGATIVE],
+				this.total[FALSE_POSITIVE], this.total[FALSE_NEGATIVE], false);
+		output.endRow();
+	}
+
+	/**
+	 * Writes accuracy, (precision and recall if detailed) and F1 score
+	 * 
+	 * @param output
+	 * @param tp
+	 * @param tn
+	 * @param fp
+	 * @param fn
+	 * @param detailed
+	 */
+	private void writeMetrics(CSVResultSink output, double tp, double tn, double fp, double fn, boolean detailed) {
+		double precision = ratio(tp, tp + fp);
+		double recall = ratio(tp, tp + fn);
+		output.field(ratio(tp + tn, tp + tn + fp + fn));
+		if (detailed) {
+			output.field(precision).field(recall);
+		}
+		output.field(ratio(2 * precision * recall, precision + recall));
+	}
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+/**
+ * Errors of a regressor (MAE and RMSE) over a sliding window of the last
+ * tests, with a fading factor and over all the tests
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class WindowedErrorMetrics extends WindowedMetrics {
+
+	/**
+	 * Absolute errors of the tests in the sliding window (ring)
+	 */
+	private final double[] errors;
+
+	/**
+	 * Faded sums of errors, square errors and weights
+	 */
+	private double fadedErrors, fadedSquareErrors, fadedWeight;
+
+	/**
+	 * Sums of errors and square errors of all the tests
+	 */
+	private double sumErrors, sumSquareErrors;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param windowSize
+	 *            number of tests of the sliding window (and between emitted
+	 *            rows)
+	 * @param fadingFactor
+	 *            weight of the past tests in the faded metrics
+	 */
+	public WindowedErrorMetrics(int windowSize, double fadingFactor) {
+		super(windowSize, fadingFactor);
+		this.errors = new double[this.windowSize];
+	}
+
+	/**
+	 * Adds the error of a test
+	 * 
+	 * @param error
+	 *            absolute error between predicted and actual values
+	 */
+	public void add(double error) {
+		this.errors[(int) (this.count % this.windowSize)] = error;
+		double squareError = error * error;
+		this.fadedErrors = this.fadingFactor * this.fadedErrors + error;
+		this.fadedSquareErrors = this.fadingFactor * this.fadedSquareErrors + squareError;
+		this.fadedWeight = this.fadingFactor * this.fadedWeight + 1;
+		this.sumErrors += error;
+		this.sumSquareErrors += squareError;
+		this.count++;
+	}
+
+	@Override
+	public void writeCSVHeader(CSVResultSink output) {
+		StringBuilder csvHeader = new StringBuilder();
+		csvHeader.append("num_tests,");
+		csvHeader.append("num_trains,");
+		csvHeader.append("window_mae,");
+		csvHeader.append("window_rmse,");
+		csvHeader.append("faded_mae,");
+		csvHeader.append("faded_rmse,");
+		csvHeader.append("mae,");
+		csvHeader.append("rmse");
+		output.writeLine(csvHeader);
+	}
+
+	@Override
+	public void writeCSVResult(CSVResultSink output, int numTests, int numTrains) {
+		// Sum window from scratch (once per window, so sums do not drift)
+		int size = (int) Math.min(this.count, this.windowSize);
+		double windowErrors = 0;
+		double windowSquareErrors = 0;
+		for (int i = 0; i < size; i++) {
+			windowErrors += this.errors[i];
+			windowSquareErrors += this.errors[i] * this.errors[i];
+		}
+		output.field(numTests).field(numTrains);
+		output.field(ratio(windowErrors, size)).field(Math.sqrt(ratio(windowSquareErrors, size)));
+		output.field(ratio(this.fadedErrors, this.fadedWeight))
+				.field(Math.sqrt(ratio(this.fadedSquareErrors, this.fadedWeight)));
+		output.field(ratio(this.sumErrors, this.count)).field(Math.sqrt(ratio(this.sumSquareErrors, this.count)));
+		output.endRow();
+	}
+
+}
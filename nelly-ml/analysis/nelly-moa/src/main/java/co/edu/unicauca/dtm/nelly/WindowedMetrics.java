@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.util.StringTokenizer;
+
+/**
+ * Prequential metrics over a sliding window of the last tests and with a
+ * fading factor, kept in primitive arrays. Instead of a row per test, a
+ * summary row is emitted every window of tests
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public abstract class WindowedMetrics {
+
+	/**
+	 * Default fading factor
+	 */
+	public static final double DEFAULT_FADING_FACTOR = 0.999;
+
+	/**
+	 * Number of tests of the sliding window (and between emitted rows)
+	 */
+	protected final int windowSize;
+
+	/**
+	 * Weight of the past tests in the faded metrics
+	 */
+	protected final double fadingFactor;
+
+	/**
+	 * Number of added tests
+	 */
+	protected long count;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param windowSize
+	 *            number of tests of the sliding window (and between emitted
+	 *            rows)
+	 * @param fadingFactor
+	 *            weight of the past tests in the faded metrics
+	 */
+	public WindowedMetrics(int windowSize, double fadingFactor) {
+		super();
+		this.windowSize = Math.max(1, windowSize);
+		this.fadingFactor = fadingFactor;
+		this.count = 0;
+	}
+
+	/**
+	 * Parses a window option, i.e., the window size optionally followed by the
+	 * fading factor (e.g., '1000' or '1000,0.99')
+	 * 
+	 * @param arg
+	 * @return window size and fading factor, or null if the option is malformed
+	 */
+	public static double[] parseOption(String arg) {
+		StringTokenizer st = new StringTokenizer(arg, ",");
+		double[] window = { 0, DEFAULT_FADING_FACTOR };
+		try {
+			window[0] = Integer.parseInt(st.nextToken());
+			if (st.hasMoreTokens()) {
+				window[1] = Double.parseDouble(st.nextToken());
+			}
+		} catch (Exception e) {
+			System.out.println("Error parsing window '" + arg + "' to integer size and double fading factor");
+			return null;
+		}
+		if (window[0] < 1 || window[1] <= 0 || window[1] > 1) {
+			System.out.println("Window size must be at least 1 and fading factor in (0, 1]");
+			return null;
+		}
+		return window;
+	}
+
+	/**
+	 * @return whether the last added test completes a window, i.e., a row must
+	 *         be emitted
+	 */
+	public boolean isWindowEnd() {
+		return this.count > 0 && this.count % this.windowSize == 0;
+	}
+
+	/**
+	 * @return whether tests were added after the last complete window
+	 */
+	public boolean hasPartialWindow() {
+		return this.count % this.windowSize != 0;
+	}
+
+	/**
+	 * @param output
+	 *            CSV output where the header of the rows is written
+	 */
+	public abstract void writeCSVHeader(CSVResultSink output);
+
+	/**
+	 * @param output
+	 *            CSV output where the summary row is written
+	 * @param numTests
+	 * @param numTrains
+	 */
+	public abstract void writeCSVResult(CSVResultSink output, int numTests, int numTrains);
+
+	/**
+	 * @param numerator
+	 * @param denominator
+	 * @return ratio (NaN if the denominator is 0)
+	 */
+	protected static double ratio(double numerator, double denominator) {
+		return denominator == 0 ? Double.NaN : numerator / denominator;
+	}
+
+}
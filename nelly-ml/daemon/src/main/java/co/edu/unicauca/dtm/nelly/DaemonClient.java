@@ -0,0 +1,236 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Blocking client of the NELLY daemon (see {@link DaemonProtocol}). Requests
+ * can be sent one by one or pipelined, i.e., several requests are sent before
+ * reading their responses. Not thread-safe
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class DaemonClient {
+
+	/**
+	 * 
+	 */
+	private final SocketChannel channel;
+
+	/**
+	 * 
+	 */
+	private ByteBuffer out;
+
+	/**
+	 * 
+	 */
+	private ByteBuffer in;
+
+	/**
+	 * Number of attributes of the instances
+	 */
+	private final int numAttributes;
+
+	/**
+	 * Index of the class attribute
+	 */
+	private final int classIndex;
+
+	/**
+	 * Id of the next request
+	 */
+	private int nextId;
+
+	/**
+	 * Constructor. Connects to the daemon on the loopback interface
+	 * 
+	 * @param port
+	 * @throws IOException
+	 *             if the daemon is not reachable or speaks another protocol
+	 */
+	public DaemonClient(int port) throws IOException {
+		super();
+		this.channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+		this.channel.socket().setTcpNoDelay(true);
+		this.out = ByteBuffer.allocate(64 << 10);
+		this.in = ByteBuffer.allocate(64 << 10);
+		this.in.limit(0);
+		// Read hello
+		this.fill(DaemonProtocol.HELLO_LENGTH);
+		if (this.in.getInt() != DaemonProtocol.MAGIC) {
+			throw new IOException("Peer is not a NELLY daemon");
+		}
+		short version = this.in.getShort();
+		if (version != DaemonProtocol.VERSION) {
+			throw new IOException("Version " + version + " of the protocol is not supported");
+		}
+		this.numAttributes = this.in.getShort();
+		this.classIndex = this.in.getShort();
+		this.in.getShort();
+		this.nextId = 0;
+	}
+
+	/**
+	 * @return number of attributes of the instances
+	 */
+	public int getNumAttributes() {
+		return this.numAttributes;
+	}
+
+	/**
+	 * @return index of the class attribute
+	 */
+	public int getClassIndex() {
+		return this.classIndex;
+	}
+
+	/**
+	 * @param values
+	 *            values of all the attributes (the class is ignored)
+	 * @return votes of the learner for the instance
+	 * @throws IOException
+	 */
+	public double[] predict(double[] values) throws IOException {
+		int id = this.send(DaemonProtocol.PREDICT, values);
+		this.flush();
+		return this.receive(id);
+	}
+
+	/**
+	 * @param values
+	 *            values of all the attributes, including the class
+	 * @throws IOException
+	 */
+	public void train(double[] values) throws IOException {
+		int id = this.send(DaemonProtocol.TRAIN, values);
+		this.flush();
+		this.receive(id);
+	}
+
+	/**
+	 * Buffers a request (sent on {@link #flush()})
+	 * 
+	 * @param type
+	 *            {@link DaemonProtocol#PREDICT} or {@link DaemonProtocol#TRAIN}
+	 * @param values
+	 * @return id of the request
+	 * @throws IOException
+	 */
+	public int send(byte type, double[] values) throws IOException {
+		int size = DaemonProtocol.requestSize(values.length);
+		if (this.out.remaining() < size) {
+			this.flush();
+			if (this.out.capacity() < size) {
+				this.out = ByteBuffer.allocate(size);
+			}
+		}
+		int id = this.nextId++;
+		DaemonProtocol.putRequest(this.out, type, id, values);
+		return id;
+	}
+
+	/**
+	 * Sends the buffered requests
+	 * 
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		this.out.flip();
+		while (this.out.hasRemaining()) {
+			this.channel.write(this.out);
+		}
+		this.out.clear();
+	}
+
+	/**
+	 * Reads the next response, which must be the one of the given request
+	 * 
+	 * @param id
+	 * @return votes of predictions (null for trainings)
+	 * @throws IOException
+	 *             if the request failed
+	 */
+	public double[] receive(int id) throws IOException {
+		this.fill(4);
+		int length = this.in.getInt();
+		this.fill(length);
+		byte type = this.in.get();
+		int responseId = this.in.getInt();
+		byte status = this.in.get();
+		if (responseId != id) {
+			throw new IOException("Response " + responseId + " does not match request " + id);
+		}
+		if (status != DaemonProtocol.OK) {
+			byte[] message = new byte[this.in.getShort() & 0xFFFF];
+			this.in.get(message);
+			throw new IOException(new String(message, DaemonProtocol.CHARSET));
+		}
+		if (type != DaemonProtocol.PREDICT) {
+			return null;
+		}
+		double[] votes = new double[this.in.getShort() & 0xFFFF];
+		for (int i = 0; i < votes.length; i++) {
+			votes[i] = this.in.getDouble();
+		}
+		return votes;
+	}
+
+	/**
+	 * Reads until the given number of bytes are available
+	 * 
+	 * @param size
+	 * @throws IOException
+	 */
+	private void fill(int size) throws IOException {
+		if (this.in.remaining() >= size) {
+			return;
+		}
+		this.in.compact();
+		if (this.in.capacity() < size) {
+			ByteBuffer grown = ByteBuffer.allocate(size);
+			this.in.flip();
+			grown.put(this.in);
+			this.in = grown;
+		}
+		while (this.in.position() < size) {
+			if (this.channel.read(this.in) < 0) {
+				throw new IOException("Daemon closed the connection");
+			}
+		}
+		this.in.flip();
+	}
+
+	/**
+	 * Closes the connection
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		this.channel.close();
+	}
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Connection of a client to the NELLY daemon, with its buffers of received
+ * bytes (requests) and bytes to send (responses)
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class DaemonConnection {
+
+	/**
+	 * Initial size of the buffers
+	 */
+	private static final int BUFFER_SIZE = 64 << 10;
+
+	/**
+	 * 
+	 */
+	private final SocketChannel channel;
+
+	/**
+	 * Received bytes not decoded yet (in write mode)
+	 */
+	private ByteBuffer in;
+
+	/**
+	 * Bytes to send (in write mode)
+	 */
+	private ByteBuffer out;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param channel
+	 */
+	public DaemonConnection(SocketChannel channel) {
+		super();
+		this.channel = channel;
+		this.in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		this.out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	}
+
+	/**
+	 * @return the channel
+	 */
+	public SocketChannel getChannel() {
+		return this.channel;
+	}
+
+	/**
+	 * Reads the available bytes
+	 * 
+	 * @return number of bytes read, or -1 if the client closed the connection
+	 * @throws IOException
+	 */
+	public int read() throws IOException {
+		if (!this.in.hasRemaining()) {
+			this.in = DaemonConnection.grow(this.in, this.in.capacity());
+		}
+		return this.channel.read(this.in);
+	}
+
+	/**
+	 * @return received bytes, in read mode (must be followed by
+	 *         {@link #compactIn()})
+	 */
+	public ByteBuffer flipIn() {
+		this.in.flip();
+		return this.in;
+	}
+
+	/**
+	 * Discards decoded bytes and returns the received bytes to write mode
+	 */
+	public void compactIn() {
+		this.in.compact();
+	}
+
+	/**
+	 * @param size
+	 *            number of bytes to write
+	 * @return buffer of bytes to send with room for the given size
+	 */
+	public ByteBuffer out(int size) {
+		if (this.out.remaining() < size) {
+			this.out = DaemonConnection.grow(this.out, size);
+		}
+		return this.out;
+	}
+
+	/**
+	 * @return whether there are bytes to send
+	 */
+	public boolean hasPendingOut() {
+		return this.out.position() > 0;
+	}
+
+	/**
+	 * Sends as many pending bytes as the socket accepts
+	 * 
+	 * @return whether all the pending bytes were sent
+	 * @throws IOException
+	 */
+	public boolean flush() throws IOException {
+		this.out.flip();
+		try {
+			this.channel.write(this.out);
+			return !this.out.hasRemaining();
+		} finally {
+			this.out.compact();
+		}
+	}
+
+	/**
+	 * Closes the connection
+	 */
+	public void close() {
+		try {
+			this.channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @param buffer
+	 *            buffer in write mode
+	 * @param extra
+	 *            number of additional bytes
+	 * @return copy of the buffer with room for the additional bytes
+	 */
+	private static ByteBuffer grow(ByteBuffer buffer, int extra) {
+		ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(2 * buffer.capacity(), buffer.position() + extra));
+		buffer.flip();
+		grown.put(buffer);
+		return grown;
+	}
+
+}
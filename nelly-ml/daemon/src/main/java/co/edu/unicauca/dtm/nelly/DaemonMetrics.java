@@ -0,0 +1,234 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.ObjectName;
+
+/**
+ * JMX bean of the live metrics of a daemon. The thread that owns the model
+ * records the service time of each request in a histogram of its own and
+ * publishes the counters with ordered stores after each micro-batch; the
+ * percentiles and the rate are published once per second. The model size is
+ * the serialized size of the last written snapshot, since walking the object graph of
+ * the learner would stall every connection of the serving thread
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class DaemonMetrics implements DaemonMetricsMBean {
+
+	/**
+	 * Time of the windows of the rate and the percentiles (in milliseconds)
+	 */
+	public static final long WINDOW_MILLIS = 1000;
+
+	/**
+	 * Indexes of the published values
+	 */
+	private static final int PREDICTIONS = 0, TRAININGS = 1, ERRORS = 2, CONNECTIONS = 3, LAST_BATCH = 4,
+			MAX_BATCH = 5, SERVICE_P50 = 6, SERVICE_P99 = 7, MODEL_BYTES = 8, WINDOW_REQUESTS = 9, WINDOW_NANOS = 10;
+
+	/**
+	 * Name of the served learner
+	 */
+	private final String learnerName;
+
+	/**
+	 * Published values
+	 */
+	private final AtomicLongArray values = new AtomicLongArray(11);
+
+	/**
+	 * Service times of the requests of the current window (owner thread only)
+	 */
+	private final LatencyHistogram service = new LatencyHistogram();
+
+	/**
+	 * Start time and served requests of the current window, and served requests
+	 * so far (owner thread only)
+	 */
+	private long windowStart, windowStartRequests, requests;
+
+	/**
+	 * Maximum number of requests of a micro-batch (owner thread only)
+	 */
+	private long maxBatch;
+
+	/**
+	 * Name of the registered bean (null if not registered)
+	 */
+	private ObjectName name;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param learnerName
+	 *            name of the served learner
+	 */
+	public DaemonMetrics(String learnerName) {
+		super();
+		this.learnerName = learnerName;
+		this.values.set(MODEL_BYTES, -1);
+		this.windowStart = System.nanoTime();
+	}
+
+	/**
+	 * Registers the bean of a daemon in the platform MBean server
+	 * 
+	 * @param learnerName
+	 *            name of the served learner
+	 * @return bean of the daemon (published even if it could not be registered)
+	 */
+	public static DaemonMetrics register(String learnerName) {
+		DaemonMetrics metrics = new DaemonMetrics(learnerName);
+		metrics.name = MOAUtilities.registerMBean(metrics, "Daemon", learnerName);
+		return metrics;
+	}
+
+	/**
+	 * Unregisters the bean from the platform MBean server
+	 */
+	public void unregister() {
+		MOAUtilities.unregisterMBean(this.name);
+		this.name = null;
+	}
+
+	/**
+	 * Records the service time of a request (owner thread)
+	 * 
+	 * @param nanos
+	 *            service time (in nanoseconds)
+	 */
+	public void recordService(long nanos) {
+		this.service.record(nanos);
+	}
+
+	/**
+	 * Publishes the counters after a micro-batch (owner thread)
+	 * 
+	 * @param predictions
+	 * @param trainings
+	 * @param errors
+	 * @param batchSize
+	 *            number of requests of the micro-batch (positive)
+	 */
+	public void publish(long predictions, long trainings, long errors, int batchSize) {
+		this.values.lazySet(PREDICTIONS, predictions);
+		this.values.lazySet(TRAININGS, trainings);
+		this.values.lazySet(ERRORS, errors);
+		this.values.lazySet(LAST_BATCH, batchSize);
+		if (batchSize > this.maxBatch) {
+			this.maxBatch = batchSize;
+			this.values.lazySet(MAX_BATCH, batchSize);
+		}
+		this.requests = predictions + trainings + errors;
+	}
+
+	/**
+	 * Publishes the number of connections and, once its window is over, the rate
+	 * and the percentiles (owner thread, at least once per window)
+	 * 
+	 * @param connections
+	 *            number of open connections
+	 */
+	public void roll(int connections) {
+		this.values.lazySet(CONNECTIONS, connections);
+		// Check if the window is over
+		long now = System.nanoTime();
+		if (now - this.windowStart < WINDOW_MILLIS * 1000000L) {
+			return;
+		}
+		this.values.lazySet(WINDOW_REQUESTS, this.requests - this.windowStartRequests);
+		this.values.lazySet(WINDOW_NANOS, now - this.windowStart);
+		this.values.lazySet(SERVICE_P50, this.service.getValueAtPercentile(50));
+		this.values.lazySet(SERVICE_P99, this.service.getValueAtPercentile(99));
+		this.service.reset();
+		this.windowStart = now;
+		this.windowStartRequests = this.requests;
+	}
+
+	/**
+	 * @param bytes
+	 *            byte size of the learner at its last memory sample or last
+	 *            written snapshot
+	 */
+	public void publishModelBytes(long bytes) {
+		this.values.lazySet(MODEL_BYTES, bytes);
+	}
+
+	@Override
+	public String getLearner() {
+		return this.learnerName;
+	}
+
+	@Override
+	public long getPredictions() {
+		return this.values.get(PREDICTIONS);
+	}
+
+	@Override
+	public long getTrainings() {
+		return this.values.get(TRAININGS);
+	}
+
+	@Override
+	public long getErrors() {
+		return this.values.get(ERRORS);
+	}
+
+	@Override
+	public double getRequestsPerSecond() {
+		long nanos = this.values.get(WINDOW_NANOS);
+		return nanos > 0 ? 1e9 * this.values.get(WINDOW_REQUESTS) / nanos : 0;
+	}
+
+	@Override
+	public long getConnections() {
+		return this.values.get(CONNECTIONS);
+	}
+
+	@Override
+	public long getLastBatchSize() {
+		return this.values.get(LAST_BATCH);
+	}
+
+	@Override
+	public long getMaxBatchSize() {
+		return this.values.get(MAX_BATCH);
+	}
+
+	@Override
+	public long getServiceP50Nanos() {
+		return this.values.get(SERVICE_P50);
+	}
+
+	@Override
+	public long getServiceP99Nanos() {
+		return this.values.get(SERVICE_P99);
+	}
+
+	@Override
+	public long getModelBytes() {
+		return this.values.get(MODEL_BYTES);
+	}
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+/**
+ * Live metrics of a running daemon, readable through JMX (e.g., from
+ * JConsole). Counters are published by the thread that owns the model after
+ * each micro-batch, and the rate and the percentiles once per second
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public interface DaemonMetricsMBean {
+
+	/**
+	 * @return name of the served learner
+	 */
+	public String getLearner();
+
+	/**
+	 * @return number of served predictions
+	 */
+	public long getPredictions();
+
+	/**
+	 * @return number of served trainings
+	 */
+	public long getTrainings();
+
+	/**
+	 * @return number of failed or malformed requests
+	 */
+	public long getErrors();
+
+	/**
+	 * @return number of served requests per second over the last second
+	 */
+	public double getRequestsPerSecond();
+
+	/**
+	 * @return number of open connections
+	 */
+	public long getConnections();
+
+	/**
+	 * @return number of requests of the last micro-batch
+	 */
+	public long getLastBatchSize();
+
+	/**
+	 * @return maximum number of requests of a micro-batch so far
+	 */
+	public long getMaxBatchSize();
+
+	/**
+	 * @return median service time of a request over the last second (in
+	 *         nanoseconds)
+	 */
+	public long getServiceP50Nanos();
+
+	/**
+	 * @return 99th percentile of the service time of a request over the last
+	 *         second (in nanoseconds)
+	 */
+	public long getServiceP99Nanos();
+
+	/**
+	 * @return byte size of the learner at its last memory sample or, without
+	 *         memory samples, serialized size at its last written snapshot
+	 *         (-1 if neither was taken)
+	 */
+	public long getModelBytes();
+
+}
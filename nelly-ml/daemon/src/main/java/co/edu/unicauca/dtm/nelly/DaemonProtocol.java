@@ -0,0 +1,197 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Binary protocol of the NELLY daemon (version 1). All numbers are big-endian
+ * (network order) and every message is a frame prefixed by its length, i.e.,
+ * the number of bytes after the length field (int):
+ * <ul>
+ * <li>Hello (sent by the daemon on connection): magic (int), version (short),
+ * number of attributes (short), class index (short) and number of class values
+ * (short)</li>
+ * <li>Request: length (int), type (byte), request id (int), number of values
+ * (short) and values (doubles). Values are all the attributes of the header,
+ * in order, including the class (which is ignored when predicting); NaN is a
+ * missing value</li>
+ * <li>Response: length (int), type (byte), request id (int) and status
+ * (byte), followed by the number of votes (short) and the votes (doubles) of
+ * successful predictions, or by the length (short) and bytes (UTF-8) of the
+ * message of errors</li>
+ * </ul>
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class DaemonProtocol {
+
+	/**
+	 * Magic of the hello message ('NELY')
+	 */
+	public static final int MAGIC = 0x4E454C59;
+
+	/**
+	 * Version of the protocol
+	 */
+	public static final short VERSION = 1;
+
+	/**
+	 * Length of the hello message
+	 */
+	public static final int HELLO_LENGTH = 12;
+
+	/**
+	 * Request to predict the class of an instance
+	 */
+	public static final byte PREDICT = 1;
+
+	/**
+	 * Request to train on an instance
+	 */
+	public static final byte TRAIN = 2;
+
+	/**
+	 * Status of successful requests
+	 */
+	public static final byte OK = 0;
+
+	/**
+	 * Status of failed requests
+	 */
+	public static final byte ERROR = 1;
+
+	/**
+	 * Bytes of a request before its values (after the length field)
+	 */
+	public static final int REQUEST_HEADER = 7;
+
+	/**
+	 * Maximum number of values of a request
+	 */
+	public static final int MAX_VALUES = Short.MAX_VALUE;
+
+	/**
+	 * Charset of error messages
+	 */
+	public static final Charset CHARSET = Charset.forName("UTF-8");
+
+	/**
+	 * Writes the hello message
+	 * 
+	 * @param buffer
+	 * @param numAttributes
+	 * @param classIndex
+	 * @param numClasses
+	 */
+	public static void putHello(ByteBuffer buffer, int numAttributes, int classIndex, int numClasses) {
+		buffer.putInt(MAGIC);
+		buffer.putShort(VERSION);
+		buffer.putShort((short) numAttributes);
+		buffer.putShort((short) classIndex);
+		buffer.putShort((short) numClasses);
+	}
+
+	/**
+	 * Writes a request
+	 * 
+	 * @param buffer
+	 * @param type
+	 * @param id
+	 * @param values
+	 */
+	public static void putRequest(ByteBuffer buffer, byte type, int id, double[] values) {
+		buffer.putInt(REQUEST_HEADER + 8 * values.length);
+		buffer.put(type);
+		buffer.putInt(id);
+		buffer.putShort((short) values.length);
+		for (double value : values) {
+			buffer.putDouble(value);
+		}
+	}
+
+	/**
+	 * Writes a successful response
+	 * 
+	 * @param buffer
+	 * @param type
+	 * @param id
+	 * @param votes
+	 *            votes of a prediction (null for no votes, e.g., when training)
+	 */
+	public static void putResponse(ByteBuffer buffer, byte type, int id, double[] votes) {
+		int numVotes = votes == null ? 0 : votes.length;
+		buffer.putInt(6 + (votes == null ? 0 : 2 + 8 * numVotes));
+		buffer.put(type);
+		buffer.putInt(id);
+		buffer.put(OK);
+		if (votes != null) {
+			buffer.putShort((short) numVotes);
+			for (double vote : votes) {
+				buffer.putDouble(vote);
+			}
+		}
+	}
+
+	/**
+	 * Writes a failed response
+	 * 
+	 * @param buffer
+	 * @param type
+	 * @param id
+	 * @param message
+	 */
+	public static void putError(ByteBuffer buffer, byte type, int id, String message) {
+		byte[] bytes = message.getBytes(CHARSET);
+		buffer.putInt(8 + bytes.length);
+		buffer.put(type);
+		buffer.putInt(id);
+		buffer.put(ERROR);
+		buffer.putShort((short) bytes.length);
+		buffer.put(bytes);
+	}
+
+	/**
+	 * @param numVotes
+	 * @return maximum number of bytes of a response (including its length field)
+	 */
+	public static int responseSize(int numVotes) {
+		return 4 + 8 + 8 * numVotes;
+	}
+
+	/**
+	 * @param message
+	 * @return number of bytes of an error response (including its length field)
+	 */
+	public static int errorSize(String message) {
+		return 4 + 8 + message.getBytes(CHARSET).length;
+	}
+
+	/**
+	 * @param numValues
+	 * @return number of bytes of a request (including its length field)
+	 */
+	public static int requestSize(int numValues) {
+		return 4 + REQUEST_HEADER + 8 * numValues;
+	}
+
+}
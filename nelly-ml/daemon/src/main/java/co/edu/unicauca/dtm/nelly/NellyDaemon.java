@@ -0,0 +1,843 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.nelly;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import moa.classifiers.Classifier;
+
+/**
+ * Long-running daemon that holds an incrementally trained classifier and
+ * serves predict and train requests of local clients (see
+ * {@link DaemonProtocol}). A single thread owns the model: on every wake up it
+ * reads the requests of all the ready connections and processes them as a
+ * micro-batch, in arrival order, so system calls are amortized over many
+ * requests
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class NellyDaemon {
+
+	/**
+	 * Default port of the daemon
+	 */
+	public static final int DEFAULT_PORT = 7410;
+
+	/**
+	 * Default maximum number of requests of a micro-batch
+	 */
+	public static final int DEFAULT_BATCH = 256;
+
+	/**
+	 * 
+	 */
+	private static final Map<String, Integer> options;
+	static {
+		options = new HashMap<String, Integer>();
+		options.put("--help", 0);
+		options.put("--arff", 1);
+		options.put("--learner", 2);
+		options.put("--idxClass", 3);
+		options.put("--idxTrain", 4);
+		options.put("--port", 5);
+		options.put("--batch", 6);
+		options.put("--snapshot", 7);
+		options.put("--snapInterval", 8);
+		options.put("--resume", 9);
+		options.put("--memory", 10);
+		options.put("--memOut", 11);
+	}
+
+	/**
+	 * Name of the learner (stored in snapshots)
+	 */
+	private final String learnerName;
+
+	/**
+	 * 
+	 */
+	private Classifier learner;
+
+	/**
+	 * Header of the instances of the learner
+	 */
+	private final InstancesHeader header;
+
+	/**
+	 * Whether training instances must be copied because the learner keeps them
+	 */
+	private final boolean copyOnTrain;
+
+	/**
+	 * Reusable instance for decoding requests
+	 */
+	private final Instance instance;
+
+	/**
+	 * Maximum number of requests of a micro-batch
+	 */
+	private final int maxBatch;
+
+	/**
+	 * Connections of the requests of the micro-batch
+	 */
+	private final DaemonConnection[] batchConnections;
+
+	/**
+	 * Types of the requests of the micro-batch
+	 */
+	private final byte[] batchTypes;
+
+	/**
+	 * Ids of the requests of the micro-batch
+	 */
+	private final int[] batchIds;
+
+	/**
+	 * Values of the requests of the micro-batch
+	 */
+	private final double[][] batchValues;
+
+	/**
+	 * Number of requests of the micro-batch
+	 */
+	private int batchSize;
+
+	/**
+	 * Counters of served requests
+	 */
+	private long countPredictions, countTrainings, countErrors;
+
+	/**
+	 * Whether the daemon keeps serving
+	 */
+	private volatile boolean running;
+
+	/**
+	 * Released once serving stopped and the last snapshot was written
+	 */
+	private final CountDownLatch stopped = new CountDownLatch(1);
+
+	/**
+	 * Whether serving started
+	 */
+	private volatile boolean started;
+
+	/**
+	 * 
+	 */
+	private Selector selector;
+
+	/**
+	 * Writer of snapshots (null for no snapshots)
+	 */
+	private SnapshotWriter snapshots;
+
+	/**
+	 * Number of trainings between snapshots
+	 */
+	private int snapshotInterval;
+
+	/**
+	 * Sampler of the byte size of the learner (null for no sampling)
+	 */
+	private MemoryBudget memory;
+
+	/**
+	 * Live metrics of the daemon, readable through JMX (null while not serving)
+	 */
+	private DaemonMetrics metrics;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param learnerName
+	 *            name of the learner
+	 * @param learner
+	 *            learner (not prepared yet)
+	 * @param header
+	 *            header of the instances of the learner
+	 * @param maxBatch
+	 *            maximum number of requests of a micro-batch
+	 */
+	public NellyDaemon(String learnerName, Classifier learner, InstancesHeader header, int maxBatch) {
+		super();
+		this.learnerName = learnerName;
+		// Set header to learner
+		learner.setModelContext(header);
+		learner.prepareForUse();
+		// Set header again to avoid null pointer exception of some algorithms (e.g.,
+		// SAM-kNN)
+		learner.setModelContext(header);
+		this.learner = learner;
+		this.header = header;
+		this.copyOnTrain = MOAUtilities.retainsInstances(learner);
+		this.instance = new DenseInstance(1.0, new double[header.numAttributes()]);
+		this.instance.setDataset(header);
+		// Allocate micro-batch
+		this.maxBatch = Math.max(1, maxBatch);
+		this.batchConnections = new DaemonConnection[this.maxBatch];
+		this.batchTypes = new byte[this.maxBatch];
+		this.batchIds = new int[this.maxBatch];
+		this.batchValues = new double[this.maxBatch][header.numAttributes()];
+		this.batchSize = 0;
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// Define default arguments
+		String arffPath = System.getProperty("user.home") + File.separator + "data.arff";
+		String learnerName = "hoeffding";
+		int indexClass = -1;
+		int indexTrain = -1;
+		int port = DEFAULT_PORT;
+		int maxBatch = DEFAULT_BATCH;
+		String snapshotPath = null;
+		int snapshotInterval = 100000;
+		String resumePath = null;
+		long[] memory = null;
+		String memoryPath = System.getProperty("user.home") + File.separator + "daemon-memory.csv";
+		// Get parameters from arguments
+		for (int i = 0; i < args.length; i++) {
+			// Check that given option exists
+			int option = 0;
+			if (NellyDaemon.options.containsKey(args[i])) {
+				option = NellyDaemon.options.get(args[i]);
+			} else {
+				System.out.println("Option '" + args[i] + "' does not exist");
+				NellyDaemon.printHelp();
+				System.exit(1);
+			}
+			// Set parameter corresponding to option
+			switch (option) {
+			// Help
+			case 0:
+				NellyDaemon.printHelp();
+				System.exit(0);
+				break;
+			// ARFF
+			case 1:
+				i++;
+				arffPath = args[i];
+				break;
+			// LEARNER
+			case 2:
+				i++;
+				learnerName = args[i];
+				break;
+			// INDEX CLASS
+			case 3:
+				i++;
+				indexClass = NellyDaemon.parseInt("idxClass", args[i]);
+				break;
+			// INDEX TRAIN
+			case 4:
+				i++;
+				// Check if the header has no column that marks training instances
+				if (args[i].equals("none")) {
+					indexTrain = -2;
+				} else {
+					indexTrain = NellyDaemon.parseInt("idxTrain", args[i]);
+				}
+				break;
+			// PORT
+			case 5:
+				i++;
+				port = NellyDaemon.parseInt("port", args[i]);
+				break;
+			// BATCH
+			case 6:
+				i++;
+				maxBatch = NellyDaemon.parseInt("batch", args[i]);
+				break;
+			// SNAPSHOT
+			case 7:
+				i++;
+				snapshotPath = args[i];
+				break;
+			// SNAPSHOT INTERVAL
+			case 8:
+				i++;
+				snapshotInterval = NellyDaemon.parseInt("snapInterval", args[i]);
+				break;
+			// RESUME
+			case 9:
+				i++;
+				resumePath = args[i];
+				break;
+			// MEMORY
+			case 10:
+				i++;
+				// Parse number of trainings between memory samples and memory budget
+				memory = MemoryBudget.parseOption(args[i]);
+				if (memory == null || !MemoryBudget.checkAgent(memory)) {
+					NellyDaemon.printHelp();
+					System.exit(1);
+				}
+				break;
+			// MEMORY OUTPUT
+			case 11:
+				i++;
+				memoryPath = args[i];
+				break;
+			// ERROR
+			default:
+				System.err.println(
+						"Internal error. Option '" + option + "' is not implemented. Please, contact the developer");
+				System.exit(2);
+				break;
+			}
+		}
+		// Check if ARFF path exists
+		if (!new File(arffPath).exists()) {
+			System.out.println("File path '" + arffPath + "' does not exist");
+			NellyDaemon.printHelp();
+			System.exit(1);
+		}
+		// Get header of the instances (without the column that marks training
+		// instances)
+		RowStream stream = MOAUtilities.readStream(arffPath, indexClass);
+		InstancesHeader ih = stream.getHeader();
+		stream.close();
+		if (indexTrain == -1) {
+			indexTrain = ih.numAttributes() - 1;
+		}
+		if (indexTrain >= 0) {
+			ih.deleteAttributeAt(indexTrain);
+		}
+		InstancesHeader header = new InstancesHeader(ih);
+		// Serve (until the process is terminated)
+		final NellyDaemon daemon = new NellyDaemon(learnerName, MOABinClassifier.getLearner(learnerName), header,
+				maxBatch);
+		// Warm start from snapshot
+		if (resumePath != null) {
+			try {
+				daemon.restore(new File(resumePath));
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.err.println("Error reading snapshot '" + resumePath + "'");
+				System.exit(1);
+			}
+		}
+		if (snapshotPath != null) {
+			daemon.setSnapshots(new File(snapshotPath), snapshotInterval);
+		}
+		if (memory != null) {
+			daemon.setMemory(MOAUtilities.getFile(memoryPath, "daemon-memory.csv"), (int) memory[0], memory[1]);
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				// Wait for the last snapshot, since the JVM does not wait for the serving thread
+				daemon.stop();
+				daemon.awaitStopped();
+			}
+		});
+		try {
+			daemon.serve(port);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Error serving on port " + port);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @param name
+	 * @param arg
+	 * @return parsed integer (exits if the argument is not an integer)
+	 */
+	private static int parseInt(String name, String arg) {
+		try {
+			return Integer.parseInt(arg);
+		} catch (Exception e) {
+			System.out.println("Error parsing " + name + " '" + arg + "' to integer");
+			NellyDaemon.printHelp();
+			System.exit(1);
+			return 0;
+		}
+	}
+
+	/**
+	 * Prints help
+	 */
+	private static void printHelp() {
+		System.out.println("");
+		System.out.println("==============");
+		System.out.println("NELLY - Daemon");
+		System.out.println("==============");
+		System.out.println("Options:");
+		System.out.println("  --help\tDisplay this help");
+		System.out.println("  --arff\tARFF (or columnar) file whose header defines the instances");
+		System.out.println("  --learner\tClassifier model (any learner of the binary classifier)");
+		System.out.println("  --idxClass\tIndex of the class column (default -1, i.e., second-last column)");
+		System.out.println("  --idxTrain\tIndex of the column that marks training instances, removed from the");
+		System.out.println("\t\theader (default -1, i.e., last column; 'none' if there is no such column)");
+		System.out.println("  --port\tLocal (loopback) port to listen on (default " + DEFAULT_PORT + ")");
+		System.out.println("  --batch\tMaximum number of requests of a micro-batch (default " + DEFAULT_BATCH + ")");
+		System.out.println("  --snapshot\tFile to periodically write a snapshot of the learner");
+		System.out.println("  --snapInterval\tNumber of trainings between snapshots (default 100000). Each snapshot");
+		System.out.println("\t\tcopies the learner on the serving thread, pausing requests meanwhile, and");
+		System.out.println("\t\tserializes the copy in background");
+		System.out.println("  --resume\tSnapshot to warm start the learner from");
+		System.out.println("  --memory\tNumber of trainings between samples of the byte size of the learner and");
+		System.out.println("\t\toptionally a budget in bytes, e.g., '100000,512m'. Each sample measures the");
+		System.out.println("\t\tlearner on the serving thread, pausing requests meanwhile. Requires the JVM");
+		System.out.println("\t\toption -javaagent:sizeofag.jar, otherwise sizes are not measured and budgets");
+		System.out.println("\t\tare refused");
+		System.out.println("  --memOut\tCSV file of the memory samples (default ~/daemon-memory.csv)");
+	}
+
+	/**
+	 * Enables periodic snapshots of the learner
+	 * 
+	 * @param file
+	 *            file of the snapshots
+	 * @param interval
+	 *            number of trainings between snapshots
+	 */
+	public void setSnapshots(File file, int interval) {
+		this.snapshots = new SnapshotWriter(file);
+		this.snapshotInterval = Math.max(1, interval);
+	}
+
+	/**
+	 * Enables periodic samples of the byte size of the learner and, if a budget
+	 * is given, keeps the learner under it (after restoring, before serving)
+	 * 
+	 * @param file
+	 *            CSV file of the samples
+	 * @param interval
+	 *            number of trainings between samples
+	 * @param budget
+	 *            maximum number of bytes of the learner (0 for no budget)
+	 */
+	public void setMemory(File file, int interval, long budget) {
+		this.memory = new MemoryBudget(file, Math.max(1, interval), budget);
+		this.memory.configure(this.learner);
+	}
+
+	/**
+	 * Restores the learner and the counters from a snapshot (before serving)
+	 * 
+	 * @param file
+	 * @throws IOException
+	 *             if the snapshot cannot be read or is of another learner
+	 */
+	public void restore(File file) throws IOException {
+		Snapshot snapshot = Snapshot.read(file);
+		if (!this.learnerName.equals(snapshot.getLearnerName())) {
+			throw new IOException("Snapshot is of learner " + snapshot.getLearnerName() + ", not " + this.learnerName);
+		}
+		this.learner = (Classifier) snapshot.getLearner();
+		this.countPredictions = snapshot.getCounters()[0];
+		this.countTrainings = snapshot.getCounters()[1];
+		this.countErrors = snapshot.getCounters()[2];
+		System.out.println("Learner " + this.learnerName + " restored after " + this.countTrainings + " trainings");
+	}
+
+	/**
+	 * Captures a snapshot of a copy of the learner and the counters, serialized
+	 * in background
+	 */
+	private void snapshot() {
+		long[] counters = { this.countPredictions, this.countTrainings, this.countErrors };
+		this.snapshots.capture(
+				new Snapshot(this.learnerName, this.learner.copy(), this.countTrainings, counters, null));
+		// Publish the model size from the last written snapshot, unless measured by memory samples
+		long bytes = this.snapshots.getLastBytes();
+		if (this.metrics != null && this.memory == null && bytes >= 0) {
+			this.metrics.publishModelBytes(bytes);
+		}
+	}
+
+	/**
+	 * Samples the byte size of the learner, reducing it if over the budget
+	 */
+	private void sampleMemory() {
+		this.memory.sample(this.learner, this.countTrainings, (int) this.countPredictions, (int) this.countTrainings);
+		if (this.metrics != null && this.memory.getLastBytes() > 0) {
+			this.metrics.publishModelBytes(this.memory.getLastBytes());
+		}
+	}
+
+	/**
+	 * Serves requests on the loopback interface until {@link #stop()} is called
+	 * 
+	 * @param port
+	 * @throws IOException
+	 */
+	public void serve(int port) throws IOException {
+		this.started = true;
+		try {
+			this.serveImpl(port);
+		} finally {
+			this.stopped.countDown();
+		}
+	}
+
+	/**
+	 * @param port
+	 * @throws IOException
+	 */
+	private void serveImpl(int port) throws IOException {
+		this.selector = Selector.open();
+		ServerSocketChannel server = ServerSocketChannel.open();
+		try {
+			server.socket().setReuseAddress(true);
+			server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+			server.configureBlocking(false);
+			server.register(this.selector, SelectionKey.OP_ACCEPT);
+			System.out.println("NELLY daemon listening on " + server.socket().getLocalSocketAddress() + " (attributes: "
+					+ this.header.numAttributes() + ", class index: " + this.header.classIndex() + ")");
+			this.metrics = DaemonMetrics.register(this.learnerName);
+			this.running = true;
+			while (this.running) {
+				// Wake up at least once per window to keep the live metrics current
+				this.selector.select(DaemonMetrics.WINDOW_MILLIS);
+				Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						this.accept(server);
+					} else {
+						DaemonConnection connection = (DaemonConnection) key.attachment();
+						if (key.isReadable() && !this.receive(key, connection)) {
+							continue;
+						}
+						if (key.isWritable()) {
+							this.send(key, connection);
+						}
+					}
+				}
+				// Process received requests as micro-batches
+				this.processConnections();
+				// Publish live metrics (the server socket is not a connection)
+				this.metrics.roll(this.selector.keys().size() - 1);
+			}
+		} finally {
+			for (SelectionKey key : this.selector.keys()) {
+				if (key.attachment() != null) {
+					((DaemonConnection) key.attachment()).close();
+				}
+			}
+			server.close();
+			this.selector.close();
+			if (this.metrics != null) {
+				this.metrics.unregister();
+				this.metrics = null;
+			}
+			// Capture last snapshot
+			if (this.snapshots != null) {
+				this.snapshot();
+				this.snapshots.close();
+			}
+			System.out.println("NELLY daemon stopped (predictions: " + this.countPredictions + ", trainings: "
+					+ this.countTrainings + ", errors: " + this.countErrors + ")");
+			// Sample last memory
+			if (this.memory != null) {
+				this.memory.sample(this.learner, this.countTrainings, (int) this.countPredictions,
+						(int) this.countTrainings);
+				StringBuilder report = new StringBuilder();
+				this.memory.finish(report);
+				System.out.print(report.toString());
+				this.memory.close();
+			}
+		}
+	}
+
+	/**
+	 * Waits until serving stopped and the last snapshot was written (returns at
+	 * once if serving did not start)
+	 */
+	public void awaitStopped() {
+		if (!this.started) {
+			return;
+		}
+		try {
+			this.stopped.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stops serving (can be called from any thread)
+	 */
+	public void stop() {
+		this.running = false;
+		if (this.selector != null) {
+			this.selector.wakeup();
+		}
+	}
+
+	/**
+	 * Accepts a connection and sends it the hello message
+	 * 
+	 * @param server
+	 * @throws IOException
+	 */
+	private void accept(ServerSocketChannel server) throws IOException {
+		SocketChannel channel = server.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		DaemonConnection connection = new DaemonConnection(channel);
+		DaemonProtocol.putHello(connection.out(DaemonProtocol.HELLO_LENGTH), this.header.numAttributes(),
+				this.header.classIndex(), this.header.numClasses());
+		SelectionKey key = channel.register(this.selector, SelectionKey.OP_READ, connection);
+		this.send(key, connection);
+	}
+
+	/**
+	 * Reads the available bytes of a connection
+	 * 
+	 * @param key
+	 * @param connection
+	 * @return whether the connection remains open
+	 */
+	private boolean receive(SelectionKey key, DaemonConnection connection) {
+		try {
+			if (connection.read() >= 0) {
+				return true;
+			}
+		} catch (IOException e) {
+			System.err.println("Error reading connection: " + e.getMessage());
+		}
+		key.cancel();
+		connection.close();
+		return false;
+	}
+
+	/**
+	 * Sends the pending bytes of a connection, waiting for the socket to be
+	 * writable if they do not fit
+	 * 
+	 * @param key
+	 * @param connection
+	 */
+	private void send(SelectionKey key, DaemonConnection connection) {
+		try {
+			if (connection.flush()) {
+				key.interestOps(SelectionKey.OP_READ);
+			} else {
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		} catch (IOException e) {
+			System.err.println("Error writing connection: " + e.getMessage());
+			key.cancel();
+			connection.close();
+		}
+	}
+
+	/**
+	 * Decodes the requests of all the connections into micro-batches, processes
+	 * them and sends the responses
+	 */
+	private void processConnections() {
+		boolean pending = true;
+		while (pending) {
+			pending = false;
+			// Take complete requests from every connection, in turns
+			for (SelectionKey key : this.selector.keys()) {
+				if (key.isValid() && key.attachment() != null) {
+					DaemonConnection connection = (DaemonConnection) key.attachment();
+					if (this.decode(key, connection)) {
+						pending = true;
+					}
+				}
+				if (this.batchSize == this.maxBatch) {
+					break;
+				}
+			}
+			this.processBatch();
+		}
+		// Send responses
+		for (SelectionKey key : this.selector.keys()) {
+			if (key.isValid() && key.attachment() != null) {
+				DaemonConnection connection = (DaemonConnection) key.attachment();
+				if (connection.hasPendingOut()) {
+					this.send(key, connection);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Decodes the complete requests of a connection into the micro-batch
+	 * 
+	 * @param key
+	 * @param connection
+	 * @return whether the connection has more complete requests than fit in the
+	 *         micro-batch
+	 */
+	private boolean decode(SelectionKey key, DaemonConnection connection) {
+		ByteBuffer in = connection.flipIn();
+		try {
+			while (in.remaining() >= 4) {
+				int length = in.getInt(in.position());
+				if (length < DaemonProtocol.REQUEST_HEADER
+						|| length > DaemonProtocol.requestSize(DaemonProtocol.MAX_VALUES)) {
+					// Malformed frame, the stream cannot be resynchronized
+					System.err.println("Closing connection that sent a frame of " + length + " bytes");
+					key.cancel();
+					connection.close();
+					in.position(in.limit());
+					return false;
+				}
+				if (in.remaining() < 4 + length) {
+					return false;
+				}
+				if (this.batchSize == this.maxBatch) {
+					return true;
+				}
+				// Decode request
+				in.getInt();
+				byte type = in.get();
+				int id = in.getInt();
+				int numValues = in.getShort() & 0xFFFF;
+				int end = in.position() + length - DaemonProtocol.REQUEST_HEADER;
+				if (numValues != this.header.numAttributes() || end != in.position() + 8 * numValues
+						|| (type != DaemonProtocol.PREDICT && type != DaemonProtocol.TRAIN)) {
+					String message = "Request must be a predict or train of " + this.header.numAttributes() + " values";
+					DaemonProtocol.putError(connection.out(DaemonProtocol.errorSize(message)), type, id, message);
+					this.countErrors++;
+					in.position(end);
+					continue;
+				}
+				int b = this.batchSize++;
+				this.batchConnections[b] = connection;
+				this.batchTypes[b] = type;
+				this.batchIds[b] = id;
+				double[] values = this.batchValues[b];
+				for (int i = 0; i < numValues; i++) {
+					values[i] = in.getDouble();
+				}
+			}
+			return false;
+		} finally {
+			connection.compactIn();
+		}
+	}
+
+	/**
+	 * Processes the requests of the micro-batch, in arrival order
+	 */
+	private void processBatch() {
+		if (this.batchSize == 0) {
+			return;
+		}
+		// Service time of each request, from the end of the previous one
+		long lastTime = System.nanoTime();
+		for (int b = 0; b < this.batchSize; b++) {
+			DaemonConnection connection = this.batchConnections[b];
+			byte type = this.batchTypes[b];
+			try {
+				if (type == DaemonProtocol.PREDICT) {
+					double[] votes = this.predict(this.batchValues[b]);
+					DaemonProtocol.putResponse(connection.out(DaemonProtocol.responseSize(votes.length)), type,
+							this.batchIds[b], votes);
+					this.countPredictions++;
+				} else {
+					this.train(this.batchValues[b]);
+					DaemonProtocol.putResponse(connection.out(DaemonProtocol.responseSize(0)), type,
+							this.batchIds[b], null);
+					this.countTrainings++;
+					// Check if capturing a snapshot
+					if (this.snapshots != null && this.countTrainings % this.snapshotInterval == 0) {
+						this.snapshot();
+					}
+					// Check if sampling memory
+					if (this.memory != null && this.memory.isSample(this.countTrainings)) {
+						this.sampleMemory();
+					}
+				}
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+				String message = "Learner failed: " + e;
+				DaemonProtocol.putError(connection.out(DaemonProtocol.errorSize(message)), type, this.batchIds[b],
+						message);
+				this.countErrors++;
+			}
+			this.batchConnections[b] = null;
+			long time = System.nanoTime();
+			this.metrics.recordService(time - lastTime);
+			lastTime = time;
+		}
+		// Publish live counters
+		this.metrics.publish(this.countPredictions, this.countTrainings, this.countErrors, this.batchSize);
+		this.batchSize = 0;
+	}
+
+	/**
+	 * @param values
+	 *            values of all the attributes (the class is ignored)
+	 * @return votes of the learner for the instance
+	 */
+	public double[] predict(double[] values) {
+		this.setValues(values);
+		return this.learner.getVotesForInstance(this.instance);
+	}
+
+	/**
+	 * @param values
+	 *            values of all the attributes, including the class
+	 */
+	public void train(double[] values) {
+		this.setValues(values);
+		this.learner.trainOnInstance(this.copyOnTrain ? this.instance.copy() : this.instance);
+	}
+
+	/**
+	 * @param values
+	 */
+	private void setValues(double[] values) {
+		for (int i = 0; i < values.length; i++) {
+			this.instance.setValue(i, values[i]);
+		}
+		this.instance.setWeight(1.0);
+	}
+
+}